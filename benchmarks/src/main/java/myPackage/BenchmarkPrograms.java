@@ -0,0 +1,62 @@
+package myPackage;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+
+/**
+ * Locates and loads the example TOY programs used by the benchmarks. The
+ * examples folder defaults to {@code examples} relative to the working
+ * directory, but can be changed with the {@code toy.examples} system property.
+ */
+class BenchmarkPrograms {
+	static final String EXAMPLES_PROPERTY = "toy.examples";
+
+	/**
+	 * Finds the examples folder, checking the parent folder too so benchmarks can
+	 * be run from the {@code benchmarks} module as well as the repository root.
+	 * 
+	 * @return examples folder
+	 * @throws FileNotFoundException if the folder cannot be found
+	 */
+	static File examplesFolder() throws FileNotFoundException {
+		String property = System.getProperty(EXAMPLES_PROPERTY);
+		if (property != null) { // folder was given explicitly
+			return new File(property);
+		}
+
+		for (String candidate : new String[] { "examples", "../examples" }) { // repository root or module folder
+			File folder = new File(candidate);
+			if (folder.isDirectory()) {
+				return folder;
+			}
+		}
+		throw new FileNotFoundException("examples folder not found, set -D" + EXAMPLES_PROPERTY + "=<folder>");
+	}
+
+	/**
+	 * Loads the {@link Line}s of an example program.
+	 * 
+	 * @param name name of the example, without {@code .toy}
+	 * @return parsed lines of the program
+	 * @throws FileNotFoundException if the example cannot be found
+	 */
+	static Line[] loadExample(String name) throws FileNotFoundException {
+		File file = new File(examplesFolder(), name + ".toy");
+		return new TOYFile(file, file.getName()).toProgram().lines;
+	}
+
+	/**
+	 * Generates input for the bubble sort example: the largest N it supports
+	 * (00BF) followed by N words in descending order, so every pair is swapped.
+	 * 
+	 * @return input as a string of hex words
+	 */
+	static String bubbleSortInput() {
+		final int N = 0xBF; // largest array that fits in memory
+		StringBuilder input = new StringBuilder(Instruction.shortToHex((short) N));
+		for (int i = N; i > 0; i--) { // reverse order is the worst case
+			input.append(' ').append(Instruction.shortToHex((short) i));
+		}
+		return input.toString();
+	}
+}
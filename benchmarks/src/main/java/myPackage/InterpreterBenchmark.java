@@ -0,0 +1,172 @@
+package myPackage;
+
+import java.io.FileNotFoundException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how many TOY instructions each execution engine executes per second
+ * on the bundled examples. Each invocation loads a fresh {@link Program}, gives
+ * it its input and runs it until it halts. {@code infinite_loop} never halts, so
+ * it is stopped by a step limit of {@link #LOOP_STEPS}.
+ * <p>
+ * The {@code steps} counter reports steps per second; the primary result is
+ * whole programs per second. {@link #runWithUndoLog(StepCounter)} measures the
+ * cost of logging every step so it can be undone (always interpreted), and
+ * {@link #runWithLoopAccelerator(StepCounter)} how much faster simple counted
+ * loops run with a {@link LoopAccelerator}, and
+ * {@link #runWithCallMemoiser(StepCounter)} how much faster calls to pure
+ * subroutines (e.g. in {@code factorial}) run with a {@link CallMemoiser}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class InterpreterBenchmark {
+	static final long LOOP_STEPS = 1_000_000; // steps before infinite_loop is stopped
+
+	@Param({ "bubble_sort", "fast_multiply", "lfbsr", "graycode", "horners_method", "factorial",
+			"multiply_with_stdinstdout", "infinite_loop" })
+	public String example;
+
+	@Param({ "interpreter", "threaded", "compiler" })
+	public String engine;
+
+	private Line[] lines;
+	private String input;
+	private UndoLog undoLog; // reused, as it is cleared when given to a program
+
+	/**
+	 * Counts the instructions executed, reported by JMH as a rate.
+	 */
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class StepCounter {
+		public long steps;
+
+		/**
+		 * Clears the counter before each iteration.
+		 */
+		@Setup(Level.Iteration)
+		public void clear() {
+			steps = 0;
+		}
+	}
+
+	/**
+	 * Loads the example and picks its input.
+	 * 
+	 * @throws FileNotFoundException if the example cannot be found
+	 */
+	@Setup
+	public void load() throws FileNotFoundException {
+		lines = BenchmarkPrograms.loadExample(example);
+		undoLog = new UndoLog(UndoLog.DEFAULT_CAPACITY);
+		switch (example) {
+		case "bubble_sort":
+			input = BenchmarkPrograms.bubbleSortInput(); // worst case for the largest N
+			break;
+		case "lfbsr":
+			input = "0001 00FF"; // seed and number of bits
+			break;
+		case "graycode":
+			input = "000A"; // number of bits
+			break;
+		case "horners_method":
+			input = "0002 0005 0001 0002 0003 0004 0005 0006"; // x, n, a_n .. a_0
+			break;
+		case "factorial":
+			input = "0007"; // N, the largest that does not overflow
+			break;
+		case "multiply_with_stdinstdout":
+			input = "7FFF 0001"; // a and b, so the loop runs 32767 times
+			break;
+		default: // program takes no input
+			input = "";
+		}
+	}
+
+	/**
+	 * Runs the example once.
+	 * 
+	 * @param counter counter to add the executed steps to
+	 * @return the program, so its state is not optimised away
+	 */
+	@Benchmark
+	public Program run(StepCounter counter) {
+		return run(counter, null, null, null);
+	}
+
+	/**
+	 * Runs the example once with an {@link UndoLog}, as in the GUI.
+	 * 
+	 * @param counter counter to add the executed steps to
+	 * @return the program, so its state is not optimised away
+	 */
+	@Benchmark
+	public Program runWithUndoLog(StepCounter counter) {
+		return run(counter, undoLog, null, null);
+	}
+
+	/**
+	 * Runs the example once with a {@link LoopAccelerator}.
+	 * 
+	 * @param counter counter to add the executed steps to
+	 * @return the program, so its state is not optimised away
+	 */
+	@Benchmark
+	public Program runWithLoopAccelerator(StepCounter counter) {
+		return run(counter, null, new LoopAccelerator(), null);
+	}
+
+	/**
+	 * Runs the example once with a {@link CallMemoiser}.
+	 * 
+	 * @param counter counter to add the executed steps to
+	 * @return the program, so its state is not optimised away
+	 */
+	@Benchmark
+	public Program runWithCallMemoiser(StepCounter counter) {
+		return run(counter, null, null, new CallMemoiser());
+	}
+
+	/**
+	 * Runs the example once.
+	 * 
+	 * @param counter     counter to add the executed steps to
+	 * @param undoLog     undo log to give the program, or {@code null}
+	 * @param accelerator loop accelerator to give the program, or {@code null}
+	 * @param memoiser    call memoiser to give the program, or {@code null}
+	 * @return the program
+	 */
+	private Program run(StepCounter counter, UndoLog undoLog, LoopAccelerator accelerator, CallMemoiser memoiser) {
+		Program program = new Program(lines);
+		program.loadToMemory(); // load program to memory
+		program.setUndoLog(undoLog);
+		program.setLoopAccelerator(accelerator);
+		program.setCallMemoiser(memoiser);
+		program.setEngine(Program.engineNamed(engine));
+		Instruction.inputToStdin(input, program); // load input to stdin
+		if (example.equals("infinite_loop")) { // stop the loop after a fixed number of steps
+			program.setLimits(ExecutionLimits.NONE.withMaxSteps(LOOP_STEPS));
+		}
+		program.run(); // run until it halts or reaches the step limit
+		counter.steps += program.getSteps();
+		return program;
+	}
+}
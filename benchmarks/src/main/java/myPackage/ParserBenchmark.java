@@ -0,0 +1,165 @@
+package myPackage;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures parse throughput on a large generated TOY file of {@link #LINES}
+ * lines, a mix of instructions with and without comments and comment-only
+ * lines. Results are lines per second, except {@link #inputToStdin()} which is
+ * words per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParserBenchmark {
+	static final int LINES = 0x1000; // lines in the generated file (4096)
+	static final int INPUT_WORDS = 0x1000; // words in the generated input
+
+	private File file;
+	private TOYFile toyFile;
+	private RawLine[] rawLines;
+	private String[] contents;
+	private String input;
+
+	/**
+	 * Generates the file and input. Uses a fixed seed so every run parses the same
+	 * text.
+	 * 
+	 * @throws IOException if the file cannot be written
+	 */
+	@Setup
+	public void generate() throws IOException {
+		Random random = new Random(0x70E);
+		file = File.createTempFile("benchmark", ".toy");
+
+		try (PrintWriter writer = new PrintWriter(file, "UTF-8")) {
+			for (int i = 0; i < LINES; i++) {
+				String address = TOYFile.lineNumberToHex(i & 0xFF);
+				String word = Instruction.shortToHex((short) random.nextInt(0x10000));
+				switch (i % 4) {
+				case 0: // comment-only line
+					writer.println("// comment line " + i);
+					break;
+				case 1: // bare instruction
+					writer.println(address + ": " + word);
+					break;
+				default: // instruction with generated comment
+					writer.println(address + ": " + word + "   " + Instruction.fromWord(Instruction.hexToShort(word))
+							.generateComment());
+				}
+			}
+		}
+		toyFile = new TOYFile(file, file.getName());
+		rawLines = toyFile.contents;
+		contents = new String[rawLines.length];
+		for (int i = 0; i < rawLines.length; i++) {
+			contents[i] = rawLines[i].getContent();
+		}
+
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < INPUT_WORDS; i++) {
+			builder.append(Instruction.shortToHex((short) random.nextInt(0x10000))).append(i % 8 == 7 ? '\n' : ' ');
+		}
+		input = builder.toString();
+	}
+
+	/**
+	 * Deletes the generated file.
+	 */
+	@TearDown
+	public void delete() {
+		file.delete();
+	}
+
+	/**
+	 * Checks every line with {@link RawLine#isValid()}. Lines cache what they
+	 * parse, so new {@code RawLine}s are made every time.
+	 * 
+	 * @param blackhole sink for results
+	 */
+	@Benchmark
+	@OperationsPerInvocation(LINES)
+	public void isValid(Blackhole blackhole) {
+		for (String content : contents) {
+			blackhole.consume(new RawLine(content).isValid());
+		}
+	}
+
+	/**
+	 * Checks every line and converts the valid ones with {@link RawLine#toLine()}.
+	 * Lines cache what they parse, so new {@code RawLine}s are made every time.
+	 * 
+	 * @param blackhole sink for results
+	 */
+	@Benchmark
+	@OperationsPerInvocation(LINES)
+	public void toLine(Blackhole blackhole) {
+		for (String content : contents) {
+			RawLine rawLine = new RawLine(content);
+			if (rawLine.isValid()) {
+				blackhole.consume(rawLine.toLine());
+			}
+		}
+	}
+
+	/**
+	 * Reads the file from disk and converts it to a {@link Program}.
+	 * 
+	 * @return parsed program
+	 * @throws FileNotFoundException if the file has been deleted
+	 */
+	@Benchmark
+	@OperationsPerInvocation(LINES)
+	public Program loadFile() throws FileNotFoundException {
+		return new TOYFile(file, file.getName()).toProgram();
+	}
+
+	/**
+	 * Formats every line with {@link TOYFile#format()}. Formatting replaces the
+	 * contents of the file, so the unformatted lines are put back first.
+	 * 
+	 * @return formatted file
+	 */
+	@Benchmark
+	@OperationsPerInvocation(LINES)
+	public TOYFile format() {
+		toyFile.contents = rawLines; // format unformatted lines every time
+		return toyFile.format();
+	}
+
+	/**
+	 * Splits the generated input into words with
+	 * {@link Instruction#inputToStdin(String, Program)}.
+	 * 
+	 * @return program holding the input
+	 */
+	@Benchmark
+	@OperationsPerInvocation(INPUT_WORDS)
+	public Program inputToStdin() {
+		Program program = new Program(new Line[0]);
+		Instruction.inputToStdin(input, program);
+		return program;
+	}
+}
@@ -0,0 +1,152 @@
+package myPackage;
+
+/**
+ * The breakpoints and watchpoints of a {@link Program}, used to stop it at a
+ * point while it is running. A <b>breakpoint</b> stops the program before it
+ * executes the instruction at an address, and a <b>watchpoint</b> stops it once
+ * it has written to a memory address or register.
+ * <p>
+ * Each is kept as a bitmap with one flag per address or register, so the
+ * interpreter checks for a breakpoint with a single array lookup per step.
+ * Memory watchpoints are only checked after a {@linkplain Instruction#STORE
+ * store} or {@linkplain Instruction#STORE_INDIRECT store indirect}, as no other
+ * instruction writes to memory (other than reading stdin to M[FF]), and register
+ * watchpoints only after an instruction that writes to R[d].
+ * <p>
+ * Compiled code cannot stop in the middle of a batch of steps, so programs are
+ * always interpreted while they have any breakpoints or watchpoints.
+ *
+ * @see Program#setBreakpoints(Breakpoints)
+ */
+class Breakpoints {
+	private static final int REGISTERS_SIZE = 0x10; // 16
+	private static final int MEMORY_SIZE = 0x100; // 256
+	final boolean[] addresses; // whether there is a breakpoint at each memory address
+	private final boolean[] watchedMemory, watchedRegisters;
+	private int count; // breakpoints and watchpoints set
+
+	/**
+	 * Constructs a new {@code Breakpoints} without any breakpoints or
+	 * watchpoints.
+	 */
+	Breakpoints() {
+		addresses = new boolean[MEMORY_SIZE];
+		watchedMemory = new boolean[MEMORY_SIZE];
+		watchedRegisters = new boolean[REGISTERS_SIZE];
+	}
+
+	/**
+	 * Sets or clears a flag in a bitmap, keeping {@link #count} up to date.
+	 *
+	 * @param flags bitmap to change
+	 * @param index index of the flag
+	 * @param set   whether the flag should be set
+	 */
+	private void set(boolean[] flags, int index, boolean set) {
+		if (flags[index] != set) {
+			flags[index] = set;
+			count += set ? 1 : -1;
+		}
+	}
+
+	/**
+	 * Sets or clears a breakpoint at a memory address.
+	 *
+	 * @param address address of the instruction to stop before
+	 * @param set     whether there should be a breakpoint
+	 */
+	void setBreakpoint(int address, boolean set) {
+		set(addresses, address, set);
+	}
+
+	/**
+	 * Sets or clears a watchpoint on a memory address.
+	 *
+	 * @param address address to stop after writing to
+	 * @param set     whether there should be a watchpoint
+	 */
+	void setMemoryWatch(int address, boolean set) {
+		set(watchedMemory, address, set);
+	}
+
+	/**
+	 * Sets or clears a watchpoint on a register.
+	 *
+	 * @param index index of the register to stop after writing to
+	 * @param set   whether there should be a watchpoint
+	 */
+	void setRegisterWatch(int index, boolean set) {
+		set(watchedRegisters, index, set);
+	}
+
+	/**
+	 * Checks whether there is a breakpoint at a memory address.
+	 *
+	 * @param address address to check
+	 * @return whether there is a breakpoint
+	 */
+	boolean hasBreakpoint(int address) {
+		return addresses[address];
+	}
+
+	/**
+	 * Checks whether there is a watchpoint on a memory address.
+	 *
+	 * @param address address to check
+	 * @return whether there is a watchpoint
+	 */
+	boolean isMemoryWatched(int address) {
+		return watchedMemory[address];
+	}
+
+	/**
+	 * Checks whether there is a watchpoint on a register.
+	 *
+	 * @param index index of the register to check
+	 * @return whether there is a watchpoint
+	 */
+	boolean isRegisterWatched(int index) {
+		return watchedRegisters[index];
+	}
+
+	/**
+	 * Checks whether there are no breakpoints or watchpoints at all, in which case
+	 * the program can be compiled.
+	 *
+	 * @return {@code true} if nothing is set
+	 */
+	boolean isEmpty() {
+		return count == 0;
+	}
+
+	/**
+	 * Checks whether an instruction a program has just executed wrote to a
+	 * watched memory address or register.
+	 *
+	 * @param program     program that executed the instruction
+	 * @param instruction instruction executed
+	 * @return description of the watchpoint hit, or {@code null} if there was
+	 *         none
+	 */
+	String watchHit(Program program, Instruction instruction) {
+		int address;
+		switch (instruction.opcode) {
+		case Instruction.STORE:
+			address = instruction.addr;
+			break;
+		case Instruction.STORE_INDIRECT:
+			address = program.registers[instruction.t]; // R[t] is not changed by storing
+			break;
+		default:
+			address = -1; // instruction does not write to memory
+		}
+		if (address >= 0 && watchedMemory[address]) {
+			return "Watched M[" + String.format("%02X", address) + "] was written";
+		}
+
+		if (instruction.changesD && watchedRegisters[instruction.d]) {
+			return "Watched R[" + Integer.toHexString(instruction.d).toUpperCase() + "] was written";
+		}
+		return null;
+	}
+}
@@ -0,0 +1,576 @@
+package myPackage;
+
+import java.util.Arrays;
+
+/**
+ * Skips calls to pure subroutines by remembering what they returned. A
+ * subroutine is the code reached from the target of a jump and link (F) until it
+ * jumps back to the link register (E), like {@code multiply} in
+ * {@code fast_multiply_function.toy}. It is pure if it only does arithmetic,
+ * loads constants (7) and branches, never reading or writing memory, stdin or
+ * stdout, halting or calling anything else, and never changes its link
+ * register. Its inputs are the registers it may read before writing them, and
+ * its outputs those it writes.
+ * <p>
+ * Each call to a pure subroutine with at most {@value #MAX_INPUTS} inputs is
+ * looked up by the values of its inputs, packed into a {@code long}, in a
+ * {@linkplain ResultCache cache} of the last {@value #CACHE_SIZE} calls to that
+ * subroutine. If the call has
+ * been made before, the outputs, return and step count are applied at once.
+ * Otherwise the subroutine is evaluated on a copy of the registers, without
+ * going through the interpreter, and remembered. If the evaluation would
+ * overflow, shift too far or take more than {@value #MAX_STEPS} steps, the call
+ * is left to the interpreter, so errors happen at exactly the same step.
+ * <p>
+ * Subroutines are analysed the first time they are called, and again after any
+ * address they were analysed from is stored to.
+ *
+ * @see Program#setCallMemoiser(CallMemoiser)
+ */
+class CallMemoiser {
+	private static final int MEMORY_SIZE = 0x100; // 256
+	private static final int INPUT_OUTPUT_ADDRESS = 0xFF; // M[FF] is stdin and stdout
+	private static final int NO_OP = 0x1000; // only instruction allowed to change R[0]
+	static final int MAX_INPUTS = 4; // most input registers, so they fit in a long
+	static final int CACHE_SIZE = 0x100; // calls remembered for each subroutine (256)
+	static final int MAX_STEPS = 0x10000; // most steps evaluated for one call (65536)
+	private static final Subroutine NOT_PURE = new Subroutine(0, 0, null, new int[0]); // cached for others
+	private final Subroutine[] subroutines = new Subroutine[MEMORY_SIZE]; // subroutine at each address, if analysed
+	private final boolean[] covered = new boolean[MEMORY_SIZE]; // whether a subroutine was analysed along each address
+
+	/**
+	 * Runs the whole of the call at a program's program counter at once, if it
+	 * is a call to a pure subroutine that can be memoised.
+	 *
+	 * @param program program to run
+	 * @param budget  most steps to run
+	 * @return steps run, from the call up to and including the return, or
+	 *         {@code 0} if nothing was run
+	 */
+	long run(Program program, long budget) {
+		int address = program.programCounter;
+		if (address < 0 || address >= INPUT_OUTPUT_ADDRESS) { // interpreter reports it
+			return 0;
+		}
+		Instruction call = program.getInstruction(address);
+		if (call == null || call.opcode != Instruction.JUMP_AND_LINK || call.d == 0) { // not a call, or throws
+			return 0;
+		}
+		Subroutine subroutine = find(program, call);
+		return subroutine == NOT_PURE ? 0 : subroutine.call(program, address + 1, budget);
+	}
+
+	/**
+	 * Checks whether an instruction is a call to a subroutine that can be
+	 * memoised, analysing the subroutine if it has not been analysed yet.
+	 *
+	 * @param program     program to look in
+	 * @param instruction instruction that may be a call
+	 * @return {@code true} if {@link #run(Program, long)} may run the call
+	 */
+	boolean isMemoised(Program program, Instruction instruction) {
+		return instruction.opcode == Instruction.JUMP_AND_LINK && instruction.d != 0
+				&& find(program, instruction) != NOT_PURE;
+	}
+
+	/**
+	 * Forgets the subroutines analysed along an address, after it has been stored
+	 * to.
+	 *
+	 * @param address address that has changed
+	 */
+	void invalidate(int address) {
+		if (covered[address]) { // a subroutine may have changed
+			clear();
+		}
+	}
+
+	/**
+	 * Forgets every subroutine and call remembered, e.g. after the whole of
+	 * memory has changed.
+	 */
+	void clear() {
+		Arrays.fill(subroutines, null);
+		Arrays.fill(covered, false);
+	}
+
+	/**
+	 * Gets the subroutine a call jumps to, analysing it if it has not been
+	 * analysed for the same link register since last stored to.
+	 *
+	 * @param program program to look in
+	 * @param call    jump and link instruction
+	 * @return subroutine, or {@link #NOT_PURE} if it cannot be memoised
+	 */
+	private Subroutine find(Program program, Instruction call) {
+		Subroutine subroutine = subroutines[call.addr];
+		if (subroutine == null || subroutine != NOT_PURE && subroutine.link != call.d) { // returns through another
+			subroutine = analyse(program, call.addr, call.d);
+			subroutines[call.addr] = subroutine;
+		}
+		return subroutine;
+	}
+
+	/**
+	 * Works out which instructions a subroutine can reach, checking that they are
+	 * pure, and which registers it reads before writing them.
+	 *
+	 * @param program program to look in
+	 * @param entry   address of the first instruction of the subroutine
+	 * @param link    register holding the address to return to
+	 * @return subroutine, or {@link #NOT_PURE} if it cannot be memoised
+	 */
+	private Subroutine analyse(Program program, int entry, int link) {
+		Instruction[] code = new Instruction[MEMORY_SIZE]; // instructions reached, by address
+		int[] uses = new int[MEMORY_SIZE], definitions = new int[MEMORY_SIZE]; // bitmaps of registers
+		int[] stack = new int[MEMORY_SIZE], reached = new int[MEMORY_SIZE]; // addresses to visit, and visited
+		int size = 0, count = 0;
+		stack[size++] = entry;
+		while (size > 0) { // visit every address reachable from the entry
+			int address = stack[--size];
+			if (address >= INPUT_OUTPUT_ADDRESS) { // stdio, or past the end of memory
+				return NOT_PURE;
+			}
+			if (code[address] != null) { // already visited
+				continue;
+			}
+			covered[address] = true; // storing here might change whether the subroutine is pure
+			Instruction instruction = program.getInstruction(address);
+			if (instruction == null) { // uninitialised
+				return NOT_PURE;
+			}
+			code[address] = instruction;
+			reached[count++] = address;
+
+			switch (instruction.opcode) {
+			case Instruction.ADD:
+			case Instruction.SUBTRACT:
+			case Instruction.AND:
+			case Instruction.XOR:
+			case Instruction.LEFT_SHIFT:
+			case Instruction.RIGHT_SHIFT:
+				if (instruction.word == NO_OP) { // changes nothing
+					stack[size++] = address + 1;
+					break;
+				}
+				if (instruction.d == 0 || instruction.d == link) { // throws, or changes where it returns to
+					return NOT_PURE;
+				}
+				uses[address] = 1 << instruction.s | 1 << instruction.t;
+				definitions[address] = 1 << instruction.d;
+				stack[size++] = address + 1;
+				break;
+			case Instruction.LOAD_ADDRESS:
+				if (instruction.d == 0 || instruction.d == link) {
+					return NOT_PURE;
+				}
+				definitions[address] = 1 << instruction.d;
+				stack[size++] = address + 1;
+				break;
+			case Instruction.BRANCH_ZERO:
+			case Instruction.BRANCH_POSITIVE:
+				uses[address] = 1 << instruction.d;
+				if (instruction.d != 0 || instruction.opcode == Instruction.BRANCH_ZERO) { // may be taken
+					stack[size++] = instruction.addr;
+				}
+				if (instruction.d != 0 || instruction.opcode == Instruction.BRANCH_POSITIVE) { // may not be
+					stack[size++] = address + 1;
+				}
+				break;
+			case Instruction.JUMP_REGISTER:
+				if (instruction.d != link) { // jumps somewhere other than back
+					return NOT_PURE;
+				}
+				break;
+			default: // reads or writes memory, halts, or calls another subroutine
+				return NOT_PURE;
+			}
+		}
+
+		int[] live = new int[MEMORY_SIZE]; // registers that may be read before being written, at each address
+		boolean changed = true;
+		while (changed) { // iterate until no more registers are found to be live
+			changed = false;
+			for (int i = count - 1; i >= 0; i--) { // mostly backwards, so fewer passes are needed
+				int address = reached[i];
+				Instruction instruction = code[address];
+				int after = 0; // registers live after the instruction
+				if (instruction.opcode == Instruction.BRANCH_ZERO
+						|| instruction.opcode == Instruction.BRANCH_POSITIVE) {
+					if (instruction.d != 0 || instruction.opcode == Instruction.BRANCH_ZERO) {
+						after |= live[instruction.addr];
+					}
+					if (instruction.d != 0 || instruction.opcode == Instruction.BRANCH_POSITIVE) {
+						after |= live[address + 1];
+					}
+				} else if (instruction.opcode != Instruction.JUMP_REGISTER) { // nothing is live after returning
+					after = live[address + 1];
+				}
+				int before = uses[address] | after & ~definitions[address];
+				if (before != live[address]) {
+					live[address] = before;
+					changed = true;
+				}
+			}
+		}
+
+		int inputs = live[entry] & ~1; // R[0] is always 0
+		if (Integer.bitCount(inputs) > MAX_INPUTS) { // too many to use as a key
+			return NOT_PURE;
+		}
+		int[] inputRegisters = new int[Integer.bitCount(inputs)];
+		for (int register = 0, i = 0; register < 0x10; register++) {
+			if ((inputs & 1 << register) != 0) {
+				inputRegisters[i++] = register;
+			}
+		}
+		return new Subroutine(entry, link, code, inputRegisters);
+	}
+
+	/**
+	 * A pure subroutine and the calls to it that have been made recently.
+	 */
+	private static final class Subroutine {
+		final int entry, link; // address of the first instruction, and register holding the return address
+		final Instruction[] code; // instructions of the subroutine, by address
+		final int[] inputs; // registers read before being written
+		final ResultCache results = new ResultCache(); // recent calls, by their packed inputs
+
+		/**
+		 * Constructs a new {@code Subroutine}.
+		 *
+		 * @param entry  address of the first instruction
+		 * @param link   register holding the address to return to
+		 * @param code   instructions of the subroutine, by address
+		 * @param inputs registers read before being written
+		 */
+		Subroutine(int entry, int link, Instruction[] code, int[] inputs) {
+			this.entry = entry;
+			this.link = link;
+			this.code = code;
+			this.inputs = inputs;
+		}
+
+		/**
+		 * Makes a call to the subroutine, using a remembered result if the call has
+		 * been made before with the same inputs.
+		 *
+		 * @param program       program making the call, at the call
+		 * @param returnAddress address after the call
+		 * @param budget        most steps to run
+		 * @return steps run, or {@code 0} if the interpreter should make the call
+		 */
+		long call(Program program, int returnAddress, long budget) {
+			short[] registers = program.registers;
+			boolean[] initialised = program.registersInitialised;
+			long key = 0;
+			for (int register : inputs) {
+				if (register == link) { // set by the call itself
+					key = key << 16 | returnAddress;
+				} else if (!initialised[register]) { // interpreter throws
+					return 0;
+				} else {
+					key = key << 16 | registers[register] & 0xFFFF;
+				}
+			}
+
+			Result result = results.get(key);
+			if (result == null) { // not called with these inputs recently
+				result = evaluate(registers, returnAddress);
+				if (result == null) { // throws or takes too long
+					return 0;
+				}
+				results.put(key, result);
+			}
+			long steps = result.steps + 1; // including the call
+			if (steps > budget) { // interpreter stops at the limit
+				return 0;
+			}
+
+			program.setRegister(link, (short) returnAddress); // R[link] <- PC
+			for (int register = 0, i = 0; register < 0x10; register++) {
+				if ((result.outputs & 1 << register) != 0) {
+					program.setRegister(register, result.values[i++]);
+				}
+			}
+			program.programCounter = (short) returnAddress; // PC <- R[link]
+			return steps;
+		}
+
+		/**
+		 * Evaluates the subroutine on a copy of the registers, as the interpreter
+		 * would execute it.
+		 *
+		 * @param registers     registers at the call
+		 * @param returnAddress address after the call, which the call puts in the
+		 *                      link register
+		 * @return registers written and the steps taken, or {@code null} if the
+		 *         interpreter would throw an exception or it takes more than
+		 *         {@value #MAX_STEPS} steps
+		 */
+		Result evaluate(short[] registers, int returnAddress) {
+			short[] values = registers.clone();
+			values[0] = 0; // as the interpreter resets it
+			values[link] = (short) returnAddress;
+			int outputs = 0; // registers written
+			int pc = entry;
+			for (int steps = 1; steps <= MAX_STEPS; steps++) {
+				Instruction instruction = code[pc];
+				int d = instruction.d, result;
+				short s = values[instruction.s], t = values[instruction.t];
+				switch (instruction.opcode) {
+				case Instruction.ADD:
+					result = s + t;
+					break;
+				case Instruction.SUBTRACT:
+					result = s - t;
+					break;
+				case Instruction.AND:
+					result = s & t;
+					break;
+				case Instruction.XOR:
+					result = s ^ t;
+					break;
+				case Instruction.LEFT_SHIFT:
+					if ((t & ~0xF) != 0) { // interpreter throws
+						return null;
+					}
+					result = (short) (s << t);
+					break;
+				case Instruction.RIGHT_SHIFT:
+					if ((t & ~0xF) != 0) {
+						return null;
+					}
+					result = (short) (s >> t);
+					break;
+				case Instruction.LOAD_ADDRESS:
+					result = instruction.addr;
+					break;
+				case Instruction.BRANCH_ZERO:
+					pc = values[d] == 0 ? instruction.addr : pc + 1;
+					continue;
+				case Instruction.BRANCH_POSITIVE:
+					pc = values[d] > 0 ? instruction.addr : pc + 1;
+					continue;
+				default: // return
+					return new Result(values, outputs, steps);
+				}
+				if (result != (short) result) { // interpreter throws on overflow
+					return null;
+				}
+				if (instruction.word != NO_OP) {
+					values[d] = (short) result;
+					outputs |= 1 << d;
+				}
+				pc++;
+			}
+			return null; // may never return
+		}
+	}
+
+	/**
+	 * The results of the last {@value #CACHE_SIZE} calls to a subroutine, looked
+	 * up by their packed inputs. Keys are kept in an open-addressing hash table of
+	 * slot numbers, twice as large as the number of slots so probes are short,
+	 * with linear probing, so looking up a call neither boxes its key nor
+	 * allocates. The slots are linked in the order they were last used, and once
+	 * {@value #CACHE_SIZE} are full the least recently used is reused. The cache
+	 * starts small and doubles as it fills, so a subroutine called only a few
+	 * times costs little to set up.
+	 */
+	private static final class ResultCache {
+		private static final int INITIAL_SLOTS = 0x10; // slots before the cache first grows (16)
+		private static final int EMPTY = -1; // no slot
+		private int[] table; // slot holding each key, or EMPTY, by hash
+		private int tableBits; // log2 of the table size
+		private long[] keys; // key in each slot
+		private Result[] results; // result in each slot
+		private int[] newer, older; // next slot used more and less recently, or EMPTY
+		private int size, newest = EMPTY, oldest = EMPTY; // slots used, and ends of the order they were used in
+
+		/**
+		 * Constructs a new, empty {@code ResultCache}.
+		 */
+		ResultCache() {
+			keys = new long[INITIAL_SLOTS];
+			results = new Result[INITIAL_SLOTS];
+			newer = new int[INITIAL_SLOTS];
+			older = new int[INITIAL_SLOTS];
+			rehash(Integer.numberOfTrailingZeros(INITIAL_SLOTS) + 1);
+		}
+
+		/**
+		 * Gets the result of a call, marking it as the most recently used.
+		 *
+		 * @param key packed inputs of the call
+		 * @return result, or {@code null} if it is not cached
+		 */
+		Result get(long key) {
+			int mask = table.length - 1;
+			for (int i = hash(key); table[i] != EMPTY; i = i + 1 & mask) {
+				int slot = table[i];
+				if (keys[slot] == key) {
+					if (slot != newest) {
+						unlink(slot);
+						link(slot);
+					}
+					return results[slot];
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Caches the result of a call that is not cached yet, forgetting the least
+		 * recently used call if the cache is full.
+		 *
+		 * @param key    packed inputs of the call
+		 * @param result result of the call
+		 */
+		void put(long key, Result result) {
+			if (size == keys.length && size < CACHE_SIZE) { // every slot is used, but it may grow
+				int slots = size * 2;
+				keys = Arrays.copyOf(keys, slots);
+				results = Arrays.copyOf(results, slots);
+				newer = Arrays.copyOf(newer, slots);
+				older = Arrays.copyOf(older, slots);
+				rehash(tableBits + 1);
+			}
+			int slot;
+			if (size < keys.length) {
+				slot = size++;
+			} else { // reuse the least recently used slot
+				slot = oldest;
+				remove(keys[slot]);
+				unlink(slot);
+			}
+			keys[slot] = key;
+			results[slot] = result;
+			insert(slot);
+			link(slot);
+		}
+
+		/**
+		 * Makes a new, empty hash table, and adds the key in every slot used to it.
+		 *
+		 * @param bits log2 of the new table size
+		 */
+		private void rehash(int bits) {
+			tableBits = bits;
+			table = new int[1 << bits];
+			Arrays.fill(table, EMPTY);
+			for (int slot = 0; slot < size; slot++) {
+				insert(slot);
+			}
+		}
+
+		/**
+		 * Adds the key in a slot to the hash table, at the first free index from
+		 * its hash.
+		 *
+		 * @param slot slot holding the key
+		 */
+		private void insert(int slot) {
+			int mask = table.length - 1, i = hash(keys[slot]);
+			while (table[i] != EMPTY) {
+				i = i + 1 & mask;
+			}
+			table[i] = slot;
+		}
+
+		/**
+		 * Removes a key from the hash table, moving back any keys after it that
+		 * would no longer be found past the gap.
+		 *
+		 * @param key key to remove, which must be in the table
+		 */
+		private void remove(long key) {
+			int mask = table.length - 1, gap = hash(key);
+			while (keys[table[gap]] != key) {
+				gap = gap + 1 & mask;
+			}
+			table[gap] = EMPTY;
+			for (int i = gap + 1 & mask; table[i] != EMPTY; i = i + 1 & mask) {
+				int home = hash(keys[table[i]]);
+				if ((i - home & mask) >= (i - gap & mask)) { // gap is between its hash and it
+					table[gap] = table[i];
+					table[i] = EMPTY;
+					gap = i;
+				}
+			}
+		}
+
+		/**
+		 * Links a slot in as the most recently used.
+		 *
+		 * @param slot slot that is not linked
+		 */
+		private void link(int slot) {
+			older[slot] = newest;
+			newer[slot] = EMPTY;
+			if (newest != EMPTY) {
+				newer[newest] = slot;
+			} else {
+				oldest = slot;
+			}
+			newest = slot;
+		}
+
+		/**
+		 * Unlinks a slot from the order slots were used in.
+		 *
+		 * @param slot slot that is linked
+		 */
+		private void unlink(int slot) {
+			if (older[slot] != EMPTY) {
+				newer[older[slot]] = newer[slot];
+			} else {
+				oldest = newer[slot];
+			}
+			if (newer[slot] != EMPTY) {
+				older[newer[slot]] = older[slot];
+			} else {
+				newest = older[slot];
+			}
+		}
+
+		/**
+		 * Hashes a key to an index in the table, mixing the bits of every input
+		 * into the top bits.
+		 *
+		 * @param key packed inputs of a call
+		 * @return index in {@link #table}
+		 */
+		private int hash(long key) {
+			return (int) (key * 0x9E3779B97F4A7C15L >>> 64 - tableBits); // Fibonacci hashing
+		}
+	}
+
+	/**
+	 * What a call to a subroutine did: the registers it wrote and the steps it
+	 * took.
+	 */
+	private static final class Result {
+		final int outputs; // bitmap of registers written
+		final short[] values; // values of the registers written, in order
+		final int steps; // steps from the first instruction up to and including the return
+
+		/**
+		 * Constructs a new {@code Result}, keeping only the registers written.
+		 *
+		 * @param registers registers after the call
+		 * @param outputs   bitmap of registers written
+		 * @param steps     steps taken, including the return
+		 */
+		Result(short[] registers, int outputs, int steps) {
+			this.outputs = outputs;
+			this.steps = steps;
+			values = new short[Integer.bitCount(outputs)];
+			for (int register = 0, i = 0; register < 0x10; register++) {
+				if ((outputs & 1 << register) != 0) {
+					values[i++] = registers[register];
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,297 @@
+package myPackage;
+
+import java.util.Arrays;
+
+/**
+ * Control-flow graph of the memory of a {@link Program}: which addresses hold
+ * code reachable from given roots (e.g. the entry point), how that code splits
+ * into basic blocks, and which addresses hold data. A basic block is a run of
+ * instructions entered only at the top, split at the targets of C, D and F,
+ * after every C, D, F and E, and after anything that does not carry on to the
+ * next address.
+ * <p>
+ * Edges are followed statically. C and D may go either way, except that C with
+ * R[0] always jumps and D with R[0] never does, and a call (F) is assumed to
+ * return to the address after it. The target of a jump to a register (E) is
+ * only known at run time, so it is resolved on a best-effort basis: if the
+ * register was set by a 7 earlier in the same straight run of instructions (one
+ * that nothing jumps into part way), the jump goes to that constant (e.g. a
+ * computed jump), and otherwise it is taken to return to every call that links
+ * through the same register. If no call does, the jump may go anywhere, so no
+ * address is unreachable. Instructions that always throw (e.g. anything but
+ * {@code 1000} changing R[0]) have no successors.
+ * <p>
+ * Addresses read or written by a reachable 8 or 9, or by an A or B whose
+ * address register was set by a 7 in the same way (or is R[0]), are data, along
+ * with any initialised addresses following them up to the next code or
+ * uninitialised address (e.g. the rest of an array). An A or B whose address is
+ * not known may read or write anywhere, so then no address is unreachable.
+ * Otherwise, initialised addresses that are neither reachable code nor data are
+ * {@link #unreachable}, e.g. dead code after a halt or a subroutine that is
+ * never called. The graph is built over fixed-size arrays, usually in one pass,
+ * taking a few microseconds.
+ *
+ * @see Program#controlFlowGraph()
+ */
+class ControlFlowGraph {
+	private static final int MEMORY_SIZE = 0x100; // 256
+	private static final int LAST_ADDRESS = 0xFE; // FF is stdin/stdout, so never holds code
+	private static final int NO_OP = 0x1000; // only instruction allowed to change R[0]
+	private static final int NONE = -1; // no target
+	final Instruction[] instructions = new Instruction[MEMORY_SIZE]; // decoded instruction at each code address
+	final boolean[] code = new boolean[MEMORY_SIZE]; // reachable from a root
+	final boolean[] leader = new boolean[MEMORY_SIZE]; // first address of a basic block
+	final boolean[] data = new boolean[MEMORY_SIZE]; // read or written by reachable code
+	final boolean[] unreachable = new boolean[MEMORY_SIZE]; // initialised, but neither code nor data
+	private final int[] targets = new int[MEMORY_SIZE]; // where each branch, call or resolved E may jump to
+	private final boolean[] fallsThrough = new boolean[MEMORY_SIZE]; // may carry on to the next address
+	private final int[] loads = new int[MEMORY_SIZE]; // address of the 7 that set the register each E, A and B uses
+
+	/**
+	 * Constructs a new {@code ControlFlowGraph} of a memory image, following every
+	 * static edge from the roots.
+	 *
+	 * @param memory      words in memory
+	 * @param initialised whether each address in memory is initialised
+	 * @param roots       addresses that execution may start from
+	 */
+	ControlFlowGraph(short[] memory, boolean[] initialised, boolean[] roots) {
+		boolean[] unresolved = new boolean[MEMORY_SIZE]; // E, A and B whose register turned out not to be constant
+		while (!follow(memory, initialised, roots, unresolved)) {
+			// a register was set on a path entered part way, so follow the edges again without it
+		}
+
+		int links = 0; // bitmap of registers that reachable calls link through
+		for (int address = 0; address <= LAST_ADDRESS; address++) {
+			if (code[address] && instructions[address].opcode == Instruction.JUMP_AND_LINK && fallsThrough[address]) {
+				links |= 1 << instructions[address].d;
+			}
+		}
+		boolean anywhere = false; // whether a reachable E, A or B may use an address that is not known
+		for (int address = 0; address < MEMORY_SIZE; address++) {
+			if (code[address] && (address == 0 || !code[address - 1] || !fallsThrough[address - 1]
+					|| targets[address - 1] != NONE)) { // nothing falls straight through into it
+				leader[address] = true;
+			}
+			if (address > 0 && data[address - 1] && initialised[address] && !code[address]) { // rest of the data
+				data[address] = true;
+			}
+			if (code[address] && instructions[address].opcode == Instruction.JUMP_REGISTER
+					&& targets[address] == NONE && (links & 1 << instructions[address].d) == 0) { // not a return
+				anywhere = true;
+			}
+			if (code[address] && (instructions[address].opcode == Instruction.LOAD_INDIRECT
+					|| instructions[address].opcode == Instruction.STORE_INDIRECT) && instructions[address].t != 0
+					&& loads[address] == NONE) { // reads or writes an address that is not known
+				anywhere = true;
+			}
+		}
+		for (int address = 0; address <= LAST_ADDRESS; address++) {
+			unreachable[address] = initialised[address] && !code[address] && !data[address] && !anywhere;
+		}
+	}
+
+	/**
+	 * Follows every static edge from the roots, marking the code reached and the
+	 * data it uses. A register set by a 7 is only taken to be constant if
+	 * nothing jumps into the run of instructions between the 7 and its use, which
+	 * is only known once every edge has been followed. So once they have been,
+	 * each use of a constant is checked, and any that were wrong are marked so
+	 * they are not used next time.
+	 *
+	 * @param memory      words in memory
+	 * @param initialised whether each address in memory is initialised
+	 * @param roots       addresses that execution may start from
+	 * @param unresolved  addresses of E, A and B not to resolve the register of,
+	 *                    added to if any were resolved wrongly
+	 * @return {@code true} if every register resolved was constant, or
+	 *         {@code false} if the edges need to be followed again
+	 */
+	private boolean follow(short[] memory, boolean[] initialised, boolean[] roots, boolean[] unresolved) {
+		Arrays.fill(instructions, null);
+		Arrays.fill(code, false);
+		Arrays.fill(leader, false);
+		Arrays.fill(data, false);
+		Arrays.fill(targets, NONE);
+		Arrays.fill(fallsThrough, false);
+		Arrays.fill(loads, NONE);
+		int[] worklist = new int[MEMORY_SIZE * 3]; // each address adds at most two more
+		int size = 0;
+		for (int address = 0; address <= LAST_ADDRESS; address++) {
+			if (roots[address]) {
+				worklist[size++] = address;
+				leader[address] = true;
+			}
+		}
+
+		while (size > 0) { // follow every static edge from the roots
+			int address = worklist[--size];
+			if (address > LAST_ADDRESS || code[address] || !initialised[address]) {
+				continue; // not code or already seen
+			}
+			code[address] = true;
+			Instruction current = Instruction.fromWord(memory[address]);
+			instructions[address] = current;
+			if (current.changesD && current.d == 0 && current.word != NO_OP) { // changes R[0], always throws
+				continue;
+			}
+
+			int target = NONE;
+			switch (current.opcode) {
+			case Instruction.HALT:
+				break; // no successors
+			case Instruction.BRANCH_ZERO:
+			case Instruction.BRANCH_POSITIVE:
+				if (current.opcode != Instruction.BRANCH_POSITIVE || current.d != 0) { // D with R[0] never jumps
+					target = current.addr;
+				}
+				fallsThrough[address] = current.opcode != Instruction.BRANCH_ZERO || current.d != 0; // C always does
+				break;
+			case Instruction.JUMP_AND_LINK:
+				target = current.addr;
+				fallsThrough[address] = true; // where the subroutine returns to
+				break;
+			case Instruction.JUMP_REGISTER:
+				loads[address] = unresolved[address] ? NONE : load(memory, initialised, address, current.d);
+				if (loads[address] != NONE) { // otherwise returns to its callers
+					target = Instruction.fromWord(memory[loads[address]]).addr;
+				}
+				break;
+			case Instruction.LOAD:
+			case Instruction.STORE:
+				markData(current.addr);
+				fallsThrough[address] = true;
+				break;
+			case Instruction.LOAD_INDIRECT:
+			case Instruction.STORE_INDIRECT:
+				loads[address] = unresolved[address] ? NONE : load(memory, initialised, address, current.t);
+				if (current.t == 0) { // R[0] is always 0
+					markData(0);
+				} else if (loads[address] != NONE) { // start of an array
+					markData(Instruction.fromWord(memory[loads[address]]).addr);
+				}
+				fallsThrough[address] = true;
+				break;
+			default:
+				fallsThrough[address] = true;
+			}
+
+			if (target != NONE) {
+				targets[address] = target;
+				leader[target] = true;
+				worklist[size++] = target;
+			}
+			if (fallsThrough[address]) {
+				worklist[size++] = address + 1;
+			}
+		}
+
+		boolean[] entered = roots.clone(); // addresses execution may reach other than from the one before
+		for (int address = 0; address <= LAST_ADDRESS; address++) {
+			if (code[address] && targets[address] != NONE) {
+				entered[targets[address]] = true;
+			}
+		}
+		boolean resolved = true;
+		for (int address = 0; address <= LAST_ADDRESS; address++) {
+			if (loads[address] != NONE && !straightRun(loads[address], address, entered)) { // set some other way too
+				unresolved[address] = true;
+				resolved = false;
+			}
+		}
+		return resolved;
+	}
+
+	/**
+	 * Checks whether execution can only reach an address by running every
+	 * instruction from an earlier address in order, i.e. every address before it
+	 * is code that carries on to the next, and nothing else jumps into the run.
+	 *
+	 * @param start   first address of the run
+	 * @param end     last address of the run
+	 * @param entered whether each address may be reached other than from the
+	 *                address before
+	 * @return whether the run is straight
+	 */
+	private boolean straightRun(int start, int end, boolean[] entered) {
+		for (int address = start; address < end; address++) {
+			if (!code[address] || !fallsThrough[address] || targets[address] != NONE || entered[address + 1]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the addresses execution may go to after an instruction.
+	 *
+	 * @param address address of the instruction
+	 * @return addresses that may be executed next, or an empty array if there
+	 *         are none or {@code address} is not code
+	 */
+	int[] successors(int address) {
+		if (!code[address]) {
+			return new int[0];
+		}
+		Instruction current = instructions[address];
+		if (current.opcode == Instruction.JUMP_REGISTER && targets[address] == NONE) { // returns to callers
+			int count = 0;
+			int[] returns = new int[MEMORY_SIZE];
+			for (int call = 0; call < LAST_ADDRESS; call++) {
+				if (code[call] && instructions[call].opcode == Instruction.JUMP_AND_LINK
+						&& instructions[call].d == current.d && fallsThrough[call]) { // links through the register
+					returns[count++] = call + 1;
+				}
+			}
+			int[] successors = new int[count];
+			System.arraycopy(returns, 0, successors, 0, count);
+			return successors;
+		}
+		if (targets[address] != NONE && fallsThrough[address]) {
+			return new int[] { targets[address], address + 1 };
+		} else if (targets[address] != NONE) {
+			return new int[] { targets[address] };
+		} else if (fallsThrough[address]) {
+			return new int[] { address + 1 };
+		}
+		return new int[0];
+	}
+
+	/**
+	 * Finds the 7 that may have set a register earlier in the same run of
+	 * instructions as an address, without going past any branch, jump or other
+	 * change to the register. Whether the run is straight, i.e. nothing jumps into
+	 * it, is checked once every edge has been followed.
+	 *
+	 * @param memory      words in memory
+	 * @param initialised whether each address in memory is initialised
+	 * @param address     address of the instruction using the register
+	 * @param register    register to look for
+	 * @return address of the 7, or {@link #NONE} if there is none
+	 * @see #straightRun(int, int, boolean[])
+	 */
+	private static int load(short[] memory, boolean[] initialised, int address, int register) {
+		for (int previous = address - 1; previous >= 0 && initialised[previous]; previous--) {
+			Instruction instruction = Instruction.fromWord(memory[previous]);
+			if (instruction.opcode == Instruction.LOAD_ADDRESS && instruction.d == register) {
+				return register == 0 ? NONE : previous; // 7 cannot change R[0]
+			}
+			if (instruction.changesD && instruction.d == register || instruction.opcode >= Instruction.BRANCH_ZERO
+					|| instruction.opcode == Instruction.HALT) { // changed some other way, or not a straight run
+				return NONE;
+			}
+		}
+		return NONE;
+	}
+
+	/**
+	 * Marks an address as data, unless it is stdin and stdout.
+	 *
+	 * @param address address read or written, or {@link #NONE}
+	 */
+	private void markData(int address) {
+		if (address != NONE && address <= LAST_ADDRESS) {
+			data[address] = true;
+		}
+	}
+}
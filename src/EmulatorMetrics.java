@@ -0,0 +1,302 @@
+package myPackage;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counts what the emulator has done since it started: instructions executed,
+ * words read and written, errors, and time spent running programs and updating
+ * the GUI. {@link Program#run(long)} records each run when it starts and stops,
+ * rather than each step, and {@link TOYDisplay#update()} records each update,
+ * so counting costs nothing while a program is running. Steps and time of runs
+ * still going are read from the programs themselves, so long runs show up
+ * straight away. Runs of a batch record from many threads at once, so every
+ * count is a {@link LongAdder}.
+ * <p>
+ * The metrics can be {@linkplain #register() read through JMX} and
+ * {@linkplain #startLogging(long, PrintStream) logged periodically}.
+ */
+class EmulatorMetrics implements EmulatorMetricsMXBean {
+	static final EmulatorMetrics INSTANCE = new EmulatorMetrics(); // metrics of the whole emulator
+	static final String OBJECT_NAME = "myPackage:type=EmulatorMetrics";
+	static final String LOG_SECONDS_PROPERTY = "toy.metrics.seconds"; // seconds between log lines, if set
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+	private static final boolean MEASURES_ALLOCATION = THREADS instanceof com.sun.management.ThreadMXBean
+			&& ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemorySupported()
+			&& ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemoryEnabled();
+	private final LongAdder runs = new LongAdder(), instructions = new LongAdder(), stdinWords = new LongAdder(),
+			stdoutWords = new LongAdder(), runNanos = new LongAdder(), allocatedBytes = new LongAdder(),
+			guiUpdates = new LongAdder(), guiUpdateNanos = new LongAdder();
+	private final AtomicLong maxRunNanos = new AtomicLong(), maxGuiUpdateNanos = new AtomicLong();
+	private final ConcurrentHashMap<String, LongAdder> exceptions = new ConcurrentHashMap<String, LongAdder>();
+	// step count and nanoTime at the start of each run still going
+	private final ConcurrentHashMap<Program, long[]> running = new ConcurrentHashMap<Program, long[]>();
+
+	/**
+	 * Gets the number of bytes the current thread has allocated since it started,
+	 * to be subtracted from a later reading.
+	 *
+	 * @return bytes allocated, or {@code 0} if the JVM cannot measure it
+	 */
+	static long allocatedBytes() {
+		return MEASURES_ALLOCATION ? ((com.sun.management.ThreadMXBean) THREADS).getCurrentThreadAllocatedBytes() : 0;
+	}
+
+	/**
+	 * Records that a program has started running.
+	 *
+	 * @param program    program that is running
+	 * @param startNanos {@link System#nanoTime()} when it started
+	 * @see #recordRun(Program, long, long, long, TOYException)
+	 */
+	void runStarted(Program program, long startNanos) {
+		running.put(program, new long[] { program.steps, startNanos });
+	}
+
+	/**
+	 * Records a run of a program once it has stopped.
+	 *
+	 * @param program        program that was running
+	 * @param stdinWords     words read from stdin by the run
+	 * @param stdoutWords    words written to stdout by the run
+	 * @param allocatedBytes bytes allocated by the thread during the run
+	 * @param error          error the run stopped with, or {@code null}
+	 */
+	void recordRun(Program program, long stdinWords, long stdoutWords, long allocatedBytes, TOYException error) {
+		long[] start = running.remove(program);
+		if (start == null) { // metrics were reset while it was running
+			return;
+		}
+		long steps = program.steps - start[0], nanos = System.nanoTime() - start[1];
+		runs.increment();
+		instructions.add(steps);
+		this.stdinWords.add(stdinWords);
+		this.stdoutWords.add(stdoutWords);
+		runNanos.add(nanos);
+		max(maxRunNanos, nanos);
+		this.allocatedBytes.add(allocatedBytes);
+		if (error != null) {
+			String name = error.getClass().getSimpleName();
+			LongAdder count = exceptions.get(name);
+			if (count == null) { // first error of this kind
+				exceptions.putIfAbsent(name, new LongAdder());
+				count = exceptions.get(name); // another thread may have added it first
+			}
+			count.increment();
+		}
+	}
+
+	/**
+	 * Records an update of the GUI.
+	 *
+	 * @param nanos time taken by the update
+	 */
+	void recordGuiUpdate(long nanos) {
+		guiUpdates.increment();
+		guiUpdateNanos.add(nanos);
+		max(maxGuiUpdateNanos, nanos);
+	}
+
+	/**
+	 * Gets the steps executed so far by runs that are still going. Their step
+	 * counts are read without synchronising, so may be slightly out of date.
+	 *
+	 * @return steps executed
+	 */
+	private long runningSteps() {
+		long steps = 0;
+		for (Map.Entry<Program, long[]> entry : running.entrySet()) {
+			steps += entry.getKey().steps - entry.getValue()[0];
+		}
+		return steps;
+	}
+
+	/**
+	 * Gets the wall time so far of runs that are still going.
+	 *
+	 * @return nanoseconds spent running
+	 */
+	private long runningNanos() {
+		long now = System.nanoTime(), nanos = 0;
+		for (long[] start : running.values()) {
+			nanos += now - start[1];
+		}
+		return nanos;
+	}
+
+	/**
+	 * Raises a maximum to a value if it is higher, even if other threads are
+	 * doing the same.
+	 *
+	 * @param maximum maximum to raise
+	 * @param value   new value
+	 */
+	private static void max(AtomicLong maximum, long value) {
+		long current = maximum.get();
+		while (value > current && !maximum.compareAndSet(current, value)) { // retry if another thread changed it
+			current = maximum.get();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public long getRuns() {
+		return runs.sum();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public long getInstructions() {
+		return instructions.sum() + runningSteps();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public double getStepsPerSecond() {
+		long nanos = runNanos.sum() + runningNanos();
+		return nanos == 0 ? 0 : getInstructions() * 1e9 / nanos;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public long getStdinWords() {
+		return stdinWords.sum();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public long getStdoutWords() {
+		return stdoutWords.sum();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public Map<String, Long> getExceptions() {
+		Map<String, Long> counts = new TreeMap<String, Long>(); // sorted by name
+		for (Map.Entry<String, LongAdder> entry : exceptions.entrySet()) {
+			counts.put(entry.getKey(), entry.getValue().sum());
+		}
+		return counts;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public long getRunMillis() {
+		return (runNanos.sum() + runningNanos()) / 1_000_000;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public long getMaxRunMillis() {
+		return maxRunNanos.get() / 1_000_000;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public long getAllocatedBytes() {
+		return allocatedBytes.sum();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public long getGuiUpdates() {
+		return guiUpdates.sum();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public long getGuiUpdateMillis() {
+		return guiUpdateNanos.sum() / 1_000_000;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public long getMaxGuiUpdateMicros() {
+		return maxGuiUpdateNanos.get() / 1000;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void reset() {
+		for (LongAdder adder : new LongAdder[] { runs, instructions, stdinWords, stdoutWords, runNanos, allocatedBytes,
+				guiUpdates, guiUpdateNanos }) {
+			adder.reset();
+		}
+		maxRunNanos.set(0);
+		maxGuiUpdateNanos.set(0);
+		exceptions.clear();
+		running.clear();
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server as
+	 * {@value #OBJECT_NAME}, so JMX clients can read them.
+	 *
+	 * @return {@code false} if they could not be registered, e.g. because they
+	 *         already have been
+	 */
+	boolean register() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+			return true;
+		} catch (JMException e) { // metrics are optional, so carry on without them
+			return false;
+		}
+	}
+
+	/**
+	 * Prints a line summarising the metrics to a stream every so often, from a
+	 * daemon thread that stops when the emulator exits. Each line shows the steps
+	 * per second since the last, and how long was spent running programs and
+	 * updating the GUI, e.g.
+	 * {@code "metrics: 52000000 steps/s, run 980ms, gui 3ms (12 updates, max 1200us), ..."}.
+	 *
+	 * @param seconds seconds between lines
+	 * @param out     stream to print to, e.g. {@link System#err}
+	 */
+	void startLogging(long seconds, PrintStream out) {
+		new Timer("toy-metrics", true).scheduleAtFixedRate(new TimerTask() {
+			private long instructions, runNanos, guiUpdates, guiUpdateNanos; // totals at last line
+
+			public void run() {
+				long newInstructions = getInstructions(),
+						newRunNanos = EmulatorMetrics.this.runNanos.sum() + runningNanos(), newGuiUpdates = getGuiUpdates(),
+						newGuiUpdateNanos = EmulatorMetrics.this.guiUpdateNanos.sum();
+				out.printf("metrics: %d steps/s, run %dms, gui %dms (%d updates, max %dus), runs %d, steps %d, "
+						+ "stdin %d, stdout %d, allocated %dKB, errors %s%n",
+						(newInstructions - instructions) / seconds, (newRunNanos - runNanos) / 1_000_000,
+						(newGuiUpdateNanos - guiUpdateNanos) / 1_000_000, newGuiUpdates - guiUpdates,
+						getMaxGuiUpdateMicros(), getRuns(), newInstructions, getStdinWords(), getStdoutWords(),
+						getAllocatedBytes() / 1024, getExceptions());
+				instructions = newInstructions;
+				runNanos = newRunNanos;
+				guiUpdates = newGuiUpdates;
+				guiUpdateNanos = newGuiUpdateNanos;
+			}
+		}, seconds * 1000, seconds * 1000);
+	}
+}
@@ -0,0 +1,106 @@
+package myPackage;
+
+import java.util.Map;
+
+/**
+ * Management interface of the {@link EmulatorMetrics} of an emulator, as shown
+ * by JMX clients such as JConsole under {@value EmulatorMetrics#OBJECT_NAME}.
+ * Comparing {@linkplain #getRunMillis() time spent running programs} with
+ * {@linkplain #getGuiUpdateMillis() time spent updating the GUI} shows whether
+ * the emulator is interpreter-bound or GUI-bound. Has to be public for JMX to
+ * use it.
+ */
+public interface EmulatorMetricsMXBean {
+	/**
+	 * Gets the number of times programs have been run, e.g. by pressing "Run" or
+	 * "Step" or by each program of a batch.
+	 *
+	 * @return number of runs
+	 */
+	long getRuns();
+
+	/**
+	 * Gets the number of instructions executed by all runs.
+	 *
+	 * @return number of steps
+	 */
+	long getInstructions();
+
+	/**
+	 * Gets the average number of instructions executed per second while
+	 * programs were running.
+	 *
+	 * @return steps per second of run time
+	 */
+	double getStepsPerSecond();
+
+	/**
+	 * Gets the number of words read from stdin by all runs.
+	 *
+	 * @return words read
+	 */
+	long getStdinWords();
+
+	/**
+	 * Gets the number of words written to stdout by all runs.
+	 *
+	 * @return words written
+	 */
+	long getStdoutWords();
+
+	/**
+	 * Gets the number of runs that stopped with each kind of
+	 * {@link TOYException}, by the simple name of its class.
+	 *
+	 * @return counts of errors, e.g. {@code {"StepLimitExceededException": 2}}
+	 */
+	Map<String, Long> getExceptions();
+
+	/**
+	 * Gets the total wall time of all runs.
+	 *
+	 * @return milliseconds spent running programs
+	 */
+	long getRunMillis();
+
+	/**
+	 * Gets the wall time of the longest run.
+	 *
+	 * @return milliseconds of the longest run
+	 */
+	long getMaxRunMillis();
+
+	/**
+	 * Gets the number of bytes allocated by the threads running programs while
+	 * they were running.
+	 *
+	 * @return bytes allocated, or {@code 0} if the JVM cannot measure it
+	 */
+	long getAllocatedBytes();
+
+	/**
+	 * Gets the number of times the GUI has been updated.
+	 *
+	 * @return number of calls to {@link TOYDisplay#update()}
+	 */
+	long getGuiUpdates();
+
+	/**
+	 * Gets the total time spent updating the GUI.
+	 *
+	 * @return milliseconds spent in {@link TOYDisplay#update()}
+	 */
+	long getGuiUpdateMillis();
+
+	/**
+	 * Gets the time taken by the slowest update of the GUI.
+	 *
+	 * @return microseconds of the slowest update
+	 */
+	long getMaxGuiUpdateMicros();
+
+	/**
+	 * Sets every metric back to {@code 0}.
+	 */
+	void reset();
+}
@@ -0,0 +1,94 @@
+package myPackage;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits on how much a {@link Program} may do in a single
+ * {@linkplain Program#run() run}, so untrusted programs cannot run forever. A
+ * program that would exceed a limit stops with a
+ * {@link LimitExceededException}, having executed exactly as many steps as it
+ * did before the limit was reached. {@code ExecutionLimits} are immutable; use
+ * the {@code with} methods to create changed copies of {@link #NONE}.
+ *
+ * @see Program#setLimits(ExecutionLimits)
+ */
+class ExecutionLimits {
+	static final ExecutionLimits NONE = new ExecutionLimits(Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE);
+	final long maxSteps, maxMillis, maxOutputWords;
+	final long maxNanos; // maxMillis in nanoseconds, as compared against System.nanoTime()
+
+	/**
+	 * Constructs a new {@code ExecutionLimits} object. Use {@link Long#MAX_VALUE}
+	 * for no limit.
+	 *
+	 * @param maxSteps       maximum number of instructions executed
+	 * @param maxMillis      maximum wall-clock time of each run, in milliseconds
+	 * @param maxOutputWords maximum number of words written to stdout
+	 */
+	ExecutionLimits(long maxSteps, long maxMillis, long maxOutputWords) {
+		this.maxSteps = maxSteps;
+		this.maxMillis = maxMillis;
+		this.maxOutputWords = maxOutputWords;
+		this.maxNanos = TimeUnit.MILLISECONDS.toNanos(maxMillis); // saturates rather than overflowing
+	}
+
+	/**
+	 * Creates a copy of these limits with a different step limit.
+	 *
+	 * @param maxSteps maximum number of instructions executed
+	 * @return new {@code ExecutionLimits}
+	 */
+	ExecutionLimits withMaxSteps(long maxSteps) {
+		return new ExecutionLimits(maxSteps, maxMillis, maxOutputWords);
+	}
+
+	/**
+	 * Creates a copy of these limits with a different time limit.
+	 *
+	 * @param maxMillis maximum wall-clock time of each run, in milliseconds
+	 * @return new {@code ExecutionLimits}
+	 */
+	ExecutionLimits withMaxMillis(long maxMillis) {
+		return new ExecutionLimits(maxSteps, maxMillis, maxOutputWords);
+	}
+
+	/**
+	 * Creates a copy of these limits with a different output limit.
+	 *
+	 * @param maxOutputWords maximum number of words written to stdout
+	 * @return new {@code ExecutionLimits}
+	 */
+	ExecutionLimits withMaxOutputWords(long maxOutputWords) {
+		return new ExecutionLimits(maxSteps, maxMillis, maxOutputWords);
+	}
+
+	/**
+	 * Applies a command line option ({@code --max-steps}, {@code --max-millis} or
+	 * {@code --max-output}) to these limits.
+	 *
+	 * @param option name of the option
+	 * @param value  value given for the option
+	 * @return new {@code ExecutionLimits}, or {@code null} if {@code option} is not
+	 *         a limit
+	 * @throws NumberFormatException if {@code value} is not a positive number
+	 */
+	ExecutionLimits withOption(String option, String value) throws NumberFormatException {
+		if (!option.equals("--max-steps") && !option.equals("--max-millis") && !option.equals("--max-output")) {
+			return null;
+		}
+
+		long limit = Long.parseLong(value);
+		if (limit < 0) {
+			throw new NumberFormatException("Limit must not be negative: " + value);
+		}
+
+		switch (option) {
+		case "--max-steps":
+			return withMaxSteps(limit);
+		case "--max-millis":
+			return withMaxMillis(limit);
+		default: // --max-output
+			return withMaxOutputWords(limit);
+		}
+	}
+}
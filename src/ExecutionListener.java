@@ -0,0 +1,212 @@
+package myPackage;
+
+/**
+ * Listens to the execution of a {@link Program}. All methods do nothing by
+ * default, so implementations only need to override the events they are
+ * interested in. Methods are called on the thread that is running the program.
+ *
+ * @see Program#addListener(ExecutionListener)
+ * @see BatchedExecutionListener
+ */
+interface ExecutionListener {
+	/**
+	 * Called after each instruction is executed. With the
+	 * {@linkplain Program#ENGINE_COMPILER compiler} or
+	 * {@linkplain Program#ENGINE_THREADED threaded code}, this is instead called
+	 * after each batch of instructions run by compiled or threaded code.
+	 *
+	 * @param program program that executed the instruction
+	 */
+	default void stepped(Program program) {
+	}
+
+	/**
+	 * Called when a word is read from stdin.
+	 *
+	 * @param program program that read the word
+	 * @param value   word that was read
+	 */
+	default void inputRead(Program program, short value) {
+	}
+
+	/**
+	 * Called when a word is written to stdout.
+	 *
+	 * @param program program that wrote the word
+	 * @param value   word that was written
+	 */
+	default void outputWritten(Program program, short value) {
+	}
+
+	/**
+	 * Called when a program stops running because it executed a halt instruction.
+	 *
+	 * @param program program that halted
+	 */
+	default void halted(Program program) {
+	}
+
+	/**
+	 * Called when a program stops running because an error occurred.
+	 *
+	 * @param program   program that the error occurred in
+	 * @param exception error that occurred
+	 */
+	default void errorOccurred(Program program, TOYException exception) {
+	}
+
+	/**
+	 * Called when a program stops running without halting or an error occurring,
+	 * i.e. it was {@linkplain Program#stop() stopped} or it needs more input.
+	 *
+	 * @param program program that stopped
+	 */
+	default void stopped(Program program) {
+	}
+
+	/**
+	 * Called when a program is {@linkplain Program#reset() reset}.
+	 *
+	 * @param program program that was reset
+	 */
+	default void reset(Program program) {
+	}
+}
+
+/**
+ * Passes execution events on to another {@link ExecutionListener}, but only
+ * notifies it of steps {@linkplain #everySteps(ExecutionListener, long) every N
+ * steps}, {@linkplain #everyMillis(ExecutionListener, long) every M
+ * milliseconds} or {@linkplain #onStateChange(ExecutionListener) when the state
+ * of the program changes}. Input, output, halt, error, stop and reset events
+ * are always passed on straight away.
+ */
+class BatchedExecutionListener implements ExecutionListener {
+	private final ExecutionListener listener;
+	private final long stepInterval, nanosInterval;
+	private final boolean onStateChange;
+	private long nextStep, nextNanos, nextClockCheck, lastStateVersion;
+	private static final int CLOCK_CHECK_INTERVAL = 0x400; // steps between checking the time (1024)
+
+	/**
+	 * Constructs a new {@code BatchedExecutionListener}. Use one of the static
+	 * factory methods instead.
+	 *
+	 * @param listener      listener to pass events on to
+	 * @param stepInterval  steps between step notifications (0 if not used)
+	 * @param nanosInterval nanoseconds between step notifications (0 if not used)
+	 * @param onStateChange whether to notify of steps that change the state of the
+	 *                      program
+	 */
+	private BatchedExecutionListener(ExecutionListener listener, long stepInterval, long nanosInterval,
+			boolean onStateChange) {
+		this.listener = listener;
+		this.stepInterval = stepInterval;
+		this.nanosInterval = nanosInterval;
+		this.onStateChange = onStateChange;
+		restart();
+	}
+
+	/**
+	 * Starts batching again from the beginning of a run, so that the first step
+	 * after a reset is passed on, rather than waiting for the step count, clock
+	 * deadline or state version of the run before it.
+	 */
+	private void restart() {
+		nextStep = 0; // next step is always the first after a reset
+		nextClockCheck = 0;
+		nextNanos = System.nanoTime(); // nanoTime() may be negative, so 0 is not in the past
+		lastStateVersion = Long.MIN_VALUE; // not yet seen any state
+	}
+
+	/**
+	 * Creates a listener that notifies {@code listener} of every {@code steps}th
+	 * step.
+	 *
+	 * @param listener listener to pass events on to
+	 * @param steps    steps between notifications
+	 * @return new {@code BatchedExecutionListener}
+	 */
+	static BatchedExecutionListener everySteps(ExecutionListener listener, long steps) {
+		return new BatchedExecutionListener(listener, Math.max(steps, 1), 0, false);
+	}
+
+	/**
+	 * Creates a listener that notifies {@code listener} of a step at most once
+	 * every {@code millis} milliseconds. The time is only checked every
+	 * {@value #CLOCK_CHECK_INTERVAL} steps, as reading the clock is much slower
+	 * than executing an instruction.
+	 *
+	 * @param listener listener to pass events on to
+	 * @param millis   milliseconds between notifications
+	 * @return new {@code BatchedExecutionListener}
+	 */
+	static BatchedExecutionListener everyMillis(ExecutionListener listener, long millis) {
+		return new BatchedExecutionListener(listener, 0, millis * 1_000_000, false);
+	}
+
+	/**
+	 * Creates a listener that only notifies {@code listener} of steps that changed
+	 * a register, memory, stdin or stdout.
+	 *
+	 * @param listener listener to pass events on to
+	 * @return new {@code BatchedExecutionListener}
+	 * @see Program#getStateVersion()
+	 */
+	static BatchedExecutionListener onStateChange(ExecutionListener listener) {
+		return new BatchedExecutionListener(listener, 0, 0, true);
+	}
+
+	public void stepped(Program program) {
+		long steps = program.getSteps();
+
+		if (stepInterval > 0) { // notify every N steps
+			if (steps >= nextStep) {
+				nextStep = steps + stepInterval;
+				listener.stepped(program);
+			}
+
+		} else if (nanosInterval > 0) { // notify every M milliseconds
+			if (steps >= nextClockCheck) { // only check the time occasionally
+				nextClockCheck = steps + CLOCK_CHECK_INTERVAL;
+				long now = System.nanoTime();
+				if (now - nextNanos >= 0) {
+					nextNanos = now + nanosInterval;
+					listener.stepped(program);
+				}
+			}
+
+		} else if (onStateChange) { // notify when state changes
+			long stateVersion = program.getStateVersion();
+			if (stateVersion != lastStateVersion) {
+				lastStateVersion = stateVersion;
+				listener.stepped(program);
+			}
+		}
+	}
+
+	public void inputRead(Program program, short value) {
+		listener.inputRead(program, value);
+	}
+
+	public void outputWritten(Program program, short value) {
+		listener.outputWritten(program, value);
+	}
+
+	public void halted(Program program) {
+		listener.halted(program);
+	}
+
+	public void errorOccurred(Program program, TOYException exception) {
+		listener.errorOccurred(program, exception);
+	}
+
+	public void stopped(Program program) {
+		listener.stopped(program);
+	}
+
+	public void reset(Program program) {
+		restart(); // step count goes back to 0
+		listener.reset(program);
+	}
+}
@@ -0,0 +1,591 @@
+package myPackage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs many iterations of simple counted loops in one jump, by working out what
+ * they do in closed form instead of executing every step. A loop qualifies if
+ * the path from its head back to itself only adds, subtracts, loads constants
+ * (7) and branches (C or D), so it never touches memory, stdin or stdout, and
+ * each register it changes is changed once, by being
+ * <ul>
+ * <li>stepped by a register the loop does not change, e.g. {@code a = a - 1} or
+ * {@code c = c + b} in {@code multiply.toy},</li>
+ * <li>summed over a stepped register, e.g. {@code sum = sum + n} while
+ * {@code n} counts down in {@code sum_1-n.toy}, or</li>
+ * <li>set to the same value every iteration.</li>
+ * </ul>
+ * When a program reaches the head of such a loop, the accelerator works out how
+ * many whole iterations are certain to run before a branch leaves the loop, an
+ * add or subtract overflows or the program runs out of steps, and sets the
+ * registers to what those iterations would leave them as. The step count
+ * advances as if every iteration had run. The interpreter then executes the
+ * next iteration step by step, so the loop is left, or the
+ * {@link OverflowException} is thrown, at exactly the same step as without the
+ * accelerator.
+ * <p>
+ * Loops are looked for the first time the program counter reaches each
+ * address, and again after any address they were looked for along is stored
+ * to.
+ *
+ * @see Program#setLoopAccelerator(LoopAccelerator)
+ */
+class LoopAccelerator {
+	private static final int MEMORY_SIZE = 0x100; // 256
+	private static final int REGISTERS_SIZE = 0x10; // 16
+	private static final int INPUT_OUTPUT_ADDRESS = 0xFF; // M[FF] is stdin and stdout, never part of a loop
+	private static final int NO_OP = 0x1000; // only instruction allowed to change R[0]
+	private static final int MAX_LENGTH = 0x20; // longest loop looked for (32 instructions)
+	private static final long MAX_ITERATIONS = 1 << 24; // most iterations run at once, so sums fit in a long
+	private static final int STRAIGHT = 0, CONTINUE_IF_TAKEN = 1, CONTINUE_IF_NOT_TAKEN = 2; // roles on the path
+	private static final Loop NOT_A_LOOP = new Loop(0, new int[0], new Update[0], new Test[0]); // cached for others
+	private final Loop[] loops = new Loop[MEMORY_SIZE]; // loop with its head at each address, if looked for yet
+	private final boolean[] covered = new boolean[MEMORY_SIZE]; // whether any loop was looked for along each address
+
+	/**
+	 * Runs as many whole iterations of the loop at a program's program counter as
+	 * are certain to run, if there is a loop there that can be accelerated.
+	 *
+	 * @param program program to run
+	 * @param budget  most steps to run
+	 * @return steps run, which is {@code 0} if nothing was run, else a multiple
+	 *         of the loop's length
+	 */
+	long run(Program program, long budget) {
+		int head = program.programCounter;
+		if (head < 0 || head >= INPUT_OUTPUT_ADDRESS) { // interpreter reports it
+			return 0;
+		}
+		Loop loop = loops[head];
+		if (loop == null) { // not looked for since last stored to
+			loop = find(program, head);
+			loops[head] = loop;
+		}
+		return loop == NOT_A_LOOP ? 0 : loop.run(program, budget);
+	}
+
+	/**
+	 * Checks whether there is a loop at an address that can be accelerated,
+	 * looking for one if it has not been looked for yet.
+	 *
+	 * @param program program to look in
+	 * @param address address of the head of the loop
+	 * @return {@code true} if {@link #run(Program, long)} may run the loop
+	 */
+	boolean isLoop(Program program, int address) {
+		if (address < 0 || address >= INPUT_OUTPUT_ADDRESS) {
+			return false;
+		}
+		if (loops[address] == null) {
+			loops[address] = find(program, address);
+		}
+		return loops[address] != NOT_A_LOOP;
+	}
+
+	/**
+	 * Forgets the loops looked for along an address, after it has been stored
+	 * to.
+	 *
+	 * @param address address that has changed
+	 */
+	void invalidate(int address) {
+		if (covered[address]) { // a loop may have appeared or changed
+			clear();
+		}
+	}
+
+	/**
+	 * Forgets every loop looked for, e.g. after the whole of memory has changed.
+	 */
+	void clear() {
+		Arrays.fill(loops, null);
+		Arrays.fill(covered, false);
+	}
+
+	/**
+	 * Follows the path of instructions from an address until it gets back there,
+	 * checking that it is a loop that can be accelerated.
+	 *
+	 * @param program program to look in
+	 * @param head    address to start from
+	 * @return loop, or {@link #NOT_A_LOOP} if there is no loop at {@code head}
+	 *         that can be accelerated
+	 */
+	private Loop find(Program program, int head) {
+		List<Instruction> body = new ArrayList<Instruction>(); // instructions along the path, in order
+		int[] roles = new int[MAX_LENGTH]; // role of each instruction on the path
+		boolean[] visited = new boolean[MEMORY_SIZE];
+		int address = head;
+		do {
+			if (address >= INPUT_OUTPUT_ADDRESS || visited[address] || body.size() == MAX_LENGTH) {
+				return NOT_A_LOOP; // stdio, a loop that does not come back to the head, or too long
+			}
+			visited[address] = true;
+			covered[address] = true; // storing here might change whether there is a loop
+			Instruction instruction = program.getInstruction(address);
+			if (instruction == null) { // uninitialised
+				return NOT_A_LOOP;
+			}
+
+			switch (instruction.opcode) {
+			case Instruction.ADD:
+			case Instruction.SUBTRACT:
+			case Instruction.LOAD_ADDRESS:
+				roles[body.size()] = STRAIGHT;
+				address++;
+				break;
+			case Instruction.BRANCH_ZERO:
+			case Instruction.BRANCH_POSITIVE:
+				if (instruction.d == 0) { // R[0] is 0, so C always jumps and D never does
+					roles[body.size()] = STRAIGHT;
+					address = instruction.opcode == Instruction.BRANCH_ZERO ? instruction.addr : address + 1;
+				} else if (instruction.addr == address + 1) { // goes to the next address either way
+					roles[body.size()] = STRAIGHT;
+					address++;
+				} else if (instruction.addr == head) { // back to the head if taken, out of the loop if not
+					roles[body.size()] = CONTINUE_IF_TAKEN;
+					address = head;
+				} else { // out of the loop if taken
+					roles[body.size()] = CONTINUE_IF_NOT_TAKEN;
+					address++;
+				}
+				break;
+			default: // reads or writes memory, halts, or jumps somewhere unknown
+				return NOT_A_LOOP;
+			}
+			body.add(instruction);
+		} while (address != head);
+
+		return summarise(body, roles);
+	}
+
+	/**
+	 * Works out how the registers change in each iteration of a loop and when it
+	 * may be left, checking that every change can be worked out in closed form.
+	 *
+	 * @param body  instructions of the loop, from its head
+	 * @param roles role of each instruction on the path
+	 * @return loop, or {@link #NOT_A_LOOP} if it cannot be accelerated
+	 */
+	private static Loop summarise(List<Instruction> body, int[] roles) {
+		Update[] updates = new Update[REGISTERS_SIZE]; // update of each register the loop changes
+		List<Update> changed = new ArrayList<Update>();
+		for (int position = 0; position < body.size(); position++) {
+			Instruction instruction = body.get(position);
+			if (instruction.opcode == Instruction.BRANCH_ZERO || instruction.opcode == Instruction.BRANCH_POSITIVE
+					|| instruction.word == NO_OP) { // changes no registers
+				continue;
+			}
+			if (instruction.d == 0 || updates[instruction.d] != null) { // throws, or changed twice
+				return NOT_A_LOOP;
+			}
+			Update update = new Update(instruction, position);
+			updates[instruction.d] = update;
+			changed.add(update);
+		}
+		for (Update update : changed) { // classify once every change is known
+			if (!update.classify(updates)) {
+				return NOT_A_LOOP;
+			}
+		}
+
+		boolean[] needed = new boolean[REGISTERS_SIZE]; // registers read before the loop sets them
+		for (Update update : changed) {
+			update.markNeeded(needed);
+		}
+		List<Test> tests = new ArrayList<Test>();
+		for (int position = 0; position < body.size(); position++) {
+			Instruction branch = body.get(position);
+			Update update = updates[branch.d];
+			if (roles[position] == STRAIGHT) {
+				if ((branch.opcode == Instruction.BRANCH_ZERO || branch.opcode == Instruction.BRANCH_POSITIVE)
+						&& (update == null || update.position > position)) { // read before the loop sets it
+					needed[branch.d] = true;
+				}
+				continue;
+			}
+			if (update == null || update.kind == Update.STEPPED) { // value at the head is used
+				needed[branch.d] = true;
+			} else if (update.kind == Update.SUMMED || update.position > position) { // not linear, or set later
+				return NOT_A_LOOP;
+			}
+			tests.add(new Test(branch, position, roles[position] == CONTINUE_IF_TAKEN, update));
+		}
+
+		int count = 0;
+		int[] neededRegisters = new int[REGISTERS_SIZE];
+		for (int register = 0; register < REGISTERS_SIZE; register++) {
+			if (needed[register]) {
+				neededRegisters[count++] = register;
+			}
+		}
+		return new Loop(body.size(), Arrays.copyOf(neededRegisters, count), changed.toArray(new Update[0]),
+				tests.toArray(new Test[0]));
+	}
+
+	/**
+	 * Finds the first iteration in which a register would overflow, given that
+	 * after iteration {@code i} (counting from {@code 0}) it would be
+	 * {@code start + (i + 1) * first + increment * i * (i + 1) / 2}. This covers
+	 * registers stepped by a fixed amount ({@code increment} is {@code 0}) and
+	 * registers summed over a stepped register. The value only changes direction
+	 * once, so each side of that turn is binary searched.
+	 *
+	 * @param start     value before the first iteration
+	 * @param first     change in the first iteration
+	 * @param increment how much the change grows by in each iteration
+	 * @param limit     most iterations to look at
+	 * @return first iteration that would overflow, or {@code limit} if none of
+	 *         the first {@code limit} would
+	 */
+	static long firstOverflow(long start, long first, long increment, long limit) {
+		if (limit <= 0) {
+			return 0;
+		}
+		long last = limit - 1;
+		long turn = increment == 0 ? last : Math.min(Math.max(0, Math.floorDiv(-first, increment)), last);
+		long overflow = firstOverflow(start, first, increment, 0, turn);
+		if (overflow < 0) { // not before the turn
+			overflow = firstOverflow(start, first, increment, turn, last);
+		}
+		return overflow < 0 ? limit : overflow;
+	}
+
+	/**
+	 * Finds the first iteration in which a register would overflow, between two
+	 * iterations over which its value only rises or only falls.
+	 *
+	 * @param start     value before the first iteration
+	 * @param first     change in the first iteration
+	 * @param increment how much the change grows by in each iteration
+	 * @param low       first iteration to look at
+	 * @param high      last iteration to look at
+	 * @return first iteration that would overflow, or {@code -1} if none would
+	 */
+	private static long firstOverflow(long start, long first, long increment, long low, long high) {
+		if (overflows(valueAfter(start, first, increment, low))) {
+			return low;
+		}
+		if (!overflows(valueAfter(start, first, increment, high))) { // so nothing in between does either
+			return -1;
+		}
+		while (low + 1 < high) { // low is in range, high overflows
+			long middle = (low + high) >>> 1;
+			if (overflows(valueAfter(start, first, increment, middle))) {
+				high = middle;
+			} else {
+				low = middle;
+			}
+		}
+		return high;
+	}
+
+	/**
+	 * Works out the value of a register after an iteration, as described by
+	 * {@link #firstOverflow(long, long, long, long)}.
+	 *
+	 * @param start     value before the first iteration
+	 * @param first     change in the first iteration
+	 * @param increment how much the change grows by in each iteration
+	 * @param iteration iteration, counting from {@code 0}
+	 * @return value, which may be outside the range of a {@code short}
+	 */
+	private static long valueAfter(long start, long first, long increment, long iteration) {
+		return start + (iteration + 1) * first + increment * (iteration * (iteration + 1) / 2);
+	}
+
+	/**
+	 * Checks whether a value would make an add or subtract overflow.
+	 *
+	 * @param value value
+	 * @return {@code true} if {@code value} does not fit in a {@code short}
+	 */
+	private static boolean overflows(long value) {
+		return value != (short) value;
+	}
+
+	/**
+	 * A loop that can be accelerated: its length, the registers it needs to be
+	 * initialised, how it changes registers and where it may be left.
+	 */
+	private static final class Loop {
+		final int length; // steps per iteration
+		final int[] needed; // registers that must be initialised at the head
+		final Update[] updates; // changes to registers, in order
+		final Test[] tests; // branches that may leave the loop
+
+		/**
+		 * Constructs a new {@code Loop}.
+		 *
+		 * @param length  steps per iteration
+		 * @param needed  registers that must be initialised at the head
+		 * @param updates changes to registers, in order
+		 * @param tests   branches that may leave the loop
+		 */
+		Loop(int length, int[] needed, Update[] updates, Test[] tests) {
+			this.length = length;
+			this.needed = needed;
+			this.updates = updates;
+			this.tests = tests;
+		}
+
+		/**
+		 * Runs as many whole iterations of the loop as are certain to run from the
+		 * head, setting the registers they change.
+		 *
+		 * @param program program at the head of the loop
+		 * @param budget  most steps to run
+		 * @return steps run
+		 */
+		long run(Program program, long budget) {
+			short[] registers = program.registers;
+			boolean[] initialised = program.registersInitialised;
+			for (int register : needed) {
+				if (!initialised[register]) { // interpreter throws
+					return 0;
+				}
+			}
+
+			long iterations = Math.min(budget / length, MAX_ITERATIONS);
+			for (Update update : updates) {
+				iterations = Math.min(iterations, update.iterations(registers, iterations));
+			}
+			for (Test test : tests) {
+				iterations = Math.min(iterations, test.iterations(registers));
+			}
+			if (iterations <= 0) { // interpreter executes the iteration that leaves or overflows
+				return 0;
+			}
+
+			short[] values = new short[updates.length]; // all from the values at the head
+			for (int i = 0; i < updates.length; i++) {
+				values[i] = updates[i].valueAfter(registers, iterations);
+			}
+			for (int i = 0; i < updates.length; i++) {
+				program.setRegister(updates[i].d, values[i]);
+			}
+			return iterations * length;
+		}
+	}
+
+	/**
+	 * How a loop changes a register in each iteration.
+	 */
+	private static final class Update {
+		static final int CONSTANT = 0, SET = 1, STEPPED = 2, SUMMED = 3; // kinds of update
+		final Instruction instruction; // instruction that changes the register
+		final int d, position; // register changed, and position of the instruction in the loop
+		int kind; // one of the kinds above, once classified
+		int sign; // 1 to add, -1 to subtract
+		int operand; // register added to a stepped or summed register
+		Update operandUpdate; // update of operand, if it is summed over
+
+		/**
+		 * Constructs a new {@code Update}, to be {@linkplain #classify(Update[])
+		 * classified} once every update of the loop is known.
+		 *
+		 * @param instruction instruction that changes the register
+		 * @param position    position of the instruction in the loop
+		 */
+		Update(Instruction instruction, int position) {
+			this.instruction = instruction;
+			this.d = instruction.d;
+			this.position = position;
+		}
+
+		/**
+		 * Works out the kind of update from the other registers the loop changes.
+		 *
+		 * @param updates update of each register the loop changes
+		 * @return {@code false} if the update cannot be worked out in closed form
+		 */
+		boolean classify(Update[] updates) {
+			if (instruction.opcode == Instruction.LOAD_ADDRESS) { // R[d] <- addr
+				kind = CONSTANT;
+				return true;
+			}
+			int s = instruction.s, t = instruction.t;
+			sign = instruction.opcode == Instruction.ADD ? 1 : -1;
+			if (updates[s] == null && updates[t] == null) { // R[d] <- R[s] +/- R[t], the same every time
+				kind = SET;
+				return true;
+			}
+			if (s == d && t != d) { // R[d] <- R[d] +/- R[t]
+				operand = t;
+			} else if (t == d && s != d && sign == 1) { // R[d] <- R[s] + R[d]
+				operand = s;
+			} else {
+				return false;
+			}
+
+			Update other = updates[operand];
+			if (other == null) { // operand is the same every time
+				kind = STEPPED;
+				return true;
+			}
+			if (other.instruction.opcode == Instruction.LOAD_ADDRESS) {
+				return false;
+			}
+			int otherS = other.instruction.s, otherT = other.instruction.t;
+			boolean otherStepped = otherS == operand && otherT != operand && updates[otherT] == null
+					|| otherT == operand && otherS != operand && updates[otherS] == null
+							&& other.instruction.opcode == Instruction.ADD; // as classified below
+			if (!otherStepped) { // only sums over stepped registers are worked out
+				return false;
+			}
+			kind = SUMMED;
+			operandUpdate = other;
+			return true;
+		}
+
+		/**
+		 * Marks the registers an update reads before the loop changes them.
+		 *
+		 * @param needed whether each register is read
+		 */
+		void markNeeded(boolean[] needed) {
+			if (kind == SET) {
+				needed[instruction.s] = true;
+				needed[instruction.t] = true;
+			} else if (kind != CONSTANT) {
+				needed[d] = true;
+				needed[operand] = true;
+			}
+		}
+
+		/**
+		 * Gets how much a stepped register changes by in each iteration.
+		 *
+		 * @param registers registers at the head of the loop
+		 * @return change
+		 */
+		long increment(short[] registers) {
+			return sign * (long) registers[operand];
+		}
+
+		/**
+		 * Gets the value a set register is set to.
+		 *
+		 * @param registers registers at the head of the loop
+		 * @return value, which may be outside the range of a {@code short}
+		 */
+		long setValue(short[] registers) {
+			return kind == CONSTANT ? instruction.addr
+					: registers[instruction.s] + sign * (long) registers[instruction.t];
+		}
+
+		/**
+		 * Gets the change to a summed register in the first iteration, which is the
+		 * stepped register it adds, as it is at the instruction.
+		 *
+		 * @param registers registers at the head of the loop
+		 * @return change
+		 */
+		long firstChange(short[] registers) {
+			long step = operandUpdate.increment(registers);
+			return sign * (registers[operand] + (position > operandUpdate.position ? step : 0));
+		}
+
+		/**
+		 * Works out how many iterations can run before the update overflows.
+		 *
+		 * @param registers registers at the head of the loop
+		 * @param limit     most iterations to look at
+		 * @return iterations, or {@code limit} if none of them overflow
+		 */
+		long iterations(short[] registers, long limit) {
+			switch (kind) {
+			case SET:
+				return overflows(setValue(registers)) ? 0 : limit;
+			case STEPPED:
+				return firstOverflow(registers[d], increment(registers), 0, limit);
+			case SUMMED:
+				return firstOverflow(registers[d], firstChange(registers),
+						sign * operandUpdate.increment(registers), limit);
+			default: // constant
+				return limit;
+			}
+		}
+
+		/**
+		 * Works out the value of the register after a number of iterations.
+		 *
+		 * @param registers  registers at the head of the loop
+		 * @param iterations iterations run, at least one
+		 * @return new value
+		 */
+		short valueAfter(short[] registers, long iterations) {
+			switch (kind) {
+			case STEPPED:
+				return (short) LoopAccelerator.valueAfter(registers[d], increment(registers), 0, iterations - 1);
+			case SUMMED:
+				return (short) LoopAccelerator.valueAfter(registers[d], firstChange(registers),
+						sign * operandUpdate.increment(registers), iterations - 1);
+			default: // set to the same value every time
+				return (short) setValue(registers);
+			}
+		}
+	}
+
+	/**
+	 * A branch that leaves a loop depending on a register.
+	 */
+	private static final class Test {
+		final int d, position; // register tested, and position of the branch in the loop
+		final boolean positive; // true for D (branch positive), false for C (branch zero)
+		final boolean continueIfTaken; // true if the loop goes on when the branch is taken
+		final Update update; // update of the register tested, or null if the loop does not change it
+
+		/**
+		 * Constructs a new {@code Test}.
+		 *
+		 * @param branch          branch instruction
+		 * @param position        position of the branch in the loop
+		 * @param continueIfTaken whether the loop goes on when the branch is taken
+		 * @param update          update of the register tested, which is stepped
+		 *                        or set before the branch, or {@code null}
+		 */
+		Test(Instruction branch, int position, boolean continueIfTaken, Update update) {
+			this.d = branch.d;
+			this.position = position;
+			this.positive = branch.opcode == Instruction.BRANCH_POSITIVE;
+			this.continueIfTaken = continueIfTaken;
+			this.update = update;
+		}
+
+		/**
+		 * Works out how many whole iterations run before the branch leaves the
+		 * loop. At iteration {@code i} the register tested is
+		 * {@code value + i * step}.
+		 *
+		 * @param registers registers at the head of the loop
+		 * @return iterations, or {@link Long#MAX_VALUE} if the branch never leaves
+		 */
+		long iterations(short[] registers) {
+			long value = registers[d], step = 0;
+			if (update != null && update.kind == Update.STEPPED) {
+				step = update.increment(registers);
+				if (update.position < position) { // already stepped in this iteration
+					value += step;
+				}
+			} else if (update != null) { // set earlier in every iteration
+				value = update.setValue(registers);
+			}
+
+			boolean leaveIf = !continueIfTaken; // leaves when the condition is this
+			if (!positive) { // C: R[d] == 0
+				if (leaveIf) { // leaves when it reaches 0
+					return step == 0 ? (value == 0 ? 0 : Long.MAX_VALUE)
+							: -value % step == 0 && -value / step >= 0 ? -value / step : Long.MAX_VALUE;
+				}
+				return value != 0 ? 0 : step == 0 ? Long.MAX_VALUE : 1; // leaves once it is not 0
+			}
+			if (leaveIf) { // D: leaves once R[d] > 0
+				return value > 0 ? 0 : step <= 0 ? Long.MAX_VALUE : -value / step + 1;
+			}
+			return value <= 0 ? 0 : step >= 0 ? Long.MAX_VALUE : (value - step - 1) / -step; // until R[d] <= 0
+		}
+	}
+}
@@ -0,0 +1,249 @@
+package myPackage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Counts where a {@link Program} spends its steps: how many times the
+ * instruction at each address and each opcode is executed, and how many times
+ * each {@linkplain Instruction#BRANCH_ZERO branch zero} and
+ * {@linkplain Instruction#BRANCH_POSITIVE branch positive} is taken. Counting a
+ * step is just a few array increments, so a profiler can be left on, e.g. to
+ * flag inefficient submissions in a batch. Only the interpreter counts steps:
+ * compiled code runs many steps at once, so programs being profiled are always
+ * interpreted.
+ * <p>
+ * Once the program stops, a {@linkplain #report(Program, int) report} maps the
+ * hottest addresses and loops back to the lines of the program they came from.
+ *
+ * @see Program#setProfiler(Profiler)
+ */
+class Profiler {
+	private static final int MEMORY_SIZE = 0x100; // 256
+	private static final String[] OPCODE_NAMES = { "halt", "add", "subtract", "and", "xor", "left shift",
+			"right shift", "load address", "load", "store", "load indirect", "store indirect", "branch zero",
+			"branch positive", "jump register", "jump and link" }; // indexed by opcode
+	final long[] counts = new long[MEMORY_SIZE]; // steps executed at each address
+	final long[] opcodeCounts = new long[0x10]; // steps executed with each opcode
+	final long[] taken = new long[MEMORY_SIZE]; // times the branch at each address was taken
+	final int[] targets = new int[MEMORY_SIZE]; // where the branch at each address last jumped to
+	private int address; // address of the step being executed
+	private Instruction instruction; // instruction being executed
+
+	/**
+	 * Starts counting a step, before it is executed.
+	 *
+	 * @param program     program executing the step
+	 * @param instruction instruction about to be executed, at the program counter
+	 * @see #commit(int)
+	 */
+	void begin(Program program, Instruction instruction) {
+		address = program.programCounter;
+		this.instruction = instruction;
+	}
+
+	/**
+	 * Counts a step once it has been executed. A step that threw an exception is
+	 * never committed, so is not counted.
+	 *
+	 * @param result result of {@link Instruction#execute(Program)}, which is
+	 *               {@code 1} if a branch was taken
+	 */
+	void commit(int result) {
+		counts[address]++;
+		opcodeCounts[instruction.opcode]++;
+		if (result == 1 && instruction.opcode >= Instruction.BRANCH_ZERO
+				&& instruction.opcode <= Instruction.BRANCH_POSITIVE) { // C or D jumped
+			taken[address]++;
+			targets[address] = instruction.addr; // memory may have changed by the time of the report
+		}
+	}
+
+	/**
+	 * Gets the total number of steps counted.
+	 *
+	 * @return sum of {@link #opcodeCounts}
+	 */
+	long getTotal() {
+		long total = 0;
+		for (long count : opcodeCounts) {
+			total += count;
+		}
+		return total;
+	}
+
+	/**
+	 * Gets the addresses executed most often, most first.
+	 *
+	 * @param limit most addresses to return
+	 * @return addresses that were executed at least once
+	 */
+	int[] hottest(int limit) {
+		Integer[] addresses = new Integer[MEMORY_SIZE];
+		for (int i = 0; i < MEMORY_SIZE; i++) {
+			addresses[i] = i;
+		}
+		Arrays.sort(addresses, new Comparator<Integer>() { // stable, so ties stay in address order
+			public int compare(Integer a, Integer b) {
+				return Long.compare(counts[b], counts[a]);
+			}
+		});
+
+		int count = 0;
+		while (count < Math.min(limit, MEMORY_SIZE) && counts[addresses[count]] > 0) {
+			count++;
+		}
+		int[] hottest = new int[count];
+		for (int i = 0; i < count; i++) {
+			hottest[i] = addresses[i];
+		}
+		return hottest;
+	}
+
+	/**
+	 * Finds the loops the program ran, most steps first. A loop is a branch (C or
+	 * D) back to an earlier address that was taken at least once, and covers
+	 * every address from its target to the branch. The target is the one the
+	 * branch jumped to when it ran, even if the program has overwritten it since.
+	 *
+	 * @return {@code {start, end, iterations, steps}} of each loop
+	 */
+	List<long[]> loops() {
+		List<long[]> loops = new ArrayList<long[]>();
+		for (int end = 0; end < MEMORY_SIZE; end++) {
+			if (taken[end] > 0 && targets[end] <= end) { // branch goes backwards
+				long steps = 0;
+				for (int i = targets[end]; i <= end; i++) {
+					steps += counts[i];
+				}
+				loops.add(new long[] { targets[end], end, taken[end], steps });
+			}
+		}
+		loops.sort(new Comparator<long[]>() {
+			public int compare(long[] a, long[] b) {
+				return Long.compare(b[3], a[3]); // most steps first
+			}
+		});
+		return loops;
+	}
+
+	/**
+	 * Creates a report of the profile: the hottest addresses with the source
+	 * line at each, the hottest loops, how often each branch was taken and how
+	 * many steps each opcode took.
+	 *
+	 * @param program program that was profiled, for its source lines
+	 * @param limit   most addresses and loops to include
+	 * @return report, one item per line
+	 */
+	String report(Program program, int limit) {
+		String[] comments = new String[MEMORY_SIZE]; // source comment of each line
+		if (program.lines != null) {
+			for (Line line : program.lines) {
+				comments[line.getLineNumber()] = line.comment == null ? "" : line.comment.trim();
+			}
+		}
+
+		long total = getTotal();
+		StringBuilder report = new StringBuilder("Profile of " + total + " steps\n");
+		report.append("Hottest addresses:\n");
+		for (int address : hottest(limit)) {
+			Instruction instruction = program.getInstruction(address);
+			String comment = comments[address] != null && !comments[address].isEmpty() ? comments[address] // source
+					: instruction == null ? "" : instruction.generateComment();
+			report.append(String.format("  %02X  %s  %10d  %5.1f%%  %s\n", address,
+					instruction == null ? TOYDisplay.NULL_REGISTER_DISPLAY : instruction.asHex(), counts[address],
+					percent(counts[address], total), comment));
+		}
+
+		List<long[]> loops = loops();
+		if (!loops.isEmpty()) {
+			report.append("Hottest loops:\n");
+			for (long[] loop : loops.subList(0, Math.min(limit, loops.size()))) {
+				report.append(String.format("  %02X-%02X  %10d iterations  %10d steps  %5.1f%%\n", loop[0], loop[1],
+						loop[2], loop[3], percent(loop[3], total)));
+			}
+		}
+
+		boolean anyBranches = false;
+		for (int address = 0; address < MEMORY_SIZE; address++) {
+			Instruction branch = counts[address] > 0 ? program.getInstruction(address) : null;
+			if (branch != null && (branch.opcode == Instruction.BRANCH_ZERO
+					|| branch.opcode == Instruction.BRANCH_POSITIVE)) {
+				if (!anyBranches) {
+					report.append("Branches:\n");
+					anyBranches = true;
+				}
+				report.append(String.format("  %02X  %s  taken %d, not taken %d\n", address, branch.asHex(),
+						taken[address], counts[address] - taken[address]));
+			}
+		}
+
+		report.append("Opcodes:\n");
+		for (int opcode = 0; opcode < opcodeCounts.length; opcode++) {
+			if (opcodeCounts[opcode] > 0) {
+				report.append(String.format("  %X %-16s %10d  %5.1f%%\n", opcode, OPCODE_NAMES[opcode],
+						opcodeCounts[opcode], percent(opcodeCounts[opcode], total)));
+			}
+		}
+		return report.toString();
+	}
+
+	/**
+	 * Converts a summary of the profile to JSON, for {@link BatchResult}: the
+	 * hottest addresses and loops, and how many times branches were taken and not
+	 * taken in total.
+	 *
+	 * @param program program that was profiled
+	 * @param limit   most addresses and loops to include
+	 * @return JSON object
+	 */
+	String toJson(Program program, int limit) {
+		StringBuilder json = new StringBuilder("{\"hot_addresses\":[");
+		int[] hottest = hottest(limit);
+		for (int i = 0; i < hottest.length; i++) {
+			json.append(i == 0 ? "" : ",").append(String.format("{\"address\":\"%02X\",\"steps\":%d}", hottest[i],
+					counts[hottest[i]]));
+		}
+
+		json.append("],\"hot_loops\":[");
+		List<long[]> loops = loops();
+		for (int i = 0; i < Math.min(limit, loops.size()); i++) {
+			long[] loop = loops.get(i);
+			json.append(i == 0 ? "" : ",").append(String.format(
+					"{\"start\":\"%02X\",\"end\":\"%02X\",\"iterations\":%d,\"steps\":%d}", loop[0], loop[1],
+					loop[2], loop[3]));
+		}
+
+		long branches = opcodeCounts[Instruction.BRANCH_ZERO] + opcodeCounts[Instruction.BRANCH_POSITIVE], taken = 0;
+		for (long count : this.taken) {
+			taken += count;
+		}
+		json.append("],\"branches_taken\":").append(taken);
+		json.append(",\"branches_not_taken\":").append(branches - taken).append('}');
+		return json.toString();
+	}
+
+	/**
+	 * Works out a count as a percentage of a total.
+	 *
+	 * @param count count
+	 * @param total total, which may be {@code 0}
+	 * @return percentage
+	 */
+	private static double percent(long count, long total) {
+		return total == 0 ? 0 : 100.0 * count / total;
+	}
+
+	/**
+	 * Sets every count back to {@code 0}, e.g. when the program is reset.
+	 */
+	void clear() {
+		Arrays.fill(counts, 0);
+		Arrays.fill(opcodeCounts, 0);
+		Arrays.fill(taken, 0);
+		Arrays.fill(targets, 0);
+	}
+}
@@ -0,0 +1,258 @@
+package myPackage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+/**
+ * The full state of a {@link Program} at some step: registers, memory, program
+ * counter, step count, unread stdin and unflushed stdout, together with an
+ * {@linkplain TOYImage image} of the program it was taken from so it can be
+ * {@linkplain #toProgram() resumed} on its own, e.g. in another process.
+ * Snapshots are immutable copies, taken with {@link Program#snapshot()} and
+ * restored with {@link Program#restore(Snapshot)}. Words that have not yet been
+ * read from a stream given to stdin, or that have already been written to a
+ * stream given to stdout, are not part of a snapshot.
+ * <p>
+ * Snapshots are saved as {@value #EXTENSION} files, in the following format
+ * (all numbers big-endian):
+ * <ol>
+ * <li>the magic number {@code "TOYS"} and a 2-byte format version</li>
+ * <li>the length of the program image (4 bytes), then the image in the
+ * {@value TOYImage#EXTENSION} format</li>
+ * <li>the 2-byte program counter, then the 8-byte counts of steps, words read
+ * from stdin and words written to stdout</li>
+ * <li>a 2-byte bitmap of which registers are initialised and all 16 registers,
+ * 2 bytes each</li>
+ * <li>a 32-byte bitmap of which memory addresses are initialised and all 256
+ * words of memory, 2 bytes each (bitmaps are lowest first and most significant
+ * bit first)</li>
+ * <li>the number of words of unread stdin (4 bytes), then each word, and the
+ * same for unflushed stdout</li>
+ * </ol>
+ */
+class Snapshot {
+	static final String EXTENSION = ".toys";
+	private static final int MAGIC = 0x544F5953; // "TOYS"
+	private static final int VERSION = 1;
+	private static final int REGISTERS_SIZE = 0x10; // 16
+	private static final int MEMORY_SIZE = 0x100; // 256
+	final TOYImage image;
+	final short[] registers, memory, stdin, stdout;
+	final boolean[] registersInitialised, memoryInitialised;
+	final short programCounter;
+	final long steps, stdinRead, stdoutWritten;
+
+	/**
+	 * Constructs a new {@code Snapshot}. Arrays are used as they are, so must not
+	 * be changed afterwards.
+	 *
+	 * @param image                image of the program the state is of
+	 * @param registers            contents of registers
+	 * @param registersInitialised which registers are initialised
+	 * @param memory               contents of memory
+	 * @param memoryInitialised    which addresses of memory are initialised
+	 * @param programCounter       address of the next instruction
+	 * @param steps                number of instructions executed
+	 * @param stdinRead            number of words read from stdin
+	 * @param stdoutWritten        number of words written to stdout
+	 * @param stdin                words of stdin not yet read
+	 * @param stdout               words of stdout not yet flushed
+	 */
+	Snapshot(TOYImage image, short[] registers, boolean[] registersInitialised, short[] memory,
+			boolean[] memoryInitialised, short programCounter, long steps, long stdinRead, long stdoutWritten,
+			short[] stdin, short[] stdout) {
+		this.image = image;
+		this.registers = registers;
+		this.registersInitialised = registersInitialised;
+		this.memory = memory;
+		this.memoryInitialised = memoryInitialised;
+		this.programCounter = programCounter;
+		this.steps = steps;
+		this.stdinRead = stdinRead;
+		this.stdoutWritten = stdoutWritten;
+		this.stdin = stdin;
+		this.stdout = stdout;
+	}
+
+	/**
+	 * Creates a new program from the image in the snapshot, and restores the
+	 * snapshot to it.
+	 *
+	 * @return new {@code Program} in the state of the snapshot
+	 */
+	Program toProgram() {
+		Program program = image.toProgram();
+		program.restore(this);
+		return program;
+	}
+
+	/**
+	 * Converts the snapshot to bytes in the {@value #EXTENSION} format.
+	 *
+	 * @return bytes of the snapshot
+	 */
+	byte[] toBytes() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeInt(MAGIC);
+			out.writeShort(VERSION);
+			byte[] imageBytes = image.toBytes();
+			out.writeInt(imageBytes.length);
+			out.write(imageBytes);
+
+			out.writeShort(programCounter);
+			out.writeLong(steps);
+			out.writeLong(stdinRead);
+			out.writeLong(stdoutWritten);
+			writeBitmap(out, registersInitialised);
+			writeWords(out, registers);
+			writeBitmap(out, memoryInitialised);
+			writeWords(out, memory);
+
+			out.writeInt(stdin.length);
+			writeWords(out, stdin);
+			out.writeInt(stdout.length);
+			writeWords(out, stdout);
+		} catch (IOException e) { // never thrown by a ByteArrayOutputStream
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Writes a bitmap, 8 flags per byte, most significant bit first.
+	 *
+	 * @param out   stream to write to
+	 * @param flags flags to write (a multiple of 8)
+	 * @throws IOException if the stream cannot be written to
+	 */
+	private static void writeBitmap(DataOutputStream out, boolean[] flags) throws IOException {
+		for (int i = 0; i < flags.length; i += 8) {
+			int bits = 0;
+			for (int bit = 0; bit < 8; bit++) {
+				bits = bits << 1 | (flags[i + bit] ? 1 : 0);
+			}
+			out.writeByte(bits);
+		}
+	}
+
+	/**
+	 * Writes words, 2 bytes each.
+	 *
+	 * @param out   stream to write to
+	 * @param words words to write
+	 * @throws IOException if the stream cannot be written to
+	 */
+	private static void writeWords(DataOutputStream out, short[] words) throws IOException {
+		for (short word : words) {
+			out.writeShort(word);
+		}
+	}
+
+	/**
+	 * Reads a snapshot from bytes in the {@value #EXTENSION} format.
+	 *
+	 * @param bytes bytes of the snapshot
+	 * @return snapshot read
+	 * @throws IOException if the bytes are not a valid snapshot
+	 */
+	static Snapshot fromBytes(byte[] bytes) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(bytes); // big-endian by default
+		try {
+			if (buffer.getInt() != MAGIC) {
+				throw new IOException("Not a TOY snapshot");
+			}
+			int version = buffer.getShort();
+			if (version != VERSION) {
+				throw new IOException("Unsupported TOY snapshot version: " + version);
+			}
+			byte[] imageBytes = new byte[buffer.getInt()];
+			buffer.get(imageBytes);
+			TOYImage image = TOYImage.fromBytes(imageBytes);
+
+			short programCounter = buffer.getShort();
+			if (programCounter < 0 || programCounter >= MEMORY_SIZE) { // would fail on the first step
+				throw new IOException("TOY snapshot is truncated or corrupt: PC is outside memory: "
+						+ Integer.toHexString(programCounter & 0xFFFF).toUpperCase());
+			}
+			long steps = buffer.getLong(), stdinRead = buffer.getLong(), stdoutWritten = buffer.getLong();
+			boolean[] registersInitialised = readBitmap(buffer, REGISTERS_SIZE);
+			short[] registers = readWords(buffer, REGISTERS_SIZE);
+			boolean[] memoryInitialised = readBitmap(buffer, MEMORY_SIZE);
+			short[] memory = readWords(buffer, MEMORY_SIZE);
+			short[] stdin = readWords(buffer, buffer.getInt());
+			short[] stdout = readWords(buffer, buffer.getInt());
+
+			return new Snapshot(image, registers, registersInitialised, memory, memoryInitialised, programCounter,
+					steps, stdinRead, stdoutWritten, stdin, stdout);
+		} catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+			throw new IOException("TOY snapshot is truncated or corrupt", e); // ended early or a length is wrong
+		}
+	}
+
+	/**
+	 * Reads a bitmap written by {@link #writeBitmap(DataOutputStream, boolean[])}.
+	 *
+	 * @param buffer buffer to read from
+	 * @param length number of flags to read (a multiple of 8)
+	 * @return flags read
+	 */
+	private static boolean[] readBitmap(ByteBuffer buffer, int length) {
+		boolean[] flags = new boolean[length];
+		for (int i = 0; i < length; i += 8) {
+			int bits = buffer.get();
+			for (int bit = 0; bit < 8; bit++) {
+				flags[i + bit] = (bits & 0x80 >> bit) != 0;
+			}
+		}
+		return flags;
+	}
+
+	/**
+	 * Reads words written by {@link #writeWords(DataOutputStream, short[])} in a
+	 * single bulk copy.
+	 *
+	 * @param buffer buffer to read from
+	 * @param length number of words to read
+	 * @return words read
+	 * @throws IllegalArgumentException if there are fewer words left than
+	 *                                  {@code length}
+	 */
+	private static short[] readWords(ByteBuffer buffer, int length) {
+		if (length < 0 || length > buffer.remaining() / 2) {
+			throw new IllegalArgumentException("Bad number of words: " + length);
+		}
+		short[] words = new short[length];
+		buffer.asShortBuffer().get(words);
+		buffer.position(buffer.position() + length * 2);
+		return words;
+	}
+
+	/**
+	 * Reads a snapshot from a file.
+	 *
+	 * @param file file to read
+	 * @return snapshot read
+	 * @throws FileNotFoundException if the file cannot be read
+	 * @throws IOException           if the file is not a valid snapshot
+	 */
+	static Snapshot read(File file) throws IOException {
+		return fromBytes(TOYFile.readBytes(file));
+	}
+
+	/**
+	 * Writes the snapshot to a file, replacing it if it exists.
+	 *
+	 * @param file file to write
+	 * @throws IOException if the file cannot be written
+	 */
+	void write(File file) throws IOException {
+		Files.write(file.toPath(), toBytes());
+	}
+}
@@ -0,0 +1,405 @@
+package myPackage;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The result of running one TOY program with one input, as reported by
+ * {@link TOYBatch}.
+ */
+class BatchResult {
+	static final String HALTED = "halted", ERROR = "error", NEEDS_INPUT = "needs_input", INVALID = "invalid",
+			STEP_LIMIT = "step_limit", TIME_LIMIT = "time_limit", OUTPUT_LIMIT = "output_limit"; // statuses
+	final String program, input, status, error;
+	final List<String> stdout;
+	final long steps, wallNanos;
+	String profile; // summary from Profiler#toJson, or null unless the run was profiled
+
+	/**
+	 * Constructs a new {@code BatchResult}.
+	 *
+	 * @param program   name of the program
+	 * @param input     name of the input, or {@code null} if there was none
+	 * @param status    how the run ended, e.g. {@link #HALTED}
+	 * @param error     error message, or {@code null} if there was none
+	 * @param stdout    words written to stdout, as hex
+	 * @param steps     number of instructions executed
+	 * @param wallNanos wall-clock time taken, in nanoseconds
+	 */
+	BatchResult(String program, String input, String status, String error, List<String> stdout, long steps,
+			long wallNanos) {
+		this.program = program;
+		this.input = input;
+		this.status = status;
+		this.error = error;
+		this.stdout = stdout;
+		this.steps = steps;
+		this.wallNanos = wallNanos;
+	}
+
+	/**
+	 * Converts the result to a single line of JSON.
+	 *
+	 * @return JSON object, without a line separator
+	 */
+	String toJson() {
+		StringBuilder json = new StringBuilder("{\"program\":").append(jsonString(program));
+		json.append(",\"input\":").append(jsonString(input));
+		json.append(",\"status\":").append(jsonString(status));
+		json.append(",\"steps\":").append(steps);
+		json.append(",\"wall_nanos\":").append(wallNanos);
+		json.append(",\"stdout\":[");
+		for (int i = 0; i < stdout.size(); i++) {
+			json.append(i == 0 ? "" : ",").append(jsonString(stdout.get(i)));
+		}
+		json.append("],\"error\":").append(jsonString(error));
+		if (profile != null) {
+			json.append(",\"profile\":").append(profile);
+		}
+		json.append('}');
+		return json.toString();
+	}
+
+	/**
+	 * Converts a string to a JSON string literal, escaping it as needed.
+	 *
+	 * @param string string to convert, may be {@code null}
+	 * @return JSON string literal, or {@code null}
+	 */
+	static String jsonString(String string) {
+		if (string == null) {
+			return "null";
+		}
+		StringBuilder literal = new StringBuilder("\"");
+		for (int i = 0; i < string.length(); i++) {
+			char c = string.charAt(i);
+			if (c == '"' || c == '\\') { // escape with backslash
+				literal.append('\\').append(c);
+			} else if (c == '\n') {
+				literal.append("\\n");
+			} else if (c < 0x20) { // other control characters as unicode escapes
+				literal.append(String.format("\\u%04x", (int) c));
+			} else {
+				literal.append(c);
+			}
+		}
+		return literal.append('"').toString();
+	}
+}
+
+/**
+ * Runs many TOY programs against many inputs in parallel, without the GUI. Every
+ * program is run once with every input, each as an independent {@link Program}
+ * on a work-stealing pool, and a {@link BatchResult} is reported for each. Each
+ * file is only read and parsed once, however many times it is used, and programs
+ * are parsed in parallel on the same pool.
+ */
+class TOYBatch {
+	private final ExecutorService pool;
+	private final int engine;
+	private final ExecutionLimits limits;
+	private final boolean profile, accelerateLoops, memoiseCalls;
+	static final int PROFILE_LENGTH = 5; // hottest addresses and loops reported for each run
+
+	/**
+	 * Constructs a new {@code TOYBatch}.
+	 *
+	 * @param threads         number of programs to run at once
+	 * @param engine          execution engine to use, e.g.
+	 *                        {@link Program#ENGINE_COMPILER}
+	 * @param limits          limits on each run, or
+	 *                        {@link ExecutionLimits#NONE}
+	 * @param profile         whether to {@linkplain Profiler profile} each run
+	 *                        and report its hottest addresses and loops
+	 * @param accelerateLoops whether to run simple loops in one jump with a
+	 *                        {@link LoopAccelerator}
+	 * @param memoiseCalls    whether to run calls to pure subroutines in one
+	 *                        jump with a {@link CallMemoiser}
+	 */
+	TOYBatch(int threads, int engine, ExecutionLimits limits, boolean profile, boolean accelerateLoops,
+			boolean memoiseCalls) {
+		pool = Executors.newWorkStealingPool(threads);
+		this.engine = engine;
+		this.limits = limits;
+		this.profile = profile;
+		this.accelerateLoops = accelerateLoops;
+		this.memoiseCalls = memoiseCalls;
+	}
+
+	/**
+	 * Parses command line arguments (after {@code --batch}) and runs every program
+	 * they specify with every input, printing the results as JSON lines to
+	 * {@link System#out} in the order programs and inputs were given.
+	 *
+	 * @param args arguments passed when running the program
+	 * @return {@link TOYRunner#EXIT_HALTED} if every pairing was run (whatever its
+	 *         result), {@link TOYRunner#EXIT_USAGE} if the arguments were not valid
+	 *         or a file could not be read
+	 */
+	static int runCommandLine(String[] args) {
+		List<File> programs = new ArrayList<File>(), inputs = new ArrayList<File>();
+		int threads = Runtime.getRuntime().availableProcessors(), engine = Program.ENGINE_INTERPRETER;
+		ExecutionLimits limits = ExecutionLimits.NONE;
+		boolean profile = false, accelerateLoops = false, memoiseCalls = false;
+
+		try {
+			for (int i = 0; i < args.length; i++) { // iterate over arguments
+				if (args[i].equals("--profile")) { // count where each run spends its steps
+					profile = true;
+				} else if (args[i].equals("--program") && i + 1 < args.length) { // program file or folder
+					programs.addAll(listFiles(new File(args[++i]), ".toy", TOYImage.EXTENSION));
+				} else if (args[i].equals("--input") && i + 1 < args.length) { // input file or folder
+					inputs.addAll(listFiles(new File(args[++i])));
+				} else if (args[i].equals("--threads") && i + 1 < args.length) { // size of pool
+					threads = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("--engine") && i + 1 < args.length) { // engine name
+					engine = Program.engineNamed(args[++i]);
+				} else if (args[i].equals("--accelerate-loops")) { // run simple loops in one jump
+					accelerateLoops = true;
+				} else if (args[i].equals("--memoise-calls")) { // remember what pure subroutines return
+					memoiseCalls = true;
+				} else if (i + 1 < args.length && limits.withOption(args[i], args[i + 1]) != null) { // a limit
+					limits = limits.withOption(args[i], args[++i]);
+				} else { // unknown argument
+					threads = 0;
+				}
+			}
+		} catch (NumberFormatException | FileNotFoundException e) { // bad number or missing file
+			System.err.println(e.getMessage());
+			threads = 0;
+		}
+
+		if (programs.isEmpty() || threads < 1 || engine == -1) {
+			System.err.println(TOYRunner.USAGE);
+			return TOYRunner.EXIT_USAGE;
+		}
+
+		TOYBatch batch = new TOYBatch(threads, engine, limits, profile, accelerateLoops, memoiseCalls);
+		try {
+			batch.runAll(programs, inputs, System.out);
+		} catch (IOException e) { // file could not be read
+			System.err.println(e.getMessage());
+			return TOYRunner.EXIT_USAGE;
+		} finally {
+			batch.shutdown();
+		}
+		return TOYRunner.EXIT_HALTED;
+	}
+
+	/**
+	 * Lists the files to use for a command line argument: the file itself, or
+	 * every file in a folder and its subfolders ending with one of
+	 * {@code extensions}, sorted by name within each folder.
+	 *
+	 * @param file       file or folder
+	 * @param extensions extensions files in a folder may have, or none for any
+	 * @return files to use
+	 * @throws FileNotFoundException if {@code file} does not exist or a folder
+	 *                               cannot be read
+	 */
+	static List<File> listFiles(File file, String... extensions) throws FileNotFoundException {
+		if (!file.exists()) {
+			throw new FileNotFoundException("File not found: " + file);
+		} else if (!file.isDirectory()) {
+			return Arrays.asList(file);
+		}
+
+		File[] children = file.listFiles();
+		if (children == null) { // folder could not be read
+			throw new FileNotFoundException("Folder could not be read: " + file);
+		}
+		Arrays.sort(children); // same order every time
+		List<File> files = new ArrayList<File>();
+		for (File child : children) {
+			if (child.isDirectory()) { // include files in subfolders
+				files.addAll(listFiles(child, extensions));
+			} else if (child.isFile() && hasExtension(child, extensions)) {
+				files.add(child);
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * Checks whether a file name ends with one of some extensions.
+	 *
+	 * @param file       file to check
+	 * @param extensions extensions to allow, or none for any
+	 * @return whether {@code file} has one of {@code extensions}
+	 */
+	private static boolean hasExtension(File file, String... extensions) {
+		for (String extension : extensions) {
+			if (file.getName().endsWith(extension)) {
+				return true;
+			}
+		}
+		return extensions.length == 0;
+	}
+
+	/**
+	 * Runs every program with every input, and prints each result as a line of
+	 * JSON. Results are printed in order (all inputs for the first program, then
+	 * the second program, etc.) as soon as they and all those before them are
+	 * finished.
+	 *
+	 * @param programs TOY files to run
+	 * @param inputs   files containing stdin for each run, or an empty list to
+	 *                 run each program once with no input
+	 * @param out      stream to print results to
+	 * @return results, in the order they were printed
+	 * @throws IOException if a file could not be read
+	 */
+	List<BatchResult> runAll(List<File> programs, List<File> inputs, PrintStream out) throws IOException {
+		List<String> inputNames = new ArrayList<String>(), inputContents = new ArrayList<String>();
+		for (File input : inputs) { // read every input once
+			inputNames.add(input.getPath());
+			inputContents.add(new String(Files.readAllBytes(input.toPath())));
+		}
+		if (inputs.isEmpty()) { // run each program once without input
+			inputNames.add(null);
+			inputContents.add("");
+		}
+
+		List<Program> parsed = TOYFile.loadAll(programs, pool); // parse every program once, in parallel
+		List<Future<BatchResult>> futures = new ArrayList<Future<BatchResult>>();
+		for (int p = 0; p < programs.size(); p++) { // run every program with every input
+			for (int i = 0; i < inputNames.size(); i++) {
+				futures.add(submit(programs.get(p).getPath(), parsed.get(p), inputNames.get(i),
+						inputContents.get(i)));
+			}
+		}
+
+		List<BatchResult> results = new ArrayList<BatchResult>();
+		for (Future<BatchResult> future : futures) { // wait for results in order
+			BatchResult result = getResult(future);
+			results.add(result);
+			out.println(result.toJson());
+		}
+		out.flush();
+		return results;
+	}
+
+	/**
+	 * Submits a run of a program to the pool.
+	 *
+	 * @param programName name to report for the program
+	 * @param parsed      loaded program, copied for each run (sharing its lines,
+	 *                    as they are never changed)
+	 * @param inputName   name to report for the input
+	 * @param input       stdin of the program
+	 * @return result of the run, once finished
+	 */
+	Future<BatchResult> submit(String programName, Program parsed, String inputName, String input) {
+		return pool.submit(new Callable<BatchResult>() {
+			public BatchResult call() {
+				try {
+					return run(programName, parsed, inputName, input, engine, limits, profile, accelerateLoops,
+							memoiseCalls);
+				} catch (RuntimeException e) { // bug in the emulator rather than the program, report it and carry on
+					return new BatchResult(programName, inputName, BatchResult.ERROR, e.toString(),
+							new ArrayList<String>(), 0, 0);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Runs a single program with a single input until it halts, an error occurs,
+	 * it exceeds a limit or it needs more input than is available.
+	 *
+	 * @param programName     name to report for the program
+	 * @param parsed          loaded program, which is copied rather than run
+	 * @param inputName       name to report for the input
+	 * @param input           stdin of the program
+	 * @param engine          execution engine to use
+	 * @param limits          limits on the run
+	 * @param profile         whether to profile the run
+	 * @param accelerateLoops whether to run simple loops in one jump
+	 * @param memoiseCalls    whether to memoise calls to pure subroutines
+	 * @return result of the run
+	 * @see Program#newInstance()
+	 */
+	static BatchResult run(String programName, Program parsed, String inputName, String input, int engine,
+			ExecutionLimits limits, boolean profile, boolean accelerateLoops, boolean memoiseCalls) {
+		long start = System.nanoTime();
+		Program program = parsed.newInstance();
+
+		String validationError = program.validate(); // check program is runnable
+		if (validationError != null) {
+			return new BatchResult(programName, inputName, BatchResult.INVALID, validationError,
+					new ArrayList<String>(), 0, System.nanoTime() - start);
+		}
+
+		program.loadToMemory(); // load program to memory
+		program.setEngine(engine);
+		if (accelerateLoops) {
+			program.setLoopAccelerator(new LoopAccelerator());
+		}
+		if (memoiseCalls) {
+			program.setCallMemoiser(new CallMemoiser());
+		}
+		program.setLimits(limits);
+		if (profile) {
+			program.setProfiler(new Profiler());
+		}
+		Instruction.inputToStdin(input, program); // load all input to stdin
+		program.run(); // run until program stops itself
+		long wallNanos = System.nanoTime() - start;
+
+		String status = BatchResult.HALTED;
+		if (program.getError() instanceof StepLimitExceededException) { // program ran for too many steps
+			status = BatchResult.STEP_LIMIT;
+		} else if (program.getError() instanceof TimeLimitExceededException) { // program ran for too long
+			status = BatchResult.TIME_LIMIT;
+		} else if (program.getError() instanceof OutputLimitExceededException) { // program wrote too much
+			status = BatchResult.OUTPUT_LIMIT;
+		} else if (program.errorOccurred()) { // program threw an exception
+			status = BatchResult.ERROR;
+		} else if (!program.isFinished()) { // program stopped to wait for input
+			status = BatchResult.NEEDS_INPUT;
+		}
+		BatchResult result = new BatchResult(programName, inputName, status, program.getErrorMessage(),
+				program.stdout.toHexList(), program.getSteps(), wallNanos);
+		if (profile) {
+			result.profile = program.getProfiler().toJson(program, PROFILE_LENGTH);
+		}
+		return result;
+	}
+
+	/**
+	 * Waits for a result. If waiting fails, this is reported as an error result
+	 * rather than stopping the batch.
+	 *
+	 * @param future result to wait for
+	 * @return result
+	 */
+	private static BatchResult getResult(Future<BatchResult> future) {
+		try {
+			return future.get();
+		} catch (ExecutionException e) { // run threw an unexpected error
+			return new BatchResult(null, null, BatchResult.ERROR, e.getCause().toString(), new ArrayList<String>(), 0,
+					0);
+		} catch (InterruptedException e) { // interrupted while waiting
+			Thread.currentThread().interrupt();
+			return new BatchResult(null, null, BatchResult.ERROR, e.toString(), new ArrayList<String>(), 0, 0);
+		}
+	}
+
+	/**
+	 * Shuts down the pool once all submitted runs have finished.
+	 */
+	void shutdown() {
+		pool.shutdown();
+	}
+}
@@ -0,0 +1,1063 @@
+package myPackage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Code generated by {@link TOYCompiler} for the memory of a {@link Program}.
+ * Generated classes extend this and implement {@link #run(Program, int)}.
+ */
+abstract class CompiledProgram {
+	boolean[] covered; // addresses that were compiled
+	boolean invalidated; // set when a compiled address is stored to
+
+	/**
+	 * Runs the compiled code from the program counter of {@code program} until it
+	 * reaches something the compiled code does not handle itself, or would run more
+	 * than {@code budget} steps. This includes halting, reading stdin, writing
+	 * stdout, anything that would throw a {@link TOYException}, jumping to an
+	 * address that was not compiled and storing to an address that was. The
+	 * registers and program counter of {@code program} are updated before
+	 * returning, so the interpreter can carry on from where the compiled code
+	 * stopped.
+	 *
+	 * @param program program to run
+	 * @param budget  maximum number of steps to run
+	 * @return number of steps that were run
+	 */
+	abstract int run(Program program, int budget);
+
+	/**
+	 * Checks whether an address was compiled, i.e. whether the compiled code can
+	 * start running from it.
+	 *
+	 * @param address address in memory
+	 * @return whether {@code address} was compiled
+	 */
+	boolean covers(int address) {
+		return address >= 0 && address < covered.length && covered[address];
+	}
+}
+
+/**
+ * Compiles the memory of a {@link Program} into a JVM class, so the JIT
+ * compiler can turn TOY loops into machine code. Only addresses reachable from
+ * the given roots (e.g. the program counter) are compiled, so stores to data do
+ * not affect the compiled code. Each basic block of the
+ * {@link ControlFlowGraph} (a run of instructions entered only at the top, split
+ * at the targets of C, D and F and after every jump) checks the step budget and
+ * that the registers it reads are initialised once on entry. Anything unusual
+ * is left to the interpreter: the compiled code returns with the program
+ * counter at the instruction in question, which the interpreter then executes
+ * as normal (throwing the same exception, reading the same input etc.).
+ * <p>
+ * Class files are written by hand at version 49 (Java 5), as earlier versions
+ * do not need stack map frames, and are loaded as hidden classes so they can be
+ * unloaded. The most recently used classes are cached by the code they were
+ * compiled from, so running the same program again reuses code the JIT has
+ * already optimised.
+ *
+ * @see Program#ENGINE_COMPILER
+ */
+class TOYCompiler {
+	private static final int MEMORY_SIZE = 0x100; // 256
+	private static final int LAST_ADDRESS = 0xFE; // FF is stdin/stdout, so is never compiled
+	private static final int NO_OP = 0x1000; // only instruction allowed to change R[0]
+	private static final String PROGRAM = "myPackage/Program", COMPILED = "myPackage/CompiledProgram";
+	private static final String CLASS_NAME = "myPackage/CompiledTOYProgram";
+	private static final int CACHE_SIZE = 0x100; // compiled classes to keep (256)
+	private static final Map<String, Class<?>> cache = new LinkedHashMap<String, Class<?>>(0x10, 0.75f, true) {
+		protected boolean removeEldestEntry(Map.Entry<String, Class<?>> eldest) {
+			return size() > CACHE_SIZE; // least recently used class can be unloaded
+		}
+	};
+
+	// local variables of the generated run method
+	private static final int THIS = 0, PROGRAM_LOCAL = 1, BUDGET = 2, COUNT = 3, PC = 4, MASK = 5, REGISTERS = 6,
+			MEMORY = 7, MEMORY_INITIALISED = 8, TEMP = 9, FIRST_REGISTER = 10;
+	private static final int MAX_LOCALS = FIRST_REGISTER + 0x10, MAX_STACK = 4;
+
+	private final short[] memory;
+	private final boolean[] memoryInitialised, roots;
+	private Instruction[] instructions; // decoded instruction at each compiled address
+	private boolean[] code, leader; // compiled addresses, and the first of each basic block
+	private final int[] reads = new int[MEMORY_SIZE], writes = new int[MEMORY_SIZE]; // register bitmasks
+	private final int[] known = new int[MEMORY_SIZE]; // registers known to be initialised before each address
+	private final int[] remaining = new int[MEMORY_SIZE]; // steps from each address to the end of its block
+	private BytecodeWriter writer;
+	private int[] check, instruction, exit; // labels
+	private int dispatch, exitAll;
+
+	/**
+	 * Constructs a new {@code TOYCompiler} for the current memory of a program.
+	 *
+	 * @param program program to compile
+	 * @param roots   addresses that execution may start from
+	 */
+	private TOYCompiler(Program program, boolean[] roots) {
+		memory = program.getMemory().clone();
+		memoryInitialised = program.getMemoryInitialised().clone();
+		this.roots = roots;
+	}
+
+	/**
+	 * Compiles the current memory of a program.
+	 *
+	 * @param program program to compile
+	 * @param roots   addresses that execution may start from
+	 * @return compiled code, or {@code null} if it could not be compiled
+	 */
+	static CompiledProgram compile(Program program, boolean[] roots) {
+		TOYCompiler compiler = new TOYCompiler(program, roots);
+		try {
+			compiler.analyse();
+			String key = compiler.key();
+			Class<?> compiledClass;
+			synchronized (cache) { // programs may be compiled on several threads
+				compiledClass = cache.get(key);
+			}
+			if (compiledClass == null) { // not compiled recently
+				byte[] classFile = compiler.generate();
+				compiledClass = MethodHandles.lookup().defineHiddenClass(classFile, true).lookupClass();
+				synchronized (cache) {
+					cache.put(key, compiledClass);
+				}
+			}
+			CompiledProgram compiled = (CompiledProgram) compiledClass.getDeclaredConstructor().newInstance();
+			compiled.covered = compiler.code;
+			return compiled;
+		} catch (ReflectiveOperationException | IllegalStateException | LinkageError e) { // fall back to interpreter
+			if (TOYEmulator.DEBUG) {
+				if (TOYEmulator.INTERACT_WITH_CONSOLE) {
+					e.printStackTrace();
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Finds which addresses are reachable from the {@link #roots} and splits them
+	 * into basic blocks with a {@link ControlFlowGraph}, then works out which
+	 * registers each block needs to be initialised.
+	 */
+	private void analyse() {
+		ControlFlowGraph graph = new ControlFlowGraph(memory, memoryInitialised, roots);
+		code = graph.code;
+		leader = graph.leader;
+		instructions = graph.instructions;
+		for (int address = 0; address <= LAST_ADDRESS; address++) {
+			if (!code[address]) {
+				continue;
+			}
+			if (alwaysExits(instructions[address])) { // interpreter will run it, then carry on from the next address
+				leader[address + 1] = true;
+			}
+			registerUsage(address, instructions[address]);
+		}
+
+		for (int address = LAST_ADDRESS; address >= 0; address--) { // work backwards through each block
+			if (!code[address]) {
+				continue;
+			}
+			boolean lastInBlock = address == LAST_ADDRESS || !code[address + 1] || leader[address + 1]
+					|| endsBlock(instructions[address]);
+			int needed = lastInBlock ? 0 : known[address + 1]; // registers needed by rest of block
+			remaining[address] = lastInBlock ? 1 : remaining[address + 1] + 1;
+			known[address] = needed & ~writes[address] | reads[address];
+		}
+
+		for (int address = 0; address <= LAST_ADDRESS; address++) { // registers set earlier in block are known
+			if (code[address] && !leader[address]) {
+				known[address] |= known[address - 1] | writes[address - 1];
+			}
+		}
+	}
+
+	/**
+	 * Creates a key identifying the code that will be generated, made up of the
+	 * roots and the compiled words. The code does not depend on anything else.
+	 *
+	 * @return key for {@link #cache}
+	 */
+	private String key() {
+		StringBuilder key = new StringBuilder();
+		for (int address = 0; address <= LAST_ADDRESS; address++) {
+			if (code[address]) { // address and word of each compiled instruction
+				key.append((char) (roots[address] ? address | 0x100 : address)).append((char) memory[address]);
+			}
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Works out which registers (other than R[0]) the compiled code for an
+	 * instruction reads and writes.
+	 *
+	 * @param address address of the instruction
+	 * @param current instruction to check
+	 */
+	private void registerUsage(int address, Instruction current) {
+		int d = 1 << current.d, s = 1 << current.s, t = 1 << current.t;
+		switch (current.opcode) {
+		case Instruction.ADD:
+		case Instruction.SUBTRACT:
+		case Instruction.AND:
+		case Instruction.XOR:
+		case Instruction.LEFT_SHIFT:
+		case Instruction.RIGHT_SHIFT:
+			if (current.d != 0) { // 1000 does nothing
+				reads[address] = s | t;
+				writes[address] = d;
+			}
+			break;
+		case Instruction.LOAD_ADDRESS:
+		case Instruction.LOAD:
+		case Instruction.JUMP_AND_LINK:
+			writes[address] = d;
+			break;
+		case Instruction.LOAD_INDIRECT:
+			reads[address] = t;
+			writes[address] = d;
+			break;
+		case Instruction.STORE_INDIRECT:
+			reads[address] = d | t;
+			break;
+		case Instruction.STORE:
+		case Instruction.BRANCH_ZERO:
+		case Instruction.BRANCH_POSITIVE:
+		case Instruction.JUMP_REGISTER:
+			reads[address] = d;
+		}
+		reads[address] &= ~1; // R[0] is always initialised
+		writes[address] &= ~1;
+	}
+
+	/**
+	 * Checks whether an instruction is always left to the interpreter, either
+	 * because it always throws an exception or because it uses stdin or stdout.
+	 *
+	 * @param current instruction to check
+	 * @return whether the compiled code always exits before the instruction
+	 */
+	private static boolean alwaysExits(Instruction current) {
+		if (current.changesD && current.d == 0 && current.word != NO_OP) { // changes R[0], always throws
+			return true;
+		}
+		return (current.opcode == Instruction.LOAD || current.opcode == Instruction.STORE) && current.addr == 0xFF;
+	}
+
+	/**
+	 * Checks whether an instruction ends a basic block, i.e. whether it might not
+	 * carry on to the next address.
+	 *
+	 * @param current instruction to check
+	 * @return whether {@code current} ends a basic block
+	 */
+	private static boolean endsBlock(Instruction current) {
+		switch (current.opcode) {
+		case Instruction.HALT:
+		case Instruction.BRANCH_ZERO:
+		case Instruction.JUMP_REGISTER:
+		case Instruction.JUMP_AND_LINK:
+			return true;
+		case Instruction.BRANCH_POSITIVE:
+			return current.d != 0; // D with R[0] never jumps
+		default:
+			return alwaysExits(current);
+		}
+	}
+
+	/**
+	 * Checks whether execution can carry on to the next address after an
+	 * instruction.
+	 *
+	 * @param current instruction to check
+	 * @return whether {@code current} can fall through to the next address
+	 */
+	private static boolean fallsThrough(Instruction current) {
+		switch (current.opcode) {
+		case Instruction.HALT:
+		case Instruction.JUMP_REGISTER:
+		case Instruction.JUMP_AND_LINK:
+			return false;
+		case Instruction.BRANCH_ZERO:
+			return current.d != 0; // C with R[0] always jumps
+		default:
+			return !alwaysExits(current);
+		}
+	}
+
+	/**
+	 * Generates the class file of the compiled code.
+	 *
+	 * @return class file
+	 */
+	private byte[] generate() {
+		writer = new BytecodeWriter();
+		check = labels();
+		instruction = labels();
+		exit = labels();
+		dispatch = writer.newLabel();
+		exitAll = writer.newLabel();
+
+		int used = 0; // registers read or written anywhere
+		for (int address = 0; address <= LAST_ADDRESS; address++) {
+			used |= reads[address] | writes[address];
+		}
+
+		// load state of program into locals
+		writer.op(BytecodeWriter.ALOAD_1);
+		writer.invoke(BytecodeWriter.INVOKEVIRTUAL, PROGRAM, "getRegistersMask", "()I");
+		writer.local(BytecodeWriter.ISTORE, MASK);
+		writer.op(BytecodeWriter.ALOAD_1);
+		writer.field(BytecodeWriter.GETFIELD, PROGRAM, "registers", "[S");
+		writer.local(BytecodeWriter.ASTORE, REGISTERS);
+		for (int register = 1; register < 0x10; register++) {
+			if ((used & 1 << register) != 0) {
+				writer.local(BytecodeWriter.ALOAD, REGISTERS);
+				writer.pushInt(register);
+				writer.op(BytecodeWriter.SALOAD);
+				writer.local(BytecodeWriter.ISTORE, FIRST_REGISTER + register);
+			}
+		}
+		writer.op(BytecodeWriter.ALOAD_1);
+		writer.field(BytecodeWriter.GETFIELD, PROGRAM, "memory", "[S");
+		writer.local(BytecodeWriter.ASTORE, MEMORY);
+		writer.op(BytecodeWriter.ALOAD_1);
+		writer.field(BytecodeWriter.GETFIELD, PROGRAM, "memoryInitialised", "[Z");
+		writer.local(BytecodeWriter.ASTORE, MEMORY_INITIALISED);
+		writer.pushInt(0);
+		writer.local(BytecodeWriter.ISTORE, COUNT);
+		writer.pushInt(0);
+		writer.local(BytecodeWriter.ISTORE, TEMP);
+		writer.op(BytecodeWriter.ALOAD_1);
+		writer.field(BytecodeWriter.GETFIELD, PROGRAM, "programCounter", "S");
+		writer.local(BytecodeWriter.ISTORE, PC);
+
+		// jump to the block for the program counter
+		writer.mark(dispatch);
+		writer.local(BytecodeWriter.ILOAD, PC);
+		int[] targets = new int[MEMORY_SIZE];
+		for (int address = 0; address < MEMORY_SIZE; address++) {
+			targets[address] = code[address] ? check[address] : exitAll;
+		}
+		writer.tableSwitch(exitAll, targets);
+
+		// compiled instructions, in address order so blocks fall through
+		for (int address = 0; address <= LAST_ADDRESS; address++) {
+			if (!code[address]) {
+				continue;
+			}
+			if (leader[address]) {
+				writer.mark(check[address]);
+				emitCheck(address);
+			}
+			writer.mark(instruction[address]);
+			int knownBefore = known[address];
+			emitInstruction(address, instructions[address], knownBefore);
+
+			if (fallsThrough(instructions[address]) && (address == LAST_ADDRESS || !code[address + 1])) { // next address was not compiled
+				writer.jump(BytecodeWriter.GOTO, exit[address + 1]);
+			}
+		}
+
+		// entry points into the middle of blocks
+		for (int address = 0; address <= LAST_ADDRESS; address++) {
+			if (code[address] && !leader[address]) {
+				writer.mark(check[address]);
+				emitCheck(address);
+				writer.jump(BytecodeWriter.GOTO, instruction[address]);
+			}
+		}
+
+		// exits to the interpreter at each address
+		for (int address = 0; address < MEMORY_SIZE; address++) {
+			if (writer.isUsed(exit[address])) {
+				writer.mark(exit[address]);
+				writer.pushInt(address);
+				writer.local(BytecodeWriter.ISTORE, PC);
+				writer.jump(BytecodeWriter.GOTO, exitAll);
+			}
+		}
+
+		// write registers and program counter back to the program
+		writer.mark(exitAll);
+		for (int register = 1; register < 0x10; register++) {
+			int bit = 1 << register;
+			boolean written = false;
+			for (int address = 0; address <= LAST_ADDRESS; address++) {
+				written |= (writes[address] & bit) != 0;
+			}
+			if (written) {
+				int skip = writer.newLabel();
+				writer.local(BytecodeWriter.ILOAD, MASK);
+				writer.pushInt(bit);
+				writer.op(BytecodeWriter.IAND);
+				writer.jump(BytecodeWriter.IFEQ, skip); // never initialised, so nothing to write back
+				writer.op(BytecodeWriter.ALOAD_1);
+				writer.pushInt(register);
+				writer.local(BytecodeWriter.ILOAD, FIRST_REGISTER + register);
+				writer.invoke(BytecodeWriter.INVOKEVIRTUAL, PROGRAM, "setRegister", "(IS)V");
+				writer.mark(skip);
+			}
+		}
+		writer.op(BytecodeWriter.ALOAD_1);
+		writer.local(BytecodeWriter.ILOAD, PC);
+		writer.op(BytecodeWriter.I2S);
+		writer.field(BytecodeWriter.PUTFIELD, PROGRAM, "programCounter", "S");
+		writer.local(BytecodeWriter.ILOAD, COUNT);
+		writer.op(BytecodeWriter.IRETURN);
+
+		return writer.toClassFile(CLASS_NAME, COMPILED, "run", "(L" + PROGRAM + ";I)I", MAX_STACK, MAX_LOCALS);
+	}
+
+	/**
+	 * Creates a label for each address.
+	 *
+	 * @return new labels
+	 */
+	private int[] labels() {
+		int[] labels = new int[MEMORY_SIZE];
+		for (int address = 0; address < MEMORY_SIZE; address++) {
+			labels[address] = writer.newLabel();
+		}
+		return labels;
+	}
+
+	/**
+	 * Emits the checks made when entering a block at an address: that the rest of
+	 * the block fits in the step budget, and that the registers it reads are
+	 * initialised.
+	 *
+	 * @param address address being entered
+	 */
+	private void emitCheck(int address) {
+		writer.local(BytecodeWriter.ILOAD, COUNT);
+		writer.pushInt(remaining[address]);
+		writer.op(BytecodeWriter.IADD);
+		writer.local(BytecodeWriter.ILOAD, BUDGET);
+		writer.jump(BytecodeWriter.IF_ICMPGT, exit[address]); // count + remaining > budget
+		if (known[address] != 0) {
+			writer.local(BytecodeWriter.ILOAD, MASK);
+			writer.pushInt(known[address]);
+			writer.op(BytecodeWriter.IAND);
+			writer.pushInt(known[address]);
+			writer.jump(BytecodeWriter.IF_ICMPNE, exit[address]); // a needed register is uninitialised
+		}
+	}
+
+	/**
+	 * Emits the code for a single instruction.
+	 *
+	 * @param address address of the instruction
+	 * @param current instruction to emit
+	 * @param known   registers known to be initialised before it
+	 */
+	private void emitInstruction(int address, Instruction current, int known) {
+		int bail = exit[address];
+		if (alwaysExits(current)) {
+			writer.jump(BytecodeWriter.GOTO, bail);
+			return;
+		}
+
+		switch (current.opcode) {
+		case Instruction.HALT: // interpreter halts the program
+			writer.jump(BytecodeWriter.GOTO, bail);
+			break;
+
+		case Instruction.ADD:
+		case Instruction.SUBTRACT:
+			if (current.d == 0) { // 1000 does nothing
+				step();
+				break;
+			}
+			pushRegister(current.s);
+			pushRegister(current.t);
+			writer.op(current.opcode == Instruction.ADD ? BytecodeWriter.IADD : BytecodeWriter.ISUB);
+			writer.local(BytecodeWriter.ISTORE, TEMP);
+			writer.local(BytecodeWriter.ILOAD, TEMP);
+			writer.local(BytecodeWriter.ILOAD, TEMP);
+			writer.op(BytecodeWriter.I2S);
+			writer.jump(BytecodeWriter.IF_ICMPNE, bail); // overflow
+			step();
+			writer.local(BytecodeWriter.ILOAD, TEMP);
+			storeRegister(current.d, known);
+			break;
+
+		case Instruction.AND:
+		case Instruction.XOR:
+			pushRegister(current.s);
+			pushRegister(current.t);
+			writer.op(current.opcode == Instruction.AND ? BytecodeWriter.IAND : BytecodeWriter.IXOR);
+			step();
+			storeRegister(current.d, known);
+			break;
+
+		case Instruction.LEFT_SHIFT:
+		case Instruction.RIGHT_SHIFT:
+			pushRegister(current.t);
+			writer.local(BytecodeWriter.ISTORE, TEMP);
+			writer.local(BytecodeWriter.ILOAD, TEMP);
+			writer.pushInt(~0xF);
+			writer.op(BytecodeWriter.IAND);
+			writer.jump(BytecodeWriter.IFNE, bail); // shift magnitude out of bounds
+			pushRegister(current.s);
+			writer.local(BytecodeWriter.ILOAD, TEMP);
+			writer.op(current.opcode == Instruction.LEFT_SHIFT ? BytecodeWriter.ISHL : BytecodeWriter.ISHR);
+			writer.op(BytecodeWriter.I2S);
+			step();
+			storeRegister(current.d, known);
+			break;
+
+		case Instruction.LOAD_ADDRESS:
+			writer.pushInt(current.addr);
+			step();
+			storeRegister(current.d, known);
+			break;
+
+		case Instruction.LOAD:
+			writer.local(BytecodeWriter.ALOAD, MEMORY_INITIALISED);
+			writer.pushInt(current.addr);
+			writer.op(BytecodeWriter.BALOAD);
+			writer.jump(BytecodeWriter.IFEQ, bail); // memory uninitialised
+			writer.local(BytecodeWriter.ALOAD, MEMORY);
+			writer.pushInt(current.addr);
+			writer.op(BytecodeWriter.SALOAD);
+			step();
+			storeRegister(current.d, known);
+			break;
+
+		case Instruction.STORE:
+			writer.op(BytecodeWriter.ALOAD_1);
+			writer.pushInt(current.addr);
+			pushRegister(current.d);
+			writer.invoke(BytecodeWriter.INVOKEVIRTUAL, PROGRAM, "setMemory", "(IS)V");
+			step();
+			if (code[current.addr]) { // stored to compiled code
+				checkInvalidated(address);
+			}
+			break;
+
+		case Instruction.LOAD_INDIRECT:
+			pushRegister(current.t);
+			checkAddress(bail);
+			writer.local(BytecodeWriter.ALOAD, MEMORY_INITIALISED);
+			writer.local(BytecodeWriter.ILOAD, TEMP);
+			writer.op(BytecodeWriter.BALOAD);
+			writer.jump(BytecodeWriter.IFEQ, bail); // memory uninitialised
+			writer.local(BytecodeWriter.ALOAD, MEMORY);
+			writer.local(BytecodeWriter.ILOAD, TEMP);
+			writer.op(BytecodeWriter.SALOAD);
+			step();
+			storeRegister(current.d, known);
+			break;
+
+		case Instruction.STORE_INDIRECT:
+			pushRegister(current.t);
+			checkAddress(bail);
+			writer.op(BytecodeWriter.ALOAD_1);
+			writer.local(BytecodeWriter.ILOAD, TEMP);
+			pushRegister(current.d);
+			writer.invoke(BytecodeWriter.INVOKEVIRTUAL, PROGRAM, "setMemory", "(IS)V");
+			step();
+			checkInvalidated(address);
+			break;
+
+		case Instruction.BRANCH_ZERO:
+			if (current.d == 0) { // always jumps
+				step();
+				writer.jump(BytecodeWriter.GOTO, target(current.addr));
+			} else {
+				pushRegister(current.d);
+				step();
+				writer.jump(BytecodeWriter.IFEQ, target(current.addr));
+			}
+			break;
+
+		case Instruction.BRANCH_POSITIVE:
+			if (current.d == 0) { // never jumps
+				step();
+			} else {
+				pushRegister(current.d);
+				step();
+				writer.jump(BytecodeWriter.IFGT, target(current.addr));
+			}
+			break;
+
+		case Instruction.JUMP_REGISTER:
+			pushRegister(current.d);
+			writer.local(BytecodeWriter.ISTORE, PC);
+			writer.local(BytecodeWriter.ILOAD, PC);
+			writer.jump(BytecodeWriter.IFLT, bail); // program counter out of bounds
+			writer.local(BytecodeWriter.ILOAD, PC);
+			writer.pushInt(0xFF);
+			writer.jump(BytecodeWriter.IF_ICMPGT, bail);
+			step();
+			writer.jump(BytecodeWriter.GOTO, dispatch);
+			break;
+
+		default: // jump and link
+			writer.pushInt(address + 1);
+			step();
+			storeRegister(current.d, known);
+			writer.jump(BytecodeWriter.GOTO, target(current.addr));
+		}
+	}
+
+	/**
+	 * Emits code that counts a step.
+	 */
+	private void step() {
+		writer.iinc(COUNT, 1);
+	}
+
+	/**
+	 * Emits code that pushes the value of a register onto the stack.
+	 *
+	 * @param register index of the register
+	 */
+	private void pushRegister(int register) {
+		if (register == 0) { // R[0] is always 0000
+			writer.pushInt(0);
+		} else {
+			writer.local(BytecodeWriter.ILOAD, FIRST_REGISTER + register);
+		}
+	}
+
+	/**
+	 * Emits code that pops a value off the stack into a register, marking it as
+	 * initialised if it might not be already.
+	 *
+	 * @param register index of the register
+	 * @param known    registers known to be initialised
+	 */
+	private void storeRegister(int register, int known) {
+		writer.local(BytecodeWriter.ISTORE, FIRST_REGISTER + register);
+		if ((known & 1 << register) == 0) {
+			writer.local(BytecodeWriter.ILOAD, MASK);
+			writer.pushInt(1 << register);
+			writer.op(BytecodeWriter.IOR);
+			writer.local(BytecodeWriter.ISTORE, MASK);
+		}
+	}
+
+	/**
+	 * Emits code that pops an address off the stack into {@link #TEMP}, exiting if
+	 * the interpreter needs to handle it (out of bounds or stdin/stdout).
+	 *
+	 * @param bail label to exit to
+	 */
+	private void checkAddress(int bail) {
+		writer.local(BytecodeWriter.ISTORE, TEMP);
+		writer.local(BytecodeWriter.ILOAD, TEMP);
+		writer.jump(BytecodeWriter.IFLT, bail);
+		writer.local(BytecodeWriter.ILOAD, TEMP);
+		writer.pushInt(LAST_ADDRESS);
+		writer.jump(BytecodeWriter.IF_ICMPGT, bail);
+	}
+
+	/**
+	 * Emits code that exits to the interpreter after a store if the store changed
+	 * compiled code.
+	 *
+	 * @param address address of the store instruction
+	 */
+	private void checkInvalidated(int address) {
+		writer.op(BytecodeWriter.ALOAD_0);
+		writer.field(BytecodeWriter.GETFIELD, COMPILED, "invalidated", "Z");
+		writer.jump(BytecodeWriter.IFNE, exit[address + 1]);
+	}
+
+	/**
+	 * Gets the label to jump to for an address: the start of its block if it was
+	 * compiled, otherwise an exit to the interpreter.
+	 *
+	 * @param address address to jump to
+	 * @return label
+	 */
+	private int target(int address) {
+		return code[address] ? check[address] : exit[address];
+	}
+}
+
+/**
+ * Writes the bytecode of a class with a constructor and a single method, and
+ * assembles it into a class file. Keeps track of labels so jumps can be written
+ * before their targets are known.
+ */
+class BytecodeWriter {
+	static final int ALOAD_0 = 0x2A, ALOAD_1 = 0x2B, ILOAD = 0x15, ALOAD = 0x19, ISTORE = 0x36, ASTORE = 0x3A,
+			BALOAD = 0x33, SALOAD = 0x35, IADD = 0x60, ISUB = 0x64, ISHL = 0x78, ISHR = 0x7A, IAND = 0x7E, IOR = 0x80,
+			IXOR = 0x82, I2S = 0x93, IFEQ = 0x99, IFNE = 0x9A, IFLT = 0x9B, IFGT = 0x9D, IF_ICMPNE = 0xA0,
+			IF_ICMPGT = 0xA3, GOTO = 0xA7, IRETURN = 0xAC, GETFIELD = 0xB4, PUTFIELD = 0xB5,
+			INVOKEVIRTUAL = 0xB6, INVOKESPECIAL = 0xB7; // opcodes
+	private static final int ICONST_0 = 0x03, BIPUSH = 0x10, SIPUSH = 0x11, LDC_W = 0x13, IINC = 0x84,
+			TABLESWITCH = 0xAA, RETURN = 0xB1;
+	private static final int CLASS_VERSION = 49; // Java 5, before stack map frames were required
+
+	private final ByteArrayOutputStream constants = new ByteArrayOutputStream();
+	private final DataOutputStream constantsOut = new DataOutputStream(constants);
+	private final Map<String, Integer> constantIndexes = new HashMap<String, Integer>();
+	private int constantCount = 1; // constant pool indexes start at 1
+	private byte[] code = new byte[0x400];
+	private int length;
+	private final List<int[]> jumps = new ArrayList<int[]>(); // {instruction, offset position, label, width}
+	private int[] labels = new int[0x40];
+	private boolean[] used = new boolean[0x40];
+	private int labelCount;
+
+	/**
+	 * Creates a new label, which can be jumped to before it is marked.
+	 *
+	 * @return new label
+	 */
+	int newLabel() {
+		if (labelCount == labels.length) { // grow label arrays
+			labels = Arrays.copyOf(labels, labelCount * 2);
+			used = Arrays.copyOf(used, labelCount * 2);
+		}
+		labels[labelCount] = -1;
+		return labelCount++;
+	}
+
+	/**
+	 * Marks the position of a label as the current position.
+	 *
+	 * @param label label to mark
+	 */
+	void mark(int label) {
+		labels[label] = length;
+	}
+
+	/**
+	 * Checks whether anything jumps to a label.
+	 *
+	 * @param label label to check
+	 * @return whether {@code label} is used
+	 */
+	boolean isUsed(int label) {
+		return used[label];
+	}
+
+	/**
+	 * Writes an instruction with no operands.
+	 *
+	 * @param opcode opcode of the instruction
+	 */
+	void op(int opcode) {
+		u1(opcode);
+	}
+
+	/**
+	 * Writes an instruction that loads or stores a local variable.
+	 *
+	 * @param opcode opcode of the instruction
+	 * @param index  index of the local variable
+	 */
+	void local(int opcode, int index) {
+		u1(opcode);
+		u1(index);
+	}
+
+	/**
+	 * Writes an instruction that increments an {@code int} local variable.
+	 *
+	 * @param index     index of the local variable
+	 * @param increment amount to increment by
+	 */
+	void iinc(int index, int increment) {
+		u1(IINC);
+		u1(index);
+		u1(increment);
+	}
+
+	/**
+	 * Writes the shortest instruction that pushes a constant {@code int}.
+	 *
+	 * @param value value to push
+	 */
+	void pushInt(int value) {
+		if (value >= -1 && value <= 5) {
+			u1(ICONST_0 + value);
+		} else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+			u1(BIPUSH);
+			u1(value);
+		} else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+			u1(SIPUSH);
+			u2(value);
+		} else {
+			u1(LDC_W);
+			u2(constant("I" + value, 3, value));
+		}
+	}
+
+	/**
+	 * Writes an instruction that gets or puts a field.
+	 *
+	 * @param opcode     opcode of the instruction
+	 * @param owner      internal name of the class declaring the field
+	 * @param name       name of the field
+	 * @param descriptor type descriptor of the field
+	 */
+	void field(int opcode, String owner, String name, String descriptor) {
+		u1(opcode);
+		u2(memberRef(9, owner, name, descriptor));
+	}
+
+	/**
+	 * Writes an instruction that invokes a method.
+	 *
+	 * @param opcode     opcode of the instruction
+	 * @param owner      internal name of the class declaring the method
+	 * @param name       name of the method
+	 * @param descriptor type descriptor of the method
+	 */
+	void invoke(int opcode, String owner, String name, String descriptor) {
+		u1(opcode);
+		u2(memberRef(10, owner, name, descriptor));
+	}
+
+	/**
+	 * Writes a jump to a label.
+	 *
+	 * @param opcode opcode of the jump
+	 * @param label  label to jump to
+	 */
+	void jump(int opcode, int label) {
+		jumps.add(new int[] { length, length + 1, label, 2 });
+		used[label] = true;
+		u1(opcode);
+		u2(0); // offset is filled in later
+	}
+
+	/**
+	 * Writes a {@code tableswitch} on the {@code int} on top of the stack, from
+	 * {@code 0} to {@code targets.length - 1}.
+	 *
+	 * @param defaultLabel label to jump to if the value is out of range
+	 * @param targets      label to jump to for each value
+	 */
+	void tableSwitch(int defaultLabel, int[] targets) {
+		int start = length;
+		u1(TABLESWITCH);
+		while (length % 4 != 0) { // operands are aligned to 4 bytes
+			u1(0);
+		}
+		jumps.add(new int[] { start, length, defaultLabel, 4 });
+		used[defaultLabel] = true;
+		u4(0);
+		u4(0); // low
+		u4(targets.length - 1); // high
+		for (int target : targets) {
+			jumps.add(new int[] { start, length, target, 4 });
+			used[target] = true;
+			u4(0);
+		}
+	}
+
+	/**
+	 * Fills in the offsets of all jumps, then assembles a class file containing a
+	 * public no-arguments constructor and the written code as a single method.
+	 *
+	 * @param className  internal name of the class
+	 * @param superName  internal name of the superclass
+	 * @param methodName name of the method
+	 * @param descriptor type descriptor of the method
+	 * @param maxStack   maximum depth of the operand stack
+	 * @param maxLocals  number of local variables
+	 * @return class file
+	 * @throws IllegalStateException if the method is too big
+	 */
+	byte[] toClassFile(String className, String superName, String methodName, String descriptor, int maxStack,
+			int maxLocals) {
+		for (int[] jump : jumps) {
+			int offset = labels[jump[2]] - jump[0];
+			if (jump[3] == 2) {
+				if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+					throw new IllegalStateException("jump too far");
+				}
+				code[jump[1]] = (byte) (offset >> 8);
+				code[jump[1] + 1] = (byte) offset;
+			} else {
+				for (int i = 0; i < 4; i++) {
+					code[jump[1] + i] = (byte) (offset >> (24 - i * 8));
+				}
+			}
+		}
+		if (length > 0xFFFF) {
+			throw new IllegalStateException("method too big");
+		}
+
+		int thisClass = classRef(className), superClass = classRef(superName);
+		int init = memberRef(10, superName, "<init>", "()V");
+		int initName = utf8("<init>"), initDescriptor = utf8("()V");
+		int runName = utf8(methodName), runDescriptor = utf8(descriptor), codeName = utf8("Code");
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeInt(0xCAFEBABE);
+			out.writeShort(0); // minor version
+			out.writeShort(CLASS_VERSION);
+			out.writeShort(constantCount);
+			constants.writeTo(out);
+			out.writeShort(0x0001 | 0x0010 | 0x0020); // public final super
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(0); // interfaces
+			out.writeShort(0); // fields
+			out.writeShort(2); // methods
+
+			out.writeShort(0x0001); // public constructor
+			out.writeShort(initName);
+			out.writeShort(initDescriptor);
+			out.writeShort(1); // attributes
+			byte[] initCode = { (byte) ALOAD_0, (byte) INVOKESPECIAL, (byte) (init >> 8), (byte) init,
+					(byte) RETURN };
+			writeCode(out, codeName, 1, 1, initCode, initCode.length);
+
+			out.writeShort(0x0010); // final, package-private like the method it overrides
+			out.writeShort(runName);
+			out.writeShort(runDescriptor);
+			out.writeShort(1); // attributes
+			writeCode(out, codeName, maxStack, maxLocals, code, length);
+
+			out.writeShort(0); // class attributes
+		} catch (IOException e) { // cannot happen writing to memory
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Writes a {@code Code} attribute.
+	 *
+	 * @param out       stream to write to
+	 * @param codeName  constant pool index of {@code "Code"}
+	 * @param maxStack  maximum depth of the operand stack
+	 * @param maxLocals number of local variables
+	 * @param bytecode  bytecode of the method
+	 * @param size      length of the bytecode
+	 * @throws IOException if writing fails
+	 */
+	private static void writeCode(DataOutputStream out, int codeName, int maxStack, int maxLocals, byte[] bytecode,
+			int size) throws IOException {
+		out.writeShort(codeName);
+		out.writeInt(12 + size); // length of attribute
+		out.writeShort(maxStack);
+		out.writeShort(maxLocals);
+		out.writeInt(size);
+		out.write(bytecode, 0, size);
+		out.writeShort(0); // exception table
+		out.writeShort(0); // attributes
+	}
+
+	/**
+	 * Adds a {@code Utf8} constant, if it has not already been added.
+	 *
+	 * @param value string to add
+	 * @return constant pool index
+	 */
+	private int utf8(String value) {
+		return constant("U" + value, 1, value);
+	}
+
+	/**
+	 * Adds a {@code Class} constant, if it has not already been added.
+	 *
+	 * @param internalName internal name of the class
+	 * @return constant pool index
+	 */
+	private int classRef(String internalName) {
+		return constant("C" + internalName, 7, utf8(internalName));
+	}
+
+	/**
+	 * Adds a {@code Fieldref} or {@code Methodref} constant, if it has not already
+	 * been added.
+	 *
+	 * @param tag        9 for a field, 10 for a method
+	 * @param owner      internal name of the declaring class
+	 * @param name       name of the member
+	 * @param descriptor type descriptor of the member
+	 * @return constant pool index
+	 */
+	private int memberRef(int tag, String owner, String name, String descriptor) {
+		int ownerIndex = classRef(owner);
+		int nameAndType = constant("N" + name + " " + descriptor, 12, utf8(name), utf8(descriptor));
+		return constant(tag + owner + "." + name + descriptor, tag, ownerIndex, nameAndType);
+	}
+
+	/**
+	 * Adds a constant to the constant pool, if an equal one has not already been
+	 * added.
+	 *
+	 * @param key    key identifying the constant
+	 * @param tag    constant pool tag
+	 * @param values contents: a {@code String} for {@code Utf8}, an {@code int} for
+	 *               {@code Integer}, otherwise constant pool indexes
+	 * @return constant pool index
+	 */
+	private int constant(String key, int tag, Object... values) {
+		Integer index = constantIndexes.get(key);
+		if (index != null) { // already added
+			return index;
+		}
+		try {
+			constantsOut.writeByte(tag);
+			if (tag == 1) { // Utf8
+				constantsOut.writeUTF((String) values[0]);
+			} else if (tag == 3) { // Integer
+				constantsOut.writeInt((Integer) values[0]);
+			} else { // indexes of other constants
+				for (Object value : values) {
+					constantsOut.writeShort((Integer) value);
+				}
+			}
+		} catch (IOException e) { // cannot happen writing to memory
+			throw new IllegalStateException(e);
+		}
+		constantIndexes.put(key, constantCount);
+		return constantCount++;
+	}
+
+	/**
+	 * Writes a byte of code.
+	 *
+	 * @param value byte to write
+	 */
+	private void u1(int value) {
+		if (length == code.length) {
+			code = Arrays.copyOf(code, length * 2);
+		}
+		code[length++] = (byte) value;
+	}
+
+	/**
+	 * Writes two bytes of code, big-endian.
+	 *
+	 * @param value bytes to write
+	 */
+	private void u2(int value) {
+		u1(value >> 8);
+		u1(value);
+	}
+
+	/**
+	 * Writes four bytes of code, big-endian.
+	 *
+	 * @param value bytes to write
+	 */
+	private void u4(int value) {
+		u2(value >> 16);
+		u2(value);
+	}
+}
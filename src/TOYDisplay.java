@@ -9,6 +9,8 @@ import java.awt.Image;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -29,8 +31,11 @@ import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTabbedPane;
+import javax.swing.JTextArea;
 import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
 import javax.swing.SwingWorker;
+import javax.swing.Timer;
 import javax.swing.UIManager;
 import javax.swing.UnsupportedLookAndFeelException;
 import javax.swing.border.Border;
@@ -40,42 +45,67 @@ import javax.swing.border.Border;
  * Includes methods to {@linkplain #createAndShowGUI() create and show} the GUI,
  * as well as {@linkplain #update() update} it.
  */
-class TOYDisplay implements ActionListener {
+class TOYDisplay implements ActionListener, ExecutionListener {
 	Program program;
 	TOYFile loadedFile;
 	JFrame window;
 	JPanel wrapperPanel, otherInfoPanel, corePanel, registersDisplay, memoryDisplay, corePadding, currentValuesDisplay,
-			currentValuesLabels, pcLabelPanel, currentInstructionLabelPanel, currentValuesPanel, pcValuePanel,
-			currentInstructionValuePanel, currentValuesPadding, ioAndButtonsPanel, ioPanel, inputPanel, inputTextPanel,
-			outputPanel, inputLabelPanel, outputLabelPanel, inputDisplay, outputDisplay, buttonsPanel, runButtonPanel,
-			stopButtonPanel, resetButtonPanel;
-	JLabel pcLabel, currentInstructionLabel, pcValue, currentInstructionValue, inputLabel, outputLabel;
+			currentValuesLabels, pcLabelPanel, currentInstructionLabelPanel, breakLabelPanel, currentValuesPanel,
+			pcValuePanel, currentInstructionValuePanel, breakValuePanel, currentValuesPadding, ioAndButtonsPanel,
+			ioPanel, inputPanel, inputTextPanel, outputPanel, inputLabelPanel, outputLabelPanel, inputDisplay,
+			outputDisplay, buttonsPanel, runButtonPanel, stepButtonPanel, stopButtonPanel, resetButtonPanel,
+			stepBackButtonPanel, runBackButtonPanel;
+	JLabel pcLabel, currentInstructionLabel, breakLabel, pcValue, currentInstructionValue, breakValue, inputLabel,
+			outputLabel;
 	JScrollPane registersScrollPane, memoryScrollPane, inputScrollPane, outputScrollPane;
 	JTabbedPane coreTabs;
 	JTextField inputTextField;
-	JButton runButton, stopButton, resetButton;
+	JButton runButton, stepButton, stopButton, resetButton, stepBackButton, runBackButton;
 	JMenuBar menuBar;
-	JMenu fileMenu, helpMenu;
-	JMenuItem openMenuItem, formatMenuItem, exitMenuItem, userManualMenuItem;
+	JMenu fileMenu, viewMenu, helpMenu;
+	JMenuItem openMenuItem, formatMenuItem, exitMenuItem, profileMenuItem, userManualMenuItem;
 	JFileChooser fileChooser;
-	JLabel[] registerLabels, memoryLabels, inputLabels, outputLabels;
-	String[] registers, stdinArray, stdoutArray;
-	Instruction[] memory;
+	Timer refreshTimer;
+	JLabel[] registerLabels, memoryLabels;
+	Program shownProgram; // program (and generation) currently shown in stdin and stdout panels
+	int shownGeneration;
+	long shownStdinRead, shownStdout;
+	Program markedProgram; // program (and state and PC) that unreachableCells was last worked out for
+	long markedStateVersion;
+	short markedProgramCounter;
+	boolean[] unreachableCells;
 	String lineNumber;
 	Instruction currentInstruction;
 	static final String NULL_REGISTER_DISPLAY = "????", // assuming registers and instructions are always length 4
 			TITLE = "TOY Emulator", USER_MANUAL_PATH = "User Manual.pdf";
+	static final int FRAME_RATE = 60; // times per second the display is updated while a program is running
+	static final Color BREAKPOINT_COLOUR = Color.RED, WATCHPOINT_COLOUR = new Color(0xE0A000); // marks cells
+	static final Color UNREACHABLE_COLOUR = Color.GRAY; // text of memory that is neither reachable code nor data
+	static final Border WATCHED_BORDER = BorderFactory.createLineBorder(WATCHPOINT_COLOUR),
+			UNWATCHED_BORDER = BorderFactory.createEmptyBorder(1, 1, 1, 1); // same size either way
+	static final Color[] HEAT_COLOURS = new Color[0x10]; // backgrounds of memory, from rarely to most executed
+	static final int PROFILE_REPORT_LENGTH = 10; // hottest addresses and loops shown in the profile report
+	static final String MEMORY_TOOLTIP = "Click to toggle a breakpoint, right-click to toggle a watchpoint",
+			REGISTER_TOOLTIP = "Click to toggle a watchpoint";
 	static final Font LABEL_FONT = new Font(Font.DIALOG, Font.BOLD, 14),
 			CODE_FONT = new Font(Font.MONOSPACED, Font.PLAIN, 14);
 	static Program DEFAULT_PROGRAM = new Program(null);
 
+	static { // fade from white to orange, so hot addresses stand out
+		for (int i = 0; i < HEAT_COLOURS.length; i++) {
+			int fade = 0xFF - 0xA0 * (i + 1) / HEAT_COLOURS.length;
+			HEAT_COLOURS[i] = new Color(0xFF, 0xFF - (0xFF - fade) / 2, fade);
+		}
+	}
+
 	/**
 	 * Links the display to a given {@linkplain Program}. This allows the GUI to
 	 * display information specific to the program, and the program to update the
-	 * GUI when required.
+	 * GUI when it stops running or is reset. While the program is running, the GUI
+	 * is updated by {@link #refreshTimer} instead.
 	 * 
 	 * @param program program object to link to
-	 * @see Program#setDisplay(TOYDisplay)
+	 * @see Program#addListener(ExecutionListener)
 	 * @see #setProgram(Program)
 	 */
 	private void link(Program program) {
@@ -83,7 +113,7 @@ class TOYDisplay implements ActionListener {
 		// DEFAULT_PROGRAM being loaded indicates that the user has not yet loaded their
 		// own, and will disable some features of the GUI (helps avoid some errors).
 
-		programToUse.setDisplay(this); // sets the program's display to this
+		programToUse.addListener(this); // update display when program stops running
 		setProgram(programToUse); // sets this's program to the program
 	}
 
@@ -108,19 +138,27 @@ class TOYDisplay implements ActionListener {
 	private void init() {
 		link(null); // link to nothing (will use DEFAULT_PROGRAM)
 
-		registers = program.getRegisters(); // get program's registers
-		memory = program.getMemory(); // get program's memory
 		lineNumber = program.getLineNumber(); // get program's current line number (hex string)
 		currentInstruction = program.getCurrentInstruction(); // get program's current instruction
-		stdinArray = program.stdin.toArray(new String[0]); // get program's stdin as a string array
-		stdoutArray = program.stdout.toArray(new String[0]); // get program's stdout as a string array
 		final String pcLabelText = "Program Counter", currentInstructionLabelText = "Current Instruction",
-				inputLabelText = "Standard Input", outputLabelText = "Standard Output", runButtonText = "Run",
-				stopButtonText = "Stop", resetButtonText = "Reset", registersText = "Registers", memoryText = "Memory",
-				fileMenuText = "File", openMenuItemText = "Open", formatMenuItemText = "Format",
-				exitMenuItemText = "Exit", helpMenuText = "Help", userManualMenuItemText = "Open User Manual";
+				breakLabelText = "Stopped By", inputLabelText = "Standard Input", outputLabelText = "Standard Output",
+				runButtonText = "Run", stepButtonText = "Step", stopButtonText = "Stop", resetButtonText = "Reset",
+				stepBackButtonText = "Step Back", runBackButtonText = "Run Back", registersText = "Registers",
+				memoryText = "Memory", fileMenuText = "File", openMenuItemText = "Open", formatMenuItemText = "Format",
+				exitMenuItemText = "Exit", viewMenuText = "View", profileMenuItemText = "Profile",
+				helpMenuText = "Help", userManualMenuItemText = "Open User Manual";
 		final Border lineBorder = BorderFactory.createLineBorder(Color.BLACK, 2); // used occasionally
 
+		refreshTimer = new Timer(1000 / FRAME_RATE, new ActionListener() { // samples program while it runs, on the EDT
+			public void actionPerformed(ActionEvent event) {
+				if (!program.isRunning()) { // program has stopped
+					refreshTimer.stop(); // listener will do final update
+				}
+				update(); // timed like any other update
+			}
+		});
+		refreshTimer.setCoalesce(true); // skip frames rather than queueing them if the EDT falls behind
+
 		openMenuItem = new JMenuItem(openMenuItemText);
 		openMenuItem.setMnemonic(KeyEvent.VK_O); // selected when alt+O is pressed
 		openMenuItem.addActionListener(this);
@@ -140,6 +178,14 @@ class TOYDisplay implements ActionListener {
 		fileMenu.addSeparator(); // separating line
 		fileMenu.add(exitMenuItem);
 
+		profileMenuItem = new JMenuItem(profileMenuItemText);
+		profileMenuItem.setMnemonic(KeyEvent.VK_P); // selected when alt+P is pressed
+		profileMenuItem.addActionListener(this);
+
+		viewMenu = new JMenu(viewMenuText);
+		viewMenu.setMnemonic(KeyEvent.VK_V); // selected when alt+V is pressed
+		viewMenu.add(profileMenuItem);
+
 		userManualMenuItem = new JMenuItem(userManualMenuItemText);
 		userManualMenuItem.setMnemonic(KeyEvent.VK_U); // selected when alt+U is pressed
 		userManualMenuItem.addActionListener(this);
@@ -150,6 +196,7 @@ class TOYDisplay implements ActionListener {
 
 		menuBar = new JMenuBar();
 		menuBar.add(fileMenu);
+		menuBar.add(viewMenu);
 		menuBar.add(helpMenu);
 
 		pcLabel = new JLabel(pcLabelText);
@@ -170,9 +217,19 @@ class TOYDisplay implements ActionListener {
 		currentInstructionLabelPanel.setLayout(new BoxLayout(currentInstructionLabelPanel, BoxLayout.X_AXIS));
 		currentInstructionLabelPanel.setOpaque(false);
 
+		breakLabel = new JLabel(breakLabelText);
+		breakLabel.setFont(LABEL_FONT);
+
+		breakLabelPanel = new JPanel();
+		breakLabelPanel.add(Box.createHorizontalGlue()); // align breakLabel to the right
+		breakLabelPanel.add(breakLabel);
+		breakLabelPanel.setLayout(new BoxLayout(breakLabelPanel, BoxLayout.X_AXIS));
+		breakLabelPanel.setOpaque(false);
+
 		currentValuesLabels = new JPanel();
 		currentValuesLabels.add(pcLabelPanel);
 		currentValuesLabels.add(currentInstructionLabelPanel);
+		currentValuesLabels.add(breakLabelPanel);
 		currentValuesLabels.setBorder(BorderFactory.createEmptyBorder(2, 4, 2, 5)); // padding
 		currentValuesLabels.setLayout(new BoxLayout(currentValuesLabels, BoxLayout.Y_AXIS));
 		currentValuesLabels.setOpaque(false);
@@ -195,10 +252,20 @@ class TOYDisplay implements ActionListener {
 		currentInstructionValuePanel.setLayout(new BoxLayout(currentInstructionValuePanel, BoxLayout.X_AXIS));
 		currentInstructionValuePanel.setOpaque(false);
 
+		breakValue = new JLabel(" "); // empty until the program stops at a breakpoint or watchpoint
+		breakValue.setFont(CODE_FONT);
+
+		breakValuePanel = new JPanel();
+		breakValuePanel.add(breakValue);
+		breakValuePanel.add(Box.createHorizontalGlue()); // align breakValue to the left
+		breakValuePanel.setLayout(new BoxLayout(breakValuePanel, BoxLayout.X_AXIS));
+		breakValuePanel.setOpaque(false);
+
 		currentValuesPanel = new JPanel();
 		currentValuesPanel.add(pcValuePanel);
 		currentValuesPanel.add(currentInstructionValuePanel);
-		currentValuesPanel.setPreferredSize(new Dimension(300, 50));
+		currentValuesPanel.add(breakValuePanel);
+		currentValuesPanel.setPreferredSize(new Dimension(300, 75));
 		currentValuesPanel.setBorder(BorderFactory.createEmptyBorder(2, 2, 2, 2)); // padding
 		currentValuesPanel.setLayout(new BoxLayout(currentValuesPanel, BoxLayout.Y_AXIS));
 		currentValuesPanel.setOpaque(false);
@@ -237,8 +304,6 @@ class TOYDisplay implements ActionListener {
 		inputTextPanel.setOpaque(false);
 
 		inputDisplay = new JPanel();
-		inputLabels = arrayToLabels(stdinArray, 0); // convert stdin to JLabel[] array
-		labelsOntoPanel(inputLabels, inputDisplay); // add stdin labels to panel
 		inputDisplay.setBorder(BorderFactory.createEmptyBorder(5, 10, 5, 5)); // padding
 		inputDisplay.setLayout(new BoxLayout(inputDisplay, BoxLayout.Y_AXIS));
 		inputDisplay.setOpaque(false);
@@ -266,8 +331,6 @@ class TOYDisplay implements ActionListener {
 		outputLabelPanel.setOpaque(false);
 
 		outputDisplay = new JPanel();
-		outputLabels = arrayToLabels(stdoutArray, 0); // convert stdout to JLabel[] array
-		labelsOntoPanel(outputLabels, outputDisplay); // add stdout labels to panel
 		outputDisplay.setBorder(BorderFactory.createEmptyBorder(5, 10, 5, 5)); // padding
 		outputDisplay.setLayout(new BoxLayout(outputDisplay, BoxLayout.Y_AXIS));
 		outputDisplay.setOpaque(false);
@@ -299,6 +362,15 @@ class TOYDisplay implements ActionListener {
 		runButtonPanel.setLayout(new BoxLayout(runButtonPanel, BoxLayout.X_AXIS));
 		runButtonPanel.setOpaque(false);
 
+		stepButton = new JButton(stepButtonText);
+		stepButton.addActionListener(this);
+
+		stepButtonPanel = new JPanel();
+		stepButtonPanel.add(stepButton);
+		stepButtonPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10)); // padding
+		stepButtonPanel.setLayout(new BoxLayout(stepButtonPanel, BoxLayout.X_AXIS));
+		stepButtonPanel.setOpaque(false);
+
 		stopButton = new JButton(stopButtonText);
 		stopButton.addActionListener(this);
 
@@ -317,10 +389,31 @@ class TOYDisplay implements ActionListener {
 		resetButtonPanel.setLayout(new BoxLayout(resetButtonPanel, BoxLayout.X_AXIS));
 		resetButtonPanel.setOpaque(false);
 
+		stepBackButton = new JButton(stepBackButtonText);
+		stepBackButton.addActionListener(this);
+
+		stepBackButtonPanel = new JPanel();
+		stepBackButtonPanel.add(stepBackButton);
+		stepBackButtonPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10)); // padding
+		stepBackButtonPanel.setLayout(new BoxLayout(stepBackButtonPanel, BoxLayout.X_AXIS));
+		stepBackButtonPanel.setOpaque(false);
+
+		runBackButton = new JButton(runBackButtonText);
+		runBackButton.addActionListener(this);
+
+		runBackButtonPanel = new JPanel();
+		runBackButtonPanel.add(runBackButton);
+		runBackButtonPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10)); // padding
+		runBackButtonPanel.setLayout(new BoxLayout(runBackButtonPanel, BoxLayout.X_AXIS));
+		runBackButtonPanel.setOpaque(false);
+
 		buttonsPanel = new JPanel();
 		buttonsPanel.add(runButtonPanel);
+		buttonsPanel.add(stepButtonPanel);
 		buttonsPanel.add(stopButtonPanel);
 		buttonsPanel.add(resetButtonPanel);
+		buttonsPanel.add(stepBackButtonPanel);
+		buttonsPanel.add(runBackButtonPanel);
 		buttonsPanel.add(Box.createVerticalGlue()); // align all buttons to top
 		buttonsPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 0, 10)); // padding
 		buttonsPanel.setLayout(new BoxLayout(buttonsPanel, BoxLayout.Y_AXIS));
@@ -339,9 +432,18 @@ class TOYDisplay implements ActionListener {
 		otherInfoPanel.setLayout(new BoxLayout(otherInfoPanel, BoxLayout.Y_AXIS));
 		otherInfoPanel.setOpaque(false);
 
+		MouseAdapter cellClickListener = new MouseAdapter() { // toggles breakpoints and watchpoints
+			public void mouseClicked(MouseEvent event) {
+				toggleDebugPoint((JLabel) event.getSource(), SwingUtilities.isRightMouseButton(event));
+			}
+		};
+
 		registersDisplay = new JPanel();
-		registerLabels = arrayToLabels(registers, 1); // convert registers to JLabel[] array
-		labelsOntoPanel(registerLabels, registersDisplay); // add register labels to panel
+		registerLabels = labelsOntoPanel(program.getRegisters().length, registersDisplay); // one label per register
+		for (JLabel label : registerLabels) {
+			label.addMouseListener(cellClickListener);
+			label.setToolTipText(REGISTER_TOOLTIP);
+		}
 		registersDisplay.setBorder(BorderFactory.createEmptyBorder(0, 10, 5, 5)); // padding
 		registersDisplay.setLayout(new BoxLayout(registersDisplay, BoxLayout.Y_AXIS));
 		registersDisplay.setOpaque(false);
@@ -351,8 +453,12 @@ class TOYDisplay implements ActionListener {
 		registersScrollPane.setOpaque(false);
 
 		memoryDisplay = new JPanel();
-		memoryLabels = arrayToLabels(memoryToStringArray(memory), 2); // convert memory to JLabel[] array
-		labelsOntoPanel(memoryLabels, memoryDisplay); // add memory labels to panel
+		memoryLabels = labelsOntoPanel(program.getMemory().length, memoryDisplay); // one label per memory address
+		for (JLabel label : memoryLabels) {
+			label.addMouseListener(cellClickListener);
+			label.setToolTipText(MEMORY_TOOLTIP);
+		}
+		markCells(); // no breakpoints or watchpoints yet, but leave room to outline watched cells
 		memoryDisplay.setBorder(BorderFactory.createEmptyBorder(0, 10, 5, 5)); // padding
 		memoryDisplay.setLayout(new BoxLayout(memoryDisplay, BoxLayout.Y_AXIS));
 		memoryDisplay.setOpaque(false);
@@ -388,94 +494,54 @@ class TOYDisplay implements ActionListener {
 	}
 
 	/**
-	 * Adds all the labels in an array to a given panel. Will first remove all the
-	 * existing components of the panel.
+	 * Creates a number of empty labels and adds them to a given panel. These are
+	 * created once, then their text is {@linkplain #updateCells() updated} as the
+	 * program changes.
 	 * 
-	 * @param labels array of labels to add to panel
-	 * @param panel  panel to add labels to
-	 * @see JPanel#removeAll()
+	 * @param count number of labels to create
+	 * @param panel panel to add labels to
+	 * @return array of the labels
 	 */
-	private static void labelsOntoPanel(JLabel[] labels, JPanel panel) {
-		panel.removeAll(); // remove all the components of panel
+	private static JLabel[] labelsOntoPanel(int count, JPanel panel) {
+		JLabel[] labels = new JLabel[count]; // initialise JLabel array
 
-		for (JLabel label : labels) { // iterate over labels
-			label.setFont(CODE_FONT); // set font to CODE_FONT
-			panel.add(label); // add label to panel
-		}
-	}
-
-	/**
-	 * Converts a string array to an array of {@link JLabel}s.
-	 * 
-	 * @param arr            array to convert
-	 * @param hexIndexLength digits of hex index to show (passed to
-	 *                       {@link #arrayToDisplay(String[], int)})
-	 * @return array of {@link JLabel}s
-	 * @see #arrayToDisplay(String[], int)
-	 */
-	private static JLabel[] arrayToLabels(String[] arr, int hexIndexLength) {
-		String[] arrayToDisplay = arrayToDisplay(arr, hexIndexLength); // make arr displayable
-		JLabel[] labels = new JLabel[arrayToDisplay.length]; // initialise JLabel array same length as input
-
-		String arrItem;
-		for (int i = 0; i < arrayToDisplay.length; i++) { // iterate over arrayToDisplay
-			arrItem = arrayToDisplay[i]; // temporary variable: current item of arrayToDisplay
-			labels[i] = new JLabel(arrItem); // convert arrItem to JLabel, add to label array
+		for (int i = 0; i < count; i++) { // iterate over labels
+			labels[i] = createLabel(NULL_REGISTER_DISPLAY); // placeholder text until first update
+			panel.add(labels[i]); // add label to panel
 		}
 
 		return labels;
 	}
 
 	/**
-	 * Transforms a string array into a form displayable in the GUI. If an item is
-	 * null, it will be replaced with {@value #NULL_REGISTER_DISPLAY}. Optionally,
-	 * hex digits representing the index of each item will be appended to the front,
-	 * specified by the {@code hexIndexLength} parameter.
+	 * Creates a label with the given text in {@link #CODE_FONT}.
 	 * 
-	 * @param arr            array to format
-	 * @param hexIndexLength how many digits of hex index to show
-	 * @return formatted array
+	 * @param text text of the label
+	 * @return new label
 	 */
-	private static String[] arrayToDisplay(String[] arr, int hexIndexLength) {
-		String[] arrayToDisplay = arr.clone(); // initialise arrayToDisplay to be the same as input array
-
-		String item, hexIndex, itemToAdd;
-		for (int i = 0; i < arr.length; i++) { // iterate over input array
-			item = arr[i]; // temporary variable: current item of input array
-
-			item = item == null ? NULL_REGISTER_DISPLAY : item; // set item to "????" instead of null
-			if (hexIndexLength == 0) { // hexIndexLength is 0, do not add hex index
-				itemToAdd = item; // just add item
-			} else {
-				// i converted to a hex string, padded with "0"s until it is hexIndexLength
-				hexIndex = String.format("%0" + hexIndexLength + "X", i);
-				itemToAdd = hexIndex + " " + item; // prefix item with hex index and a space
-			}
-
-			arrayToDisplay[i] = itemToAdd; // add item to array to be returned
-		}
-
-		return arrayToDisplay;
+	private static JLabel createLabel(String text) {
+		JLabel label = new JLabel(text);
+		label.setFont(CODE_FONT); // set font to CODE_FONT
+		return label;
 	}
 
 	/**
-	 * Converts a memory ({@code Instruction[]}) array to a {@code String[]} array,
-	 * for use in {@link #arrayToLabels(String[], int)}.
+	 * Formats a register or memory address for display in the GUI. Hex digits
+	 * representing the index of the item are added to the front, followed by the
+	 * word in hex. If the item is uninitialised, the word will be replaced with
+	 * {@value #NULL_REGISTER_DISPLAY}.
 	 * 
-	 * @param memory array to convert
-	 * @return array as {@code String[]} array
-	 * @see #arrayToLabels(String[], int)
+	 * @param index          index of the item
+	 * @param hexIndexLength how many digits of hex index to show
+	 * @param initialised    whether the item is initialised
+	 * @param word           value of the item
+	 * @return formatted item
 	 */
-	private static String[] memoryToStringArray(Instruction[] memory) {
-		String[] stringArray = new String[memory.length]; // create new string array with the same size as memory
-
-		for (int i = 0; i < memory.length; i++) { // iterate over memory
-			Instruction instr = memory[i]; // temporary variable representing current item in memory
-			// convert memory to hex (or "????" if null) and add to string array
-			stringArray[i] = instr == null ? NULL_REGISTER_DISPLAY : instr.asHex();
-		}
-
-		return stringArray;
+	private static String cellText(int index, int hexIndexLength, boolean initialised, short word) {
+		String item = initialised ? Instruction.shortToHex(word) : NULL_REGISTER_DISPLAY; // "????" if uninitialised
+		// index converted to a hex string, padded with "0"s until it is hexIndexLength
+		String hexIndex = String.format("%0" + hexIndexLength + "X", index);
+		return hexIndex + " " + item; // prefix item with hex index and a space
 	}
 
 	/**
@@ -520,19 +586,18 @@ class TOYDisplay implements ActionListener {
 
 	/**
 	 * Displays a given error message as a popup on the screen. Executed
-	 * asynchronously (not in the event dispatch thread).
+	 * asynchronously (later in the event dispatch thread).
 	 * 
 	 * @param errorMessage error message to display
 	 */
 	void showErrorMessage(String errorMessage) {
 		final String errorTitle = "Error"; // title of error message popup
-		new SwingWorker<Void, Void>() { // same as runButton code
-			public Void doInBackground() {
+		SwingUtilities.invokeLater(new Runnable() { // add to EDT queue rather than executing immediately
+			public void run() {
 				// show error dialog box with given title, message, and using the built-in icon
 				JOptionPane.showMessageDialog(window, errorMessage, errorTitle, JOptionPane.ERROR_MESSAGE);
-				return null;
 			}
-		}.execute();
+		});
 	}
 
 	/**
@@ -603,7 +668,9 @@ class TOYDisplay implements ActionListener {
 
 	/**
 	 * {@inheritDoc} Handles the functionality of all buttons as well as updating
-	 * the GUI's displayed values while the program is running.
+	 * the GUI's displayed values, e.g. while the program is running (when
+	 * {@link #refreshTimer} fires and calls {@link #update()}). Always called on
+	 * the event dispatch thread.
 	 * 
 	 * @see #update()
 	 */
@@ -623,14 +690,21 @@ class TOYDisplay implements ActionListener {
 
 			} else if (source.equals(runButton)) { // "Run" button is pressed
 				if (!program.isRunning()) { // program is not running
+					final Program programToRun = program; // program may be changed while running
 					new SwingWorker<Void, Void>() { // create a new worker thread
 						// this is done so GUI will still be able to update while program is running
 						// otherwise the Event Dispatch Thread will be blocked
 						public Void doInBackground() { // execute on new thread (in background)
-							program.run(); // run program
+							programToRun.run(); // run program at full speed, without touching the GUI
 							return null; // do not return anything (only option for Void type)
 						}
 					}.execute(); // execute thread
+					refreshTimer.start(); // sample program state until it stops running
+				}
+
+			} else if (source.equals(stepButton)) { // "Step" button is pressed
+				if (!program.isRunning()) { // program is not running
+					program.run(1); // execute a single instruction, which is quick enough to do here
 				}
 
 			} else if (source.equals(stopButton)) { // "Stop" button is pressed
@@ -639,6 +713,13 @@ class TOYDisplay implements ActionListener {
 			} else if (source.equals(resetButton)) { // "Reset" button is pressed
 				program.reset(); // reset program
 
+			} else if (source.equals(stepBackButton)) { // "Step Back" button is pressed
+				program.stepBack(); // undo last step
+
+			} else if (source.equals(runBackButton)) { // "Run Back" button is pressed
+				Breakpoints breakpoints = program.getBreakpoints();
+				program.runBack(breakpoints == null ? null : breakpoints.addresses); // undo until a breakpoint
+
 			} else if (source.equals(openMenuItem)) { // "Open" menu item pressed
 
 				loadedFile = loadFileFromChooser(); // get loadedFile from file chooser
@@ -649,7 +730,11 @@ class TOYDisplay implements ActionListener {
 					if (programIsValid) { // if new program is a valid TOY program
 						program = programToLoad; // set program to new program
 						program.loadToMemory(); // load new program to memory
+						program.setUndoLog(new UndoLog(UndoLog.DEFAULT_CAPACITY)); // so steps can be undone
+						program.setBreakpoints(new Breakpoints()); // none set yet
+						program.setProfiler(new Profiler()); // for the heat map
 						link(program); // link display and new program
+						markCells(); // clear marks of any breakpoints of the last program
 						window.setTitle(TITLE + " - " + loadedFile.getFilename()); // add current file to window title
 					}
 				}
@@ -668,6 +753,9 @@ class TOYDisplay implements ActionListener {
 					showErrorMessage(e.getMessage()); // display dialog box for any errors
 				}
 
+			} else if (source.equals(profileMenuItem)) { // "Profile" menu item pressed
+				showProfile(); // show where the program has spent its steps
+
 			} else if (source.equals(exitMenuItem)) { // "Exit" menu item pressed
 				System.exit(0); // exit application
 
@@ -684,10 +772,12 @@ class TOYDisplay implements ActionListener {
 
 		if (program.isRunning()) { // program is running
 			runButton.setEnabled(false);
+			stepButton.setEnabled(false);
 			stopButton.setEnabled(true);
 			resetButton.setEnabled(false);
 		} else { // program is not running
 			runButton.setEnabled(true);
+			stepButton.setEnabled(true);
 			stopButton.setEnabled(false);
 		}
 
@@ -699,17 +789,25 @@ class TOYDisplay implements ActionListener {
 
 		if (program.isFinished()) { // program has finished running
 			runButton.setEnabled(false);
+			stepButton.setEnabled(false);
 		}
 
+		boolean canStepBack = program.canStepBack(); // not running and has steps to undo
+		stepBackButton.setEnabled(canStepBack);
+		runBackButton.setEnabled(canStepBack);
+
 		if (program == DEFAULT_PROGRAM) { // no program is loaded
 			runButton.setEnabled(false);
+			stepButton.setEnabled(false);
 			stopButton.setEnabled(false);
 			resetButton.setEnabled(false);
 			inputTextField.setEnabled(false);
 			formatMenuItem.setEnabled(false);
+			profileMenuItem.setEnabled(false);
 		} else { // program is loaded
 			inputTextField.setEnabled(true);
 			formatMenuItem.setEnabled(true);
+			profileMenuItem.setEnabled(program.getProfiler() != null && !program.isRunning());
 		}
 
 		if (program.errorOccurred()) { // program threw an exception
@@ -719,33 +817,277 @@ class TOYDisplay implements ActionListener {
 
 		pcValue.setText(program.getLineNumber()); // set pcValue to current program counter (as hex)
 		currentInstructionValue.setText(getCurrentInstructionDisplay()); // set to current instruction (with comment)
+		String breakMessage = program.getBreakMessage(); // set while stopped at a breakpoint or watchpoint
+		breakValue.setText(breakMessage == null || program.isRunning() ? " " : breakMessage);
+
+		updateCells(); // update registers and memory that have changed
+		if (!program.isRunning()) { // memory may have changed, so find unreachable cells again
+			markCells();
+		}
+		updateHeat(); // colour memory by how often each address has been executed
+		updateStdio(); // add and remove stdin and stdout that have changed
+	}
+
+	/**
+	 * Updates the labels of registers and memory addresses that have changed since
+	 * the last update. The program marks each register and memory address it
+	 * changes as dirty, so only those labels need their text changed.
+	 * 
+	 * @see Program#clearDirtyRegister(int)
+	 * @see Program#clearDirtyMemory(int)
+	 */
+	private void updateCells() {
+		short[] registers = program.getRegisters(); // get program's register array
+		boolean[] registersInitialised = program.getRegistersInitialised(); // get which registers are initialised
+		short[] memory = program.getMemory(); // get program's memory array
+		boolean[] memoryInitialised = program.getMemoryInitialised(); // get which memory addresses are initialised
+
+		for (int i = 0; i < registerLabels.length; i++) { // iterate over registers
+			if (program.clearDirtyRegister(i)) { // register has changed
+				registerLabels[i].setText(cellText(i, 1, registersInitialised[i], registers[i]));
+			}
+		}
 
-		registers = program.getRegisters(); // get program's register array
-		memory = program.getMemory(); // get program's memory array
-		stdinArray = program.stdin.toArray(new String[0]); // get stdin as String array
-		stdoutArray = program.stdout.toArray(new String[0]); // get stdout as String array
-
-		registerLabels = arrayToLabels(registers, 1); // registers to label array
-		labelsOntoPanel(registerLabels, registersDisplay); // add onto registersDisplay
-		memoryLabels = arrayToLabels(memoryToStringArray(memory), 2); // memory to label array
-		labelsOntoPanel(memoryLabels, memoryDisplay); // add onto memoryDisplay
-		inputLabels = arrayToLabels(stdinArray, 0); // stdin to label array
-		labelsOntoPanel(inputLabels, inputDisplay); // add onto inputDisplay
-		outputLabels = arrayToLabels(stdoutArray, 0); // stdout to label array
-		labelsOntoPanel(outputLabels, outputDisplay); // add onto outputDisplay
-
-		inputDisplay.repaint();
-		outputDisplay.repaint();
-		window.validate(); // redraw all GUI components in window
+		for (int i = 0; i < memoryLabels.length; i++) { // iterate over memory
+			if (program.clearDirtyMemory(i)) { // memory address has changed
+				memoryLabels[i].setText(cellText(i, 2, memoryInitialised[i], memory[i]));
+			}
+		}
 	}
 
 	/**
-	 * Updates the display and all its GUI components.
+	 * Toggles a breakpoint or watchpoint on the register or memory address of a
+	 * label that has been clicked. Clicking a memory address toggles a breakpoint
+	 * and right-clicking it toggles a watchpoint, while clicking a register always
+	 * toggles a watchpoint.
+	 * 
+	 * @param label      label clicked
+	 * @param rightClick whether it was right-clicked
+	 * @see Breakpoints
+	 */
+	private void toggleDebugPoint(JLabel label, boolean rightClick) {
+		Breakpoints breakpoints = program.getBreakpoints();
+		if (breakpoints == null) { // no program is loaded
+			return;
+		}
+
+		for (int i = 0; i < memoryLabels.length; i++) {
+			if (memoryLabels[i] == label) {
+				if (rightClick) {
+					breakpoints.setMemoryWatch(i, !breakpoints.isMemoryWatched(i));
+				} else {
+					breakpoints.setBreakpoint(i, !breakpoints.hasBreakpoint(i));
+				}
+			}
+		}
+		for (int i = 0; i < registerLabels.length; i++) {
+			if (registerLabels[i] == label) {
+				breakpoints.setRegisterWatch(i, !breakpoints.isRegisterWatched(i));
+			}
+		}
+		markCells();
+	}
+
+	/**
+	 * Marks the labels of registers and memory addresses with breakpoints (in
+	 * {@link #BREAKPOINT_COLOUR} text) and watchpoints (outlined in
+	 * {@link #WATCHPOINT_COLOUR}), and memory addresses the program can never
+	 * execute or use as data (in {@link #UNREACHABLE_COLOUR} text). The
+	 * {@link ControlFlowGraph} is only built again once memory or the program
+	 * counter has changed, so stepping through code that only changes registers
+	 * does not rebuild it.
+	 * 
+	 * @see ControlFlowGraph#unreachable
+	 */
+	private void markCells() {
+		Breakpoints breakpoints = program.getBreakpoints();
+		if (program != markedProgram || program.getStateVersion() != markedStateVersion
+				|| program.getProgramCounter() != markedProgramCounter) { // graph may have changed
+			unreachableCells = program.controlFlowGraph().unreachable;
+			markedProgram = program;
+			markedStateVersion = program.getStateVersion();
+			markedProgramCounter = program.getProgramCounter();
+		}
+		for (int i = 0; i < memoryLabels.length; i++) {
+			boolean breakpoint = breakpoints != null && breakpoints.hasBreakpoint(i);
+			markCell(memoryLabels[i], breakpoint, breakpoints != null && breakpoints.isMemoryWatched(i),
+					unreachableCells[i]);
+		}
+		for (int i = 0; i < registerLabels.length; i++) {
+			markCell(registerLabels[i], false, breakpoints != null && breakpoints.isRegisterWatched(i), false);
+		}
+	}
+
+	/**
+	 * Marks a label of a register or memory address. Its colour and border are
+	 * only set if they have changed, as setting either repaints the label.
+	 * 
+	 * @param label       label to mark
+	 * @param breakpoint  whether there is a breakpoint at the address
+	 * @param watched     whether there is a watchpoint on the register or
+	 *                    address
+	 * @param unreachable whether the address is neither reachable code nor data
+	 */
+	private static void markCell(JLabel label, boolean breakpoint, boolean watched, boolean unreachable) {
+		Color foreground = breakpoint ? BREAKPOINT_COLOUR : unreachable ? UNREACHABLE_COLOUR : Color.BLACK;
+		if (label.getForeground() != foreground) {
+			label.setForeground(foreground);
+		}
+		Border border = watched ? WATCHED_BORDER : UNWATCHED_BORDER;
+		if (label.getBorder() != border) {
+			label.setBorder(border);
+		}
+	}
+
+	/**
+	 * Colours the background of each memory label by how many times the
+	 * instruction at its address has been executed, as counted by the program's
+	 * {@link Profiler}, relative to the most executed address. Addresses that have
+	 * never been executed are left white.
+	 */
+	private void updateHeat() {
+		Profiler profiler = program.getProfiler();
+		long[] counts = profiler == null ? new long[memoryLabels.length] : profiler.counts; // read while running
+		long max = 0;
+		for (long count : counts) {
+			max = Math.max(max, count);
+		}
+
+		for (int i = 0; i < memoryLabels.length; i++) {
+			long count = counts[i];
+			if (memoryLabels[i].isOpaque() != count > 0) { // only paint background of executed addresses
+				memoryLabels[i].setOpaque(count > 0);
+				memoryLabels[i].repaint();
+			}
+			if (count > 0) { // scaled by square root, so addresses run a few times still show
+				double heat = Math.sqrt((double) count / max);
+				memoryLabels[i].setBackground(HEAT_COLOURS[(int) (heat * (HEAT_COLOURS.length - 1))]); // repaints
+			}
+		}
+	}
+
+	/**
+	 * Shows a report of where the program has spent its steps since it was last
+	 * reset, with the hottest addresses and loops.
+	 * 
+	 * @see Profiler#report(Program, int)
+	 */
+	private void showProfile() {
+		JTextArea report = new JTextArea(program.getProfiler().report(program, PROFILE_REPORT_LENGTH));
+		report.setFont(CODE_FONT);
+		report.setEditable(false);
+		JScrollPane scrollPane = new JScrollPane(report);
+		scrollPane.setPreferredSize(new Dimension(700, 400));
+		JOptionPane.showMessageDialog(window, scrollPane, "Profile", JOptionPane.PLAIN_MESSAGE);
+	}
+
+	/**
+	 * Updates the stdin and stdout panels. Rather than being rebuilt, labels of
+	 * words that have been read from stdin are removed from the top of the stdin
+	 * panel, and labels of new words are appended to the end of both panels. Both
+	 * panels are only rebuilt when a different program is loaded or the program is
+	 * reset.
+	 * 
+	 * @see Program#getGeneration()
+	 */
+	private void updateStdio() {
+		boolean stdinChanged = false, stdoutChanged = false;
+
+		if (program != shownProgram || program.getGeneration() != shownGeneration) { // new program or reset
+			inputDisplay.removeAll(); // remove all labels
+			outputDisplay.removeAll();
+			shownProgram = program;
+			shownGeneration = program.getGeneration();
+			shownStdinRead = program.getStdinRead();
+			shownStdout = 0;
+			stdinChanged = stdoutChanged = true;
+		}
+
+		WordQueue stdin = program.stdin, stdout = program.stdout;
+		synchronized (stdin) { // stdin may be read by the program while it is running
+			long stdinRead = program.getStdinRead(); // total number of words read from stdin
+			for (; shownStdinRead < stdinRead && inputDisplay.getComponentCount() > 0; shownStdinRead++) {
+				inputDisplay.remove(0); // remove label of word that has been read
+				stdinChanged = true;
+			}
+			shownStdinRead = stdinRead; // words read before they were shown never had labels
+
+			for (int i = inputDisplay.getComponentCount(); i < stdin.size(); i++) { // new stdin words
+				inputDisplay.add(createLabel(Instruction.shortToHex(stdin.get(i))));
+				stdinChanged = true;
+			}
+		}
+
+		synchronized (stdout) { // stdout may be written by the program while it is running
+			long removed = stdout.getRemoved(); // words written to a sink are no longer in the queue to show
+			for (shownStdout = Math.max(shownStdout, removed); shownStdout < stdout.getAdded(); shownStdout++) {
+				outputDisplay.add(createLabel(Instruction.shortToHex(stdout.get((int) (shownStdout - removed)))));
+				stdoutChanged = true;
+			}
+		}
+
+		if (stdinChanged) {
+			inputDisplay.revalidate(); // lay out labels again
+			inputDisplay.repaint();
+		}
+		if (stdoutChanged) {
+			outputDisplay.revalidate();
+			outputDisplay.repaint();
+		}
+	}
+
+	/**
+	 * Updates the display and all its GUI components. The time taken is recorded
+	 * in {@link EmulatorMetrics}.
 	 * 
 	 * @see #actionPerformed(ActionEvent)
 	 */
 	public void update() {
+		long start = System.nanoTime();
 		ActionEvent programEvent = new ActionEvent(program, 0, null); // new ActionEvent with source of program
 		actionPerformed(programEvent); // perform action on display
+		EmulatorMetrics.INSTANCE.recordGuiUpdate(System.nanoTime() - start); // to compare with time spent running
+	}
+
+	/**
+	 * Updates the display later in the event dispatch thread. Used when the
+	 * program notifies the display from the thread running it.
+	 * 
+	 * @see #update()
+	 */
+	private void updateLater() {
+		SwingUtilities.invokeLater(new Runnable() { // add to EDT queue rather than executing immediately
+			public void run() {
+				update();
+			}
+		});
+	}
+
+	/**
+	 * {@inheritDoc} Updates the display.
+	 */
+	public void halted(Program program) {
+		updateLater();
+	}
+
+	/**
+	 * {@inheritDoc} Updates the display, which will show the error.
+	 */
+	public void errorOccurred(Program program, TOYException exception) {
+		updateLater();
+	}
+
+	/**
+	 * {@inheritDoc} Updates the display.
+	 */
+	public void stopped(Program program) {
+		updateLater();
+	}
+
+	/**
+	 * {@inheritDoc} Updates the display.
+	 */
+	public void reset(Program program) {
+		updateLater();
 	}
 }
\ No newline at end of file
@@ -10,20 +10,28 @@ import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Scanner;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.swing.SwingUtilities;
 
 /**
  * Represents each of the lines in a TOY file as a {@code String}. Includes
  * methods to {@linkplain #isValid() check} if a line is valid TOY code and to
- * {@linkplain #toLine() parse} it into a proper {@link Line} object.
+ * {@linkplain #toLine() parse} it into a proper {@link Line} object. Lines read
+ * from a file are a range of the text of the whole file, so a {@code String} is
+ * only made for a line if its {@linkplain #getContent() content} is needed.
  */
 class RawLine {
-	String content;
+	private final String text; // text the line is part of
+	private final int start, end; // range of text that is the line
+	private String content; // text of only the line, made when first needed
+	private Line line; // parsed line, or null if the line is not valid
+	private boolean parsed; // whether line has been parsed yet
 	private static final String validLineRegex = "^(([\\da-fA-F]){2}): (([\\da-fA-F]){4})(.*)";
+	private static final int INSTRUCTION_START = 4, COMMENT_START = 8; // offsets of parts of a valid line
 
 	/**
 	 * Constructs a new {@code RawLine} object with provided {@code content}.
@@ -31,21 +39,96 @@ class RawLine {
 	 * @param content Content of the line
 	 */
 	public RawLine(String content) {
-		this.content = content;
+		this(content, 0, content.length());
 	}
 
 	/**
-	 * Creates a {@code Matcher} object using provided {@code regex} String against
-	 * {@code stringToMatch}.
+	 * Constructs a new {@code RawLine} object from a range of some text, such as
+	 * the contents of a whole file.
 	 * 
-	 * @param regex         Regular expression to match
-	 * @param stringToMatch String to match {@code regex} against
-	 * @return compiled {@code Matcher} object
+	 * @param text  text the line is part of
+	 * @param start index of the first character of the line
+	 * @param end   index after the last character of the line
 	 */
-	private static Matcher createMatch(String regex, String stringToMatch) {
-		Pattern pattern = Pattern.compile(regex); // create Pattern object from regex String passed as input
-		Matcher matcher = pattern.matcher(stringToMatch); // create Matcher object from regex matched against input
-		return matcher;
+	RawLine(String text, int start, int end) {
+		this.text = text;
+		this.start = start;
+		this.end = end;
+	}
+
+	/**
+	 * Gets the content of the line.
+	 * 
+	 * @return the line as a {@code String}
+	 */
+	public String getContent() {
+		if (content == null) { // make the string the first time it is needed
+			content = start == 0 && end == text.length() ? text : text.substring(start, end);
+		}
+		return content;
+	}
+
+	/**
+	 * Parses the line in a single pass, at most once. Accepts exactly the
+	 * lines {@link #validLineRegex} ({@value #validLineRegex}) would: 2 hex
+	 * digits, {@code ": "}, then 4 hex digits, with the comment being everything
+	 * after them up to the first line terminator (as {@code .} does not match line
+	 * terminators). Sets {@link #line} to the parsed line if it is valid.
+	 */
+	private void parse() {
+		if (parsed) { // already parsed
+			return;
+		}
+		parsed = true;
+
+		if (end - start < COMMENT_START || text.charAt(start + 2) != ':' || text.charAt(start + 3) != ' ') {
+			return; // not "XX: XXXX"
+		}
+		int high = hexDigit(text.charAt(start)), low = hexDigit(text.charAt(start + 1)); // digits of line number
+		if (high == -1 || low == -1) {
+			return;
+		}
+		for (int i = start + INSTRUCTION_START; i < start + COMMENT_START; i++) { // digits of instruction
+			if (hexDigit(text.charAt(i)) == -1) {
+				return;
+			}
+		}
+
+		int commentEnd = start + COMMENT_START;
+		while (commentEnd < end && !isLineTerminator(text.charAt(commentEnd))) { // comment is rest of line
+			commentEnd++;
+		}
+		line = new Line(high << 4 | low, text.substring(start + INSTRUCTION_START, start + COMMENT_START),
+				text.substring(start + COMMENT_START, commentEnd));
+	}
+
+	/**
+	 * Gets the value of a hex digit. Only ASCII digits and letters are hex digits,
+	 * like {@code [\da-fA-F]}.
+	 * 
+	 * @param c character to check
+	 * @return value of {@code c}, or {@code -1} if it is not a hex digit
+	 */
+	static int hexDigit(char c) {
+		if (c >= '0' && c <= '9') {
+			return c - '0';
+		} else if (c >= 'a' && c <= 'f') {
+			return c - 'a' + 10;
+		} else if (c >= 'A' && c <= 'F') {
+			return c - 'A' + 10;
+		}
+		return -1;
+	}
+
+	/**
+	 * Checks whether a character is a line terminator, which is not matched by
+	 * {@code .} in a regular expression.
+	 * 
+	 * @param c character to check
+	 * @return whether {@code c} ends a line
+	 */
+	static boolean isLineTerminator(char c) {
+		return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
 	}
 
 	/**
@@ -53,34 +136,26 @@ class RawLine {
 	 * ({@value #validLineRegex}).
 	 * 
 	 * @return whether line is valid
+	 * @see #parse()
 	 */
 	public boolean isValid() {
-		Matcher validLineMatch = createMatch(validLineRegex, content); // Matcher from valid line regex and content
-		return validLineMatch.find(); // see if regex matches content
+		parse(); // parse line if it has not been parsed already
+		return line != null;
 	}
 
 	/**
-	 * Converts {@link #content} to {@code Line} object.
+	 * Converts the line to {@code Line} object. The same {@code Line} is
+	 * returned every time, as lines are never changed once parsed.
 	 * 
-	 * @return new {@code Line} object
+	 * @return {@code Line} object, or {@code null} if the line is not valid
+	 * @see #parse()
 	 */
 	public Line toLine() {
-		Line line;
-		Matcher validLineMatch = createMatch(validLineRegex, content); // Matcher from valid line regex and content
-		validLineMatch.find(); // see if regex matches content
-		try {
-			int lineNumber = Integer.parseInt(validLineMatch.group(1), 16); // line number capture group converted from
-																			// hexadecimal string to int
-			String instruction = validLineMatch.group(3); // instruction capture group
-			String comment = validLineMatch.group(5); // comment capture group
-			line = new Line(lineNumber, instruction, comment); // create new Line object from components
-			return line;
-		} catch (Exception e) { // method was called on invalid line
-			if (TOYEmulator.INTERACT_WITH_CONSOLE) {
-				e.printStackTrace(); // print error to sysout
-			}
-			return null;
+		parse(); // parse line if it has not been parsed already
+		if (line == null && TOYEmulator.INTERACT_WITH_CONSOLE) { // method was called on invalid line
+			System.out.println("Not a valid line: " + getContent());
 		}
+		return line;
 	}
 }
 
@@ -108,50 +183,13 @@ class Line {
 	}
 
 	/**
-	 * Gets the character at the specified index of a string (and converts it to
-	 * upper case).
-	 * 
-	 * @param string String to get character from
-	 * @param index  Index of the character in the {@code string}
-	 * @return character as an upper case String
-	 * @throws IndexOutOfBoundsException if the {@code index} argument is negative
-	 *                                   or not less than the length of this string.
-	 * @see String#charAt(int)
-	 */
-	private static String charAtIndex(String string, int index) {
-		return Character.toString(string.charAt(index)).toUpperCase();
-	}
-
-	/**
-	 * Converts {@link #instruction} to {@linkplain Instruction} object. Format of
-	 * {@code Instruction} is determined based on the {@code opcode}. Note that all
-	 * components of the instruction will be passed as upper case strings.
+	 * Converts {@link #instruction} to {@linkplain Instruction} object.
 	 * 
 	 * @return new {@code Instruction} object
+	 * @see Instruction#fromWord(short)
 	 */
 	public Instruction toInstruction() {
-		int format;
-		String opcode, d, s, t, addr;
-
-		opcode = charAtIndex(instruction, 0); // set opcode to first character of instruction
-		if (opcode.matches("[1-6AB]")) { // 1, 2, 3, 4, 5, 6, A, B opcodes are all format 1
-			if (opcode.matches("[AB]")) { // A and B work differently so give them their own format
-				format = 3;
-			} else {
-				format = 1;
-			}
-		} else if (opcode.matches("[7-9CDF]")) { // 7, 8, 9, C, D, F opcodes are all format 2
-			format = 2;
-		} else { // E and 0 opcodes have "no format" (treat as format 4 and 5)
-			format = (opcode.equals("E") ? 4 : 5); // format = 4 if opcode is E, else 5 (opcode is 0)
-		}
-
-		d = charAtIndex(instruction, 1); // set d to second character of instruction
-		s = charAtIndex(instruction, 2); // set s to third character of instruction
-		t = charAtIndex(instruction, 3); // set t to fourth character of instruction
-		addr = charAtIndex(instruction, 2) + charAtIndex(instruction, 3); // set addr to third and fourth characters
-
-		return new Instruction(format, opcode, d, s, t, addr); // create new instruction object from component strings
+		return Instruction.fromWord(Instruction.hexToShort(instruction)); // decode instruction as a word
 	}
 
 	/**
@@ -191,33 +229,96 @@ class Line {
 }
 
 /**
- * Represents a TOY instruction with {@code String}s as the parts of the
- * instruction. Includes methods to {@linkplain #execute(Program) execute} a
- * given instruction as well as {@linkplain #generateComment() generate} a
- * comment for it.
+ * Represents a decoded TOY instruction with {@code int}s as the parts of the
+ * instruction. Words are decoded {@linkplain #fromWord(short) once}, and
+ * whether the instruction needs or changes each register is worked out when it
+ * is decoded rather than every time it is executed. Includes methods to
+ * {@linkplain #execute(Program) execute} a given instruction as well as
+ * {@linkplain #generateComment() generate} a comment for it.
  */
 class Instruction {
-	int format;
-	String opcode, d, s, t, addr;
+	short word;
+	int opcode, d, s, t, addr;
+	boolean changesD, needsD, needsS, needsT;
+	static final int HALT = 0x0, ADD = 0x1, SUBTRACT = 0x2, AND = 0x3, XOR = 0x4, LEFT_SHIFT = 0x5,
+			RIGHT_SHIFT = 0x6, LOAD_ADDRESS = 0x7, LOAD = 0x8, STORE = 0x9, LOAD_INDIRECT = 0xA, STORE_INDIRECT = 0xB,
+			BRANCH_ZERO = 0xC, BRANCH_POSITIVE = 0xD, JUMP_REGISTER = 0xE, JUMP_AND_LINK = 0xF; // opcodes
 	private static final short INPUT_OUTPUT_ADDRESS = 0xFF; // 255
+	private static final short NO_OP = 0x1000; // only instruction allowed to change R[0]
+	private static final String[] HEX_DIGITS = new String[0x10];
+
+	static { // build lookup table of hex digits once, so generating comments does not need to format them
+		for (int i = 0; i < HEX_DIGITS.length; i++) {
+			HEX_DIGITS[i] = Integer.toHexString(i).toUpperCase();
+		}
+	}
 
 	/**
-	 * Constructs a new {@code Instruction} object.
+	 * Constructs a new {@code Instruction} object. Works out which registers the
+	 * instruction needs and changes based on the {@code opcode}.
 	 * 
-	 * @param format Format of the instruction
-	 * @param opcode Opcode of the instruction (first character)
-	 * @param d      "d" of the instruction (second character)
-	 * @param s      "s" of the instruction (third character)
-	 * @param t      "t" of the intsruction (fourth character)
-	 * @param addr   Address of the instruction (third and fourth characters)
+	 * @param word   Word the instruction was decoded from
+	 * @param opcode Opcode of the instruction (first hex digit)
+	 * @param d      "d" of the instruction (second hex digit)
+	 * @param s      "s" of the instruction (third hex digit)
+	 * @param t      "t" of the intsruction (fourth hex digit)
+	 * @param addr   Address of the instruction (third and fourth hex digits)
 	 */
-	public Instruction(int format, String opcode, String d, String s, String t, String addr) {
-		this.format = format;
+	public Instruction(short word, int opcode, int d, int s, int t, int addr) {
+		this.word = word;
 		this.opcode = opcode;
 		this.d = d;
 		this.s = s;
 		this.t = t;
 		this.addr = addr;
+
+		switch (opcode) {
+		case ADD: // 1-6 change R[d] and need R[s] and R[t]
+		case SUBTRACT:
+		case AND:
+		case XOR:
+		case LEFT_SHIFT:
+		case RIGHT_SHIFT:
+			changesD = true;
+			needsS = true;
+			needsT = true;
+			break;
+		case LOAD_ADDRESS: // 7, 8 and F change R[d] only
+		case LOAD:
+		case JUMP_AND_LINK:
+			changesD = true;
+			break;
+		case LOAD_INDIRECT: // A changes R[d] and needs R[t]
+			changesD = true;
+			needsT = true;
+			break;
+		case STORE_INDIRECT: // B needs R[d] and R[t]
+			needsD = true;
+			needsT = true;
+			break;
+		case STORE: // 9, C, D and E need R[d] only
+		case BRANCH_ZERO:
+		case BRANCH_POSITIVE:
+		case JUMP_REGISTER:
+			needsD = true;
+		}
+	}
+
+	/**
+	 * Decodes a word from memory into an {@code Instruction}, splitting it into its
+	 * hex digits.
+	 * 
+	 * @param word word to decode
+	 * @return new {@code Instruction} object
+	 */
+	static Instruction fromWord(short word) {
+		int opcode = (word >> 12) & 0xF; // first hex digit of word
+		int d = (word >> 8) & 0xF; // second hex digit of word
+		int s = (word >> 4) & 0xF; // third hex digit of word
+		int t = word & 0xF; // fourth hex digit of word
+		int addr = word & 0xFF; // third and fourth hex digits
+
+		return new Instruction(word, opcode, d, s, t, addr); // create new instruction object from components
 	}
 
 	/**
@@ -249,150 +350,151 @@ class Instruction {
 	 */
 	public String generateComment() {
 		String comment;
+		String dHex = HEX_DIGITS[d], sHex = HEX_DIGITS[s], tHex = HEX_DIGITS[t], addrHex = sHex + tHex;
 
 		switch (opcode) {
-		case "0": // halt
+		case HALT: // halt
 			comment = "halt";
 			break;
-		case "1": // add
-			if (d.equals("0")) { // d is 0
+		case ADD: // add
+			if (d == 0) { // d is 0
 				comment = "no-op";
-			} else if (s.equals("0")) { // only s is 0
-				comment = "R[" + d + "] <- R[" + t + "]";
-				if (t.equals("0")) { // s and t are 0
-					comment = "R[" + d + "] <- 0000";
+			} else if (s == 0) { // only s is 0
+				comment = "R[" + dHex + "] <- R[" + tHex + "]";
+				if (t == 0) { // s and t are 0
+					comment = "R[" + dHex + "] <- 0000";
 				}
-			} else if (t.equals("0")) { // only t is 0
-				comment = "R[" + d + "] <- R[" + s + "]";
+			} else if (t == 0) { // only t is 0
+				comment = "R[" + dHex + "] <- R[" + sHex + "]";
 			} else {
-				comment = "R[" + d + "] <- R[" + s + "] + R[" + t + "]";
+				comment = "R[" + dHex + "] <- R[" + sHex + "] + R[" + tHex + "]";
 			}
 			break;
-		case "2": // subtract
-			if (d.equals("0")) { // d is 0
+		case SUBTRACT: // subtract
+			if (d == 0) { // d is 0
 				comment = "no-op";
-			} else if (s.equals("0")) { // only s is 0
-				comment = "R[" + d + "] <- -R[" + t + "]";
-				if (t.equals("0")) { // s and t are 0
-					comment = "R[" + d + "] <- 0000";
+			} else if (s == 0) { // only s is 0
+				comment = "R[" + dHex + "] <- -R[" + tHex + "]";
+				if (t == 0) { // s and t are 0
+					comment = "R[" + dHex + "] <- 0000";
 				}
-			} else if (t.equals("0")) { // only t is 0
-				comment = "R[" + d + "] <- R[" + s + "]";
+			} else if (t == 0) { // only t is 0
+				comment = "R[" + dHex + "] <- R[" + sHex + "]";
 			} else {
-				comment = "R[" + d + "] <- R[" + s + "] - R[" + t + "]";
+				comment = "R[" + dHex + "] <- R[" + sHex + "] - R[" + tHex + "]";
 			}
 			break;
-		case "3": // and
-			if (d.equals("0")) { // d is 0
+		case AND: // and
+			if (d == 0) { // d is 0
 				comment = "no-op";
-			} else if (s.equals("0") || t.equals("0")) { // s or t are 0
-				comment = "R[" + d + "] <- 0000";
-			} else if (s.equals(t)) { // s and t are the same
-				comment = "R[" + d + "] <- R[" + s + "]"; // or R[t], does not matter
-				if (d.equals(s)) { // d and s and t are the same
+			} else if (s == 0 || t == 0) { // s or t are 0
+				comment = "R[" + dHex + "] <- 0000";
+			} else if (s == t) { // s and t are the same
+				comment = "R[" + dHex + "] <- R[" + sHex + "]"; // or R[t], does not matter
+				if (d == s) { // d and s and t are the same
 					comment = "no-op";
 				}
 			} else {
-				comment = "R[" + d + "] <- R[" + s + "] & R[" + t + "]";
+				comment = "R[" + dHex + "] <- R[" + sHex + "] & R[" + tHex + "]";
 			}
 			break;
-		case "4": // xor
-			if (d.equals("0")) { // d is 0
+		case XOR: // xor
+			if (d == 0) { // d is 0
 				comment = "no-op";
-			} else if (s.equals("0")) { // only s is 0
-				comment = "R[" + d + "] <- R[" + t + "]";
-				if (t.equals("0")) { // s and t are 0
-					comment = "R[" + d + "] <- 0000";
+			} else if (s == 0) { // only s is 0
+				comment = "R[" + dHex + "] <- R[" + tHex + "]";
+				if (t == 0) { // s and t are 0
+					comment = "R[" + dHex + "] <- 0000";
 				}
-			} else if (t.equals("0")) { // only t is 0
-				comment = "R[" + d + "] <- R[" + s + "]";
+			} else if (t == 0) { // only t is 0
+				comment = "R[" + dHex + "] <- R[" + sHex + "]";
 			} else {
-				comment = "R[" + d + "] <- R[" + s + "] ^ R[" + t + "]";
+				comment = "R[" + dHex + "] <- R[" + sHex + "] ^ R[" + tHex + "]";
 			}
 			break;
-		case "5": // left shift
-			if (d.equals("0")) { // d is 0
+		case LEFT_SHIFT: // left shift
+			if (d == 0) { // d is 0
 				comment = "no-op";
-			} else if (s.equals("0")) { // s is 0
-				comment = "R[" + d + "] <- 0000";
-			} else if (t.equals("0")) { // only t is 0
-				comment = "R[" + d + "] <- R[" + s + "]";
-				if (d.equals(s)) { // d and s are the same, t is 0
+			} else if (s == 0) { // s is 0
+				comment = "R[" + dHex + "] <- 0000";
+			} else if (t == 0) { // only t is 0
+				comment = "R[" + dHex + "] <- R[" + sHex + "]";
+				if (d == s) { // d and s are the same, t is 0
 					comment = "no-op";
 				}
 			} else {
-				comment = "R[" + d + "] <- R[" + s + "] << R[" + t + "]";
+				comment = "R[" + dHex + "] <- R[" + sHex + "] << R[" + tHex + "]";
 			}
 			break;
-		case "6": // right shift
-			if (d.equals("0")) { // d is 0
+		case RIGHT_SHIFT: // right shift
+			if (d == 0) { // d is 0
 				comment = "no-op";
-			} else if (s.equals("0")) { // s is 0
-				comment = "R[" + d + "] <- 0000";
-			} else if (t.equals("0")) { // only t is 0
-				comment = "R[" + d + "] <- R[" + s + "]";
-				if (d.equals(s)) { // d and s are the same, t is 0
+			} else if (s == 0) { // s is 0
+				comment = "R[" + dHex + "] <- 0000";
+			} else if (t == 0) { // only t is 0
+				comment = "R[" + dHex + "] <- R[" + sHex + "]";
+				if (d == s) { // d and s are the same, t is 0
 					comment = "no-op";
 				}
 			} else {
-				comment = "R[" + d + "] <- R[" + s + "] >> R[" + t + "]";
+				comment = "R[" + dHex + "] <- R[" + sHex + "] >> R[" + tHex + "]";
 			}
 			break;
-		case "7": // load address
-			if (d.equals("0")) { // d is 0
+		case LOAD_ADDRESS: // load address
+			if (d == 0) { // d is 0
 				comment = "no-op";
 			} else {
-				comment = "R[" + d + "] <- 00" + addr;
+				comment = "R[" + dHex + "] <- 00" + addrHex;
 			}
 			break;
-		case "8": // load
-			if (addr.equals("FF")) { // addr is stdin
-				comment = "read R[" + d + "]";
-			} else if (d.equals("0")) { // d is 0, addr is not stdin
+		case LOAD: // load
+			if (addr == INPUT_OUTPUT_ADDRESS) { // addr is stdin
+				comment = "read R[" + dHex + "]";
+			} else if (d == 0) { // d is 0, addr is not stdin
 				comment = "no-op";
 			} else {
-				comment = "R[" + d + "] <- M[" + addr + "]";
+				comment = "R[" + dHex + "] <- M[" + addrHex + "]";
 			}
 			break;
-		case "9": // store
-			if (addr.equals("FF")) { // addr is stdout
-				comment = "write R[" + d + "]";
+		case STORE: // store
+			if (addr == INPUT_OUTPUT_ADDRESS) { // addr is stdout
+				comment = "write R[" + dHex + "]";
 			} else {
-				comment = "M[" + addr + "] <- R[" + d + "]";
+				comment = "M[" + addrHex + "] <- R[" + dHex + "]";
 			}
 			break;
-		case "A": // load indirect
-			if (d.equals("0")) { // d is 0
+		case LOAD_INDIRECT: // load indirect
+			if (d == 0) { // d is 0
 				comment = "no-op";
 			} else {
-				comment = "R[" + d + "] <- M[R[" + t + "]]";
+				comment = "R[" + dHex + "] <- M[R[" + tHex + "]]";
 			}
 			break;
-		case "B": // store indirect
-			comment = "M[R[" + t + "]] <- R[" + d + "]";
+		case STORE_INDIRECT: // store indirect
+			comment = "M[R[" + tHex + "]] <- R[" + dHex + "]";
 			break;
-		case "C": // branch zero
-			if (d.equals("0")) { // d is 0, R[0] == 0 will always be true
-				comment = "goto " + addr;
+		case BRANCH_ZERO: // branch zero
+			if (d == 0) { // d is 0, R[0] == 0 will always be true
+				comment = "goto " + addrHex;
 			} else {
-				comment = "if (R[" + d + "] == 0) goto " + addr;
+				comment = "if (R[" + dHex + "] == 0) goto " + addrHex;
 			}
 			break;
-		case "D": // branch positive
-			if (d.equals("0")) { // d is 0, R[0] > 0 will never be true
+		case BRANCH_POSITIVE: // branch positive
+			if (d == 0) { // d is 0, R[0] > 0 will never be true
 				comment = "no-op";
 			} else {
-				comment = "if (R[" + d + "] > 0) goto " + addr;
+				comment = "if (R[" + dHex + "] > 0) goto " + addrHex;
 			}
 			break;
-		case "E": // jump register
-			comment = "goto R[" + d + "]";
+		case JUMP_REGISTER: // jump register
+			comment = "goto R[" + dHex + "]";
 			break;
-		case "F": // jump and link
-			if (d.equals("0")) { // d is 0
-				comment = "goto " + addr;
+		case JUMP_AND_LINK: // jump and link
+			if (d == 0) { // d is 0
+				comment = "goto " + addrHex;
 			} else {
-				comment = "R[" + d + "] <- PC; goto " + addr;
+				comment = "R[" + dHex + "] <- PC; goto " + addrHex;
 			}
 			break;
 		default:
@@ -404,60 +506,39 @@ class Instruction {
 	}
 
 	/**
-	 * Loads given user input to the {@code stdin} list of a given program. First
-	 * splits the input by any non-hex characters, then splits each part into chunks
-	 * of 4. Each chunks is padded with 0s then added to {@code program.stdin}. If
-	 * there is nothing parseable in the input, nothing will be added to stdin.
+	 * Loads given user input to the {@code stdin} queue of a given program. First
+	 * splits the input (upper-cased) by any non-hex characters, then splits each
+	 * part into chunks of 4. Each chunks is padded with 0s then added to
+	 * {@code program.stdin}. If there is nothing parseable in the input, nothing
+	 * will be added to stdin. The input is parsed in a single pass by
+	 * {@link WordQueue#addText(CharSequence)}, which a stream of input given to
+	 * {@link WordQueue#WordQueue(java.io.InputStream)} is parsed by too.
 	 * 
 	 * @param input   input of user
 	 * @param program {@link Program} to pass input to
 	 */
 	static void inputToStdin(String input, Program program) {
-		String splitterRegex, allowedCharacters, nonAllowedCharsRegex;
-		int chunkSize = 4; // number of characters to chunk into
-		splitterRegex = "(?<=\\G.{" + chunkSize + "})"; // matches chunkSize characters from the end of last match
-
-		allowedCharacters = "0-9a-fA-F"; // all possible hex digits
-		nonAllowedCharsRegex = "[^" + allowedCharacters + "]"; // regex that matches everything except allowedCharacters
-
-		input = input.toUpperCase(); // convert input to upper case
-
-		String[] splitInput = input.split(nonAllowedCharsRegex); // split input by non hex characters
-
-		for (String splitPart : splitInput) { // iterate over parts of input
-			if (!splitPart.isBlank()) { // splitInput will include empty strings, ignore them
-				String[] chunkedSplitPart = splitPart.split(splitterRegex); // split splitPart into chunks of chunkSize
-
-				for (String chunk : chunkedSplitPart) { // iterate over chunks
-					// get the subtring of some "0"s and chunk, starting from the index of the
-					// length of chunk (this will cut off any unneeded "0"s
-					chunk = ("0".repeat(chunkSize) + chunk).substring(chunk.length()); // left-pad chunk with "0"s until
-																						// length is chunkSize
-					program.stdin.add(chunk); // append chunk to stdin list
-				}
-			}
-		}
+		program.stdin.addText(input); // parse input and append each word to stdin
 	}
 
 	/**
-	 * Loads a hex value from the memory of a given {@linkplain Program}. If
+	 * Loads a value from the memory of a given {@linkplain Program}. If
 	 * {@code address} is {@code 0xFF}, the value will be loaded from stdin instead,
 	 * then saved to M[FF]. In this case, it will try to grab the first item from
 	 * stdin, else retrieve a new value from the user.
 	 * 
 	 * @param address address to load the value from
 	 * @param program program to access memory of
-	 * @return hex value loaded from memory
+	 * @return value loaded from memory
 	 * @throws MemoryAddressOutOfBoundsException if {@code address} is not within
 	 *                                           memory range
 	 * @throws MemoryUninitialisedException      if {@code memory} is not
 	 *                                           initialised
 	 * @see #inputToStdin(String, Program)
 	 */
-	private static String loadFromMemory(short address, Program program)
+	private static short loadFromMemory(short address, Program program)
 			throws MemoryUninitialisedException, MemoryAddressOutOfBoundsException {
-		String value;
-		Instruction[] memory = program.getMemory(); // get program's memory array
+		short value;
 
 		if (outsideMemory(address)) { // address is not within memory range
 			throw new MemoryAddressOutOfBoundsException();
@@ -470,23 +551,21 @@ class Instruction {
 				}
 			}
 
-			value = program.stdin.get(0); // value <- stdin[0]
-			program.stdin.remove(0); // remove stdin[0]
+			value = program.readStdin(); // value <- stdin[0]
+			program.setMemory(address, value); // save value to M[FF] as it was loaded from stdin
 
 		} else {
-			if (memory[address] == null) { // memory at address is not initialised
+			if (!program.isMemoryInitialised(address)) { // memory at address is not initialised
 				throw new MemoryUninitialisedException();
 			}
-			value = memory[address].asHex(); // value <- M[addr]
+			value = program.getMemory()[address]; // value <- M[addr]
 		}
 
-		memory[address] = hexToInstruction(value); // save value back to M[addr] in case it was loaded from stdin
-
 		return value;
 	}
 
 	/**
-	 * Stores a hex value to the memory of a given {@linkplain Program}. If
+	 * Stores a value to the memory of a given {@linkplain Program}. If
 	 * {@code address} is {@code 0xFF}, the value will be printed to stdout as well.
 	 * 
 	 * @param address address to store the value to
@@ -494,34 +573,20 @@ class Instruction {
 	 * @param program program to access memory of
 	 * @throws MemoryAddressOutOfBoundsException if {@code address} is not within
 	 *                                           memory range
+	 * @throws OutputLimitExceededException      if the program has already
+	 *                                           written as many words to stdout
+	 *                                           as it is allowed to
 	 */
-	private static void storeToMemory(short address, String value, Program program)
-			throws MemoryAddressOutOfBoundsException {
-		Instruction[] memory = program.getMemory(); // get program's memory array
-
+	private static void storeToMemory(short address, short value, Program program)
+			throws MemoryAddressOutOfBoundsException, OutputLimitExceededException {
 		if (outsideMemory(address)) { // address is not within memory range
 			throw new MemoryAddressOutOfBoundsException();
 
 		} else if (address == INPUT_OUTPUT_ADDRESS) { // addr is FF
-			program.stdout.add(value); // append value to stdout list
-			if (TOYEmulator.INTERACT_WITH_CONSOLE) {
-				System.out.println(value);
-			}
+			program.writeStdout(value); // append value to stdout
 		}
 
-		memory[address] = hexToInstruction(value); // M[addr] <- R[d]
-	}
-
-	/**
-	 * Converts a hex value to an {@linkplain Instruction}. First converts to a
-	 * {@link Line} object at line 16 with an empty comment, then
-	 * {@link Line#toInstruction() converts} that to an instruction.
-	 * 
-	 * @param hex hex value to convert
-	 * @return hex converted to instruction
-	 */
-	private static Instruction hexToInstruction(String hex) {
-		return new Line(0x10, hex, "").toInstruction();
+		program.setMemory(address, value); // M[addr] <- R[d]
 	}
 
 	/**
@@ -564,21 +629,25 @@ class Instruction {
 	}
 
 	/**
-	 * Converts a short to a hex string. Uses
-	 * {@link String#format(String, Object...)} to pad it with up to four "0"s if
-	 * necessary.
+	 * Converts a short to a hex string, padded with up to four "0"s if necessary
+	 * (the same as {@code String.format("%04X", shortVal)}, without parsing a
+	 * format string every time).
 	 * 
 	 * @param shortVal short to convert
 	 * @return {@code shortVal} converted to a hex string
 	 * @see #hexToShort(String)
 	 */
 	static String shortToHex(short shortVal) {
-		return String.format("%04X", shortVal);
+		char[] hex = new char[4];
+		for (int i = 0; i < hex.length; i++) { // most significant digit first
+			hex[i] = HEX_DIGITS[shortVal >> (3 - i) * 4 & 0xF].charAt(0);
+		}
+		return new String(hex);
 	}
 
 	/**
-	 * Executes an instruction. Treats the instruction differently depending on its
-	 * {@link #format}. Some instructions behave differently to the default and so
+	 * Executes an instruction. Dispatches on the {@link #opcode} of the
+	 * instruction. Some instructions behave differently to the default and so
 	 * return a different result code.
 	 * 
 	 * @param program program to execute the instruction in the context of
@@ -606,13 +675,16 @@ class Instruction {
 	 *                                            outside the allowed range
 	 * @throws MemoryAddressOutOfBoundsException  if an address is outside the
 	 *                                            allowed range of memory addresses
+	 * @throws OutputLimitExceededException       if the instruction would write
+	 *                                            more words to stdout than the
+	 *                                            program is allowed to
 	 */
 	public int execute(Program program) throws RegisterUninitialisedException, RegisterIndexOutOfBoundsException,
 			OverflowException, ShiftMagnitudeOutOfBoundsException, MemoryUninitialisedException,
-			ProgramCounterOutOfBoundsException, MemoryAddressOutOfBoundsException {
-		String[] registers = program.getRegisters(); // get program's registers array
-		short dest, sourceS, sourceT, address;
-		registers[0] = "0000"; // reset R[0]
+			ProgramCounterOutOfBoundsException, MemoryAddressOutOfBoundsException, OutputLimitExceededException {
+		short[] registers = program.getRegisters(); // get program's registers array
+		boolean[] initialised = program.getRegistersInitialised(); // get which registers have been initialised
+		registers[0] = 0; // reset R[0]
 
 		if (TOYEmulator.DEBUG) {
 			if (TOYEmulator.INTERACT_WITH_CONSOLE) {
@@ -621,208 +693,168 @@ class Instruction {
 			}
 		}
 
-		if (changesD() && d.equals("0")) { // instruction changes d, d is 0
-			if (!(opcode.equals("1") && s.equals("0") && t.equals("0"))) { // instruction is not 1000 (no-op)
-				throw new RegisterIndexOutOfBoundsException();
-			}
+		if (changesD && d == 0 && word != NO_OP) { // instruction changes d, d is 0, instruction is not 1000
+			throw new RegisterIndexOutOfBoundsException();
 		}
 
-		// convert instruction components to shorts
-		// allows arithmetic and use as array indices
-		dest = hexToShort(d);
-		sourceS = hexToShort(s);
-		sourceT = hexToShort(t);
-		address = hexToShort(addr);
-
-		if (needsD() && registers[dest] == null || needsS() && registers[sourceS] == null // instruction needs
-				|| needsT() && registers[sourceT] == null) { // to access R[d], R[s] or R[t] and it is null
+		if (needsD && !initialised[d] || needsS && !initialised[s] // instruction needs to access
+				|| needsT && !initialised[t]) { // R[d], R[s] or R[t] and it is uninitialised
 			throw new RegisterUninitialisedException();
 		}
 
-		switch (format) {
-		case 1: // 1, 2, 3, 4, 5, 6 opcodes
+		int result; // used for 1-6 only
 
-			short operand1, operand2;
-			int result = 0;
+		switch (opcode) {
+		case HALT: // halt
+			return -1; // halt
 
-			operand1 = hexToShort(registers[sourceS]); // get R[s]
-			operand2 = hexToShort(registers[sourceT]); // get R[t]
+		case ADD: // add
+			result = registers[s] + registers[t]; // result <- R[s] + R[t]
+			break;
 
-			if (opcode.equals("5") || opcode.equals("6")) { // opcode is 5 or 6
-				if (operand2 < 0x0 || operand2 > 0xF) { // R[t] is negative or greater than 15 (out of allowed range)
-					throw new ShiftMagnitudeOutOfBoundsException();
-				}
-			}
+		case SUBTRACT: // subtract
+			result = registers[s] - registers[t]; // result <- R[s] - R[t]
+			break;
 
-			switch (opcode) {
-			case "1": // add
-				result = operand1 + operand2; // result <- R[s] + R[t]
-				break;
-			case "2": // subtract
-				result = operand1 - operand2; // result <- R[s] - R[t]
-				break;
-			case "3": // and
-				result = operand1 & operand2; // result <- R[s] & R[t]
-				break;
-			case "4": // xor
-				result = operand1 ^ operand2; // result <- R[s] ^ R[t]
-				break;
-			case "5": // left shift
-				// result is calculated as short for shift operations because otherwise the
-				// calculation may go out of bounds when we do not want it to
-				result = (short) (operand1 << operand2); // result <- R[s] << R[t]
-				break;
-			case "6": // right shift
-				result = (short) (operand1 >> operand2); // result <- R[s] >> R[t]
-			}
+		case AND: // and
+			result = registers[s] & registers[t]; // result <- R[s] & R[t]
+			break;
 
-			checkInShortBounds(result); // check if result is within allowed range of numbers in TOY
-			registers[dest] = shortToHex((short) result); // R[d] <- result
+		case XOR: // xor
+			result = registers[s] ^ registers[t]; // result <- R[s] ^ R[t]
+			break;
 
-			return 0;
+		case LEFT_SHIFT: // left shift
+			checkShiftMagnitude(registers[t]);
+			// result is calculated as short for shift operations because otherwise the
+			// calculation may go out of bounds when we do not want it to
+			result = (short) (registers[s] << registers[t]); // result <- R[s] << R[t]
+			break;
 
-		case 2: // 7, 8, 9, C, D, F opcodes
+		case RIGHT_SHIFT: // right shift
+			checkShiftMagnitude(registers[t]);
+			result = (short) (registers[s] >> registers[t]); // result <- R[s] >> R[t]
+			break;
 
-			// used for C and D only
-			short valueToCheck = 0;
-			if (opcode.equals("C") || opcode.equals("D")) { // opcode is C or D
-				valueToCheck = hexToShort(registers[dest]); // valueToCheck <- R[d]
-			}
+		case LOAD_ADDRESS: // load address
+			program.setRegister(d, (short) addr); // R[d] <- addr
+			return 0;
 
-			switch (opcode) {
-			case "7": // load address
-				registers[dest] = shortToHex(address); // R[d] <- addr
-				break;
-			case "8": // load
-				registers[dest] = loadFromMemory(address, program); // R[d] <- M[addr]
-				break;
-			case "9": // store
-				storeToMemory(address, registers[dest], program); // M[addr] <- R[d]
-				break;
-			case "C": // branch zero
-				if (valueToCheck == 0) { // if (valueToCheck == 0)
-					program.setProgramCounter(address); // PC <- addr
-					return 1; // do not increment PC
-				}
-				break;
-			case "D": // branch positive
-				if (valueToCheck > 0) { // if (valueToCheck > 0)
-					program.setProgramCounter(address); // PC <- addr
-					return 1; // do not increment PC
-				}
-				break;
-			case "F": // jump and link
-				String programCounter = shortToHex((short) (program.getProgramCounter() + 1)); // PC as String
-				registers[dest] = programCounter; // R[d] <- PC
-				program.setProgramCounter(address); // PC <- addr
-				return 1; // do not increment PC
-			}
+		case LOAD: // load
+			program.setRegister(d, loadFromMemory((short) addr, program)); // R[d] <- M[addr]
+			return 0;
 
+		case STORE: // store
+			storeToMemory((short) addr, registers[d], program); // M[addr] <- R[d]
 			return 0;
 
-		case 3: // A and B opcodes
+		case LOAD_INDIRECT: // load indirect
+			program.setRegister(d, loadFromMemory(registers[t], program)); // R[d] <- M[R[t]]
+			return 0;
 
-			short memoryAddress = hexToShort(registers[sourceT]); // memoryAddress <- R[t]
+		case STORE_INDIRECT: // store indirect
+			storeToMemory(registers[t], registers[d], program); // M[R[t]] <- R[d]
+			return 0;
 
-			switch (opcode) {
-			case "A": // load indirect
-				registers[dest] = loadFromMemory(memoryAddress, program); // R[d] <- M[memoryAddress]
-				break;
-			case "B": // store indirect
-				storeToMemory(memoryAddress, registers[dest], program); // M[memoryAddress] <- R[d]
+		case BRANCH_ZERO: // branch zero
+			if (registers[d] == 0) { // if (R[d] == 0)
+				program.setProgramCounter((short) addr); // PC <- addr
+				return 1; // do not increment PC
 			}
-
 			return 0;
 
-		case 4: // E opcode (jump register)
+		case BRANCH_POSITIVE: // branch positive
+			if (registers[d] > 0) { // if (R[d] > 0)
+				program.setProgramCounter((short) addr); // PC <- addr
+				return 1; // do not increment PC
+			}
+			return 0;
 
-			short newPC = hexToShort(registers[dest]); // newPC <- R[d]
+		case JUMP_REGISTER: // jump register
+			short newPC = registers[d]; // newPC <- R[d]
 			if (outsideMemory(newPC)) { // newPC is not within memory range
 				// note bug in visual x-toy: E checks between 1 and 256, not 0 and 255
 				throw new ProgramCounterOutOfBoundsException();
 			}
 			program.setProgramCounter(newPC); // PC <- newPC
-
 			return 1; // do not increment PC
 
-		case 5: // 0 opcode (halt)
-
-			return -1; // halt
-
-		default:
-			return 0; // do nothing
+		default: // jump and link
+			short programCounter = (short) (program.getProgramCounter() + 1); // PC of next instruction
+			program.setRegister(d, programCounter); // R[d] <- PC
+			program.setProgramCounter((short) addr); // PC <- addr
+			return 1; // do not increment PC
 		}
-	}
-
-	/**
-	 * Checks whether the instruction changes R[d].
-	 * 
-	 * @return whether R[d] is changed by the instruction
-	 */
-	private boolean changesD() {
-		return opcode.matches("[1-8AF]"); // opcode is 1-8, A or F
-	}
-
-	/**
-	 * Checks whether the instruction needs to access the value of R[d].
-	 * 
-	 * @return whether R[d] is needed by the instruction
-	 */
-	private boolean needsD() {
-		return opcode.matches("[9BCDE]"); // opcode is 9, B, C, D or E
-	}
 
-	/**
-	 * Checks whether the instruction needs to access the value of R[s].
-	 * 
-	 * @return whether R[s] is needed by the instruction
-	 */
-	private boolean needsS() {
-		return opcode.matches("[1-6]"); // opcode is 1-6
+		checkInShortBounds(result); // check if result is within allowed range of numbers in TOY
+		program.setRegister(d, (short) result); // R[d] <- result
+		return 0;
 	}
 
 	/**
-	 * Checks whether the instruction needs to access the value of R[t].
+	 * Checks whether the magnitude of a shift (R[t]) is within the allowed range of
+	 * {@code 0x0} to {@code 0xF}, inclusive.
 	 * 
-	 * @return whether R[t] is needed by the instruction
+	 * @param magnitude magnitude of the shift
+	 * @throws ShiftMagnitudeOutOfBoundsException if {@code magnitude} is negative
+	 *                                            or greater than 15
 	 */
-	private boolean needsT() {
-		return opcode.matches("[1-6AB]"); // opcode is 1-6, A or B
+	private static void checkShiftMagnitude(short magnitude) throws ShiftMagnitudeOutOfBoundsException {
+		if (magnitude < 0x0 || magnitude > 0xF) { // R[t] is negative or greater than 15 (out of allowed range)
+			throw new ShiftMagnitudeOutOfBoundsException();
+		}
 	}
 
 	/**
 	 * Checks whether the instruction needs to access a value from stdin. If opcode
-	 * is "A", this will require calculating the value of R[t] in case it is 00FF.
+	 * is {@link #LOAD_INDIRECT}, this will require the value of R[t] in case it is
+	 * 00FF.
 	 * 
 	 * @param program program to check in the context of
 	 * @return whether the instruction needs input
 	 */
 	boolean needsInput(Program program) {
-		String[] registers = program.getRegisters(); // get program's registers
-		short memoryAddress;
-
-		if (opcode.equals("A")) { // opcode is "A"
-			short sourceT = hexToShort(t); // t as short
-			memoryAddress = hexToShort(registers[sourceT]); // memoryAddress <- R[t]
-
-		} else if (opcode.equals("8")) { // opcode is "8"
-			memoryAddress = hexToShort(addr); // memoryAddress <- addr
-
-		} else { // opcode is neither
-			return false;
+		if (opcode == LOAD_INDIRECT) { // opcode is "A"
+			return program.getRegisters()[t] == INPUT_OUTPUT_ADDRESS; // R[t] is 00FF
+		} else if (opcode == LOAD) { // opcode is "8"
+			return addr == INPUT_OUTPUT_ADDRESS; // addr is FF
 		}
+		return false; // opcode is neither
+	}
 
-		return memoryAddress == INPUT_OUTPUT_ADDRESS; // memoryAddress is 0xFF (and opcode is A or 8)
+	/**
+	 * Works out which memory address the instruction will write to when it is
+	 * executed, before executing it. Stores write to their address, and loads that
+	 * {@linkplain #needsInput(Program) read stdin} also write the word read to
+	 * M[FF].
+	 *
+	 * @param program program to check in the context of
+	 * @return address written to, which may be outside memory for a
+	 *         {@link #STORE_INDIRECT} (so executing it will throw), or {@code -1}
+	 *         if the instruction does not write to memory
+	 */
+	int addressWritten(Program program) {
+		switch (opcode) {
+		case STORE: // M[addr] <- R[d]
+			return addr;
+		case STORE_INDIRECT: // M[R[t]] <- R[d]
+			return program.getRegisters()[t];
+		case LOAD:
+		case LOAD_INDIRECT:
+			return needsInput(program) ? INPUT_OUTPUT_ADDRESS : -1; // word read from stdin is stored to M[FF]
+		default:
+			return -1;
+		}
 	}
 
 	/**
-	 * Creates a hex representation of the instruction by concatenating its opcode,
-	 * d, s, and t components.
+	 * Creates a hex representation of the instruction from the {@link #word} it
+	 * was decoded from.
 	 * 
 	 * @return hex representation of the instruction
 	 */
 	String asHex() {
-		return opcode + d + s + t; // construct string from instruction components
+		return shortToHex(word);
 	}
 
 	/**
@@ -830,8 +862,8 @@ class Instruction {
 	 * purposes).
 	 */
 	public String toString() {
-		return "Instruction " + asHex() + " [format=" + format + ", opcode=" + opcode + ", d=" + d + ", s=" + s + ", t="
-				+ t + ", addr=" + addr + "]";
+		return "Instruction " + asHex() + " [opcode=" + opcode + ", d=" + d + ", s=" + s + ", t=" + t + ", addr=" + addr
+				+ "]";
 	}
 }
 
@@ -846,27 +878,117 @@ class TOYFile {
 	String filename;
 
 	/**
-	 * Constructs a new {@link TOYFile} object from a given File object.
+	 * Constructs a new {@link TOYFile} object from a given File object. The whole
+	 * file is read at once (in the default charset), then {@linkplain #splitLines
+	 * split} into lines.
 	 * 
 	 * @param file     File to load
 	 * @param filename Name of the file
-	 * @throws FileNotFoundException if {@code fileReader} cannot find {@code file}
+	 * @throws FileNotFoundException if {@code file} cannot be read
 	 */
 	public TOYFile(File file, String filename) throws FileNotFoundException {
-		List<RawLine> contents = new ArrayList<RawLine>();
+		this.contents = splitLines(new String(readBytes(file))); // read whole file in one go
+		this.file = file;
+		this.filename = filename;
+	}
+
+	/**
+	 * Reads the whole of a file.
+	 * 
+	 * @param file file to read
+	 * @return contents of {@code file}
+	 * @throws FileNotFoundException if {@code file} does not exist or cannot be
+	 *                               read
+	 */
+	static byte[] readBytes(File file) throws FileNotFoundException {
+		try {
+			return Files.readAllBytes(file.toPath());
+		} catch (IOException e) { // file does not exist or cannot be read
+			FileNotFoundException notFound = new FileNotFoundException(file.getPath());
+			notFound.initCause(e);
+			throw notFound;
+		}
+	}
+
+	/**
+	 * Splits text into lines the same way {@link java.util.Scanner#nextLine()}
+	 * does. Lines end with {@code "\r\n"} or any single line terminator, and there
+	 * is no empty line after a final line terminator. Each line is a range of
+	 * {@code text}, rather than a {@code String} of its own.
+	 * 
+	 * @param text text to split
+	 * @return lines of {@code text}, without line terminators
+	 */
+	static RawLine[] splitLines(String text) {
+		List<RawLine> lines = new ArrayList<RawLine>();
+
+		int lineStart = 0;
+		while (lineStart < text.length()) { // until the end of the text
+			int lineEnd = lineStart;
+			while (lineEnd < text.length() && !RawLine.isLineTerminator(text.charAt(lineEnd))) { // find end of line
+				lineEnd++;
+			}
+			lines.add(new RawLine(text, lineStart, lineEnd));
 
-		Scanner fileReader = new Scanner(file); // set up Scanner to read file
-		while (fileReader.hasNextLine()) { // while there are still lines to be read
-			String fileLine = fileReader.nextLine(); // get next line in file
-			contents.add(new RawLine(fileLine)); // convert line to RawLine, add to List
+			lineStart = lineEnd + 1; // next line starts after the line terminator
+			if (lineEnd + 1 < text.length() && text.charAt(lineEnd) == '\r' && text.charAt(lineEnd + 1) == '\n') {
+				lineStart++; // "\r\n" is a single line terminator
+			}
 		}
-		fileReader.close(); // close fileReader Scanner
 
-		RawLine[] contentsArray = new RawLine[contents.size()]; // instantiate Array same length as List
-		this.contents = contents.toArray(contentsArray); // convert List to Array, assign to this.contents
+		return lines.toArray(new RawLine[lines.size()]);
+	}
 
-		this.file = file;
-		this.filename = filename;
+	/**
+	 * Loads a program from a file, which is either TOY source or, if it has the
+	 * {@value TOYImage#EXTENSION} extension, a precompiled {@link TOYImage}.
+	 * 
+	 * @param file file to load
+	 * @return program in the file
+	 * @throws IOException if the file cannot be read, or is not a valid image
+	 */
+	static Program loadProgram(File file) throws IOException {
+		if (TOYImage.isImage(file)) { // skip parsing entirely
+			return TOYImage.read(file).toProgram();
+		}
+		return new TOYFile(file, file.getName()).toProgram(); // read, split and parse file
+	}
+
+	/**
+	 * Loads many files in parallel, each as a separate task in a pool.
+	 * 
+	 * @param files files to load
+	 * @param pool  pool to load them in
+	 * @return {@link Program} loaded from each file, in the same order as
+	 *         {@code files}
+	 * @throws IOException if any of the files cannot be read
+	 * @see #loadProgram(File)
+	 */
+	static List<Program> loadAll(List<File> files, ExecutorService pool) throws IOException {
+		List<Future<Program>> futures = new ArrayList<Future<Program>>();
+		for (File file : files) { // load every file at once
+			futures.add(pool.submit(new Callable<Program>() {
+				public Program call() throws IOException {
+					return loadProgram(file);
+				}
+			}));
+		}
+
+		List<Program> programs = new ArrayList<Program>();
+		for (Future<Program> future : futures) { // wait for each file in order
+			try {
+				programs.add(future.get());
+			} catch (ExecutionException e) { // file could not be loaded
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw new IllegalStateException(e.getCause());
+			} catch (InterruptedException e) { // interrupted while waiting
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(e);
+			}
+		}
+		return programs;
 	}
 
 	/**
@@ -969,7 +1091,7 @@ class TOYFile {
 		try (final BufferedWriter writer = Files.newBufferedWriter(filepath, StandardOpenOption.CREATE);) {
 			// create BufferedWriter object to write to file at filepath
 			for (RawLine currentLine : contents) { // iterate over lines in contents
-				writer.write(currentLine.content + "\n"); // write current line to file
+				writer.write(currentLine.getContent() + "\n"); // write current line to file
 			}
 			writer.flush(); // 🚽
 		}
@@ -1012,18 +1134,43 @@ class TOYFile {
  * {@linkplain #reset() reset} the program.
  */
 class Program {
-	TOYDisplay display;
+	ExecutionListener[] listeners;
 	Line[] lines;
-	String[] registers;
-	Instruction[] memory;
-	String lineNumber, errorMessage;
+	TOYImage image; // image the program was loaded from, or null if it was parsed from source
+	int entry; // address execution starts at
+	short[] registers, memory;
+	boolean[] registersInitialised, memoryInitialised, dirtyRegisters, dirtyMemory;
+	Instruction[] decoded;
+	Handler[] handlers; // bound to the instruction at each address by ThreadedCode
+	String errorMessage;
+	TOYException error;
 	Instruction currentInstruction;
 	short programCounter;
-	List<String> stdin, stdout;
-	private boolean isRunning, isReset, shouldStop, isFinished, errorOccurred;
+	long steps, stateVersion, stdinRead, stdoutWritten;
+	int generation, engine, compilations;
+	WordQueue stdin, stdout;
+	CompiledProgram compiled;
+	boolean[] compileRoots;
+	ExecutionLimits limits;
+	long runStart, nextClockCheck;
+	UndoLog undoLog; // null unless steps can be undone
+	Breakpoints breakpoints; // null unless the program is being debugged
+	TraceRecorder trace; // null unless steps are being recorded
+	Profiler profiler; // null unless steps are being counted
+	LoopAccelerator accelerator; // null unless simple loops are run in one jump
+	CallMemoiser memoiser; // null unless calls to pure subroutines are memoised
+	String breakMessage; // why the program last stopped at a breakpoint or watchpoint, if it did
+	TOYImage snapshotImage; // image used by snapshots, made the first time one is taken
+	private volatile boolean isRunning, isReset, shouldStop, isFinished, errorOccurred; // read by display
 	private static final int REGISTERS_SIZE = 0x10; // 16
 	private static final int MEMORY_SIZE = 0x100; // 256
 	private static final int INITIAL_PC = 0x10; // 16
+	static final int ENGINE_INTERPRETER = 0, ENGINE_COMPILER = 1, ENGINE_THREADED = 2; // execution engines
+	static final String[] ENGINE_NAMES = { "interpreter", "compiler", "threaded" }; // indexed by engine
+	private static final int COMPILED_STEPS = 0x10000; // steps run by compiled or threaded code at once (65536)
+	private static final int MAX_COMPILATIONS = 0x10; // compilations before giving up on the compiler
+	private static final int COMPILE_THRESHOLD = 0x400; // steps interpreted before compiling (1024)
+	private static final int CLOCK_CHECK_INTERVAL = 0x400; // steps between checking the time limit (1024)
 
 	/**
 	 * Constructs a new {@link Program} object from a given {@link Line} array.
@@ -1033,6 +1180,11 @@ class Program {
 	 */
 	public Program(Line[] lines) {
 		this.lines = lines;
+		entry = INITIAL_PC;
+		listeners = new ExecutionListener[0];
+		limits = ExecutionLimits.NONE;
+		dirtyRegisters = new boolean[REGISTERS_SIZE];
+		dirtyMemory = new boolean[MEMORY_SIZE];
 		isRunning = false;
 		isReset = true;
 		isFinished = false;
@@ -1041,34 +1193,222 @@ class Program {
 		initVariables();
 	}
 
+	/**
+	 * Creates a new {@link Program} object from a precompiled image. Its
+	 * {@link #lines} are made from the image, but {@linkplain #loadToMemory()
+	 * loading} copies memory from the image rather than parsing them.
+	 * 
+	 * @param image image to load
+	 * @return new {@code Program}
+	 * @see TOYImage#toProgram()
+	 */
+	static Program fromImage(TOYImage image) {
+		Program program = new Program(image.toLines());
+		program.image = image;
+		program.entry = image.entry;
+		program.programCounter = (short) image.entry;
+		return program;
+	}
+
+	/**
+	 * Creates a new program from the same lines (and {@link #image}, if any) as
+	 * this one, in its reset state. Lines are never changed, so they are shared.
+	 * 
+	 * @return new {@code Program}
+	 */
+	Program newInstance() {
+		return image != null ? fromImage(image) : new Program(lines);
+	}
+
+	/**
+	 * Takes a {@link Snapshot} of the full state of the program: registers,
+	 * memory, program counter, step count and the words currently in stdin and
+	 * stdout. The state is only 272 words, so it is simply copied.
+	 * 
+	 * @return new {@code Snapshot}
+	 * @throws IllegalStateException if the program is running
+	 * @see #restore(Snapshot)
+	 */
+	public Snapshot snapshot() {
+		if (isRunning()) { // state would change while being copied
+			throw new IllegalStateException("Cannot take a snapshot of a running program");
+		}
+		return takeSnapshot();
+	}
+
+	/**
+	 * Takes a {@link Snapshot} of the program, which may be running (so must be
+	 * called by the thread running it), e.g. as a checkpoint in its
+	 * {@link #undoLog}.
+	 * 
+	 * @return new {@code Snapshot}
+	 * @see #snapshot()
+	 */
+	Snapshot takeSnapshot() {
+		if (snapshotImage == null) { // only make an image of the lines once
+			snapshotImage = image != null ? image : TOYImage.fromProgram(this, "");
+		}
+		return new Snapshot(snapshotImage, registers.clone(), registersInitialised.clone(), memory.clone(),
+				memoryInitialised.clone(), programCounter, steps, stdinRead, stdoutWritten, stdin.toArray(),
+				stdout.toArray());
+	}
+
+	/**
+	 * Restores the program to the state in a {@link Snapshot}, so it continues
+	 * from that step when it is next run. The snapshot must be of this program,
+	 * or of one with the same lines. Stdin and stdout are replaced with new queues
+	 * holding the words in the snapshot, so a stream can be given to either
+	 * afterwards with {@link #setStdin(WordQueue)} or {@link #setStdout(WordQueue)}.
+	 * 
+	 * @param snapshot snapshot to restore
+	 * @throws IllegalStateException if the program is running
+	 * @see #snapshot()
+	 */
+	public void restore(Snapshot snapshot) {
+		if (isRunning()) { // state would change while running
+			throw new IllegalStateException("Cannot restore a snapshot to a running program");
+		}
+		restoreState(snapshot);
+		if (undoLog != null) { // steps logged before are not steps of the snapshot
+			undoLog.clear();
+		}
+	}
+
+	/**
+	 * Restores the state in a {@link Snapshot}, without changing the
+	 * {@link #undoLog}.
+	 * 
+	 * @param snapshot snapshot to restore
+	 * @see #restore(Snapshot)
+	 */
+	private void restoreState(Snapshot snapshot) {
+		System.arraycopy(snapshot.registers, 0, registers, 0, REGISTERS_SIZE);
+		System.arraycopy(snapshot.registersInitialised, 0, registersInitialised, 0, REGISTERS_SIZE);
+		System.arraycopy(snapshot.memory, 0, memory, 0, MEMORY_SIZE);
+		System.arraycopy(snapshot.memoryInitialised, 0, memoryInitialised, 0, MEMORY_SIZE);
+		Arrays.fill(decoded, null); // decode again next time they are executed
+		Arrays.fill(handlers, null); // and bind again
+		if (accelerator != null) { // look for loops again
+			accelerator.clear();
+		}
+		if (memoiser != null) { // and subroutines
+			memoiser.clear();
+		}
+		programCounter = snapshot.programCounter;
+		steps = snapshot.steps;
+		stdinRead = snapshot.stdinRead;
+		stdoutWritten = snapshot.stdoutWritten;
+		stdin = new WordQueue();
+		stdin.addAll(snapshot.stdin);
+		stdout = new WordQueue();
+		stdout.addAll(snapshot.stdout);
+
+		error = null;
+		errorMessage = null;
+		errorOccurred = false;
+		breakMessage = null;
+		isFinished = false;
+		isReset = false; // program is no longer in its initial state
+		compiled = null; // memory has changed, so compile it again
+		compileRoots = new boolean[MEMORY_SIZE];
+		compilations = 0;
+		generation++; // registers, memory, stdin and stdout have all been replaced
+		Arrays.fill(dirtyRegisters, true);
+		Arrays.fill(dirtyMemory, true);
+		stateVersion++; // state has changed
+		currentInstruction = getInstruction(programCounter);
+	}
+
+	/**
+	 * Creates a new program in the same state as this one, which can then be run
+	 * separately, e.g. with different input.
+	 * 
+	 * @return new {@code Program}
+	 * @see #snapshot()
+	 */
+	public Program fork() {
+		Program program = newInstance();
+		program.restore(snapshot());
+		return program;
+	}
+
 	/**
 	 * Initialise variables relating to the execution of the program. Will empty
-	 * registers, memory, stdin, stdout as well as resetting the program counter.
+	 * registers, memory, stdin, stdout as well as resetting the program counter
+	 * and step count. Every register and memory address is marked as dirty, and
+	 * the {@link #generation} is increased so the display knows to redraw
+	 * everything.
+	 * Registers and memory are kept as {@code short}s, with a separate array
+	 * recording which of them have been initialised, and a cache of the
+	 * {@linkplain #decoded} instruction in each memory address.
 	 * 
 	 * @see #Program(Line[])
 	 * @see #reset()
 	 */
 	private void initVariables() {
-		registers = new String[REGISTERS_SIZE];
-		registers[0] = "0000";
-		memory = new Instruction[MEMORY_SIZE];
-		programCounter = INITIAL_PC;
-		stdin = new ArrayList<String>();
-		stdout = new ArrayList<String>();
+		registers = new short[REGISTERS_SIZE];
+		registersInitialised = new boolean[REGISTERS_SIZE];
+		registersInitialised[0] = true; // R[0] is always 0000
+		memory = new short[MEMORY_SIZE];
+		memoryInitialised = new boolean[MEMORY_SIZE];
+		decoded = new Instruction[MEMORY_SIZE];
+		handlers = new Handler[MEMORY_SIZE];
+		programCounter = (short) entry;
+		steps = 0;
+		stdinRead = 0;
+		stdoutWritten = 0;
+		error = null;
+		breakMessage = null;
+		generation++; // registers, memory, stdin and stdout have all been replaced
+		Arrays.fill(dirtyRegisters, true);
+		Arrays.fill(dirtyMemory, true);
+		stdin = new WordQueue();
+		stdout = new WordQueue();
+		compiled = null; // memory has changed, so compile it again
+		compileRoots = new boolean[MEMORY_SIZE];
+		compilations = 0;
+		if (undoLog != null) { // steps before the reset cannot be undone
+			undoLog.clear();
+		}
+		if (profiler != null) { // only count steps since the reset
+			profiler.clear();
+		}
+		if (accelerator != null) { // memory has changed, so look for loops again
+			accelerator.clear();
+		}
+		if (memoiser != null) { // and subroutines
+			memoiser.clear();
+		}
 	}
 
 	/**
-	 * Checks if a {@link Program} is valid and therefore able to be executed. First
-	 * checks if the program contains any valid lines, then checks for any duplicate
-	 * line numbers, then checks if all the line numbers are in order.
+	 * Checks if a {@link Program} is valid and therefore able to be executed,
+	 * showing any error message on a display.
 	 * 
 	 * @param display object to display any error messages on
 	 * @return whether the program is runnable
+	 * @see #validate()
 	 */
 	public boolean isValid(TOYDisplay display) {
+		String validationError = validate(); // check program
+		if (validationError != null) { // program is not valid
+			display.showErrorMessage(validationError);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Checks if a {@link Program} is valid and therefore able to be executed. First
+	 * checks if the program contains any valid lines, then checks for any duplicate
+	 * line numbers, then checks if all the line numbers are in order.
+	 * 
+	 * @return error message explaining why the program is not runnable, or
+	 *         {@code null} if it is runnable
+	 */
+	public String validate() {
 		if (lines.length == 0) { // there are no lines of valid TOY code
-			display.showErrorMessage("Program does not contain any valid TOY code");
-			return false; // program is not valid
+			return "Program does not contain any valid TOY code"; // program is not valid
 		}
 
 		List<Integer> lineNumbersList = new ArrayList<Integer>();
@@ -1088,8 +1428,7 @@ class Program {
 
 		if (duplicates.size() > 0) { // if there are duplicate line numbers
 			String duplicatesString = duplicates.toString().substring(1, duplicates.toString().length() - 1);
-			display.showErrorMessage("Program contains duplicate line numbers: " + duplicatesString);
-			return false; // program is not valid
+			return "Program contains duplicate line numbers: " + duplicatesString; // program is not valid
 		}
 
 		Integer[] lineNumbers = new Integer[lineNumbersList.size()];
@@ -1100,90 +1439,431 @@ class Program {
 		Integer[] sortedLineNumbers = lineNumbers.clone(); // clone lineNumbers after sorting
 
 		if (!Arrays.equals(unsortedLineNumbers, sortedLineNumbers)) { // line numbers are not the same after sorting
-			display.showErrorMessage("Program's lines are not in order");
-			return false; // program is not valid
+			return "Program's lines are not in order"; // program is not valid
 		}
 
-		return true; // program is valid
+		return null; // program is valid
 	}
 
 	/**
-	 * Extracts the {@link Instruction}s from {@link lines} and adds them to the
-	 * {@code memory} array.
+	 * Extracts the words from {@link lines} and adds them to the {@code memory}
+	 * array. If the program was loaded from an {@link #image}, memory is copied
+	 * from the image in bulk instead.
 	 */
 	public void loadToMemory() {
+		if (image != null) { // copy whole image rather than parsing lines
+			System.arraycopy(image.memory, 0, memory, 0, MEMORY_SIZE);
+			System.arraycopy(image.initialised, 0, memoryInitialised, 0, MEMORY_SIZE);
+			Arrays.fill(decoded, null); // decode again next time they are executed
+			Arrays.fill(handlers, null); // and bind again
+			if (accelerator != null) { // look for loops again
+				accelerator.clear();
+			}
+			if (memoiser != null) { // and subroutines
+				memoiser.clear();
+			}
+			Arrays.fill(dirtyMemory, true); // display needs to be updated
+			compiled = null; // compiled code is out of date
+			stateVersion++; // state has changed
+			currentInstruction = getInstruction(programCounter);
+			return;
+		}
+
 		for (Line currentLine : lines) { // iterate over Lines in program
 			int currentLineNumber = currentLine.getLineNumber(); // get current line number
-			Instruction lineAsInstruction = currentLine.toInstruction(); // convert current line to instruction
-			memory[currentLineNumber] = lineAsInstruction; // load instruction to memory
+			short word = Instruction.hexToShort(currentLine.getInstruction()); // convert current line to word
+			setMemory(currentLineNumber, word); // load word to memory
 		}
-		currentInstruction = memory[programCounter]; // sets the currentInstruction value now that memory is loaded
+		currentInstruction = getInstruction(programCounter); // sets currentInstruction now that memory is loaded
 	}
 
 	/**
-	 * Runs the program. Gets the current instruction by accessing the memory item
-	 * at the address of the {@link #programCounter}, then
-	 * {@linkplain Instruction#execute(Program) executes} it, then increments the
-	 * PC. Handles any exceptions thrown by the execution of the instruction.
+	 * Runs the program. Repeatedly {@linkplain #step() steps} through the program
+	 * until it halts, an error occurs, it is {@linkplain #stop() stopped} or it
+	 * needs input but stdin is empty. Notifies {@link #listeners} after each step
+	 * and once the program stops running. With the {@linkplain #ENGINE_COMPILER
+	 * compiler} or {@linkplain #ENGINE_THREADED threaded code}, as many steps as
+	 * possible are run by compiled or threaded code between each step of the
+	 * interpreter, and listeners are notified after each batch (unless the
+	 * program has an {@link #undoLog}, a {@link #trace}, a {@link #profiler} or
+	 * any {@link #breakpoints}, as only the interpreter logs, records and counts
+	 * steps and stops at breakpoints).
 	 * 
-	 * @see Instruction#execute(Program)
+	 * @see #run(long)
+	 * @see #step()
+	 * @see #runCompiled(long)
+	 * @see #runThreaded(long)
 	 */
 	public void run() {
+		run(Long.MAX_VALUE);
+	}
+
+	/**
+	 * Runs the program like {@link #run()}, but for at most a given number of
+	 * steps, e.g. one to single-step through it. Also stops before executing an
+	 * instruction with a breakpoint (other than the first, so a program stopped at
+	 * a breakpoint can carry on) and after writing to a watched memory address or
+	 * register, setting {@link #breakMessage} to say why.
+	 * 
+	 * @param maxSteps most steps to execute
+	 * @see Breakpoints
+	 */
+	public void run(long maxSteps) {
 		isReset = false; // program is no longer in reset state
 		isRunning = true; // program is running
 		isFinished = false; // program has not finished execution
 		shouldStop = false; // program should not stop running
+		breakMessage = null;
+		runStart = System.nanoTime(); // time limit applies to each run
+		nextClockCheck = steps;
+		long start = steps, startAllocated = EmulatorMetrics.allocatedBytes();
+		long startStdinRead = stdinRead, startStdoutWritten = stdoutWritten;
+		TOYException startError = error; // error from an earlier run is not counted again
+		EmulatorMetrics.INSTANCE.runStarted(this, runStart);
+		long stopAt = maxSteps >= Long.MAX_VALUE - steps ? Long.MAX_VALUE : steps + maxSteps;
+		boolean everyStep = undoLog != null || trace != null || profiler != null
+				|| breakpoints != null && !breakpoints.isEmpty(); // these need to see every step
+		int fastEngine = everyStep ? ENGINE_INTERPRETER : engine;
+		boolean accelerate = accelerator != null && !everyStep;
+		boolean memoise = memoiser != null && !everyStep;
+
+		while (!shouldStop && steps < stopAt) {
+			if (fastEngine != ENGINE_INTERPRETER) {
+				if (fastEngine == ENGINE_COMPILER) {
+					runCompiled(stopAt); // run until compiled code needs the interpreter
+				} else {
+					runThreaded(stopAt); // run until a handler needs the interpreter
+				}
+				if (shouldStop || steps >= stopAt) { // stopped while compiled or threaded code was running
+					break;
+				}
+			}
 
-		while (true) {
-			currentInstruction = memory[programCounter]; // get current instruction
-			lineNumber = TOYFile.lineNumberToHex(programCounter); // calculate current line number (as hex)
+			if (breakpoints != null && steps != start && programCounter >= 0 && programCounter < MEMORY_SIZE
+					&& breakpoints.addresses[programCounter]) { // step() reports a PC outside memory
+				breakMessage = "Breakpoint at " + getLineNumber(); // stop before instruction is executed
+				break;
+			}
 
-			try {
-				if (currentInstruction != null) { // there is an instruction at the current memory location
-					if (stdin.size() == 0 && currentInstruction.needsInput(this)) { // input is needed but there is none
-						break; // stop execution of program before next instruction can be executed
-					}
+			if (accelerate && accelerateLoop(stopAt)) { // ran whole iterations of a loop at once
+				continue;
+			}
 
-					int result = currentInstruction.execute(this); // execute instruction
+			if (memoise && memoiseCall(stopAt)) { // ran a whole call to a subroutine at once
+				continue;
+			}
 
-					if (result == -1) { // halt result code
-						if (TOYEmulator.DEBUG) {
-							if (TOYEmulator.INTERACT_WITH_CONSOLE) {
-								System.out.println("halted program, PC at " + lineNumber);
-							}
-						}
-						shouldStop = true; // exit execution loop when finished
-						isFinished = true; // program has finished execution (disable run button)
-					}
+			if (!step()) { // input is needed but there is none
+				break; // stop execution of program before next instruction can be executed
+			}
 
-					if (result == 0) { // not "do not increment PC" result code
-						programCounter++; // increment program counter
-					}
+			for (ExecutionListener listener : listeners) {
+				listener.stepped(this); // notify listeners of step
+			}
 
-				} else { // instruction at current PC has not been initialised
-					throw new CommandUninitialisedException();
-				}
+			if (breakpoints != null && !shouldStop) { // stop after writing to a watched address or register
+				breakMessage = breakpoints.watchHit(this, currentInstruction);
+				shouldStop = breakMessage != null;
+			}
+		}
 
-			} catch (TOYException te) { // exception related to the execution of the program occurred
-				errorMessage = "Error at line " + lineNumber + ":\n" + te.getMessage(); // set error message
-				if (TOYEmulator.INTERACT_WITH_CONSOLE) {
-					// print exception error message (not stack trace)
-					System.out.println("Error at line " + lineNumber + ":\n" + te.toString());
+		stdout.flush(); // write any stdout still buffered to its sink
+		isRunning = false; // program is not running
+		EmulatorMetrics.INSTANCE.recordRun(this, stdinRead - startStdinRead, stdoutWritten - startStdoutWritten,
+				EmulatorMetrics.allocatedBytes() - startAllocated, error != startError ? error : null); // not per step
+		notifyStopped(); // notify listeners finally
+	}
+
+	/**
+	 * Executes a single instruction. Gets the current instruction by accessing the
+	 * memory item at the address of the {@link #programCounter}, then
+	 * {@linkplain Instruction#execute(Program) executes} it, then increments the
+	 * PC. Handles any exceptions thrown by the execution of the instruction.
+	 * 
+	 * @return {@code false} if the instruction needs input but stdin is empty (so
+	 *         it was not executed), else {@code true}
+	 * @see Instruction#execute(Program)
+	 */
+	boolean step() {
+		currentInstruction = null; // not known until the PC is checked
+
+		try {
+			checkLimits(); // stop if program has done too much
+
+			if (programCounter < 0 || programCounter >= MEMORY_SIZE) { // fell off the end of memory
+				throw new ProgramCounterOutOfBoundsException();
+			}
+			currentInstruction = getInstruction(programCounter); // get current instruction
+			if (currentInstruction == null) { // instruction at current PC has not been initialised
+				throw new CommandUninitialisedException();
+			}
+
+			if (currentInstruction.needsInput(this) && stdin.isEmpty()) { // input is needed but there is none
+				return false;
+			}
+
+			if (undoLog != null) { // log what the instruction changes so it can be undone
+				undoLog.begin(this, currentInstruction);
+			}
+			if (trace != null) { // record what the instruction changes
+				trace.begin(this, currentInstruction);
+			}
+			if (profiler != null) { // count where the step is executed
+				profiler.begin(this, currentInstruction);
+			}
+			int result = currentInstruction.execute(this); // execute instruction
+			steps++; // instruction was executed
+			if (undoLog != null) {
+				undoLog.commit();
+			}
+			if (trace != null) {
+				trace.commit(this);
+			}
+			if (profiler != null) {
+				profiler.commit(result);
+			}
+
+			if (result == -1) { // halt result code
+				if (TOYEmulator.DEBUG) {
+					if (TOYEmulator.INTERACT_WITH_CONSOLE) {
+						System.out.println("halted program, PC at " + getLineNumber());
+					}
 				}
-				errorOccurred = true; // error has occurred
 				shouldStop = true; // exit execution loop when finished
 				isFinished = true; // program has finished execution (disable run button)
+
+			} else if (result == 0) { // not "do not increment PC" result code
+				programCounter++; // increment program counter
+			}
+
+		} catch (TOYException te) { // exception related to the execution of the program occurred
+			String lineNumber = getLineNumber(); // current line number (as hex)
+			errorMessage = "Error at line " + lineNumber + ":\n" + te.getMessage(); // set error message
+			if (TOYEmulator.INTERACT_WITH_CONSOLE) {
+				// print exception error message (not stack trace)
+				System.out.println("Error at line " + lineNumber + ":\n" + te.toString());
 			}
+			error = te; // save error for listeners
+			errorOccurred = true; // error has occurred
+			shouldStop = true; // exit execution loop when finished
+			isFinished = true; // program has finished execution (disable run button)
+		}
 
-			if (shouldStop) {
-				break; // stop running program
+		return true;
+	}
+
+	/**
+	 * Checks the program is still within its step and time {@link #limits} before
+	 * executing the next instruction. The clock is only read every
+	 * {@value #CLOCK_CHECK_INTERVAL} steps, as this is much slower than executing
+	 * an instruction.
+	 * 
+	 * @throws StepLimitExceededException if the program has already executed as
+	 *                                    many steps as it is allowed to
+	 * @throws TimeLimitExceededException if the program has run for longer than it
+	 *                                    is allowed to
+	 */
+	private void checkLimits() throws StepLimitExceededException, TimeLimitExceededException {
+		if (steps >= limits.maxSteps) { // next step would be one too many
+			throw new StepLimitExceededException("The program exceeded the maximum of " + limits.maxSteps + " steps");
+		}
+		if (steps >= nextClockCheck) { // check the time occasionally
+			nextClockCheck = steps + CLOCK_CHECK_INTERVAL;
+			if (System.nanoTime() - runStart > limits.maxNanos) { // run has taken too long
+				throw new TimeLimitExceededException(
+						"The program exceeded the maximum running time of " + limits.maxMillis + " ms");
 			}
+		}
+	}
 
-			display.update(); // update display
+	/**
+	 * Runs compiled code from the current program counter, compiling memory first
+	 * if needed. The compiled code stops at anything it does not handle itself, so
+	 * the next {@linkplain #step() step} is always run by the interpreter.
+	 * 
+	 * @param stopAt step count to stop running at
+	 * @see TOYCompiler
+	 */
+	private void runCompiled(long stopAt) {
+		CompiledProgram code = getCompiled();
+		if (code == null) { // cannot run compiled code here
+			return;
 		}
 
-		isRunning = false; // program is not running
-		display.update(); // update display finally
+		long end = Math.min(stopAt, limits.maxSteps); // do not run past step limit
+		int budget = (int) Math.min(COMPILED_STEPS, end - steps);
+		if (budget <= 0) { // interpreter reports limit
+			return;
+		}
+
+		int executed = code.run(this, budget); // run until compiled code needs the interpreter
+		if (executed > 0) {
+			steps += executed;
+			for (ExecutionListener listener : listeners) {
+				listener.stepped(this); // notify listeners of batch of steps
+			}
+		}
+	}
+
+	/**
+	 * Runs threaded code from the current program counter. Each address is bound
+	 * to a {@link Handler} the first time it is executed, and the handlers stop
+	 * at anything they do not handle themselves, so the next {@linkplain #step()
+	 * step} is always run by the interpreter.
+	 * 
+	 * @param stopAt step count to stop running at
+	 * @see ThreadedCode
+	 */
+	private void runThreaded(long stopAt) {
+		long end = Math.min(stopAt, limits.maxSteps); // do not run past step limit
+		int budget = (int) Math.min(COMPILED_STEPS, end - steps);
+		if (budget <= 0) { // interpreter reports limit
+			return;
+		}
+
+		int executed = ThreadedCode.run(this, budget); // run until a handler needs the interpreter
+		if (executed > 0) {
+			steps += executed;
+			for (ExecutionListener listener : listeners) {
+				listener.stepped(this); // notify listeners of batch of steps
+			}
+		}
+	}
+
+	/**
+	 * Runs whole iterations of the loop at the program counter in one jump, if
+	 * the {@link #accelerator} can work out what they do. The next step is always
+	 * run by the interpreter, so the loop is left or throws at the same step.
+	 * 
+	 * @param stopAt step count to stop running at
+	 * @return {@code true} if any steps were run
+	 * @see LoopAccelerator
+	 */
+	private boolean accelerateLoop(long stopAt) {
+		long end = Math.min(stopAt, limits.maxSteps); // do not run past step limit
+		long executed = accelerator.run(this, end - steps);
+		if (executed == 0) { // no loop here, or it is about to be left
+			return false;
+		}
+
+		steps += executed;
+		for (ExecutionListener listener : listeners) {
+			listener.stepped(this); // notify listeners of batch of steps
+		}
+		return true;
+	}
+
+	/**
+	 * Runs the whole of the call at the program counter in one jump, if it calls
+	 * a pure subroutine the {@link #memoiser} knows or can work out the result of.
+	 * 
+	 * @param stopAt step count to stop running at
+	 * @return {@code true} if any steps were run
+	 * @see CallMemoiser
+	 */
+	private boolean memoiseCall(long stopAt) {
+		long end = Math.min(stopAt, limits.maxSteps); // do not run past step limit
+		long executed = memoiser.run(this, end - steps);
+		if (executed == 0) { // not a call it can memoise, or it would reach the limit
+			return false;
+		}
+
+		steps += executed;
+		for (ExecutionListener listener : listeners) {
+			listener.stepped(this); // notify listeners of batch of steps
+		}
+		return true;
+	}
+
+	/**
+	 * Gets compiled code that can run from the current program counter. Memory is
+	 * only compiled once the program has run for {@value #COMPILE_THRESHOLD}
+	 * steps, as short programs finish sooner in the interpreter. It is compiled
+	 * again if compiled code has been stored to, or the program counter is
+	 * somewhere that has not been compiled yet. Gives up after
+	 * {@value #MAX_COMPILATIONS} compilations, e.g. for self-modifying programs.
+	 * 
+	 * @return compiled code, or {@code null} if the interpreter should be used
+	 */
+	private CompiledProgram getCompiled() {
+		if (compiled != null && !compiled.invalidated && compiled.covers(programCounter)) { // still usable
+			return compiled;
+		}
+		if (steps < COMPILE_THRESHOLD) { // not worth compiling yet
+			return null;
+		}
+		if (programCounter < 0 || programCounter >= MEMORY_SIZE - 1 || !memoryInitialised[programCounter]) {
+			return null; // interpreter handles stdin/stdout address and uninitialised memory
+		}
+		if (compilations >= MAX_COMPILATIONS) { // compiling too often, not worth it
+			compiled = null;
+			return null;
+		}
+
+		compilations++;
+		compileRoots[programCounter] = true; // also compile anything reachable from here
+		compiled = TOYCompiler.compile(this, compileRoots);
+		if (compiled == null) { // program could not be compiled
+			compilations = MAX_COMPILATIONS;
+		}
+		return compiled;
+	}
+
+	/**
+	 * Notifies {@link #listeners} that the program has stopped running, and why.
+	 */
+	private void notifyStopped() {
+		for (ExecutionListener listener : listeners) {
+			if (error != null) { // program stopped because of an error
+				listener.errorOccurred(this, error);
+			} else if (isFinished) { // program stopped because it halted
+				listener.halted(this);
+			} else { // program was stopped or needs input
+				listener.stopped(this);
+			}
+		}
+	}
+
+	/**
+	 * Removes the first word of stdin. Notifies {@link #listeners} of the input.
+	 * 
+	 * @return word read from stdin
+	 */
+	short readStdin() {
+		short value = stdin.remove(); // remove stdin[0]
+		stdinRead++; // count words read so display knows how many to remove
+		stateVersion++; // state has changed
+
+		for (ExecutionListener listener : listeners) {
+			listener.inputRead(this, value);
+		}
+		return value;
+	}
+
+	/**
+	 * Appends a word to stdout. Notifies {@link #listeners} of the output.
+	 * 
+	 * @param value word to write
+	 * @throws OutputLimitExceededException if as many words have already been
+	 *                                      written to stdout as the
+	 *                                      {@link #limits} allow
+	 */
+	void writeStdout(short value) throws OutputLimitExceededException {
+		if (stdoutWritten >= limits.maxOutputWords) { // would write too many words
+			throw new OutputLimitExceededException(
+					"The program exceeded the maximum of " + limits.maxOutputWords + " words written to stdout");
+		}
+
+		stdout.add(value); // append value to stdout queue
+		stdoutWritten++; // count words written, including any written by a previous process
+		stateVersion++; // state has changed
+		if (TOYEmulator.INTERACT_WITH_CONSOLE) {
+			System.out.println(Instruction.shortToHex(value)); // stdout is displayed as hex
+		}
+
+		for (ExecutionListener listener : listeners) {
+			listener.outputWritten(this, value);
+		}
 	}
 
 	/**
@@ -1197,7 +1877,6 @@ class Program {
 		if (!isRunning() && !isReset()) { // program is not running nor is it already in reset state
 			initVariables(); // reinitialise variables
 			loadToMemory(); // reload program to memory
-			display.update(); // update GUI
 
 			if (TOYEmulator.DEBUG) {
 				if (TOYEmulator.INTERACT_WITH_CONSOLE) {
@@ -1208,6 +1887,10 @@ class Program {
 			isReset = true; // program has been reset
 			isFinished = false; // program has not finished execution
 			errorOccurred = false; // error has not occurred
+
+			for (ExecutionListener listener : listeners) {
+				listener.reset(this); // update GUI
+			}
 		}
 	}
 
@@ -1229,24 +1912,316 @@ class Program {
 		}
 	}
 
+	/**
+	 * Checks whether the program can {@linkplain #stepBack() step back}.
+	 * 
+	 * @return whether the program has an {@link #undoLog} with anything to undo,
+	 *         and is not running
+	 */
+	public boolean canStepBack() {
+		return undoLog != null && !isRunning() && undoLog.canUndo(steps);
+	}
+
+	/**
+	 * Undoes the last step the program executed, using its {@link #undoLog}. If
+	 * the log no longer reaches back that far, the program goes back to the most
+	 * recent checkpoint in the log instead. Any error or halt is forgotten, so the
+	 * program can be run again from the earlier step.
+	 * 
+	 * @return whether the program stepped back (it cannot if it is running, has
+	 *         no undo log or there is nothing left to undo)
+	 * @see #runBack(boolean[])
+	 */
+	public boolean stepBack() {
+		if (!canStepBack()) {
+			return false;
+		}
+
+		boolean stdioChanged;
+		if (!undoLog.isEmpty()) { // undo last step
+			stdioChanged = undoLog.undo(this);
+		} else { // go back to checkpoint, keeping stdin added since
+			long stdinAdded = stdinRead + stdin.size(); // words ever given to stdin
+			short[] stdinWords = stdin.toArray();
+			Snapshot checkpoint = undoLog.checkpointBefore(steps);
+			restoreState(checkpoint);
+			long addedSince = stdinAdded - (checkpoint.stdinRead + checkpoint.stdin.length);
+			for (int i = (int) Math.max(0, stdinWords.length - addedSince); i < stdinWords.length; i++) {
+				stdin.add(stdinWords[i]);
+			}
+			stdioChanged = true;
+		}
+
+		error = null;
+		errorMessage = null;
+		errorOccurred = false;
+		breakMessage = null;
+		isFinished = false; // program can be run from here
+		if (stdioChanged) {
+			generation++; // stdin and stdout have gone back, so display rebuilds them
+		}
+		stateVersion++; // state has changed
+		currentInstruction = getInstruction(programCounter);
+		return true;
+	}
+
+	/**
+	 * Steps back repeatedly until the program counter is at an address with a
+	 * breakpoint, i.e. to just before the instruction there was last executed, or
+	 * until there is nothing left to undo. Always steps back at least once.
+	 * 
+	 * @param breakpoints whether there is a breakpoint at each memory address, or
+	 *                    {@code null} to go back as far as possible
+	 * @return number of steps gone back
+	 * @see #stepBack()
+	 */
+	public long runBack(boolean[] breakpoints) {
+		long start = steps;
+		while (stepBack()) {
+			if (breakpoints != null && programCounter >= 0 && programCounter < MEMORY_SIZE
+					&& breakpoints[programCounter]) { // reached a breakpoint
+				break;
+			}
+		}
+		return start - steps;
+	}
+
+	/**
+	 * Builds a {@link ControlFlowGraph} of the current memory, following the code
+	 * reachable from the entry point and the program counter. It is not kept, as
+	 * memory may change as soon as the program runs again.
+	 *
+	 * @return control-flow graph of memory
+	 */
+	ControlFlowGraph controlFlowGraph() {
+		boolean[] roots = new boolean[MEMORY_SIZE];
+		roots[entry] = true; // where the program starts
+		roots[programCounter] = true; // and where it is now
+		return new ControlFlowGraph(memory, memoryInitialised, roots);
+	}
+
+	/**
+	 * Gets the decoded {@link Instruction} in memory at a given address. Each
+	 * address is only decoded the first time it is needed, and again after it has
+	 * been {@linkplain #setMemory(int, short) stored to}.
+	 * 
+	 * @param address address of the word
+	 * @return decoded instruction, or {@code null} if memory at {@code address} is
+	 *         not initialised
+	 * @see Instruction#fromWord(short)
+	 */
+	Instruction getInstruction(int address) {
+		Instruction instruction = decoded[address]; // get cached instruction
+		if (instruction == null && memoryInitialised[address]) { // not decoded since last stored to
+			instruction = Instruction.fromWord(memory[address]); // decode word
+			decoded[address] = instruction; // cache decoded instruction
+		}
+		return instruction;
+	}
+
+	/**
+	 * Sets R[{@code index}] to a value, marking it as initialised.
+	 * 
+	 * @param index index of the register
+	 * @param value value to set
+	 */
+	void setRegister(int index, short value) {
+		if (registers[index] != value || !registersInitialised[index]) { // register is changing
+			registers[index] = value;
+			registersInitialised[index] = true;
+			dirtyRegisters[index] = true; // display needs to be updated
+			stateVersion++; // state has changed
+		}
+	}
+
+	/**
+	 * Sets M[{@code address}] to a value, marking it as initialised. Invalidates
+	 * the decoded instruction at {@code address}.
+	 * 
+	 * @param address address in memory
+	 * @param value   value to set
+	 */
+	void setMemory(int address, short value) {
+		if (memory[address] != value || !memoryInitialised[address]) { // memory is changing
+			memory[address] = value;
+			memoryInitialised[address] = true;
+			decoded[address] = null; // decode again next time it is executed
+			handlers[address] = null; // and bind again, leaving every other address bound
+			if (address > 0) {
+				handlers[address - 1] = null; // may be fused with this address
+			}
+			if (accelerator != null) { // loops through this address may have changed
+				accelerator.invalidate(address);
+			}
+			if (memoiser != null) { // and subroutines
+				memoiser.invalidate(address);
+			}
+			if (compiled != null && compiled.covers(address)) { // compiled code is out of date
+				compiled.invalidated = true;
+			}
+			dirtyMemory[address] = true; // display needs to be updated
+			stateVersion++; // state has changed
+		}
+	}
+
+	/**
+	 * Puts a register back to how it was before a step, when the step is
+	 * {@linkplain UndoLog#undo(Program) undone}.
+	 * 
+	 * @param index       index of the register
+	 * @param value       old value of the register
+	 * @param initialised whether the register was initialised
+	 */
+	void restoreRegister(int index, short value, boolean initialised) {
+		registers[index] = value;
+		registersInitialised[index] = initialised;
+		dirtyRegisters[index] = true; // display needs to be updated
+	}
+
+	/**
+	 * Puts a memory address back to how it was before a step, when the step is
+	 * {@linkplain UndoLog#undo(Program) undone}.
+	 * 
+	 * @param address     address in memory
+	 * @param value       old value at the address
+	 * @param initialised whether the address was initialised
+	 */
+	void restoreMemory(int address, short value, boolean initialised) {
+		memory[address] = value;
+		memoryInitialised[address] = initialised;
+		decoded[address] = null; // decode again next time it is executed
+		handlers[address] = null; // and bind again
+		if (address > 0) {
+			handlers[address - 1] = null; // may be fused with this address
+		}
+		if (accelerator != null) { // loops through this address may have changed
+			accelerator.invalidate(address);
+		}
+		if (memoiser != null) { // and subroutines
+			memoiser.invalidate(address);
+		}
+		if (compiled != null && compiled.covers(address)) { // compiled code is out of date
+			compiled.invalidated = true;
+		}
+		dirtyMemory[address] = true; // display needs to be updated
+	}
+
+	/**
+	 * Puts a word read from stdin back at the front, when the step that read it
+	 * is {@linkplain UndoLog#undo(Program) undone}.
+	 * 
+	 * @param value word that was read
+	 */
+	void unreadStdin(short value) {
+		stdin.addFirst(value);
+		stdinRead--;
+	}
+
+	/**
+	 * Removes the last word written to stdout, when the step that wrote it is
+	 * {@linkplain UndoLog#undo(Program) undone}. Words already written to a sink
+	 * cannot be taken back, so are only uncounted.
+	 */
+	void unwriteStdout() {
+		if (stdout.size() > 0) {
+			stdout.removeLast();
+		}
+		stdoutWritten--;
+	}
+
+	/**
+	 * Checks whether R[{@code index}] has changed since this was last called for
+	 * it, and marks it as clean. Used by the display to only update registers that
+	 * have changed.
+	 * 
+	 * @param index index of the register
+	 * @return whether the register was dirty
+	 */
+	boolean clearDirtyRegister(int index) {
+		if (dirtyRegisters[index]) {
+			dirtyRegisters[index] = false;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Checks whether M[{@code address}] has changed since this was last called for
+	 * it, and marks it as clean. Used by the display to only update memory
+	 * addresses that have changed.
+	 * 
+	 * @param address address in memory
+	 * @return whether the memory address was dirty
+	 */
+	boolean clearDirtyMemory(int address) {
+		if (dirtyMemory[address]) {
+			dirtyMemory[address] = false;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Checks whether M[{@code address}] has been initialised.
+	 * 
+	 * @param address address in memory
+	 * @return whether memory at {@code address} is initialised
+	 */
+	boolean isMemoryInitialised(int address) {
+		return memoryInitialised[address];
+	}
+
 	/**
 	 * Gets the {@link #registers} array of a program.
 	 * 
 	 * @return {@link #registers} array
 	 */
-	public String[] getRegisters() {
+	public short[] getRegisters() {
 		return registers;
 	}
 
+	/**
+	 * Gets which registers of a program have been initialised, as a bitmask.
+	 * 
+	 * @return bitmask with bit {@code i} set if R[{@code i}] is initialised
+	 */
+	int getRegistersMask() {
+		int mask = 0;
+		for (int i = 0; i < REGISTERS_SIZE; i++) {
+			if (registersInitialised[i]) {
+				mask |= 1 << i;
+			}
+		}
+		return mask;
+	}
+
+	/**
+	 * Gets the {@link #registersInitialised} array of a program.
+	 * 
+	 * @return {@link #registersInitialised} array
+	 */
+	public boolean[] getRegistersInitialised() {
+		return registersInitialised;
+	}
+
 	/**
 	 * Gets the {@link #memory} array of a program.
 	 * 
 	 * @return {@link #memory} array
 	 */
-	public Instruction[] getMemory() {
+	public short[] getMemory() {
 		return memory;
 	}
 
+	/**
+	 * Gets the {@link #memoryInitialised} array of a program.
+	 * 
+	 * @return {@link #memoryInitialised} array
+	 */
+	public boolean[] getMemoryInitialised() {
+		return memoryInitialised;
+	}
+
 	/**
 	 * Gets the {@link #programCounter} of a program.
 	 * 
@@ -1257,11 +2232,10 @@ class Program {
 	}
 
 	/**
-	 * Gets the {@link #lineNumber} of a program. Rather than immediately returning
-	 * {@code lineNumber}, it is recalculated using {@link #programCounter}, which
-	 * is more likely to be up-to-date and reliable.
+	 * Gets the line number of a program, calculated from the
+	 * {@link #programCounter}.
 	 * 
-	 * @return {@link #lineNumber}
+	 * @return line number as a hex string
 	 * @see TOYFile#lineNumberToHex(int)
 	 */
 	public String getLineNumber() {
@@ -1277,6 +2251,56 @@ class Program {
 		return currentInstruction;
 	}
 
+	/**
+	 * Gets the number of instructions a program has executed since it was last
+	 * reset.
+	 * 
+	 * @return {@link #steps}
+	 */
+	public long getSteps() {
+		return steps;
+	}
+
+	/**
+	 * Gets the {@link #stateVersion} of a program. This increases every time a
+	 * register, memory, stdin or stdout changes, so can be compared to a previous
+	 * value to check whether the state of the program has changed since.
+	 * 
+	 * @return {@link #stateVersion}
+	 */
+	public long getStateVersion() {
+		return stateVersion;
+	}
+
+	/**
+	 * Gets the number of words a program has read from stdin since it was last
+	 * reset.
+	 * 
+	 * @return {@link #stdinRead}
+	 */
+	public long getStdinRead() {
+		return stdinRead;
+	}
+
+	/**
+	 * Gets the {@link #generation} of a program, which increases every time it is
+	 * reset.
+	 * 
+	 * @return {@link #generation}
+	 */
+	public int getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Gets the error that stopped a program, if there was one.
+	 * 
+	 * @return {@link #error}, or {@code null} if no error occurred
+	 */
+	public TOYException getError() {
+		return error;
+	}
+
 	/**
 	 * Gets the {@link #errorMessage} of a program.
 	 * 
@@ -1340,6 +2364,230 @@ class Program {
 		this.isReset = isReset;
 	}
 
+	/**
+	 * Gets the {@link #limits} of a program.
+	 * 
+	 * @return {@link #limits}
+	 */
+	public ExecutionLimits getLimits() {
+		return limits;
+	}
+
+	/**
+	 * Gets the {@link #undoLog} of a program.
+	 * 
+	 * @return {@link #undoLog}, or {@code null} if steps cannot be undone
+	 */
+	public UndoLog getUndoLog() {
+		return undoLog;
+	}
+
+	/**
+	 * Sets the {@link #undoLog} of a program, so the steps it executes from now on
+	 * can be undone. While it has one, the program is always interpreted, even
+	 * with the {@linkplain #ENGINE_COMPILER compiler}.
+	 * 
+	 * @param undoLog new undo log, or {@code null} to stop logging steps
+	 * @see #stepBack()
+	 */
+	public void setUndoLog(UndoLog undoLog) {
+		if (undoLog != null) {
+			undoLog.clear();
+		}
+		this.undoLog = undoLog;
+	}
+
+	/**
+	 * Gets the {@link #breakpoints} of a program.
+	 *
+	 * @return {@link #breakpoints}, or {@code null} if the program is not being
+	 *         debugged
+	 */
+	public Breakpoints getBreakpoints() {
+		return breakpoints;
+	}
+
+	/**
+	 * Sets the {@link #breakpoints} of a program, which it stops at from the next
+	 * time it is run. While any are set, the program is always interpreted, even
+	 * with the {@linkplain #ENGINE_COMPILER compiler}.
+	 *
+	 * @param breakpoints new breakpoints, or {@code null} to never stop at any
+	 * @see #run(long)
+	 */
+	public void setBreakpoints(Breakpoints breakpoints) {
+		this.breakpoints = breakpoints;
+	}
+
+	/**
+	 * Gets the {@link #trace} recorder of a program.
+	 *
+	 * @return {@link #trace}, or {@code null} if steps are not being recorded
+	 */
+	public TraceRecorder getTrace() {
+		return trace;
+	}
+
+	/**
+	 * Sets the {@link #trace} recorder of a program, which records every step it
+	 * executes from now on. While it has one, the program is always interpreted,
+	 * even with the {@linkplain #ENGINE_COMPILER compiler}. The recorder is never
+	 * closed by the program.
+	 *
+	 * @param trace new trace recorder, or {@code null} to stop recording steps
+	 */
+	public void setTrace(TraceRecorder trace) {
+		this.trace = trace;
+	}
+
+	/**
+	 * Gets the {@link #profiler} of a program.
+	 *
+	 * @return {@link #profiler}, or {@code null} if steps are not being counted
+	 */
+	public Profiler getProfiler() {
+		return profiler;
+	}
+
+	/**
+	 * Sets the {@link #profiler} of a program, which counts every step it
+	 * executes from now on until it is reset. While it has one, the program is
+	 * always interpreted, even with the {@linkplain #ENGINE_COMPILER compiler}.
+	 *
+	 * @param profiler new profiler, or {@code null} to stop counting steps
+	 */
+	public void setProfiler(Profiler profiler) {
+		this.profiler = profiler;
+	}
+
+	/**
+	 * Gets the {@link #accelerator} of a program.
+	 *
+	 * @return {@link #accelerator}, or {@code null} if every loop is run step by
+	 *         step
+	 */
+	public LoopAccelerator getLoopAccelerator() {
+		return accelerator;
+	}
+
+	/**
+	 * Sets the {@link #accelerator} of a program, which runs whole iterations of
+	 * simple counted loops in one jump. It is not used while anything needs to see
+	 * every step, e.g. a {@link #profiler} or breakpoints, or by compiled code,
+	 * which runs loops itself.
+	 *
+	 * @param accelerator new accelerator, or {@code null} to run every loop step
+	 *                    by step
+	 */
+	public void setLoopAccelerator(LoopAccelerator accelerator) {
+		this.accelerator = accelerator;
+		Arrays.fill(handlers, null); // threaded code leaves loops to the accelerator
+		if (accelerator != null) {
+			accelerator.clear();
+		}
+	}
+
+	/**
+	 * Gets the {@link #memoiser} of a program.
+	 *
+	 * @return {@link #memoiser}, or {@code null} if every call is run step by
+	 *         step
+	 */
+	public CallMemoiser getCallMemoiser() {
+		return memoiser;
+	}
+
+	/**
+	 * Sets the {@link #memoiser} of a program, which runs calls to pure
+	 * subroutines in one jump, remembering their results. Like the
+	 * {@link #accelerator}, it is not used while anything needs to see every step,
+	 * or by compiled code.
+	 *
+	 * @param memoiser new memoiser, or {@code null} to run every call step by
+	 *                 step
+	 */
+	public void setCallMemoiser(CallMemoiser memoiser) {
+		this.memoiser = memoiser;
+		Arrays.fill(handlers, null); // threaded code leaves calls to the memoiser
+		if (memoiser != null) {
+			memoiser.clear();
+		}
+	}
+
+	/**
+	 * Gets why the program stopped the last time it was run, if it stopped at a
+	 * breakpoint or watchpoint.
+	 *
+	 * @return {@link #breakMessage}, or {@code null} if it stopped for any other
+	 *         reason
+	 */
+	public String getBreakMessage() {
+		return breakMessage;
+	}
+
+	/**
+	 * Sets the limits on what a program may do when it is run. Steps and words
+	 * written to stdout are counted from when the program was last reset, and time
+	 * from the start of each {@linkplain #run() run}.
+	 * 
+	 * @param limits new limits, or {@link ExecutionLimits#NONE}
+	 */
+	public void setLimits(ExecutionLimits limits) {
+		this.limits = limits;
+	}
+
+	/**
+	 * Replaces the stdin of a program, e.g. with a {@link WordQueue} that reads
+	 * lazily from a stream. Stdin is replaced with an empty queue when the program
+	 * is reset.
+	 *
+	 * @param stdin new stdin
+	 */
+	public void setStdin(WordQueue stdin) {
+		this.stdin = stdin;
+		stateVersion++; // state has changed
+	}
+
+	/**
+	 * Replaces the stdout of a program, e.g. with a {@link WordQueue} that writes
+	 * to a stream as the program runs. Stdout is replaced with an empty queue when
+	 * the program is reset.
+	 *
+	 * @param stdout new stdout
+	 */
+	public void setStdout(WordQueue stdout) {
+		this.stdout = stdout;
+		stateVersion++; // state has changed
+	}
+
+	/**
+	 * Gets the execution engine of a program.
+	 * 
+	 * @return {@link #engine}
+	 */
+	public int getEngine() {
+		return engine;
+	}
+
+	/**
+	 * Sets the execution engine of a program, e.g. {@link #ENGINE_COMPILER}.
+	 * 
+	 * @param engine engine to use from the next time the program is run
+	 */
+	public void setEngine(int engine) {
+		this.engine = engine;
+	}
+
+	/**
+	 * Finds an execution engine by its name in {@link #ENGINE_NAMES}.
+	 * 
+	 * @param name name of the engine
+	 * @return engine, or {@code -1} if there is no engine called {@code name}
+	 */
+	static int engineNamed(String name) {
+		return Arrays.asList(ENGINE_NAMES).indexOf(name);
+	}
+
 	/**
 	 * Sets the {@link #programCounter} of a program.
 	 * 
@@ -1350,12 +2598,14 @@ class Program {
 	}
 
 	/**
-	 * Sets the {@link #display} of a program.
+	 * Adds a listener to be notified of the execution of a program.
 	 * 
-	 * @param display new display to set
+	 * @param listener listener to add
+	 * @see BatchedExecutionListener
 	 */
-	public void setDisplay(TOYDisplay display) {
-		this.display = display;
+	public void addListener(ExecutionListener listener) {
+		listeners = Arrays.copyOf(listeners, listeners.length + 1); // listeners are rarely added, so copy array
+		listeners[listeners.length - 1] = listener;
 	}
 }
 
@@ -1367,11 +2617,25 @@ public class TOYEmulator {
 	static final boolean DEBUG = false, INTERACT_WITH_CONSOLE = false; // debug constants
 
 	/**
-	 * Only contains code to show the GUI of a TOY emulator.
+	 * Shows the GUI of a TOY emulator, or runs a program without the GUI if any
+	 * arguments are passed. Either way, {@link EmulatorMetrics} are registered
+	 * with JMX, and logged to stderr every so many seconds if the system property
+	 * {@value EmulatorMetrics#LOG_SECONDS_PROPERTY} is set.
 	 * 
-	 * @param args arguments passed when running the program (unused)
+	 * @param args arguments passed when running the program
+	 * @see TOYRunner#runCommandLine(String[])
 	 */
 	public static void main(String[] args) {
+		EmulatorMetrics.INSTANCE.register(); // readable through JMX, e.g. in JConsole
+		Long metricsSeconds = Long.getLong(EmulatorMetrics.LOG_SECONDS_PROPERTY);
+		if (metricsSeconds != null && metricsSeconds > 0) { // also log metrics every few seconds
+			EmulatorMetrics.INSTANCE.startLogging(metricsSeconds, System.err);
+		}
+
+		if (args.length > 0) { // run from the command line
+			System.exit(TOYRunner.runCommandLine(args)); // exit with status of the run
+		}
+
 		SwingUtilities.invokeLater(new Runnable() { // add to EDT queue rather than executing immediately
 			public void run() { // run later in event dispatch thread
 				new TOYDisplay().createAndShowGUI(); // creates an anonymous new TOYDisplay object and shows its GUI
@@ -495,4 +495,182 @@ class MemoryAddressOutOfBoundsException extends OutOfBoundsException {
 	public MemoryAddressOutOfBoundsException(String message, Throwable cause) {
 		super(message, cause);
 	}
+}
+
+/**
+ * Superclass for all {@link TOYException}s related to a program exceeding one of
+ * its {@link ExecutionLimits}.
+ */
+class LimitExceededException extends TOYException {
+	/**
+	 * Empty {@code LimitExceededException} constructor.
+	 */
+	public LimitExceededException() {
+	}
+
+	/**
+	 * Constructs a new {@code LimitExceededException} with a given message.
+	 * 
+	 * @param message message to use
+	 */
+	public LimitExceededException(String message) {
+		super(message);
+	}
+
+	/**
+	 * Constructs a new {@code LimitExceededException} with a given cause.
+	 * 
+	 * @param cause cause to use
+	 */
+	public LimitExceededException(Throwable cause) {
+		super(cause);
+	}
+
+	/**
+	 * Constructs a new {@code LimitExceededException} with a given message and cause.
+	 * 
+	 * @param message message to use
+	 * @param cause   cause to use
+	 */
+	public LimitExceededException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
+
+/**
+ * Thrown when a program would execute more instructions than its
+ * {@linkplain ExecutionLimits#maxSteps step limit}.
+ */
+class StepLimitExceededException extends LimitExceededException {
+	static final String defaultMessage = "The program exceeded the maximum number of steps";
+
+	/**
+	 * Default {@code StepLimitExceededException} constructor - calls
+	 * {@link #StepLimitExceededException(String)} with a {@code message} of:
+	 * <blockquote> {@value #defaultMessage} </blockquote>
+	 */
+	public StepLimitExceededException() {
+		this(defaultMessage);
+	}
+
+	/**
+	 * Constructs a new {@code StepLimitExceededException} with a given message.
+	 * 
+	 * @param message message to use
+	 */
+	public StepLimitExceededException(String message) {
+		super(message);
+	}
+
+	/**
+	 * Constructs a new {@code StepLimitExceededException} with a given cause.
+	 * 
+	 * @param cause cause to use
+	 */
+	public StepLimitExceededException(Throwable cause) {
+		super(cause);
+	}
+
+	/**
+	 * Constructs a new {@code StepLimitExceededException} with a given message
+	 * and cause.
+	 * 
+	 * @param message message to use
+	 * @param cause   cause to use
+	 */
+	public StepLimitExceededException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
+
+/**
+ * Thrown when a program runs for longer than its
+ * {@linkplain ExecutionLimits#maxMillis time limit}.
+ */
+class TimeLimitExceededException extends LimitExceededException {
+	static final String defaultMessage = "The program exceeded the maximum running time";
+
+	/**
+	 * Default {@code TimeLimitExceededException} constructor - calls
+	 * {@link #TimeLimitExceededException(String)} with a {@code message} of:
+	 * <blockquote> {@value #defaultMessage} </blockquote>
+	 */
+	public TimeLimitExceededException() {
+		this(defaultMessage);
+	}
+
+	/**
+	 * Constructs a new {@code TimeLimitExceededException} with a given message.
+	 * 
+	 * @param message message to use
+	 */
+	public TimeLimitExceededException(String message) {
+		super(message);
+	}
+
+	/**
+	 * Constructs a new {@code TimeLimitExceededException} with a given cause.
+	 * 
+	 * @param cause cause to use
+	 */
+	public TimeLimitExceededException(Throwable cause) {
+		super(cause);
+	}
+
+	/**
+	 * Constructs a new {@code TimeLimitExceededException} with a given message
+	 * and cause.
+	 * 
+	 * @param message message to use
+	 * @param cause   cause to use
+	 */
+	public TimeLimitExceededException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
+
+/**
+ * Thrown when a program would write more words to stdout than its
+ * {@linkplain ExecutionLimits#maxOutputWords output limit}.
+ */
+class OutputLimitExceededException extends LimitExceededException {
+	static final String defaultMessage = "The program exceeded the maximum number of words written to stdout";
+
+	/**
+	 * Default {@code OutputLimitExceededException} constructor - calls
+	 * {@link #OutputLimitExceededException(String)} with a {@code message} of:
+	 * <blockquote> {@value #defaultMessage} </blockquote>
+	 */
+	public OutputLimitExceededException() {
+		this(defaultMessage);
+	}
+
+	/**
+	 * Constructs a new {@code OutputLimitExceededException} with a given message.
+	 * 
+	 * @param message message to use
+	 */
+	public OutputLimitExceededException(String message) {
+		super(message);
+	}
+
+	/**
+	 * Constructs a new {@code OutputLimitExceededException} with a given cause.
+	 * 
+	 * @param cause cause to use
+	 */
+	public OutputLimitExceededException(Throwable cause) {
+		super(cause);
+	}
+
+	/**
+	 * Constructs a new {@code OutputLimitExceededException} with a given message
+	 * and cause.
+	 * 
+	 * @param message message to use
+	 * @param cause   cause to use
+	 */
+	public OutputLimitExceededException(String message, Throwable cause) {
+		super(message, cause);
+	}
 }
\ No newline at end of file
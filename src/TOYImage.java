@@ -0,0 +1,295 @@
+package myPackage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * A precompiled TOY program: the contents of memory once the program has been
+ * loaded, ready to run without parsing any source. Images are saved as
+ * {@value #EXTENSION} files, in the following format (all numbers big-endian):
+ * <ol>
+ * <li>the magic number {@code "TOYI"} and a 2-byte format version</li>
+ * <li>2 bytes of flags, e.g. {@link #HAS_SOURCE}</li>
+ * <li>the 2-byte entry PC</li>
+ * <li>a 32-byte bitmap of which memory addresses are initialised, lowest
+ * address first and most significant bit first</li>
+ * <li>all 256 words of memory, 2 bytes each</li>
+ * <li>if {@link #HAS_SOURCE} is set, the name of the source file then the
+ * comment of each initialised address in order, each as a 4-byte length and
+ * UTF-8 bytes</li>
+ * </ol>
+ * The source table is only used for debugging, so a program can be shown with
+ * the comments it was written with.
+ */
+class TOYImage {
+	static final String EXTENSION = ".toyi";
+	static final int HAS_SOURCE = 0x1; // flag for the optional source table
+	private static final int MAGIC = 0x544F5949; // "TOYI"
+	private static final int VERSION = 1;
+	private static final int MEMORY_SIZE = 0x100; // 256
+	private static final int BITMAP_BYTES = MEMORY_SIZE / 8; // 32
+	private static final int HEADER_BYTES = 4 + 2 + 2 + 2; // magic, version, flags, entry PC
+	final short[] memory;
+	final boolean[] initialised;
+	final int entry;
+	final String sourceName; // null if there is no source table
+	final String[] comments; // comment of each address, null if there is no source table
+
+	/**
+	 * Constructs a new {@code TOYImage}.
+	 *
+	 * @param memory      contents of memory
+	 * @param initialised which addresses of memory are initialised
+	 * @param entry       address execution starts at
+	 * @param sourceName  name of the source file, or {@code null} if there is no
+	 *                    source table
+	 * @param comments    comment of each initialised address, or {@code null} if
+	 *                    there is no source table
+	 */
+	TOYImage(short[] memory, boolean[] initialised, int entry, String sourceName, String[] comments) {
+		this.memory = memory;
+		this.initialised = initialised;
+		this.entry = entry;
+		this.sourceName = sourceName;
+		this.comments = comments;
+	}
+
+	/**
+	 * Creates an image of a TOY file, as it would be once loaded to memory.
+	 *
+	 * @param file          file to create an image of
+	 * @param includeSource whether to include the source table (file name and
+	 *                      comments)
+	 * @return new {@code TOYImage}
+	 * @throws IllegalArgumentException if the program in the file is not
+	 *                                  {@linkplain Program#validate() valid}
+	 */
+	static TOYImage fromFile(TOYFile file, boolean includeSource) {
+		return fromProgram(file.toProgram(), includeSource ? file.getFilename() : null);
+	}
+
+	/**
+	 * Creates an image of a program as it would be once loaded to memory (not as
+	 * it is now, if it has been run).
+	 *
+	 * @param program    program to create an image of
+	 * @param sourceName name of the source file to include with the comments of
+	 *                   the program, or {@code null} for no source table
+	 * @return new {@code TOYImage}
+	 * @throws IllegalArgumentException if the program is not
+	 *                                  {@linkplain Program#validate() valid}
+	 */
+	static TOYImage fromProgram(Program program, String sourceName) {
+		String validationError = program.validate();
+		if (validationError != null) {
+			throw new IllegalArgumentException(validationError);
+		}
+
+		boolean includeSource = sourceName != null;
+		short[] memory = new short[MEMORY_SIZE];
+		boolean[] initialised = new boolean[MEMORY_SIZE];
+		String[] comments = includeSource ? new String[MEMORY_SIZE] : null;
+		for (Line line : program.lines) { // lines are in order with no duplicates, as the program is valid
+			memory[line.getLineNumber()] = Instruction.hexToShort(line.getInstruction());
+			initialised[line.getLineNumber()] = true;
+			if (includeSource) {
+				comments[line.getLineNumber()] = line.comment;
+			}
+		}
+		return new TOYImage(memory, initialised, program.entry, sourceName, comments);
+	}
+
+	/**
+	 * Creates the {@link Line}s of the program in the image. Instructions are
+	 * upper-case hex, and comments are empty if there is no source table.
+	 *
+	 * @return a {@code Line} for each initialised address, in order
+	 */
+	Line[] toLines() {
+		int count = 0;
+		for (boolean isInitialised : initialised) {
+			count += isInitialised ? 1 : 0;
+		}
+
+		Line[] lines = new Line[count];
+		int index = 0;
+		for (int address = 0; address < MEMORY_SIZE; address++) {
+			if (initialised[address]) {
+				String comment = comments == null ? "" : comments[address];
+				lines[index++] = new Line(address, Instruction.shortToHex(memory[address]), comment);
+			}
+		}
+		return lines;
+	}
+
+	/**
+	 * Converts the image to a {@link Program}. Memory is loaded directly from the
+	 * image, without parsing the lines.
+	 *
+	 * @return new {@code Program}
+	 * @see Program#fromImage(TOYImage)
+	 */
+	Program toProgram() {
+		return Program.fromImage(this);
+	}
+
+	/**
+	 * Converts the image to bytes in the {@value #EXTENSION} format.
+	 *
+	 * @return bytes of the image
+	 */
+	byte[] toBytes() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_BYTES + BITMAP_BYTES + MEMORY_SIZE * 2);
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeInt(MAGIC);
+			out.writeShort(VERSION);
+			out.writeShort(sourceName != null ? HAS_SOURCE : 0);
+			out.writeShort(entry);
+
+			for (int i = 0; i < BITMAP_BYTES; i++) { // 8 addresses per byte
+				int bits = 0;
+				for (int bit = 0; bit < 8; bit++) {
+					bits = bits << 1 | (initialised[i * 8 + bit] ? 1 : 0);
+				}
+				out.writeByte(bits);
+			}
+			for (short word : memory) {
+				out.writeShort(word);
+			}
+
+			if (sourceName != null) { // source table
+				writeString(out, sourceName);
+				for (int address = 0; address < MEMORY_SIZE; address++) {
+					if (initialised[address]) {
+						writeString(out, comments[address] == null ? "" : comments[address]);
+					}
+				}
+			}
+		} catch (IOException e) { // never thrown by a ByteArrayOutputStream
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Writes a string as a 4-byte length followed by its UTF-8 bytes.
+	 *
+	 * @param out    stream to write to
+	 * @param string string to write
+	 * @throws IOException if the stream cannot be written to
+	 */
+	private static void writeString(DataOutputStream out, String string) throws IOException {
+		byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(utf8.length);
+		out.write(utf8);
+	}
+
+	/**
+	 * Reads an image from bytes in the {@value #EXTENSION} format. The memory image
+	 * is read in a single bulk copy.
+	 *
+	 * @param bytes bytes of the image
+	 * @return image read
+	 * @throws IOException if the bytes are not a valid image
+	 */
+	static TOYImage fromBytes(byte[] bytes) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(bytes); // big-endian by default
+		try {
+			if (buffer.getInt() != MAGIC) {
+				throw new IOException("Not a TOY image");
+			}
+			int version = buffer.getShort();
+			if (version != VERSION) {
+				throw new IOException("Unsupported TOY image version: " + version);
+			}
+			int flags = buffer.getShort();
+			int entry = buffer.getShort() & 0xFFFF;
+			if (entry >= MEMORY_SIZE) {
+				throw new IOException("TOY image entry PC is outside memory: " + entry);
+			}
+
+			boolean[] initialised = new boolean[MEMORY_SIZE];
+			for (int i = 0; i < BITMAP_BYTES; i++) { // 8 addresses per byte
+				int bits = buffer.get();
+				for (int bit = 0; bit < 8; bit++) {
+					initialised[i * 8 + bit] = (bits & 0x80 >> bit) != 0;
+				}
+			}
+			short[] memory = new short[MEMORY_SIZE];
+			buffer.asShortBuffer().get(memory); // bulk copy of whole memory image
+			buffer.position(buffer.position() + MEMORY_SIZE * 2);
+
+			String sourceName = null;
+			String[] comments = null;
+			if ((flags & HAS_SOURCE) != 0) { // source table
+				sourceName = readString(buffer);
+				comments = new String[MEMORY_SIZE];
+				for (int address = 0; address < MEMORY_SIZE; address++) {
+					if (initialised[address]) {
+						comments[address] = readString(buffer);
+					}
+				}
+			}
+			return new TOYImage(memory, initialised, entry, sourceName, comments);
+		} catch (BufferUnderflowException | IllegalArgumentException e) { // image ended early or length is wrong
+			throw new IOException("TOY image is truncated or corrupt", e);
+		}
+	}
+
+	/**
+	 * Reads a string written by {@link #writeString(DataOutputStream, String)}.
+	 *
+	 * @param buffer buffer to read from
+	 * @return string read
+	 * @throws IllegalArgumentException if the length is not valid
+	 * @throws BufferUnderflowException if the buffer ends early
+	 */
+	private static String readString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length < 0 || length > buffer.remaining()) {
+			throw new IllegalArgumentException("Bad string length: " + length);
+		}
+		byte[] utf8 = new byte[length];
+		buffer.get(utf8);
+		return new String(utf8, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Reads an image from a file.
+	 *
+	 * @param file file to read
+	 * @return image read
+	 * @throws FileNotFoundException if the file cannot be read
+	 * @throws IOException           if the file is not a valid image
+	 */
+	static TOYImage read(File file) throws IOException {
+		return fromBytes(TOYFile.readBytes(file));
+	}
+
+	/**
+	 * Writes the image to a file, replacing it if it exists.
+	 *
+	 * @param file file to write
+	 * @throws IOException if the file cannot be written
+	 */
+	void write(File file) throws IOException {
+		Files.write(file.toPath(), toBytes());
+	}
+
+	/**
+	 * Checks whether a file is an image rather than TOY source, by its extension.
+	 *
+	 * @param file file to check
+	 * @return whether {@code file} ends with {@value #EXTENSION}
+	 */
+	static boolean isImage(File file) {
+		return file.getName().endsWith(EXTENSION);
+	}
+}
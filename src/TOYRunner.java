@@ -0,0 +1,326 @@
+package myPackage;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs TOY programs from the command line, without the GUI (so it can be used
+ * on headless machines). Standard input of the program is read from
+ * {@link System#in} and standard output is printed to {@link System#out} as it
+ * is written. Includes methods to {@linkplain #runCommandLine(String[]) parse} command
+ * line arguments and {@linkplain #run(File, boolean, File, File, boolean, int, boolean, boolean, ExecutionLimits, InputStream, PrintStream, PrintStream)
+ * run} a TOY file. A run can be saved as a {@link Snapshot} when it stops, and
+ * resumed from one later, and every step of it can be recorded as a trace to
+ * {@linkplain #diffTraces(File, File, PrintStream, PrintStream) compare} with
+ * another run.
+ */
+class TOYRunner {
+	static final int EXIT_HALTED = 0, EXIT_ERROR = 1, EXIT_USAGE = 2, EXIT_NEEDS_INPUT = 3, EXIT_LIMIT = 4; // statuses
+	static final int PROFILE_LENGTH = 10; // hottest addresses and loops in a profile report
+	static final String LIMIT_OPTIONS = "[--max-steps <n>] [--max-millis <n>] [--max-output <n>]";
+	static final String USAGE = "Usage: java myPackage.TOYEmulator [--run <file.toy|file.toyi> | --resume <file.toys>] "
+			+ "[--save-snapshot <file.toys>] [--trace <file.toyt>] [--profile] "
+			+ "[--engine interpreter|threaded|compiler] [--accelerate-loops] [--memoise-calls] "
+			+ LIMIT_OPTIONS + "\n"
+			+ "   or: java myPackage.TOYEmulator --batch --program <file.toy|file.toyi|folder>... "
+			+ "[--input <file|folder>...] [--threads <n>] [--profile] [--engine interpreter|threaded|compiler] "
+			+ "[--accelerate-loops] [--memoise-calls] " + LIMIT_OPTIONS + "\n"
+			+ "   or: java myPackage.TOYEmulator --image [--strip] <file.toy|folder>...\n"
+			+ "   or: java myPackage.TOYEmulator --diff-traces <file.toyt> <file.toyt>";
+
+	/**
+	 * Parses command line arguments and runs the TOY file they specify.
+	 *
+	 * @param args arguments passed when running the program (at least one)
+	 * @return exit status:
+	 *         <ul>
+	 *         <li>{@value #EXIT_HALTED} if the program halted</li>
+	 *         <li>{@value #EXIT_ERROR} if a {@link TOYException} occurred</li>
+	 *         <li>{@value #EXIT_USAGE} if the arguments or the file were not
+	 *         valid</li>
+	 *         <li>{@value #EXIT_NEEDS_INPUT} if the program needed more input than
+	 *         was given</li>
+	 *         <li>{@value #EXIT_LIMIT} if the program exceeded one of its
+	 *         {@link ExecutionLimits}</li>
+	 *         </ul>
+	 */
+	static int runCommandLine(String[] args) {
+		if (args[0].equals("--batch")) { // run many programs, see TOYBatch
+			return TOYBatch.runCommandLine(Arrays.copyOfRange(args, 1, args.length));
+		} else if (args[0].equals("--image")) { // precompile programs to images
+			return writeImages(Arrays.copyOfRange(args, 1, args.length), System.out, System.err);
+		} else if (args[0].equals("--diff-traces")) { // compare two traces
+			if (args.length != 3) {
+				System.err.println(USAGE);
+				return EXIT_USAGE;
+			}
+			return diffTraces(new File(args[1]), new File(args[2]), System.out, System.err);
+		}
+
+		File file = null, snapshotFile = null, traceFile = null;
+		boolean resume = false, profile = false, accelerateLoops = false, memoiseCalls = false;
+		int engine = Program.ENGINE_INTERPRETER;
+		ExecutionLimits limits = ExecutionLimits.NONE;
+
+		try {
+			for (int i = 0; i < args.length; i++) { // iterate over arguments
+				if (args[i].equals("--run") && i + 1 < args.length) { // file to run follows "--run"
+					file = new File(args[++i]);
+					resume = false;
+				} else if (args[i].equals("--resume") && i + 1 < args.length) { // snapshot to resume follows
+					file = new File(args[++i]);
+					resume = true;
+				} else if (args[i].equals("--save-snapshot") && i + 1 < args.length) { // where to save snapshot
+					snapshotFile = new File(args[++i]);
+				} else if (args[i].equals("--trace") && i + 1 < args.length) { // where to record trace
+					traceFile = new File(args[++i]);
+				} else if (args[i].equals("--profile")) { // report where the program spent its steps
+					profile = true;
+				} else if (args[i].equals("--engine") && i + 1 < args.length) { // engine name follows "--engine"
+					engine = Program.engineNamed(args[++i]);
+				} else if (args[i].equals("--accelerate-loops")) { // run simple loops in one jump
+					accelerateLoops = true;
+				} else if (args[i].equals("--memoise-calls")) { // remember what pure subroutines return
+					memoiseCalls = true;
+				} else if (i + 1 < args.length && limits.withOption(args[i], args[i + 1]) != null) { // a limit
+					limits = limits.withOption(args[i], args[++i]);
+				} else { // unknown argument
+					file = null;
+					break;
+				}
+			}
+		} catch (NumberFormatException e) { // limit is not a number
+			System.err.println(e.getMessage());
+			file = null;
+		}
+
+		if (file == null || engine == -1) { // no file to run was given, or arguments were not valid
+			System.err.println(USAGE);
+			return EXIT_USAGE;
+		}
+
+		return run(file, resume, snapshotFile, traceFile, profile, engine, accelerateLoops, memoiseCalls, limits,
+				System.in, System.out, System.err);
+	}
+
+	/**
+	 * Writes a {@link TOYImage} of each TOY file given (or each one in a folder)
+	 * next to it, with the {@value TOYImage#EXTENSION} extension instead of
+	 * {@code .toy}. Images include the source table unless {@code --strip} is
+	 * given.
+	 *
+	 * @param args files or folders to write images of, and options
+	 * @param out  stream to print the path of each image written to
+	 * @param err  stream to print any error messages to
+	 * @return {@link #EXIT_HALTED} if every image was written, else
+	 *         {@link #EXIT_USAGE}
+	 */
+	static int writeImages(String[] args, PrintStream out, PrintStream err) {
+		boolean includeSource = true;
+		List<File> files = new ArrayList<File>();
+		try {
+			for (String arg : args) { // iterate over arguments
+				if (arg.equals("--strip")) { // leave out source table
+					includeSource = false;
+				} else {
+					files.addAll(TOYBatch.listFiles(new File(arg), ".toy"));
+				}
+			}
+		} catch (FileNotFoundException e) { // file or folder does not exist
+			err.println(e.getMessage());
+			return EXIT_USAGE;
+		}
+
+		if (files.isEmpty()) {
+			err.println(USAGE);
+			return EXIT_USAGE;
+		}
+
+		int status = EXIT_HALTED;
+		for (File file : files) {
+			String name = file.getPath();
+			File imageFile = new File(name.substring(0, name.length() - ".toy".length()) + TOYImage.EXTENSION);
+			try {
+				TOYImage.fromFile(new TOYFile(file, file.getName()), includeSource).write(imageFile);
+				out.println(imageFile);
+			} catch (IllegalArgumentException e) { // program is not valid
+				err.println(file + ": " + e.getMessage());
+				status = EXIT_USAGE;
+			} catch (IOException e) { // file could not be read or written
+				err.println(file + ": " + e.getMessage());
+				status = EXIT_USAGE;
+			}
+		}
+		return status;
+	}
+
+	/**
+	 * Compares two traces recorded by {@link TraceRecorder}, e.g. of a program and
+	 * of a reference solution given the same input, and prints the first step at
+	 * which they diverge.
+	 *
+	 * @param first  first trace
+	 * @param second second trace
+	 * @param out    stream to print the result to
+	 * @param err    stream to print any error messages to
+	 * @return {@link #EXIT_HALTED} if the traces are the same,
+	 *         {@link #EXIT_ERROR} if they diverge, or {@link #EXIT_USAGE} if
+	 *         either could not be read
+	 */
+	static int diffTraces(File first, File second, PrintStream out, PrintStream err) {
+		try (TraceReader a = new TraceReader(first); TraceReader b = new TraceReader(second)) {
+			while (true) {
+				boolean aHasStep = a.next(), bHasStep = b.next();
+
+				if (!aHasStep && !bHasStep) { // both ended together
+					out.println("Traces are identical (" + a.getRead() + " steps)");
+					return EXIT_HALTED;
+				} else if (!aHasStep || !bHasStep) { // one ended first
+					TraceReader longer = aHasStep ? a : b;
+					File ended = aHasStep ? second : first, continued = aHasStep ? first : second;
+					out.println(ended + " ends after " + (longer.getRead() - 1) + " steps, but " + continued
+							+ " continues at step " + longer.getStep() + ":");
+					out.println("  " + continued + ": " + longer.describe());
+					return EXIT_ERROR;
+				} else if (!a.sameStep(b) || a.getStep() != b.getStep()) { // steps differ
+					out.println("Traces diverge at step " + a.getStep() + ":");
+					out.println("  " + first + ": " + a.describe());
+					out.println("  " + second + ": " + b.describe());
+					return EXIT_ERROR;
+				}
+			}
+		} catch (NoSuchFileException e) { // file could not be opened
+			err.println("File not found: " + e.getFile());
+			return EXIT_USAGE;
+		} catch (IOException e) { // file is not a valid trace (message names the file)
+			err.println(e.getMessage());
+			return EXIT_USAGE;
+		}
+	}
+
+	/**
+	 * Runs a TOY file headless until it halts, an error occurs, it exceeds a limit
+	 * or it needs more input than is available. When resuming a {@link Snapshot},
+	 * any stdin in the snapshot is read before {@code in}, and limits apply to the
+	 * whole run including the steps and output before the snapshot was taken.
+	 *
+	 * @param file            file to run, either TOY source, a {@link TOYImage}
+	 *                        or a {@link Snapshot} to resume
+	 * @param resume          whether {@code file} is a snapshot
+	 * @param snapshotFile    file to save a snapshot to once the program stops,
+	 *                        or {@code null}
+	 * @param traceFile       file to record a trace of every step to, or
+	 *                        {@code null}
+	 * @param profile         whether to print a {@linkplain Profiler profile}
+	 *                        of the run to {@code err} once it stops
+	 * @param engine          execution engine to use, e.g.
+	 *                        {@link Program#ENGINE_COMPILER}
+	 * @param accelerateLoops whether to run simple loops in one jump with a
+	 *                        {@link LoopAccelerator}
+	 * @param memoiseCalls    whether to run calls to pure subroutines in one
+	 *                        jump with a {@link CallMemoiser}
+	 * @param limits          limits on the run, or {@link ExecutionLimits#NONE}
+	 * @param in              stream to read stdin of the program from
+	 * @param out             stream to print stdout of the program to
+	 * @param err             stream to print any error messages to
+	 * @return exit status (see {@link #runCommandLine(String[])})
+	 */
+	static int run(File file, boolean resume, File snapshotFile, File traceFile, boolean profile, int engine,
+			boolean accelerateLoops, boolean memoiseCalls, ExecutionLimits limits, InputStream in, PrintStream out,
+			PrintStream err) {
+		Program program;
+		try {
+			if (resume) {
+				program = Snapshot.read(file).toProgram(); // load image and restore state
+			} else {
+				program = TOYFile.loadProgram(file); // load and parse file, or load image
+			}
+		} catch (FileNotFoundException e) { // file could not be read
+			err.println("File not found: " + file);
+			return EXIT_USAGE;
+		} catch (IOException e) { // image or snapshot is not valid
+			err.println(file + ": " + e.getMessage());
+			return EXIT_USAGE;
+		}
+
+		if (!resume) {
+			String validationError = program.validate(); // check program is runnable
+			if (validationError != null) {
+				err.println(validationError);
+				return EXIT_USAGE;
+			}
+			program.loadToMemory(); // load program to memory
+		}
+
+		program.setEngine(engine);
+		if (accelerateLoops) {
+			program.setLoopAccelerator(new LoopAccelerator());
+		}
+		if (memoiseCalls) {
+			program.setCallMemoiser(new CallMemoiser());
+		}
+		program.setLimits(limits);
+		WordQueue stdin = new WordQueue(in); // read input only as the program needs it
+		stdin.addAll(program.stdin.toArray()); // stdin from a snapshot comes first
+		program.setStdin(stdin);
+		WordQueue stdout = new WordQueue(out); // print stdout in blocks as it is written
+		stdout.addAll(program.stdout.toArray()); // stdout from a snapshot that was never printed
+		program.setStdout(stdout);
+		stdin.setFlushedBeforeReading(stdout); // show what was written before waiting for input
+
+		if (traceFile != null) { // record every step
+			try {
+				program.setTrace(new TraceRecorder(traceFile, program.getSteps()));
+			} catch (IOException e) { // trace could not be written
+				err.println(traceFile + ": " + e.getMessage());
+				return EXIT_USAGE;
+			}
+		}
+		if (profile) { // count where the program spends its steps
+			program.setProfiler(new Profiler());
+		}
+		program.run(); // run until program stops itself, which flushes stdout
+		if (profile) {
+			err.print(program.getProfiler().report(program, PROFILE_LENGTH));
+		}
+		if (traceFile != null) {
+			try {
+				program.getTrace().close(); // write the rest of the trace
+			} catch (IOException e) {
+				err.println(traceFile + ": " + e.getMessage());
+				return EXIT_ERROR;
+			}
+		}
+
+		if (snapshotFile != null) { // save state to resume from later
+			try {
+				program.snapshot().write(snapshotFile);
+			} catch (IOException e) { // snapshot could not be written
+				err.println(snapshotFile + ": " + e.getMessage());
+				return EXIT_ERROR;
+			}
+		}
+
+		if (program.stdout.getSinkError() != null) { // stdout could not be written
+			err.println(program.stdout.getSinkError().getMessage());
+			return EXIT_ERROR;
+		} else if (program.getError() instanceof LimitExceededException) { // program did too much
+			err.println(program.getErrorMessage() + " (after " + program.getSteps() + " steps)");
+			return EXIT_LIMIT;
+		} else if (program.errorOccurred()) { // program threw an exception
+			err.println(program.getErrorMessage());
+			return EXIT_ERROR;
+		} else if (!program.isFinished()) { // program stopped to wait for input
+			err.println("Program needs more input at line " + program.getLineNumber());
+			return EXIT_NEEDS_INPUT;
+		}
+		return EXIT_HALTED;
+	}
+}
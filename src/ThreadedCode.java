@@ -0,0 +1,844 @@
+package myPackage;
+
+/**
+ * Executes the instruction in one memory cell of a {@link Program}, with the
+ * parts of the instruction bound as final fields so nothing is decoded or
+ * switched on when it is executed. Each opcode has its own subclass, bound by
+ * {@link ThreadedCode#bind(Program, int)}.
+ */
+abstract class Handler {
+	/**
+	 * Executes the instruction, unless it needs the interpreter: it would halt,
+	 * read stdin, write stdout or throw a {@link TOYException}. In that case
+	 * nothing is changed, so the interpreter can execute it instead.
+	 *
+	 * @param program program to execute the instruction in
+	 * @return address of the next instruction, plus {@link ThreadedCode#FUSED}
+	 *         if two steps were executed, or {@link ThreadedCode#BAIL} if the
+	 *         interpreter should execute this one
+	 */
+	abstract int exec(Program program);
+}
+
+/**
+ * Runs a {@link Program} by threaded code: each memory cell holds a
+ * {@link Handler} bound to the instruction in it, and running is just
+ * {@code pc = handlers[pc].exec(program)} in a loop. Cells are bound the first
+ * time they are executed, and storing to a cell (see
+ * {@link Program#setMemory(int, short)}) only unbinds that cell, so
+ * self-modifying programs are bound again a cell at a time. This is a middle
+ * ground between the interpreter and {@link TOYCompiler}: there is no decoding
+ * on each step, but no code is generated, so there is nothing to wait for or
+ * give up on. Like compiled code, anything unusual is left to the interpreter.
+ * <p>
+ * Common pairs of adjacent instructions are fused into a single handler that
+ * executes both steps in one dispatch: a subtract followed by a branch on its
+ * result (a loop counting down), two loads of constants, two reads from stdin
+ * and two writes to stdout. If the second step of a pair needs the interpreter,
+ * only the first is executed, so steps, errors and input still happen exactly
+ * as in the interpreter. Storing to either cell of a pair unbinds it.
+ *
+ * @see Program#ENGINE_THREADED
+ */
+class ThreadedCode {
+	static final int BAIL = -1; // returned by handlers that need the interpreter
+	static final int FUSED = 0x100; // added to the next address by handlers that executed two steps
+	private static final int INPUT_OUTPUT_ADDRESS = 0xFF; // M[FF] is stdin and stdout
+	private static final int NO_OP = 0x1000; // only instruction allowed to change R[0]
+	private static final Handler INTERPRET = new Interpret(); // bound to cells the interpreter always executes
+
+	/**
+	 * Runs a program from its program counter until it reaches an instruction
+	 * the handlers leave to the interpreter, or has run {@code budget} steps. So
+	 * that a fused handler never runs past the budget, this stops one step short
+	 * of it, leaving the last step to the interpreter. The program counter is
+	 * updated before returning, but not the step count.
+	 *
+	 * @param program program to run
+	 * @param budget  maximum number of steps to run
+	 * @return number of steps that were run
+	 */
+	static int run(Program program, int budget) {
+		Handler[] handlers = program.handlers;
+		int pc = program.programCounter;
+		if (pc < 0 || pc >= handlers.length) { // interpreter reports program counter out of bounds
+			return 0;
+		}
+
+		int count = 0;
+		while (count < budget - 1) { // room for two steps
+			Handler handler = handlers[pc];
+			if (handler == null) { // not bound since last stored to
+				handler = bind(program, pc);
+				handlers[pc] = handler;
+			}
+			int next = handler.exec(program);
+			if (next == BAIL) { // interpreter executes this one
+				break;
+			}
+			if (next >= FUSED) { // executed two steps
+				next -= FUSED;
+				count++;
+			}
+			pc = next;
+			count++;
+		}
+		program.programCounter = (short) pc;
+		return count;
+	}
+
+	/**
+	 * Binds a handler to the instruction at an address, fused with the
+	 * instruction after it if they are a common pair. Addresses whose instruction
+	 * always needs the interpreter, e.g. halts, are bound to a handler that
+	 * always bails, as are the heads of loops the program's
+	 * {@link LoopAccelerator} runs and calls its {@link CallMemoiser} makes.
+	 *
+	 * @param program program to bind the instruction of
+	 * @param address address of the instruction
+	 * @return new handler
+	 */
+	static Handler bind(Program program, int address) {
+		Instruction instruction = program.getInstruction(address);
+		if (instruction == null || address == INPUT_OUTPUT_ADDRESS) { // uninitialised, or M[FF] is stdin
+			return INTERPRET;
+		}
+		if (instruction.changesD && instruction.d == 0 && instruction.word != NO_OP) { // throws
+			return INTERPRET;
+		}
+		if (program.accelerator != null && program.accelerator.isLoop(program, address)) { // run in one jump
+			return INTERPRET;
+		}
+		if (program.memoiser != null && program.memoiser.isMemoised(program, instruction)) { // call in one jump
+			return INTERPRET;
+		}
+		Handler fused = fuse(program, address, instruction);
+		if (fused != null) {
+			return fused;
+		}
+
+		int next = address + 1, d = instruction.d, s = instruction.s, t = instruction.t, addr = instruction.addr;
+		switch (instruction.opcode) {
+		case Instruction.ADD:
+			return new Add(next, d, s, t);
+		case Instruction.SUBTRACT:
+			return new Subtract(next, d, s, t);
+		case Instruction.AND:
+			return new And(next, d, s, t);
+		case Instruction.XOR:
+			return new Xor(next, d, s, t);
+		case Instruction.LEFT_SHIFT:
+			return new LeftShift(next, d, s, t);
+		case Instruction.RIGHT_SHIFT:
+			return new RightShift(next, d, s, t);
+		case Instruction.LOAD_ADDRESS:
+			return new LoadAddress(next, d, addr);
+		case Instruction.LOAD:
+			return addr == INPUT_OUTPUT_ADDRESS ? new Read(next, d) : new Load(next, d, addr);
+		case Instruction.STORE:
+			return addr == INPUT_OUTPUT_ADDRESS ? new Write(next, d) : new Store(next, d, addr);
+		case Instruction.LOAD_INDIRECT:
+			return new LoadIndirect(next, d, t);
+		case Instruction.STORE_INDIRECT:
+			return new StoreIndirect(next, d, t);
+		case Instruction.BRANCH_ZERO:
+			return new BranchZero(next, d, addr);
+		case Instruction.BRANCH_POSITIVE:
+			return new BranchPositive(next, d, addr);
+		case Instruction.JUMP_REGISTER:
+			return new JumpRegister(d);
+		case Instruction.JUMP_AND_LINK:
+			return new JumpAndLink(next, d, addr);
+		default: // halt
+			return INTERPRET;
+		}
+	}
+
+	/**
+	 * Fuses the instruction at an address with the one after it, if they are one
+	 * of the pairs that have a fused handler.
+	 *
+	 * @param program     program to bind the instructions of
+	 * @param address     address of the first instruction
+	 * @param instruction first instruction, which does not need the interpreter
+	 * @return new handler, or {@code null} if the instructions are not a pair
+	 */
+	private static Handler fuse(Program program, int address, Instruction instruction) {
+		if (address + 1 >= INPUT_OUTPUT_ADDRESS) { // second instruction would be M[FF]
+			return null;
+		}
+		Instruction second = program.getInstruction(address + 1);
+		if (second == null || second.changesD && second.d == 0) { // interpreter executes second
+			return null;
+		}
+
+		int next = address + 2;
+		switch (instruction.opcode) {
+		case Instruction.SUBTRACT: // R[d] <- R[s] - R[t]; if (R[d] == 0) or if (R[d] > 0)
+			if ((second.opcode == Instruction.BRANCH_ZERO || second.opcode == Instruction.BRANCH_POSITIVE)
+					&& second.d == instruction.d) {
+				return new SubtractBranch(next, instruction.d, instruction.s, instruction.t, second.addr,
+						second.opcode == Instruction.BRANCH_POSITIVE);
+			}
+			return null;
+		case Instruction.LOAD_ADDRESS: // R[d] <- addr; R[d] <- addr
+			if (second.opcode == Instruction.LOAD_ADDRESS) {
+				return new LoadAddressPair(next, instruction.d, instruction.addr, second.d, second.addr);
+			}
+			return null;
+		case Instruction.LOAD: // read R[d]; read R[d]
+			if (instruction.addr == INPUT_OUTPUT_ADDRESS && second.opcode == Instruction.LOAD
+					&& second.addr == INPUT_OUTPUT_ADDRESS) {
+				return new ReadPair(next, instruction.d, second.d);
+			}
+			return null;
+		case Instruction.STORE: // write R[d]; write R[d]
+			if (instruction.addr == INPUT_OUTPUT_ADDRESS && second.opcode == Instruction.STORE
+					&& second.addr == INPUT_OUTPUT_ADDRESS) {
+				return new WritePair(next, instruction.d, second.d);
+			}
+			return null;
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Reads a word from stdin into a register, saving it to M[FF] too, as the
+	 * interpreter does. Stdin must not be empty.
+	 *
+	 * @param program program to read stdin of
+	 * @param d       register to read into
+	 */
+	private static void read(Program program, int d) {
+		short value = program.readStdin();
+		program.setMemory(INPUT_OUTPUT_ADDRESS, value);
+		program.setRegister(d, value);
+	}
+
+	/**
+	 * Writes a register to stdout, saving it to M[FF] too, as the interpreter
+	 * does.
+	 *
+	 * @param program program to write stdout of
+	 * @param d       register to write
+	 * @return {@code false} if nothing was written because the program has
+	 *         written as many words as it is allowed to
+	 */
+	private static boolean write(Program program, int d) {
+		short value = program.registers[d];
+		try {
+			program.writeStdout(value);
+		} catch (OutputLimitExceededException e) { // thrown before writing, so interpreter throws it again
+			return false;
+		}
+		program.setMemory(INPUT_OUTPUT_ADDRESS, value);
+		return true;
+	}
+
+	/**
+	 * Handler for cells the interpreter always executes.
+	 */
+	private static final class Interpret extends Handler {
+		int exec(Program program) {
+			return BAIL;
+		}
+	}
+
+	/**
+	 * Base of handlers for 1-6, which set R[d] to the result of R[s] and R[t].
+	 * Each subclass has its own {@link #exec(Program)}, so the JIT can inline
+	 * all of it.
+	 */
+	private abstract static class Arithmetic extends Handler {
+		final int next, d, s, t;
+
+		/**
+		 * Constructs a new {@code Arithmetic} handler.
+		 *
+		 * @param next address of the next instruction
+		 * @param d    register to set
+		 * @param s    first register to read
+		 * @param t    second register to read
+		 */
+		Arithmetic(int next, int d, int s, int t) {
+			this.next = next;
+			this.d = d;
+			this.s = s;
+			this.t = t;
+		}
+
+		/**
+		 * Checks whether R[s] and R[t] are initialised, as the interpreter throws
+		 * if either is not.
+		 *
+		 * @param program program to check
+		 * @return whether both registers can be read
+		 */
+		final boolean canRead(Program program) {
+			boolean[] initialised = program.registersInitialised;
+			return initialised[s] && initialised[t];
+		}
+	}
+
+	/**
+	 * Handler for 1: R[d] <- R[s] + R[t].
+	 */
+	private static final class Add extends Arithmetic {
+		Add(int next, int d, int s, int t) {
+			super(next, d, s, t);
+		}
+
+		int exec(Program program) {
+			if (!canRead(program)) {
+				return BAIL;
+			}
+			short[] registers = program.registers;
+			int result = registers[s] + registers[t];
+			if (result != (short) result) { // interpreter throws on overflow
+				return BAIL;
+			}
+			program.setRegister(d, (short) result);
+			return next;
+		}
+	}
+
+	/**
+	 * Handler for 2: R[d] <- R[s] - R[t].
+	 */
+	private static final class Subtract extends Arithmetic {
+		Subtract(int next, int d, int s, int t) {
+			super(next, d, s, t);
+		}
+
+		int exec(Program program) {
+			if (!canRead(program)) {
+				return BAIL;
+			}
+			short[] registers = program.registers;
+			int result = registers[s] - registers[t];
+			if (result != (short) result) { // interpreter throws on overflow
+				return BAIL;
+			}
+			program.setRegister(d, (short) result);
+			return next;
+		}
+	}
+
+	/**
+	 * Handler for 3: R[d] <- R[s] & R[t].
+	 */
+	private static final class And extends Arithmetic {
+		And(int next, int d, int s, int t) {
+			super(next, d, s, t);
+		}
+
+		int exec(Program program) {
+			if (!canRead(program)) {
+				return BAIL;
+			}
+			short[] registers = program.registers;
+			program.setRegister(d, (short) (registers[s] & registers[t]));
+			return next;
+		}
+	}
+
+	/**
+	 * Handler for 4: R[d] <- R[s] ^ R[t].
+	 */
+	private static final class Xor extends Arithmetic {
+		Xor(int next, int d, int s, int t) {
+			super(next, d, s, t);
+		}
+
+		int exec(Program program) {
+			if (!canRead(program)) {
+				return BAIL;
+			}
+			short[] registers = program.registers;
+			program.setRegister(d, (short) (registers[s] ^ registers[t]));
+			return next;
+		}
+	}
+
+	/**
+	 * Handler for 5: R[d] <- R[s] << R[t].
+	 */
+	private static final class LeftShift extends Arithmetic {
+		LeftShift(int next, int d, int s, int t) {
+			super(next, d, s, t);
+		}
+
+		int exec(Program program) {
+			if (!canRead(program)) {
+				return BAIL;
+			}
+			short[] registers = program.registers;
+			if ((registers[t] & ~0xF) != 0) { // interpreter throws if magnitude is not 0 to F
+				return BAIL;
+			}
+			program.setRegister(d, (short) (registers[s] << registers[t]));
+			return next;
+		}
+	}
+
+	/**
+	 * Handler for 6: R[d] <- R[s] >> R[t].
+	 */
+	private static final class RightShift extends Arithmetic {
+		RightShift(int next, int d, int s, int t) {
+			super(next, d, s, t);
+		}
+
+		int exec(Program program) {
+			if (!canRead(program)) {
+				return BAIL;
+			}
+			short[] registers = program.registers;
+			if ((registers[t] & ~0xF) != 0) { // interpreter throws if magnitude is not 0 to F
+				return BAIL;
+			}
+			program.setRegister(d, (short) (registers[s] >> registers[t]));
+			return next;
+		}
+	}
+
+	/**
+	 * Handler for 7: R[d] <- addr.
+	 */
+	private static final class LoadAddress extends Handler {
+		final int next, d;
+		final short addr;
+
+		/**
+		 * Constructs a new {@code LoadAddress} handler.
+		 *
+		 * @param next address of the next instruction
+		 * @param d    register to set
+		 * @param addr value to set it to
+		 */
+		LoadAddress(int next, int d, int addr) {
+			this.next = next;
+			this.d = d;
+			this.addr = (short) addr;
+		}
+
+		int exec(Program program) {
+			program.setRegister(d, addr);
+			return next;
+		}
+	}
+
+	/**
+	 * Handler for 8: R[d] <- M[addr], other than from stdin.
+	 */
+	private static final class Load extends Handler {
+		final int next, d, addr;
+
+		/**
+		 * Constructs a new {@code Load} handler.
+		 *
+		 * @param next address of the next instruction
+		 * @param d    register to set
+		 * @param addr address to load from (not FF)
+		 */
+		Load(int next, int d, int addr) {
+			this.next = next;
+			this.d = d;
+			this.addr = addr;
+		}
+
+		int exec(Program program) {
+			if (!program.memoryInitialised[addr]) { // interpreter throws
+				return BAIL;
+			}
+			program.setRegister(d, program.memory[addr]);
+			return next;
+		}
+	}
+
+	/**
+	 * Handler for 9: M[addr] <- R[d], other than to stdout.
+	 */
+	private static final class Store extends Handler {
+		final int next, d, addr;
+
+		/**
+		 * Constructs a new {@code Store} handler.
+		 *
+		 * @param next address of the next instruction
+		 * @param d    register to store
+		 * @param addr address to store to (not FF)
+		 */
+		Store(int next, int d, int addr) {
+			this.next = next;
+			this.d = d;
+			this.addr = addr;
+		}
+
+		int exec(Program program) {
+			if (!program.registersInitialised[d]) { // interpreter throws
+				return BAIL;
+			}
+			program.setMemory(addr, program.registers[d]); // unbinds the cell if it changes
+			return next;
+		}
+	}
+
+	/**
+	 * Handler for A: R[d] <- M[R[t]], other than from stdin.
+	 */
+	private static final class LoadIndirect extends Handler {
+		final int next, d, t;
+
+		/**
+		 * Constructs a new {@code LoadIndirect} handler.
+		 *
+		 * @param next address of the next instruction
+		 * @param d    register to set
+		 * @param t    register holding the address to load from
+		 */
+		LoadIndirect(int next, int d, int t) {
+			this.next = next;
+			this.d = d;
+			this.t = t;
+		}
+
+		int exec(Program program) {
+			if (!program.registersInitialised[t]) { // interpreter throws
+				return BAIL;
+			}
+			int address = program.registers[t];
+			if (address < 0 || address >= INPUT_OUTPUT_ADDRESS || !program.memoryInitialised[address]) {
+				return BAIL; // interpreter reads stdin or throws
+			}
+			program.setRegister(d, program.memory[address]);
+			return next;
+		}
+	}
+
+	/**
+	 * Handler for B: M[R[t]] <- R[d], other than to stdout.
+	 */
+	private static final class StoreIndirect extends Handler {
+		final int next, d, t;
+
+		/**
+		 * Constructs a new {@code StoreIndirect} handler.
+		 *
+		 * @param next address of the next instruction
+		 * @param d    register to store
+		 * @param t    register holding the address to store to
+		 */
+		StoreIndirect(int next, int d, int t) {
+			this.next = next;
+			this.d = d;
+			this.t = t;
+		}
+
+		int exec(Program program) {
+			boolean[] initialised = program.registersInitialised;
+			if (!initialised[d] || !initialised[t]) { // interpreter throws
+				return BAIL;
+			}
+			int address = program.registers[t];
+			if (address < 0 || address >= INPUT_OUTPUT_ADDRESS) { // interpreter writes stdout or throws
+				return BAIL;
+			}
+			program.setMemory(address, program.registers[d]); // unbinds the cell if it changes
+			return next;
+		}
+	}
+
+	/**
+	 * Handler for C: if (R[d] == 0) PC <- addr.
+	 */
+	private static final class BranchZero extends Handler {
+		final int next, d, addr;
+
+		/**
+		 * Constructs a new {@code BranchZero} handler.
+		 *
+		 * @param next address of the next instruction
+		 * @param d    register to test
+		 * @param addr address to branch to
+		 */
+		BranchZero(int next, int d, int addr) {
+			this.next = next;
+			this.d = d;
+			this.addr = addr;
+		}
+
+		int exec(Program program) {
+			if (!program.registersInitialised[d]) { // interpreter throws
+				return BAIL;
+			}
+			return program.registers[d] == 0 ? addr : next;
+		}
+	}
+
+	/**
+	 * Handler for D: if (R[d] > 0) PC <- addr.
+	 */
+	private static final class BranchPositive extends Handler {
+		final int next, d, addr;
+
+		/**
+		 * Constructs a new {@code BranchPositive} handler.
+		 *
+		 * @param next address of the next instruction
+		 * @param d    register to test
+		 * @param addr address to branch to
+		 */
+		BranchPositive(int next, int d, int addr) {
+			this.next = next;
+			this.d = d;
+			this.addr = addr;
+		}
+
+		int exec(Program program) {
+			if (!program.registersInitialised[d]) { // interpreter throws
+				return BAIL;
+			}
+			return program.registers[d] > 0 ? addr : next;
+		}
+	}
+
+	/**
+	 * Handler for E: PC <- R[d].
+	 */
+	private static final class JumpRegister extends Handler {
+		final int d;
+
+		/**
+		 * Constructs a new {@code JumpRegister} handler.
+		 *
+		 * @param d register holding the address to jump to
+		 */
+		JumpRegister(int d) {
+			this.d = d;
+		}
+
+		int exec(Program program) {
+			if (!program.registersInitialised[d]) { // interpreter throws
+				return BAIL;
+			}
+			int address = program.registers[d];
+			return address < 0 || address > INPUT_OUTPUT_ADDRESS ? BAIL : address; // interpreter throws if outside
+		}
+	}
+
+	/**
+	 * Handler for F: R[d] <- PC + 1; PC <- addr.
+	 */
+	private static final class JumpAndLink extends Handler {
+		final int d, addr;
+		final short next;
+
+		/**
+		 * Constructs a new {@code JumpAndLink} handler.
+		 *
+		 * @param next address of the next instruction, to return to
+		 * @param d    register to save it in
+		 * @param addr address to jump to
+		 */
+		JumpAndLink(int next, int d, int addr) {
+			this.next = (short) next;
+			this.d = d;
+			this.addr = addr;
+		}
+
+		int exec(Program program) {
+			program.setRegister(d, next);
+			return addr;
+		}
+	}
+
+	/**
+	 * Handler for 8 from M[FF]: read R[d].
+	 */
+	private static final class Read extends Handler {
+		final int next, d;
+
+		/**
+		 * Constructs a new {@code Read} handler.
+		 *
+		 * @param next address of the next instruction
+		 * @param d    register to read into
+		 */
+		Read(int next, int d) {
+			this.next = next;
+			this.d = d;
+		}
+
+		int exec(Program program) {
+			if (program.stdin.isEmpty()) { // interpreter stops for more input
+				return BAIL;
+			}
+			read(program, d);
+			return next;
+		}
+	}
+
+	/**
+	 * Handler for 9 to M[FF]: write R[d].
+	 */
+	private static final class Write extends Handler {
+		final int next, d;
+
+		/**
+		 * Constructs a new {@code Write} handler.
+		 *
+		 * @param next address of the next instruction
+		 * @param d    register to write
+		 */
+		Write(int next, int d) {
+			this.next = next;
+			this.d = d;
+		}
+
+		int exec(Program program) {
+			if (!program.registersInitialised[d] || !write(program, d)) { // interpreter throws
+				return BAIL;
+			}
+			return next;
+		}
+	}
+
+	/**
+	 * Fused handler for 2 then C or D on its result: R[d] <- R[s] - R[t]; if
+	 * (R[d] == 0) or if (R[d] > 0) PC <- addr.
+	 */
+	private static final class SubtractBranch extends Handler {
+		final int next, d, s, t, addr;
+		final boolean positive;
+
+		/**
+		 * Constructs a new {@code SubtractBranch} handler.
+		 *
+		 * @param next     address after the branch
+		 * @param d        register to set and test
+		 * @param s        register to subtract from
+		 * @param t        register to subtract
+		 * @param addr     address to branch to
+		 * @param positive {@code true} to branch if positive (D), {@code false}
+		 *                 if zero (C)
+		 */
+		SubtractBranch(int next, int d, int s, int t, int addr, boolean positive) {
+			this.next = next;
+			this.d = d;
+			this.s = s;
+			this.t = t;
+			this.addr = addr;
+			this.positive = positive;
+		}
+
+		int exec(Program program) {
+			boolean[] initialised = program.registersInitialised;
+			if (!initialised[s] || !initialised[t]) { // interpreter throws
+				return BAIL;
+			}
+			short[] registers = program.registers;
+			int result = registers[s] - registers[t];
+			if (result != (short) result) { // interpreter throws on overflow
+				return BAIL;
+			}
+			program.setRegister(d, (short) result); // so branch cannot fail
+			return (positive ? result > 0 : result == 0) ? addr | FUSED : next | FUSED;
+		}
+	}
+
+	/**
+	 * Fused handler for two 7s: R[d] <- addr; R[e] <- addr.
+	 */
+	private static final class LoadAddressPair extends Handler {
+		final int next, d, e;
+		final short addr, secondAddr;
+
+		/**
+		 * Constructs a new {@code LoadAddressPair} handler.
+		 *
+		 * @param next       address after the pair
+		 * @param d          first register to set
+		 * @param addr       value to set it to
+		 * @param e          second register to set
+		 * @param secondAddr value to set it to
+		 */
+		LoadAddressPair(int next, int d, int addr, int e, int secondAddr) {
+			this.next = next;
+			this.d = d;
+			this.addr = (short) addr;
+			this.e = e;
+			this.secondAddr = (short) secondAddr;
+		}
+
+		int exec(Program program) {
+			program.setRegister(d, addr);
+			program.setRegister(e, secondAddr);
+			return next | FUSED;
+		}
+	}
+
+	/**
+	 * Fused handler for two 8s from M[FF]: read R[d]; read R[e].
+	 */
+	private static final class ReadPair extends Handler {
+		final int next, d, e;
+
+		/**
+		 * Constructs a new {@code ReadPair} handler.
+		 *
+		 * @param next address after the pair
+		 * @param d    first register to read into
+		 * @param e    second register to read into
+		 */
+		ReadPair(int next, int d, int e) {
+			this.next = next;
+			this.d = d;
+			this.e = e;
+		}
+
+		int exec(Program program) {
+			if (program.stdin.isEmpty()) { // interpreter stops for more input
+				return BAIL;
+			}
+			read(program, d);
+			if (program.stdin.isEmpty()) { // only the first step can be executed
+				return next - 1;
+			}
+			read(program, e);
+			return next | FUSED;
+		}
+	}
+
+	/**
+	 * Fused handler for two 9s to M[FF]: write R[d]; write R[e].
+	 */
+	private static final class WritePair extends Handler {
+		final int next, d, e;
+
+		/**
+		 * Constructs a new {@code WritePair} handler.
+		 *
+		 * @param next address after the pair
+		 * @param d    first register to write
+		 * @param e    second register to write
+		 */
+		WritePair(int next, int d, int e) {
+			this.next = next;
+			this.d = d;
+			this.e = e;
+		}
+
+		int exec(Program program) {
+			boolean[] initialised = program.registersInitialised;
+			if (!initialised[d] || !write(program, d)) { // interpreter throws
+				return BAIL;
+			}
+			if (!initialised[e] || !write(program, e)) { // only the first step can be executed
+				return next - 1;
+			}
+			return next | FUSED;
+		}
+	}
+}
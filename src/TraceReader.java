@@ -0,0 +1,214 @@
+package myPackage;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a trace written by a {@link TraceRecorder}, one step at a time. The
+ * file is read through a {@link FileChannel} in large blocks, and the current
+ * step is only formatted as text if {@linkplain #describe() asked to}, so
+ * traces of millions of steps can be read quickly.
+ */
+class TraceReader implements Closeable {
+	private static final int BUFFER_RECORDS = 0x1000; // records read from the file at once (4096)
+	private final File file;
+	private final FileChannel channel;
+	private final ByteBuffer buffer;
+	private final long firstStep;
+	private long read; // steps read so far
+	private long record; // packed record of the current step
+	private short memoryValue; // new value of the memory address written by the current step
+
+	/**
+	 * Constructs a new {@code TraceReader} and reads the header of the trace.
+	 *
+	 * @param file file to read the trace from
+	 * @throws NoSuchFileException if the file does not exist
+	 * @throws IOException         if the file cannot be read or is not a trace
+	 *                             (the message starts with the name of the file)
+	 */
+	TraceReader(File file) throws IOException {
+		this.file = file;
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		buffer = ByteBuffer.allocateDirect(BUFFER_RECORDS * TraceRecorder.RECORD_BYTES);
+		buffer.flip(); // start empty
+		try {
+			if (!fill(TraceRecorder.HEADER_BYTES) || buffer.getInt() != TraceRecorder.MAGIC) {
+				throw new IOException(file + ": Not a TOY trace");
+			}
+			int version = buffer.getShort();
+			if (version != TraceRecorder.VERSION) {
+				throw new IOException(file + ": Unsupported TOY trace version: " + version);
+			}
+			firstStep = buffer.getLong();
+		} catch (IOException e) { // do not leave the file open
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Makes sure the buffer holds at least a given number of bytes, reading more
+	 * from the file if it does not.
+	 *
+	 * @param bytes number of bytes needed
+	 * @return {@code false} if the file ends first
+	 * @throws IOException if the file cannot be read
+	 */
+	private boolean fill(int bytes) throws IOException {
+		if (buffer.remaining() >= bytes) {
+			return true;
+		}
+		buffer.compact(); // keep any partial record at the start
+		while (buffer.position() < bytes) {
+			if (channel.read(buffer) == -1) { // file has ended
+				break;
+			}
+		}
+		buffer.flip();
+		return buffer.remaining() >= bytes;
+	}
+
+	/**
+	 * Moves on to the next step of the trace.
+	 *
+	 * @return {@code false} if there are no more steps
+	 * @throws EOFException if the trace ends in the middle of a step
+	 * @throws IOException  if the file cannot be read (the message may not name
+	 *                      the file)
+	 */
+	boolean next() throws IOException {
+		if (!fill(TraceRecorder.RECORD_BYTES)) {
+			if (buffer.hasRemaining()) {
+				throw new EOFException(file + ": TOY trace is truncated after " + read + " steps");
+			}
+			return false;
+		}
+		record = buffer.getLong();
+		memoryValue = buffer.getShort();
+		read++;
+		return true;
+	}
+
+	/**
+	 * Gets the step count of the program before the current step was executed,
+	 * counting any steps it executed before recording started.
+	 *
+	 * @return step number of the current step, from {@code 0}
+	 */
+	long getStep() {
+		return firstStep + read - 1;
+	}
+
+	/**
+	 * Gets the number of steps read so far.
+	 *
+	 * @return {@link #read}
+	 */
+	long getRead() {
+		return read;
+	}
+
+	/**
+	 * Gets the address of the instruction executed by the current step.
+	 *
+	 * @return program counter before the step
+	 */
+	int getProgramCounter() {
+		return (int) record & 0xFF;
+	}
+
+	/**
+	 * Gets the word of the instruction executed by the current step.
+	 *
+	 * @return instruction word
+	 */
+	short getWord() {
+		return (short) (record >>> TraceRecorder.WORD_SHIFT);
+	}
+
+	/**
+	 * Gets the register written by the current step.
+	 *
+	 * @return index of the register, or {@code -1} if none was written
+	 */
+	int getRegister() {
+		return (record & TraceRecorder.REGISTER_WRITTEN) == 0 ? -1
+				: (int) (record >>> TraceRecorder.REGISTER_INDEX_SHIFT) & 0xF;
+	}
+
+	/**
+	 * Gets the new value of the register written by the current step.
+	 *
+	 * @return new value, or {@code 0} if no register was written
+	 */
+	short getRegisterValue() {
+		return (short) (record >>> TraceRecorder.REGISTER_VALUE_SHIFT);
+	}
+
+	/**
+	 * Gets the memory address written by the current step.
+	 *
+	 * @return address, or {@code -1} if memory was not written
+	 */
+	int getAddress() {
+		return (record & TraceRecorder.MEMORY_WRITTEN) == 0 ? -1
+				: (int) (record >>> TraceRecorder.MEMORY_ADDRESS_SHIFT) & 0xFF;
+	}
+
+	/**
+	 * Gets the new value of the memory address written by the current step.
+	 *
+	 * @return new value, or {@code 0} if memory was not written
+	 */
+	short getMemoryValue() {
+		return memoryValue;
+	}
+
+	/**
+	 * Checks whether the current step of this trace is the same as the current
+	 * step of another, i.e. they executed the same instruction at the same
+	 * address and wrote the same values.
+	 *
+	 * @param other reader of the other trace
+	 * @return whether the steps are the same
+	 */
+	boolean sameStep(TraceReader other) {
+		return record == other.record && memoryValue == other.memoryValue;
+	}
+
+	/**
+	 * Describes the current step, e.g. {@code "15: 1CCB  R[C] <- 000F"}.
+	 *
+	 * @return description of the step
+	 */
+	String describe() {
+		StringBuilder description = new StringBuilder();
+		description.append(String.format("%02X", getProgramCounter())).append(": ")
+				.append(Instruction.shortToHex(getWord()));
+		if (getRegister() >= 0) {
+			description.append("  R[").append(Integer.toHexString(getRegister()).toUpperCase()).append("] <- ")
+					.append(Instruction.shortToHex(getRegisterValue()));
+		}
+		if (getAddress() >= 0) {
+			description.append("  M[").append(String.format("%02X", getAddress())).append("] <- ")
+					.append(Instruction.shortToHex(memoryValue));
+		}
+		return description.toString();
+	}
+
+	/**
+	 * Closes the file.
+	 *
+	 * @throws IOException if the file cannot be closed
+	 */
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,151 @@
+package myPackage;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Records a trace of every step a {@link Program} executes to a file, so that
+ * two runs can be compared (see {@link TraceReader}). Traces are saved as
+ * {@value #EXTENSION} files, in the following format (all numbers big-endian):
+ * <ol>
+ * <li>the magic number {@code "TOYT"} and a 2-byte format version</li>
+ * <li>the 8-byte step count of the program when recording started</li>
+ * <li>a {@value #RECORD_BYTES}-byte record for each step, up to the end of the
+ * file</li>
+ * </ol>
+ * Each record is an 8-byte number packing, from the lowest bit, the program
+ * counter (8 bits), the instruction word (16 bits), whether a register and
+ * memory were written (1 bit each), the index of the register written (4 bits)
+ * and its new value (16 bits) and the memory address written (8 bits),
+ * followed by the new value of the memory address (2 bytes).
+ * <p>
+ * Records are packed into a direct buffer and written through a
+ * {@link FileChannel} whenever it fills up, so recording a step formats no
+ * strings and allocates nothing. Only the interpreter records steps: compiled
+ * code runs many steps at once, so programs being traced are always
+ * interpreted.
+ *
+ * @see Program#setTrace(TraceRecorder)
+ */
+class TraceRecorder implements Closeable {
+	static final String EXTENSION = ".toyt";
+	static final int MAGIC = 0x544F5954; // "TOYT"
+	static final int VERSION = 1;
+	static final int HEADER_BYTES = 4 + 2 + 8; // magic, version, first step
+	static final int RECORD_BYTES = 8 + 2; // packed record, new value of memory
+	static final long REGISTER_WRITTEN = 1L << 24, MEMORY_WRITTEN = 1L << 25; // flags of a record
+	static final int WORD_SHIFT = 8, REGISTER_INDEX_SHIFT = 26, REGISTER_VALUE_SHIFT = 30,
+			MEMORY_ADDRESS_SHIFT = 46; // positions of the parts of a record
+	private static final int BUFFER_RECORDS = 0x1000; // records buffered before writing (4096)
+	private final FileChannel channel;
+	private final ByteBuffer buffer;
+	private long record; // record of the step being executed, without the new values written
+	private int register, address; // register and memory address being written, or -1
+	private long recorded; // steps recorded
+	private IOException error;
+
+	/**
+	 * Constructs a new {@code TraceRecorder} that writes to a file, replacing it
+	 * if it exists, and writes the header of the trace.
+	 *
+	 * @param file      file to write the trace to
+	 * @param firstStep step count of the program before the first step recorded
+	 * @throws IOException if the file cannot be written
+	 */
+	TraceRecorder(File file, long firstStep) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		buffer = ByteBuffer.allocateDirect(BUFFER_RECORDS * RECORD_BYTES); // big-endian by default
+		buffer.putInt(MAGIC);
+		buffer.putShort((short) VERSION);
+		buffer.putLong(firstStep);
+	}
+
+	/**
+	 * Starts recording a step, before it is executed. The register and memory
+	 * address the instruction writes to are worked out from the instruction, and
+	 * their new values are read once it has been executed.
+	 *
+	 * @param program     program executing the step
+	 * @param instruction instruction about to be executed, at the program counter
+	 * @see #commit(Program)
+	 */
+	void begin(Program program, Instruction instruction) {
+		record = program.programCounter & 0xFF | (instruction.word & 0xFFFFL) << WORD_SHIFT;
+		register = instruction.changesD ? instruction.d : -1;
+		address = instruction.addressWritten(program);
+	}
+
+	/**
+	 * Finishes recording a step once it has been executed, adding it to the
+	 * buffer and writing the buffer to the file if it is full. A step that is not
+	 * executed because it threw an exception is never committed, so is not
+	 * recorded.
+	 *
+	 * @param program program that executed the step
+	 */
+	void commit(Program program) {
+		long packed = record;
+		if (register >= 0) {
+			packed |= REGISTER_WRITTEN | (long) register << REGISTER_INDEX_SHIFT
+					| (program.registers[register] & 0xFFFFL) << REGISTER_VALUE_SHIFT;
+		}
+		short memoryValue = 0;
+		if (address >= 0) { // the step would have thrown if this was outside memory
+			packed |= MEMORY_WRITTEN | (long) address << MEMORY_ADDRESS_SHIFT;
+			memoryValue = program.memory[address];
+		}
+
+		if (buffer.remaining() < RECORD_BYTES) {
+			flush();
+		}
+		buffer.putLong(packed);
+		buffer.putShort(memoryValue);
+		recorded++;
+	}
+
+	/**
+	 * Writes everything in the buffer to the file, then empties it. If writing
+	 * fails, the error is kept and thrown when the recorder is
+	 * {@linkplain #close() closed}, and nothing more is written.
+	 */
+	void flush() {
+		buffer.flip();
+		if (error == null) { // stop writing after the first error
+			try {
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			} catch (IOException e) {
+				error = e;
+			}
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Gets the number of steps recorded so far.
+	 *
+	 * @return {@link #recorded}
+	 */
+	long getRecorded() {
+		return recorded;
+	}
+
+	/**
+	 * Writes any buffered records to the file and closes it.
+	 *
+	 * @throws IOException if the trace could not be written
+	 */
+	public void close() throws IOException {
+		flush();
+		channel.close();
+		if (error != null) {
+			throw error;
+		}
+	}
+}
@@ -0,0 +1,210 @@
+package myPackage;
+
+import java.util.Arrays;
+
+/**
+ * A bounded log of the side effects of each step a {@link Program} executes, so
+ * that steps can be undone to go back in time. Each step records the old program
+ * counter, the old value of the register and memory address it writes to (at
+ * most one of each) and whether it reads stdin or writes stdout, which is
+ * everything a TOY instruction can change. Each step is packed into a single
+ * {@code long} in a ring buffer, so logging a step allocates nothing and the
+ * oldest steps are forgotten once it is full.
+ * <p>
+ * So that a program can still go back further than the ring buffer reaches, a
+ * full {@link Snapshot} is also taken as a checkpoint every
+ * {@link #capacity} steps, and a few of the most recent are kept.
+ * <p>
+ * Only the interpreter logs steps: compiled code runs many steps at once, so
+ * programs with an undo log are always interpreted.
+ *
+ * @see Program#stepBack()
+ */
+class UndoLog {
+	static final int DEFAULT_CAPACITY = 0x10000; // steps kept in the ring buffer (65536)
+	private static final int MAX_CHECKPOINTS = 0x10; // snapshots kept (16)
+	private static final long REGISTER_WRITTEN = 0x100, REGISTER_WAS_UNINITIALISED = 0x200, MEMORY_WRITTEN = 0x400,
+			MEMORY_WAS_UNINITIALISED = 0x800, READ_STDIN = 0x1000, WROTE_STDOUT = 0x2000; // flags of a step
+	private static final int REGISTER_INDEX_SHIFT = 14, OLD_REGISTER_SHIFT = 18, MEMORY_ADDRESS_SHIFT = 34,
+			OLD_MEMORY_SHIFT = 42; // positions of the parts of a step
+	final int capacity;
+	private final long[] entries; // one step each, packed by bits (see begin)
+	private long pending; // step begun but not yet committed
+	private long logged; // steps logged since the log was cleared, less those undone
+	private long oldest; // lowest value of logged whose step is still in the ring buffer
+	private final Snapshot[] checkpoints;
+	private int checkpointCount;
+	private long nextCheckpoint; // step count to take the next checkpoint at
+
+	/**
+	 * Constructs a new, empty {@code UndoLog}.
+	 *
+	 * @param capacity number of steps to keep (a power of 2)
+	 * @throws IllegalArgumentException if {@code capacity} is not a power of 2
+	 */
+	UndoLog(int capacity) {
+		if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("Undo log capacity must be a power of 2: " + capacity);
+		}
+		this.capacity = capacity;
+		entries = new long[capacity];
+		checkpoints = new Snapshot[MAX_CHECKPOINTS];
+	}
+
+	/**
+	 * Starts logging a step, before it is executed, first taking a checkpoint if
+	 * one is due. Everything the instruction could change is worked out from the
+	 * instruction and registers, so nothing needs to be logged while it is
+	 * executed. Each step is packed into a
+	 * {@code long}, from the lowest bit: the old program counter (8 bits), flags
+	 * (6 bits), the index of the register written (4 bits) and its old value (16
+	 * bits), then the address of memory written (8 bits) and its old value (16
+	 * bits).
+	 *
+	 * @param program     program executing the step
+	 * @param instruction instruction about to be executed, at the program counter
+	 */
+	void begin(Program program, Instruction instruction) {
+		if (program.steps >= nextCheckpoint) {
+			addCheckpoint(program.takeSnapshot());
+		}
+
+		long entry = program.programCounter & 0xFF; // PC is a memory address, as an instruction is there
+		if (instruction.changesD) {
+			int d = instruction.d;
+			entry |= REGISTER_WRITTEN | (program.registersInitialised[d] ? 0 : REGISTER_WAS_UNINITIALISED)
+					| (long) d << REGISTER_INDEX_SHIFT | (program.registers[d] & 0xFFFFL) << OLD_REGISTER_SHIFT;
+		}
+
+		int address = instruction.addressWritten(program); // step throws if this is outside memory
+		if (address >= 0 && address <= 0xFF) {
+			if (address == 0xFF) { // loads from M[FF] read stdin, and stores to it write stdout
+				boolean isStore = instruction.opcode == Instruction.STORE
+						|| instruction.opcode == Instruction.STORE_INDIRECT;
+				entry |= isStore ? WROTE_STDOUT : READ_STDIN;
+			}
+			entry |= MEMORY_WRITTEN | (program.memoryInitialised[address] ? 0 : MEMORY_WAS_UNINITIALISED)
+					| (long) address << MEMORY_ADDRESS_SHIFT | (program.memory[address] & 0xFFFFL) << OLD_MEMORY_SHIFT;
+		}
+		pending = entry; // only written to the ring buffer once committed, as it may replace the oldest step
+	}
+
+	/**
+	 * Finishes logging a step once it has been executed, adding it to the log. A
+	 * step that is not executed, e.g. because it threw an exception before
+	 * changing anything, is simply never committed, so the oldest step in a full
+	 * log is kept.
+	 */
+	void commit() {
+		entries[(int) logged & (capacity - 1)] = pending;
+		logged++; // oldest steps are only worked out to be lost when undoing, to keep this cheap
+	}
+
+	/**
+	 * Checks whether there are any steps in the log to undo.
+	 *
+	 * @return {@code true} if the log is empty
+	 */
+	boolean isEmpty() {
+		return logged <= Math.max(oldest, logged - capacity);
+	}
+
+	/**
+	 * Checks whether a program can go back from a given step, either by undoing a
+	 * logged step or to a checkpoint.
+	 *
+	 * @param steps number of steps the program has executed
+	 * @return whether there is anything to undo
+	 */
+	boolean canUndo(long steps) {
+		return !isEmpty() || checkpointCount > 0 && checkpoints[0].steps < steps;
+	}
+
+	/**
+	 * Undoes the most recently logged step of a program, and removes it from the
+	 * log.
+	 *
+	 * @param program program the step was executed by
+	 * @return whether stdin or stdout was changed
+	 * @throws IllegalStateException if the log is empty
+	 */
+	boolean undo(Program program) {
+		oldest = Math.max(oldest, logged - capacity); // steps logged over since the last undo
+		if (logged <= oldest) {
+			throw new IllegalStateException("Undo log is empty");
+		}
+		logged--;
+
+		long entry = entries[(int) logged & (capacity - 1)];
+		if ((entry & READ_STDIN) != 0) { // put word back before M[FF] is restored, as it was stored there
+			program.unreadStdin(program.memory[0xFF]);
+		}
+		if ((entry & WROTE_STDOUT) != 0) {
+			program.unwriteStdout();
+		}
+		if ((entry & MEMORY_WRITTEN) != 0) {
+			program.restoreMemory((int) (entry >>> MEMORY_ADDRESS_SHIFT) & 0xFF,
+					(short) (entry >>> OLD_MEMORY_SHIFT), (entry & MEMORY_WAS_UNINITIALISED) == 0);
+		}
+		if ((entry & REGISTER_WRITTEN) != 0) {
+			program.restoreRegister((int) (entry >>> REGISTER_INDEX_SHIFT) & 0xF,
+					(short) (entry >>> OLD_REGISTER_SHIFT), (entry & REGISTER_WAS_UNINITIALISED) == 0);
+		}
+		program.programCounter = (short) (entry & 0xFF);
+		program.steps--;
+		forgetCheckpointsAfter(program.steps); // program may go a different way from here
+		return (entry & (READ_STDIN | WROTE_STDOUT)) != 0;
+	}
+
+	/**
+	 * Adds a checkpoint, forgetting the oldest one if there are already
+	 * {@value #MAX_CHECKPOINTS}. The next is due {@link #capacity} steps later.
+	 *
+	 * @param snapshot snapshot of the program
+	 */
+	void addCheckpoint(Snapshot snapshot) {
+		if (checkpointCount == MAX_CHECKPOINTS) { // forget oldest
+			System.arraycopy(checkpoints, 1, checkpoints, 0, MAX_CHECKPOINTS - 1);
+			checkpointCount--;
+		}
+		checkpoints[checkpointCount++] = snapshot;
+		nextCheckpoint = snapshot.steps + capacity;
+	}
+
+	/**
+	 * Gets the most recent checkpoint taken before a given step, forgetting any
+	 * taken at or after it as the program is going back to before them.
+	 *
+	 * @param steps number of steps the program has executed
+	 * @return checkpoint, or {@code null} if there is none that old
+	 */
+	Snapshot checkpointBefore(long steps) {
+		forgetCheckpointsAfter(steps - 1);
+		return checkpointCount == 0 ? null : checkpoints[checkpointCount - 1];
+	}
+
+	/**
+	 * Forgets any checkpoints taken after a given step, as the program has gone
+	 * back to before them and may not take the same path again.
+	 *
+	 * @param steps number of steps the program has executed
+	 */
+	private void forgetCheckpointsAfter(long steps) {
+		while (checkpointCount > 0 && checkpoints[checkpointCount - 1].steps > steps) {
+			checkpoints[--checkpointCount] = null;
+		}
+		nextCheckpoint = checkpointCount == 0 ? 0 : checkpoints[checkpointCount - 1].steps + capacity;
+	}
+
+	/**
+	 * Removes every step and checkpoint from the log, e.g. when the program is
+	 * reset.
+	 */
+	void clear() {
+		logged = 0;
+		oldest = 0;
+		Arrays.fill(checkpoints, null);
+		checkpointCount = 0;
+		nextCheckpoint = 0;
+	}
+}
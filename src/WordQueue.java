@@ -0,0 +1,407 @@
+package myPackage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A first-in first-out queue of 16-bit words, used for the stdin and stdout of a
+ * {@link Program}. Words are kept as {@code short}s in a ring buffer that grows
+ * when full, so adding and removing words takes constant time.
+ * <p>
+ * A queue may have a <b>source</b> that words are read from lazily, as text in
+ * the same format as {@link Instruction#inputToStdin(String, Program)}, only
+ * when the queue is empty and a word is needed. A queue may also have a
+ * <b>sink</b> that words are written to as hex lines once enough have been
+ * added or the queue is {@linkplain #flush() flushed}, after which they are no
+ * longer kept in the queue. Either way, the queue only holds a bounded number of
+ * words at once. A queue with a source can be paired with one with a sink (see
+ * {@link #setFlushedBeforeReading(WordQueue)}), so that what a program has
+ * written is flushed before it waits for input.
+ * <p>
+ * All methods are synchronized, as the display reads the queues of a program
+ * while it is running.
+ */
+class WordQueue {
+	private static final int INITIAL_CAPACITY = 0x10; // words the ring buffer holds before growing (16)
+	private static final int SINK_WORDS = 0x400; // words added before they are written to the sink (1024)
+	private static final int SOURCE_CHARS = 0x1000; // characters read from the source at once (4096)
+	private static final int WORD_DIGITS = 4; // hex digits in a word
+	private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes();
+	private static final byte[] HEX_DIGITS = "0123456789ABCDEF".getBytes();
+	private short[] words;
+	private int head, size; // index of first word in ring buffer, and number of words in it
+	private long added, removed; // words ever added to and removed from the queue
+	private Reader source;
+	private char[] sourceBuffer;
+	private int pendingValue, pendingDigits; // hex digits read since the last word was added
+	private WordQueue flushedBeforeReading; // queue flushed before reading from the source may block
+	private OutputStream sink;
+	private IOException sinkError;
+
+	/**
+	 * Constructs a new, empty {@code WordQueue} without a source or sink.
+	 */
+	WordQueue() {
+		words = new short[INITIAL_CAPACITY];
+	}
+
+	/**
+	 * Constructs a new {@code WordQueue} that reads words lazily from a source.
+	 * The source is read using the default charset, and is never closed.
+	 *
+	 * @param source stream to read words from, as text
+	 */
+	WordQueue(InputStream source) {
+		this();
+		this.source = new InputStreamReader(source);
+		sourceBuffer = new char[SOURCE_CHARS];
+	}
+
+	/**
+	 * Constructs a new {@code WordQueue} that writes words to a sink, one hex word
+	 * per line. The sink is never closed.
+	 *
+	 * @param sink stream to write words to
+	 */
+	WordQueue(OutputStream sink) {
+		this();
+		this.sink = sink;
+	}
+
+	/**
+	 * Sets a queue to {@linkplain #flush() flush} before reading from the source
+	 * would block, e.g. the stdout of a program reading from this as its stdin.
+	 * Otherwise, an interactive user would not see the prompts written before a
+	 * read until the sink is next written to.
+	 *
+	 * @param queue queue to flush, or {@code null} for none
+	 */
+	synchronized void setFlushedBeforeReading(WordQueue queue) {
+		flushedBeforeReading = queue;
+	}
+
+	/**
+	 * Appends a word to the end of the queue. If the queue has a sink and enough
+	 * words have been added since it was last written to, they are all written to
+	 * it.
+	 *
+	 * @param word word to add
+	 */
+	synchronized void add(short word) {
+		if (size == words.length) {
+			grow();
+		}
+		words[(head + size) & (words.length - 1)] = word; // capacity is always a power of 2
+		size++;
+		added++;
+
+		if (sink != null && size >= SINK_WORDS) { // enough words to be worth writing
+			flush();
+		}
+	}
+
+	/**
+	 * Doubles the size of the ring buffer, as it is full.
+	 */
+	private void grow() {
+		short[] grown = new short[words.length * 2];
+		for (int i = 0; i < size; i++) { // unwrap words into start of new buffer
+			grown[i] = words[(head + i) & (words.length - 1)];
+		}
+		words = grown;
+		head = 0;
+	}
+
+	/**
+	 * Removes the first word of the queue.
+	 *
+	 * @return word removed
+	 * @throws java.util.NoSuchElementException if the queue is empty (reading from
+	 *                                          the source if it has one)
+	 */
+	synchronized short remove() {
+		if (isEmpty()) {
+			throw new java.util.NoSuchElementException("Queue is empty");
+		}
+		short word = words[head];
+		head = (head + 1) & (words.length - 1);
+		size--;
+		removed++;
+		return word;
+	}
+
+	/**
+	 * Puts a word back at the start of the queue, as if it had never been
+	 * removed.
+	 *
+	 * @param word word to put back
+	 */
+	synchronized void addFirst(short word) {
+		if (size == words.length) {
+			grow();
+		}
+		head = (head - 1) & (words.length - 1);
+		words[head] = word;
+		size++;
+		removed--;
+	}
+
+	/**
+	 * Removes the last word of the queue, as if it had never been added.
+	 *
+	 * @return word removed
+	 * @throws java.util.NoSuchElementException if the queue is empty
+	 */
+	synchronized short removeLast() {
+		if (size == 0) {
+			throw new java.util.NoSuchElementException("Queue is empty");
+		}
+		size--;
+		added--;
+		return words[(head + size) & (words.length - 1)];
+	}
+
+	/**
+	 * Gets a word in the queue without removing it. Words read lazily from the
+	 * source are only included once they have been read.
+	 *
+	 * @param index index of the word, from {@code 0} (the first word) to
+	 *              {@link #size()}
+	 * @return word at {@code index}
+	 * @throws IndexOutOfBoundsException if {@code index} is not within the queue
+	 */
+	synchronized short get(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+		}
+		return words[(head + index) & (words.length - 1)];
+	}
+
+	/**
+	 * Gets the number of words currently in the queue, not including any that
+	 * have not yet been read from the source or that have been written to the
+	 * sink.
+	 *
+	 * @return number of words
+	 */
+	synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Checks whether the queue is empty. If it is and it has a source, words are
+	 * read from the source until there is at least one, or the source ends. This
+	 * may block while waiting for the source.
+	 *
+	 * @return {@code true} if there are no words to remove
+	 */
+	synchronized boolean isEmpty() {
+		while (size == 0 && source != null) { // read more from the source
+			readSource();
+		}
+		return size == 0;
+	}
+
+	/**
+	 * Gets the number of words ever added to the queue, including those written
+	 * to the sink.
+	 *
+	 * @return {@link #added}
+	 */
+	synchronized long getAdded() {
+		return added;
+	}
+
+	/**
+	 * Gets the number of words ever removed from the queue, including those
+	 * written to the sink.
+	 *
+	 * @return {@link #removed}
+	 */
+	synchronized long getRemoved() {
+		return removed;
+	}
+
+	/**
+	 * Parses text in the format of {@link Instruction#inputToStdin(String, Program)}
+	 * and adds each word it contains to the end of the queue.
+	 *
+	 * @param text text to parse
+	 */
+	synchronized void addText(CharSequence text) {
+		for (int i = 0; i < text.length(); i++) {
+			parse(text.charAt(i));
+		}
+		endDigits(); // text ends any hex digits
+	}
+
+	/**
+	 * Parses a single character of text. Every 4 hex digits in a row are added as
+	 * a word, and any other character ends the current run of hex digits.
+	 * Characters are upper-cased first, like the whole input is by
+	 * {@link Instruction#inputToStdin(String, Program)}.
+	 *
+	 * @param c character to parse
+	 */
+	private void parse(char c) {
+		if (c >= 0x80) { // upper case of a non-ASCII character may contain hex digits
+			String upper = String.valueOf(c).toUpperCase();
+			if (upper.length() != 1 || upper.charAt(0) != c) {
+				for (int i = 0; i < upper.length(); i++) {
+					parse(upper.charAt(i));
+				}
+				return;
+			}
+		}
+
+		int digit;
+		if (c >= '0' && c <= '9') {
+			digit = c - '0';
+		} else if (c >= 'A' && c <= 'F') {
+			digit = c - 'A' + 10;
+		} else if (c >= 'a' && c <= 'f') {
+			digit = c - 'a' + 10;
+		} else { // not a hex digit
+			endDigits();
+			return;
+		}
+
+		pendingValue = pendingValue << 4 | digit;
+		if (++pendingDigits == WORD_DIGITS) { // word is complete
+			endDigits();
+		}
+	}
+
+	/**
+	 * Adds the hex digits read since the last word as a word, left-padded with 0s,
+	 * if there are any.
+	 */
+	private void endDigits() {
+		if (pendingDigits > 0) {
+			add((short) pendingValue);
+		}
+		pendingValue = 0;
+		pendingDigits = 0;
+	}
+
+	/**
+	 * Reads and parses the next block of characters from the source. If the source
+	 * has ended or cannot be read, it is removed.
+	 *
+	 * @see #setFlushedBeforeReading(WordQueue)
+	 */
+	private void readSource() {
+		int read;
+		try {
+			if (flushedBeforeReading != null && !source.ready()) { // read may block, so write out stdout first
+				flushedBeforeReading.flush();
+			}
+			read = source.read(sourceBuffer);
+		} catch (IOException e) { // treat an unreadable source as having ended
+			read = -1;
+		}
+
+		if (read == -1) { // source has ended, which also ends any hex digits
+			endDigits();
+			source = null;
+			sourceBuffer = null;
+			return;
+		}
+		for (int i = 0; i < read; i++) {
+			parse(sourceBuffer[i]);
+		}
+	}
+
+	/**
+	 * Writes every word in the queue to the sink, if it has one, then removes
+	 * them. If writing fails, the words are still removed and the error is kept
+	 * (see {@link #getSinkError()}).
+	 */
+	synchronized void flush() {
+		if (sink == null || size == 0) {
+			return;
+		}
+
+		int lineLength = WORD_DIGITS + LINE_SEPARATOR.length;
+		byte[] bytes = new byte[size * lineLength];
+		for (int i = 0; i < size; i++) { // format each word as hex digits followed by a line separator
+			int word = words[(head + i) & (words.length - 1)];
+			for (int digit = 0; digit < WORD_DIGITS; digit++) {
+				bytes[i * lineLength + digit] = HEX_DIGITS[word >> (WORD_DIGITS - 1 - digit) * 4 & 0xF];
+			}
+			System.arraycopy(LINE_SEPARATOR, 0, bytes, i * lineLength + WORD_DIGITS, LINE_SEPARATOR.length);
+		}
+		head = 0;
+		removed += size;
+		size = 0;
+
+		if (sinkError == null) { // stop writing after the first error
+			try {
+				sink.write(bytes);
+				sink.flush();
+			} catch (IOException e) {
+				sinkError = e;
+			}
+		}
+	}
+
+	/**
+	 * Gets the first error that occurred while writing to the sink.
+	 *
+	 * @return {@link #sinkError}, or {@code null} if there was none
+	 */
+	synchronized IOException getSinkError() {
+		return sinkError;
+	}
+
+	/**
+	 * Appends words to the end of the queue, in order.
+	 *
+	 * @param words words to add
+	 */
+	synchronized void addAll(short[] words) {
+		for (short word : words) {
+			add(word);
+		}
+	}
+
+	/**
+	 * Gets the words currently in the queue, not including any that have not yet
+	 * been read from the source or that have been written to the sink.
+	 *
+	 * @return copy of the words, first word first
+	 */
+	synchronized short[] toArray() {
+		short[] copy = new short[size];
+		for (int i = 0; i < size; i++) {
+			copy[i] = get(i);
+		}
+		return copy;
+	}
+
+	/**
+	 * Gets the words currently in the queue as hex strings.
+	 *
+	 * @return list of 4 digit hex words, first word first
+	 */
+	synchronized List<String> toHexList() {
+		List<String> hex = new ArrayList<String>(size);
+		for (int i = 0; i < size; i++) {
+			hex.add(Instruction.shortToHex(get(i)));
+		}
+		return hex;
+	}
+
+	/**
+	 * Returns a string representation of the words currently in the queue (used
+	 * for debugging purposes).
+	 */
+	public synchronized String toString() {
+		return toHexList().toString();
+	}
+}
@@ -0,0 +1,76 @@
+package myPackage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks how often a {@link BatchedExecutionListener} passes steps on, both on
+ * the first run of a program and after it has been reset.
+ */
+class BatchedExecutionListenerTest {
+	private static final Line[] PROGRAM = { new Line(0x10, "7105", "R[1] <- 5"), new Line(0x11, "7201", "R[2] <- 1"),
+			new Line(0x12, "2112", "R[1] <- R[1] - R[2]"), new Line(0x13, "D112", "if (R[1] > 0) goto 12"),
+			new Line(0x14, "0000", "halt") }; // 13 steps
+
+	/**
+	 * Checks that every 4th step is passed on, starting from the first.
+	 */
+	@Test
+	void everySteps() {
+		Counter counter = new Counter();
+		assertEquals(4, runTwice(BatchedExecutionListener.everySteps(counter, 4), counter)); // steps 1, 5, 9 and 13
+	}
+
+	/**
+	 * Checks that only the first step is passed on when the interval is far longer
+	 * than the run.
+	 */
+	@Test
+	void everyMillis() {
+		Counter counter = new Counter();
+		assertEquals(1, runTwice(BatchedExecutionListener.everyMillis(counter, 3_600_000), counter));
+	}
+
+	/**
+	 * Checks that only steps that change a register are passed on.
+	 */
+	@Test
+	void onStateChange() {
+		Counter counter = new Counter();
+		assertEquals(7, runTwice(BatchedExecutionListener.onStateChange(counter), counter)); // not branches or halt
+	}
+
+	/**
+	 * Runs {@link #PROGRAM}, resets it and runs it again, checking that the same
+	 * number of steps are passed on each time.
+	 *
+	 * @param listener listener to add to the program
+	 * @param counter  listener that {@code listener} passes steps on to
+	 * @return steps passed on in each run
+	 */
+	private static int runTwice(BatchedExecutionListener listener, Counter counter) {
+		Program program = new Program(PROGRAM);
+		program.loadToMemory();
+		program.addListener(listener);
+		program.run();
+		int first = counter.steps;
+
+		counter.steps = 0;
+		program.reset();
+		program.run();
+		assertEquals(first, counter.steps, "steps passed on after reset");
+		return first;
+	}
+
+	/**
+	 * Counts the steps passed on to it.
+	 */
+	private static final class Counter implements ExecutionListener {
+		int steps; // steps passed on
+
+		public void stepped(Program program) {
+			steps++;
+		}
+	}
+}
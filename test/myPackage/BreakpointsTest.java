@@ -0,0 +1,121 @@
+package myPackage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks where a program stops with {@link Breakpoints} set, on every engine (as
+ * breakpoints make the program fall back to the interpreter).
+ */
+class BreakpointsTest {
+	private static final Line[] LOOP = { new Line(0x10, "7103", "R[1] <- 3"), new Line(0x11, "7201", "R[2] <- 1"),
+			new Line(0x12, "2112", "R[1] <- R[1] - R[2]"), new Line(0x13, "D112", "if (R[1] > 0) goto 12"),
+			new Line(0x14, "0000", "halt") };
+	private static final Line[] STORES = { new Line(0x10, "7105", "R[1] <- 5"), new Line(0x11, "7A30", "R[A] <- 30"),
+			new Line(0x12, "9120", "M[20] <- R[1]"), new Line(0x13, "B10A", "M[R[A]] <- R[1]"),
+			new Line(0x14, "0000", "halt") };
+
+	/**
+	 * Checks that a breakpoint in a loop stops the program before the instruction
+	 * on every iteration, and that running on from it carries on past it.
+	 */
+	@Test
+	void breakpointInLoop() {
+		for (int engine = 0; engine < Program.ENGINE_NAMES.length; engine++) {
+			Breakpoints breakpoints = new Breakpoints();
+			breakpoints.setBreakpoint(0x12, true);
+			Program program = program(LOOP, engine, breakpoints);
+			for (long steps = 2; steps <= 6; steps += 2) { // stops before each subtraction
+				program.run();
+				assertEquals("Breakpoint at 12", program.getBreakMessage(), Program.ENGINE_NAMES[engine]);
+				assertEquals(0x12, program.programCounter);
+				assertEquals(steps, program.getSteps());
+			}
+			program.run();
+			assertNull(program.getBreakMessage());
+			assertTrue(program.isFinished());
+		}
+	}
+
+	/**
+	 * Checks that watched memory stops the program just after it is written by a
+	 * store, and by a store through a register.
+	 */
+	@Test
+	void memoryWatch() {
+		for (int engine = 0; engine < Program.ENGINE_NAMES.length; engine++) {
+			Breakpoints breakpoints = new Breakpoints();
+			breakpoints.setMemoryWatch(0x20, true);
+			breakpoints.setMemoryWatch(0x30, true);
+			Program program = program(STORES, engine, breakpoints);
+			program.run();
+			assertEquals("Watched M[20] was written", program.getBreakMessage(), Program.ENGINE_NAMES[engine]);
+			assertEquals(0x13, program.programCounter);
+			program.run();
+			assertEquals("Watched M[30] was written", program.getBreakMessage(), Program.ENGINE_NAMES[engine]);
+			assertEquals(0x14, program.programCounter);
+			program.run();
+			assertTrue(program.isFinished());
+		}
+	}
+
+	/**
+	 * Checks that a watched register stops the program just after it is written,
+	 * and that reading it does not.
+	 */
+	@Test
+	void registerWatch() {
+		for (int engine = 0; engine < Program.ENGINE_NAMES.length; engine++) {
+			Breakpoints breakpoints = new Breakpoints();
+			breakpoints.setRegisterWatch(0xA, true);
+			Program program = program(STORES, engine, breakpoints);
+			program.run();
+			assertEquals("Watched R[A] was written", program.getBreakMessage(), Program.ENGINE_NAMES[engine]);
+			assertEquals(2, program.getSteps());
+			program.run(); // R[A] is only read after this
+			assertNull(program.getBreakMessage());
+			assertTrue(program.isFinished());
+		}
+	}
+
+	/**
+	 * Checks that breakpoints and watchpoints are only counted once however often
+	 * they are set, so clearing them leaves none.
+	 */
+	@Test
+	void setAndClear() {
+		Breakpoints breakpoints = new Breakpoints();
+		breakpoints.setBreakpoint(0x12, true);
+		breakpoints.setBreakpoint(0x12, true);
+		breakpoints.setMemoryWatch(0x20, true);
+		breakpoints.setRegisterWatch(0xA, true);
+		assertFalse(breakpoints.isEmpty());
+
+		breakpoints.setBreakpoint(0x12, false);
+		breakpoints.setMemoryWatch(0x20, false);
+		breakpoints.setRegisterWatch(0xA, false);
+		breakpoints.setRegisterWatch(0xA, false);
+		assertTrue(breakpoints.isEmpty());
+		assertFalse(breakpoints.hasBreakpoint(0x12));
+	}
+
+	/**
+	 * Loads a program to run on an engine with breakpoints.
+	 *
+	 * @param lines       lines of the program
+	 * @param engine      engine to run it on
+	 * @param breakpoints breakpoints to stop at
+	 * @return program ready to run
+	 */
+	private static Program program(Line[] lines, int engine, Breakpoints breakpoints) {
+		Program program = new Program(lines);
+		program.loadToMemory();
+		program.setEngine(engine);
+		program.setBreakpoints(breakpoints);
+		return program;
+	}
+}
@@ -0,0 +1,106 @@
+package myPackage;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks which cells a {@link ControlFlowGraph} finds code, data and
+ * unreachable, particularly where registers are resolved to constants.
+ */
+class ControlFlowGraphTest {
+	/**
+	 * Checks that a jump to a register set by the 7 just before it goes to that
+	 * constant.
+	 */
+	@Test
+	void computedJump() {
+		ControlFlowGraph graph = graph(new Line(0x10, "7A20", "R[A] <- 0020"), new Line(0x11, "EA00", "goto R[A]"),
+				new Line(0x20, "0000", "halt"), new Line(0x30, "0000", "halt, never reached"));
+		assertArrayEquals(new int[] { 0x20 }, graph.successors(0x11));
+		assertTrue(graph.code[0x20]);
+		assertTrue(graph.unreachable[0x30]);
+	}
+
+	/**
+	 * Checks that a return goes back after every call through its link register.
+	 */
+	@Test
+	void subroutineReturn() {
+		ControlFlowGraph graph = graph(new Line(0x10, "FF20", "call 20"), new Line(0x11, "0000", "halt"),
+				new Line(0x20, "EF00", "return"), new Line(0x30, "0000", "halt, never reached"));
+		assertArrayEquals(new int[] { 0x11 }, graph.successors(0x20));
+		assertTrue(graph.unreachable[0x30]);
+	}
+
+	/**
+	 * Checks that a 7 that is jumped over is not taken to set the register of the
+	 * jump after it, so the jump is not resolved to the wrong address and cells it
+	 * may really go to are not greyed.
+	 */
+	@Test
+	void loadJumpedOver() {
+		ControlFlowGraph graph = graph(new Line(0x10, "7A20", "R[A] <- 0020"), new Line(0x11, "C013", "goto 13"),
+				new Line(0x12, "7A30", "R[A] <- 0030, never run"), new Line(0x13, "EA00", "goto R[A]"),
+				new Line(0x20, "7101", "R[1] <- 0001"), new Line(0x21, "0000", "halt"),
+				new Line(0x30, "0000", "halt"));
+		assertArrayEquals(new int[0], graph.successors(0x13)); // not known, and there are no callers
+		assertFalse(graph.code[0x30]);
+		assertFalse(graph.unreachable[0x20]);
+		assertFalse(graph.unreachable[0x21]);
+	}
+
+	/**
+	 * Checks that a 7 in a loop is not taken to set the register used by the
+	 * branch target it falls into, as the loop changes it.
+	 */
+	@Test
+	void loadBeforeLoop() {
+		ControlFlowGraph graph = graph(new Line(0x10, "7A20", "R[A] <- 0020"), new Line(0x11, "EA00", "goto R[A]"),
+				new Line(0x20, "7B40", "R[B] <- 0040"), new Line(0x21, "DA11", "if (R[A] > 0) goto 11"),
+				new Line(0x40, "0000", "halt"));
+		assertArrayEquals(new int[0], graph.successors(0x11)); // entered from 21 too
+		assertFalse(graph.unreachable[0x40]);
+	}
+
+	/**
+	 * Checks that an array read through a register set by a 7 is data, along with
+	 * the cells after it.
+	 */
+	@Test
+	void knownArray() {
+		ControlFlowGraph graph = graph(new Line(0x10, "7A50", "R[A] <- 0050"),
+				new Line(0x11, "A20A", "R[2] <- M[R[A]]"), new Line(0x12, "0000", "halt"), new Line(0x50, "0001", ""),
+				new Line(0x51, "0002", ""), new Line(0x60, "0000", "halt, never reached"));
+		assertTrue(graph.data[0x50]);
+		assertTrue(graph.data[0x51]);
+		assertTrue(graph.unreachable[0x60]);
+	}
+
+	/**
+	 * Checks that cells are not greyed if an A or B may read or write any address,
+	 * as its address register was changed after the 7.
+	 */
+	@Test
+	void unknownArray() {
+		ControlFlowGraph graph = graph(new Line(0x10, "7A50", "R[A] <- 0050"),
+				new Line(0x11, "1AA1", "R[A] <- R[A] + R[1]"), new Line(0x12, "A20A", "R[2] <- M[R[A]]"),
+				new Line(0x13, "0000", "halt"), new Line(0x50, "0001", ""), new Line(0x51, "0002", ""));
+		assertFalse(graph.unreachable[0x50]);
+		assertFalse(graph.unreachable[0x51]);
+	}
+
+	/**
+	 * Builds the graph of a program, from its first line.
+	 *
+	 * @param lines lines of the program
+	 * @return control-flow graph of the program in memory
+	 */
+	private static ControlFlowGraph graph(Line... lines) {
+		Program program = new Program(lines);
+		program.loadToMemory();
+		return program.controlFlowGraph();
+	}
+}
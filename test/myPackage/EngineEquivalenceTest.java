@@ -0,0 +1,378 @@
+package myPackage;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that every execution engine, with and without the
+ * {@link LoopAccelerator} and {@link CallMemoiser}, leaves a program in exactly
+ * the same state as the interpreter on its own: the same registers, memory,
+ * stdin, stdout, PC, step count and error. Runs the example programs with a few
+ * inputs, then generated programs of three kinds: random words, counted loops
+ * and calls to subroutines.
+ */
+class EngineEquivalenceTest {
+	private static final String EXAMPLES_PROPERTY = "toy.examples";
+	private static final String[] INPUTS = { "", "0003 0005 0002 0007 0000",
+			"0009 0001 0008 0002 0007 0003 0006 0004 0005 0000 0001 0002" }; // stdin each example is run with
+	private static final long EXAMPLE_STEPS = 2_000_000; // step limit for examples (some never halt)
+	private static final long GENERATED_STEPS = 200_000; // step limit for generated programs
+	private static final int SEEDS = 300; // programs generated of each kind
+	private static final int REGISTERS = 5; // registers generated code uses, R[1] to R[5]
+
+	/**
+	 * Runs every example program with each input in every configuration.
+	 *
+	 * @throws IOException if an example cannot be read
+	 */
+	@Test
+	void examples() throws IOException {
+		File[] files = examplesFolder().listFiles();
+		assertTrue(files != null && files.length > 0, "no examples found");
+		for (File file : files) {
+			if (!file.getName().endsWith(".toy")) {
+				continue;
+			}
+			Program parsed = new TOYFile(file, file.getName()).toProgram();
+			if (parsed.validate() != null) { // e.g. blank.toy
+				continue;
+			}
+			for (String input : INPUTS) {
+				assertEquivalent(file.getName() + " with input \"" + input + "\"", parsed.lines, input, EXAMPLE_STEPS);
+			}
+		}
+	}
+
+	/**
+	 * Runs programs of random words, mostly code, from a random PC.
+	 */
+	@Test
+	void randomPrograms() {
+		for (long seed = 0; seed < SEEDS; seed++) {
+			Random random = new Random(seed);
+			List<Line> lines = new ArrayList<Line>();
+			for (int address = 0; address < 0xFF; address++) {
+				if (address >= 0x10 && address < 0x30 || random.nextInt(6) == 0) {
+					short word;
+					if (address < 0x10) { // data
+						word = (short) random.nextInt(8);
+					} else if (address < 0x10 + REGISTERS) { // set up registers
+						word = (short) (0x7000 | address - 0xF << 8 | random.nextInt(8));
+					} else {
+						word = randomWord(random);
+					}
+					add(lines, address, word);
+				}
+			}
+			assertEquivalent("random program " + seed, lines.toArray(new Line[0]), randomInput(random),
+					GENERATED_STEPS);
+		}
+	}
+
+	/**
+	 * Runs counted loops that add, subtract, load constants and branch, which the
+	 * {@link LoopAccelerator} can often run in one jump.
+	 */
+	@Test
+	void loops() {
+		for (long seed = 0; seed < SEEDS; seed++) {
+			Random random = new Random(seed);
+			List<Line> lines = new ArrayList<Line>();
+			int address = 0x10;
+			address = setUpRegisters(random, lines, address);
+			int head = address;
+			for (int length = 1 + random.nextInt(5); length > 0; length--) {
+				int kind = random.nextInt(10), d = register(random), other = register(random);
+				int word;
+				if (kind < 3) { // step a register
+					word = (random.nextBoolean() ? 0x1000 : 0x2000) | d << 8 | d << 4 | other;
+				} else if (kind < 4) { // add another register
+					word = 0x1000 | d << 8 | other << 4 | d;
+				} else if (kind < 5) {
+					word = 0x7000 | d << 8 | random.nextInt(0x100);
+				} else if (kind < 6) {
+					word = (random.nextBoolean() ? 0x1000 : 0x2000) | d << 8 | register(random) << 4 | other;
+				} else if (kind < 8) { // leave the loop, or go round early
+					word = (random.nextBoolean() ? 0xC000 : 0xD000) | d << 8 | (random.nextBoolean() ? 0x80 : head);
+				} else if (kind < 9) {
+					word = 0x1000;
+				} else {
+					word = randomWord(random);
+				}
+				add(lines, address++, (short) word);
+			}
+			int branch = random.nextInt(4) == 0 ? 0xC000 : random.nextBoolean() ? 0xC000 | register(random) << 8
+					: 0xD000 | register(random) << 8;
+			add(lines, address++, (short) (branch | head));
+			add(lines, address, (short) 0x0000);
+			add(lines, 0x80, (short) 0x0000);
+			assertEquivalent("loop " + seed, lines.toArray(new Line[0]), "", limit(random));
+		}
+	}
+
+	/**
+	 * Runs a loop calling a subroutine at 40, which is often pure so the
+	 * {@link CallMemoiser} can run it in one jump, but may also write memory, make
+	 * nested calls or return through the wrong register.
+	 */
+	@Test
+	void calls() {
+		for (long seed = 0; seed < SEEDS; seed++) {
+			Random random = new Random(seed);
+			List<Line> lines = new ArrayList<Line>();
+			int link = random.nextInt(8) == 0 ? register(random) : 8 + random.nextInt(8);
+			int address = 0x10;
+			add(lines, address++, (short) 0x7601);
+			add(lines, address++, (short) (0x7700 | 2 + random.nextInt(30))); // number of calls
+			address = setUpRegisters(random, lines, address);
+			int head = address;
+			add(lines, address++, (short) (0xF040 | link << 8));
+			if (random.nextBoolean()) { // change an input between calls
+				int other = random.nextBoolean() ? 6 : 0; // R[6] is 1
+				add(lines, address++, (short) (0x1000 | register(random) << 8 | register(random) << 4 | other));
+			}
+			add(lines, address++, (short) 0x2776);
+			add(lines, address++, (short) (0xD700 | head));
+			add(lines, address, (short) 0x0000);
+
+			int body = 0x40, length = 1 + random.nextInt(8);
+			for (int i = 0; i < length; i++) {
+				int kind = random.nextInt(20), d = random.nextInt(10) == 0 ? link : register(random);
+				int s = register(random), t = register(random);
+				int word;
+				if (kind < 6) { // add, subtract, and, xor
+					word = 1 + random.nextInt(4) << 12 | d << 8 | s << 4 | t;
+				} else if (kind < 8) { // shift
+					word = 5 + random.nextInt(2) << 12 | d << 8 | s << 4 | (random.nextBoolean() ? t : 6);
+				} else if (kind < 10) {
+					word = 0x7000 | d << 8 | random.nextInt(random.nextBoolean() ? 4 : 0x100);
+				} else if (kind < 13) { // branch within the body
+					int tested = random.nextInt(4) == 0 ? 0 : register(random);
+					word = (random.nextBoolean() ? 0xC000 : 0xD000) | tested << 8 | body + random.nextInt(length + 1);
+				} else if (kind < 15) { // return early
+					word = 0xE000 | link << 8;
+				} else if (kind < 17) { // store, so not pure
+					word = 0x9080 | d << 8;
+				} else if (kind < 18) { // nested call, so not pure
+					word = 0xF860;
+				} else {
+					word = randomWord(random);
+				}
+				add(lines, body + i, (short) word);
+			}
+			add(lines, body + length, (short) (0xE000 | link << 8));
+			add(lines, 0x60, (short) 0xE800);
+			assertEquivalent("call " + seed, lines.toArray(new Line[0]), "", limit(random));
+		}
+	}
+
+	/**
+	 * Runs a loop calling a pure subroutine with more distinct inputs than the
+	 * {@link CallMemoiser} remembers, so its cache is both hit and has to forget
+	 * calls.
+	 */
+	@Test
+	void manyCalls() {
+		Line[] lines = { new Line(0x10, "7106", "R[1] <- 0006"), new Line(0x11, "7808", "R[8] <- 0008"),
+				new Line(0x12, "5718", "R[7] <- R[1] << R[8], calls to make"), new Line(0x13, "73FF", "R[3] <- 00FF"),
+				new Line(0x14, "1333", "R[3] <- R[3] + R[3]"), new Line(0x15, "7401", "R[4] <- 0001"),
+				new Line(0x16, "1334", "R[3] <- R[3] + R[4], 01FF"), new Line(0x17, "7C7F", "R[C] <- 007F"),
+				new Line(0x18, "7D00", "R[D] <- 0000"), new Line(0x19, "3273", "R[2] <- R[7] & R[3], misses"),
+				new Line(0x1A, "FF40", "R[A] <- 3 * R[2]"), new Line(0x1B, "4DDA", "R[D] <- R[D] ^ R[A]"),
+				new Line(0x1C, "327C", "R[2] <- R[7] & R[C], mostly hits"), new Line(0x1D, "FF40", "R[A] <- 3 * R[2]"),
+				new Line(0x1E, "4DDA", "R[D] <- R[D] ^ R[A]"), new Line(0x1F, "2774", "R[7] <- R[7] - R[4]"),
+				new Line(0x20, "D719", "if (R[7] > 0) goto 19"), new Line(0x21, "9DFF", "write R[D]"),
+				new Line(0x22, "0000", "halt"), new Line(0x40, "1A22", "R[A] <- R[2] + R[2]"),
+				new Line(0x41, "1AA2", "R[A] <- R[A] + R[2]"), new Line(0x42, "EF00", "return") };
+		assertEquivalent("many calls", lines, "", GENERATED_STEPS);
+	}
+
+	/**
+	 * Runs a program with the interpreter alone, then with every engine, loop
+	 * accelerator and call memoiser combination, and checks they all end in the
+	 * same state.
+	 *
+	 * @param name     name of the program, for failure messages
+	 * @param lines    lines of the program
+	 * @param input    stdin, as hex words
+	 * @param maxSteps most steps to run
+	 */
+	private static void assertEquivalent(String name, Line[] lines, String input, long maxSteps) {
+		Program expected = run(lines, input, maxSteps, Program.ENGINE_INTERPRETER, false, false);
+		for (int engine = 0; engine < Program.ENGINE_NAMES.length; engine++) {
+			for (int options = 0; options < 4; options++) {
+				boolean accelerate = (options & 1) != 0, memoise = (options & 2) != 0;
+				Program actual = run(lines, input, maxSteps, engine, accelerate, memoise);
+				String configuration = name + " on " + Program.ENGINE_NAMES[engine] + (accelerate ? " accelerated" : "")
+						+ (memoise ? " memoised" : "");
+				assertSameState(configuration, expected, actual);
+			}
+		}
+	}
+
+	/**
+	 * Runs a program until it stops in a given configuration.
+	 *
+	 * @param lines      lines of the program
+	 * @param input      stdin, as hex words
+	 * @param maxSteps   most steps to run
+	 * @param engine     engine to run with
+	 * @param accelerate whether to run loops with a {@link LoopAccelerator}
+	 * @param memoise    whether to run calls with a {@link CallMemoiser}
+	 * @return program after running
+	 */
+	private static Program run(Line[] lines, String input, long maxSteps, int engine, boolean accelerate,
+			boolean memoise) {
+		Program program = new Program(lines);
+		program.loadToMemory();
+		program.setEngine(engine);
+		if (accelerate) {
+			program.setLoopAccelerator(new LoopAccelerator());
+		}
+		if (memoise) {
+			program.setCallMemoiser(new CallMemoiser());
+		}
+		program.setLimits(new ExecutionLimits(maxSteps, Long.MAX_VALUE, Long.MAX_VALUE));
+		Instruction.inputToStdin(input, program);
+		program.run();
+		return program;
+	}
+
+	/**
+	 * Checks that two programs are in the same state.
+	 *
+	 * @param configuration how {@code actual} was run, for failure messages
+	 * @param expected      program run by the interpreter alone
+	 * @param actual        program run in another configuration
+	 */
+	private static void assertSameState(String configuration, Program expected, Program actual) {
+		assertEquals(expected.getErrorMessage(), actual.getErrorMessage(), configuration + ": error");
+		assertEquals(expected.getSteps(), actual.getSteps(), configuration + ": steps");
+		assertEquals(expected.getProgramCounter(), actual.getProgramCounter(), configuration + ": PC");
+		assertEquals(expected.isFinished(), actual.isFinished(), configuration + ": finished");
+		assertArrayEquals(expected.registersInitialised, actual.registersInitialised,
+				configuration + ": registers initialised");
+		for (int register = 0; register < expected.registers.length; register++) {
+			if (expected.registersInitialised[register]) { // uninitialised registers may hold anything
+				assertEquals(expected.registers[register], actual.registers[register],
+						configuration + ": R[" + Integer.toHexString(register).toUpperCase() + "]");
+			}
+		}
+		assertArrayEquals(expected.memoryInitialised, actual.memoryInitialised, configuration + ": memory initialised");
+		assertArrayEquals(expected.memory, actual.memory, configuration + ": memory");
+		assertArrayEquals(expected.stdin.toArray(), actual.stdin.toArray(), configuration + ": stdin");
+		assertArrayEquals(expected.stdout.toArray(), actual.stdout.toArray(), configuration + ": stdout");
+	}
+
+	/**
+	 * Finds the examples folder: the {@code toy.examples} system property, which
+	 * the build sets, or else {@code examples} in the working directory or its
+	 * parent.
+	 *
+	 * @return examples folder
+	 */
+	private static File examplesFolder() {
+		String property = System.getProperty(EXAMPLES_PROPERTY);
+		if (property != null) {
+			return new File(property);
+		}
+		File folder = new File("examples");
+		return folder.isDirectory() ? folder : new File("../examples");
+	}
+
+	/**
+	 * Sets most of R[1] to R[5] to small constants, some negated.
+	 *
+	 * @param random  source of random numbers
+	 * @param lines   lines to add to
+	 * @param address address of the first instruction
+	 * @return address after the last instruction added
+	 */
+	private static int setUpRegisters(Random random, List<Line> lines, int address) {
+		for (int register = 1; register <= REGISTERS; register++) {
+			if (random.nextInt(6) != 0) {
+				int value = random.nextInt(3) == 0 ? random.nextInt(0x100) : random.nextInt(10);
+				add(lines, address++, (short) (0x7000 | register << 8 | value));
+				if (random.nextInt(4) == 0) {
+					add(lines, address++, (short) (0x2000 | register << 8 | register)); // R[d] <- -R[d]
+				}
+			}
+		}
+		return address;
+	}
+
+	/**
+	 * Generates a random instruction, weighted towards arithmetic, loads, stores
+	 * and branches, with addresses near the code or at stdin and stdout.
+	 *
+	 * @param random source of random numbers
+	 * @return instruction word
+	 */
+	private static short randomWord(Random random) {
+		final int[] common = { 1, 1, 2, 2, 3, 4, 5, 6, 7, 7, 8, 9, 0xA, 0xB, 0xC, 0xD, 0xD, 0xE, 0xF, 0, 1, 2 };
+		int opcode = random.nextInt(3) == 0 ? random.nextInt(16) : common[random.nextInt(common.length)];
+		int d = random.nextInt(4) == 0 ? 0 : register(random);
+		int s = random.nextInt(REGISTERS + 1), t = random.nextInt(REGISTERS + 1);
+		int address = random.nextInt(8) == 0 ? 0xFF
+				: random.nextBoolean() ? 0x10 + random.nextInt(0x20) : random.nextInt(0x100);
+		if (opcode >= 7 && opcode != 0xA && opcode != 0xB && opcode != 0xE) { // address format
+			return (short) (opcode << 12 | d << 8 | address);
+		}
+		return (short) (opcode << 12 | d << 8 | s << 4 | t);
+	}
+
+	/**
+	 * Generates up to 20 random words of stdin.
+	 *
+	 * @param random source of random numbers
+	 * @return input as hex words
+	 */
+	private static String randomInput(Random random) {
+		StringBuilder input = new StringBuilder();
+		for (int i = random.nextInt(20); i > 0; i--) {
+			input.append(Instruction.shortToHex((short) random.nextInt(0x20))).append(' ');
+		}
+		return input.toString();
+	}
+
+	/**
+	 * Picks a step limit, sometimes small enough to stop in the middle of a loop
+	 * or call.
+	 *
+	 * @param random source of random numbers
+	 * @return step limit
+	 */
+	private static long limit(Random random) {
+		return random.nextInt(3) == 0 ? 1 + random.nextInt(300) : GENERATED_STEPS;
+	}
+
+	/**
+	 * Picks one of the registers generated code uses.
+	 *
+	 * @param random source of random numbers
+	 * @return R[1] to R[5]
+	 */
+	private static int register(Random random) {
+		return 1 + random.nextInt(REGISTERS);
+	}
+
+	/**
+	 * Adds a line to a program.
+	 *
+	 * @param lines   lines to add to
+	 * @param address address of the line
+	 * @param word    word at the address
+	 */
+	private static void add(List<Line> lines, int address, short word) {
+		lines.add(new Line(address, Instruction.shortToHex(word), ""));
+	}
+}
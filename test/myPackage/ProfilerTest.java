@@ -0,0 +1,33 @@
+package myPackage;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks what a {@link Profiler} counts.
+ */
+class ProfilerTest {
+	/**
+	 * Checks that a loop is reported with the target its branch jumped to, even
+	 * after the program overwrites the branch.
+	 */
+	@Test
+	void loopSurvivesOverwrittenBranch() {
+		Line[] lines = { new Line(0x10, "7103", "R[1] <- 3"), new Line(0x11, "7201", "R[2] <- 1"),
+				new Line(0x12, "2112", "R[1] <- R[1] - R[2]"), new Line(0x13, "D112", "if (R[1] > 0) goto 12"),
+				new Line(0x14, "8320", "R[3] <- M[20]"), new Line(0x15, "9313", "M[13] <- R[3], over the branch"),
+				new Line(0x16, "0000", "halt"), new Line(0x20, "0000", "") };
+		Program program = new Program(lines);
+		program.loadToMemory();
+		program.setProfiler(new Profiler());
+		program.run();
+
+		List<long[]> loops = program.getProfiler().loops();
+		assertEquals(1, loops.size());
+		assertArrayEquals(new long[] { 0x12, 0x13, 2, 6 }, loops.get(0)); // start, end, iterations, steps
+	}
+}
@@ -0,0 +1,105 @@
+package myPackage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that {@link RawLine} accepts exactly the lines its original regular
+ * expression did, and splits them into the same line number, instruction and
+ * comment.
+ */
+class RawLineTest {
+	// regex lines were checked with before RawLine parsed them by hand
+	private static final Pattern VALID_LINE = Pattern.compile("^(([\\da-fA-F]){2}): (([\\da-fA-F]){4})(.*)");
+	private static final String[] LINES = { // each is checked against the regex
+			"10: 7A20", // shortest valid line
+			"10: 7A20   R[A] <- 0020", // comment
+			"10: 7A20 ", // trailing space
+			"10: 7A20// comment", // comment straight after the instruction
+			"10: 7A20\tcomment", // tab before comment
+			"ff: abcd", // lowercase
+			"Ff: aBcD", // mixed case
+			"00: 0000", // halt at 00
+			"FF: FFFF", // stdin and stdout
+			"10: 7A201", // long instruction, so the extra digit is a comment
+			"10: 7A2", // short instruction
+			"10: 7A2 comment", // short instruction with a comment
+			"10: 7A2G", // not a hex digit
+			"10: 7a2g", // not a hex digit, lowercase
+			"1: 7A20", // short line number
+			"100: 7A20", // long line number
+			"1G: 7A20", // line number not a hex digit
+			"10:7A20", // no space after colon
+			"10:  7A20", // two spaces after colon
+			"10 : 7A20", // space before colon
+			"10; 7A20", // not a colon
+			"10:\t7A20", // tab instead of space
+			" 10: 7A20", // leading space
+			"\t10: 7A20", // leading tab
+			"10: 7A20\nnext line", // newline ends the comment
+			"10: 7A20 comment\r\n", // Windows line ending
+			"10: 7A20 comment\u2028more", // line separator
+			"10: 7A20 comment\u0085more", // next line
+			"10: \n7A20", // newline inside the line
+			"\uFF11\uFF10: 7A20", // full-width digits are not hex digits
+			"10: \uFF17A20", // full-width digit in instruction
+			"10: 7A20 \u00E9\u00E8", // non-ASCII comment
+			"", // empty
+			"10", // too short
+			"10: ", // no instruction
+			"program Sum", // header
+			"// 10: 7A20", // commented out line
+	};
+
+	/**
+	 * Checks that every line in the table is accepted or rejected, and split up,
+	 * exactly as the regex would.
+	 */
+	@Test
+	void parseMatchesRegex() {
+		for (String content : LINES) {
+			assertMatchesRegex(content, new RawLine(content));
+		}
+	}
+
+	/**
+	 * Checks the same lines when they are a range of some longer text, as when
+	 * reading a whole file.
+	 */
+	@Test
+	void parseRangeMatchesRegex() {
+		for (String content : LINES) {
+			String text = "xx: yyyy\n" + content + "\n10: 7A20";
+			int start = "xx: yyyy\n".length();
+			assertMatchesRegex(content, new RawLine(text, start, start + content.length()));
+		}
+	}
+
+	/**
+	 * Checks that a {@code RawLine} parses a line the same way the regex does.
+	 *
+	 * @param content text of the line
+	 * @param rawLine line to check, whose content is {@code content}
+	 */
+	private static void assertMatchesRegex(String content, RawLine rawLine) {
+		String name = '"' + content.replace("\n", "\\n").replace("\r", "\\r") + '"';
+		Matcher matcher = VALID_LINE.matcher(content);
+		boolean valid = matcher.find();
+		assertEquals(valid, rawLine.isValid(), name + " valid");
+		Line line = rawLine.toLine();
+		if (!valid) {
+			assertNull(line, name);
+			return;
+		}
+		assertNotNull(line, name);
+		assertEquals(Integer.parseInt(matcher.group(1), 16), line.getLineNumber(), name + " line number");
+		assertEquals(matcher.group(3), line.getInstruction(), name + " instruction");
+		assertEquals(matcher.group(5), line.comment, name + " comment");
+	}
+}
@@ -0,0 +1,68 @@
+package myPackage;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+/**
+ * Checks that {@link Snapshot}s survive being written and read back, and that
+ * corrupt ones are rejected when read rather than when resumed.
+ */
+class SnapshotTest {
+	private static final Line[] PROGRAM = { new Line(0x10, "7101", ""), new Line(0x11, "7203", ""),
+			new Line(0x12, "1112", ""), new Line(0x13, "0000", "") }; // R[1] <- 1 + 3, then halt
+
+	/**
+	 * Checks that a snapshot of a stopped program reads back the same.
+	 *
+	 * @throws IOException if the snapshot cannot be read
+	 */
+	@Test
+	void roundTrip() throws IOException {
+		Snapshot snapshot = stoppedProgram().snapshot();
+		Snapshot read = Snapshot.fromBytes(snapshot.toBytes());
+		assertEquals(snapshot.programCounter, read.programCounter);
+		assertEquals(snapshot.steps, read.steps);
+		assertArrayEquals(snapshot.registers, read.registers);
+		assertArrayEquals(snapshot.memory, read.memory);
+	}
+
+	/**
+	 * Checks that a PC outside memory is rejected with an {@code IOException}, as
+	 * resuming from it would fail with an {@code ArrayIndexOutOfBoundsException}.
+	 */
+	@Test
+	void programCounterOutsideMemory() {
+		for (int programCounter : new int[] { 0x100, 0x1234, 0xFFFF }) {
+			final byte[] bytes = stoppedProgram().snapshot().toBytes();
+			ByteBuffer buffer = ByteBuffer.wrap(bytes);
+			int imageLength = buffer.getInt(4 + 2); // after magic and version
+			buffer.putShort(4 + 2 + 4 + imageLength, (short) programCounter); // PC follows the image
+			IOException exception = assertThrows(IOException.class, new Executable() {
+				public void execute() throws IOException {
+					Snapshot.fromBytes(bytes);
+				}
+			});
+			assertTrue(exception.getMessage().contains("truncated or corrupt"), exception.getMessage());
+		}
+	}
+
+	/**
+	 * Runs {@link #PROGRAM} for two steps.
+	 *
+	 * @return program stopped at 12
+	 */
+	private static Program stoppedProgram() {
+		Program program = new Program(PROGRAM);
+		program.loadToMemory();
+		program.run(2);
+		return program;
+	}
+}
@@ -0,0 +1,124 @@
+package myPackage;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks the JSON lines that {@link TOYBatch} prints for each run.
+ */
+class TOYBatchTest {
+	@TempDir
+	File folder; // where programs and inputs are written
+
+	/**
+	 * Checks that every program is run with every input, and that the results are
+	 * printed in order with the right status, steps, stdout and error.
+	 *
+	 * @throws IOException if a file cannot be written or read
+	 */
+	@Test
+	void everyProgramWithEveryInput() throws IOException {
+		File copy = write("copy.toy", "10: 81FF\n11: 91FF\n12: 0000\n"); // copy a word from stdin to stdout
+		File loop = write("loop.toy", "10: C010\n"); // loop forever
+		File one = write("one.txt", "0001\n"), none = write("none.txt", "");
+
+		String[] lines = runAll(new ExecutionLimits(5, Long.MAX_VALUE, Long.MAX_VALUE), Arrays.asList(copy, loop),
+				Arrays.asList(one, none));
+		String stepLimit = BatchResult.jsonString("Error at line 10:\nThe program exceeded the maximum of 5 steps");
+		assertArrayEquals(new String[] {
+				result(copy, one, "halted", 3, "\"0001\"", "null"),
+				result(copy, none, "needs_input", 0, "", "null"),
+				result(loop, one, "step_limit", 5, "", stepLimit),
+				result(loop, none, "step_limit", 5, "", stepLimit) }, lines);
+	}
+
+	/**
+	 * Checks that a program that cannot be run is reported as invalid, and that
+	 * each program is run once with no input when no inputs are given.
+	 *
+	 * @throws IOException if a file cannot be written or read
+	 */
+	@Test
+	void invalidProgram() throws IOException {
+		File duplicate = write("duplicate.toy", "10: 0000\n10: 0000\n");
+		String[] lines = runAll(ExecutionLimits.NONE, Arrays.asList(duplicate), Arrays.<File>asList());
+		assertArrayEquals(new String[] { "{\"program\":" + BatchResult.jsonString(duplicate.getPath())
+				+ ",\"input\":null,\"status\":\"invalid\",\"steps\":0,\"wall_nanos\":0,\"stdout\":[],"
+				+ "\"error\":\"Program contains duplicate line numbers: 10\"}" }, lines);
+	}
+
+	/**
+	 * Checks that quotes, backslashes and control characters are escaped.
+	 */
+	@Test
+	void jsonString() {
+		assertEquals("\"a\\\"b\\\\c\\nd\\u0009e\"", BatchResult.jsonString("a\"b\\c\nd\te"));
+		assertEquals("null", BatchResult.jsonString(null));
+	}
+
+	/**
+	 * Writes a file to {@link #folder}.
+	 *
+	 * @param name     name of the file
+	 * @param contents text to write
+	 * @return file written
+	 * @throws IOException if the file cannot be written
+	 */
+	private File write(String name, String contents) throws IOException {
+		File file = new File(folder, name);
+		Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+	/**
+	 * Runs a batch on two threads and returns the lines it printed, with the
+	 * wall-clock times replaced by 0.
+	 *
+	 * @param limits   limits on each run
+	 * @param programs programs to run
+	 * @param inputs   inputs to run them with
+	 * @return lines printed
+	 * @throws IOException if a file cannot be read
+	 */
+	private static String[] runAll(ExecutionLimits limits, List<File> programs, List<File> inputs)
+			throws IOException {
+		TOYBatch batch = new TOYBatch(2, Program.ENGINE_INTERPRETER, limits, false, false, false);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			batch.runAll(programs, inputs, new PrintStream(out, true));
+		} finally {
+			batch.shutdown();
+		}
+		return out.toString().replaceAll("\"wall_nanos\":\\d+", "\"wall_nanos\":0").split("\\R");
+	}
+
+	/**
+	 * Builds the line expected for a run, with a wall-clock time of 0.
+	 *
+	 * @param program program that was run
+	 * @param input   input it was run with
+	 * @param status  status of the run
+	 * @param steps   steps executed
+	 * @param stdout  JSON strings written to stdout, separated by commas
+	 * @param error   error as a JSON string, or {@code null}
+	 * @return expected JSON line
+	 */
+	private static String result(File program, File input, String status, long steps, String stdout,
+			String error) {
+		return "{\"program\":" + BatchResult.jsonString(program.getPath()) + ",\"input\":"
+				+ BatchResult.jsonString(input.getPath()) + ",\"status\":\"" + status + "\",\"steps\":" + steps
+				+ ",\"wall_nanos\":0,\"stdout\":[" + stdout + "],\"error\":" + error + "}";
+	}
+}
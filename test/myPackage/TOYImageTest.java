@@ -0,0 +1,167 @@
+package myPackage;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks that {@link TOYImage}s of the examples read back the same and run the
+ * same as their source, and that corrupt images are rejected.
+ */
+class TOYImageTest {
+	private static final String EXAMPLES_PROPERTY = "toy.examples";
+	private static final String INPUT = "0003 0005 0002 0007 0000"; // stdin each example is run with
+	private static final int HEADER_BYTES = 4 + 2 + 2; // magic, version and flags, before the entry PC
+	private static final int SOURCE_TABLE = HEADER_BYTES + 2 + 0x100 / 8 + 0x100 * 2; // offset of the source table
+
+	@TempDir
+	File folder; // where examples are copied and their images written
+
+	/**
+	 * Writes an image of every example with {@code --image}, and checks that each
+	 * reads back as the image of its source and runs with the same result. The
+	 * example without any code is reported rather than written.
+	 *
+	 * @throws IOException if an example or image cannot be read or written
+	 */
+	@Test
+	void examplesRoundTrip() throws IOException {
+		File[] examples = examplesFolder().listFiles();
+		for (File example : examples) {
+			if (example.getName().endsWith(".toy")) {
+				Files.copy(example.toPath(), new File(folder, example.getName()).toPath());
+			}
+		}
+		ByteArrayOutputStream err = new ByteArrayOutputStream();
+		int status = TOYRunner.writeImages(new String[] { folder.getPath() },
+				new PrintStream(new ByteArrayOutputStream(), true), new PrintStream(err, true));
+		assertEquals(TOYRunner.EXIT_USAGE, status);
+		assertTrue(err.toString().contains("blank.toy: Program does not contain any valid TOY code"), err.toString());
+
+		ExecutionLimits limits = ExecutionLimits.NONE.withMaxSteps(100_000); // some examples never halt
+		for (File source : folder.listFiles()) {
+			String name = source.getName();
+			if (!name.endsWith(".toy") || name.equals("blank.toy")) {
+				continue;
+			}
+			File imageFile = new File(folder, name.replace(".toy", TOYImage.EXTENSION));
+			TOYImage image = TOYImage.read(imageFile), expected = TOYImage.fromFile(new TOYFile(source, name), true);
+			assertArrayEquals(expected.memory, image.memory, name);
+			assertArrayEquals(expected.initialised, image.initialised, name);
+			assertEquals(expected.entry, image.entry, name);
+			assertEquals(name, image.sourceName);
+			assertArrayEquals(expected.comments, image.comments, name);
+
+			TOYRunnerTest.Result sourceResult = TOYRunnerTest.run(source, Program.ENGINE_INTERPRETER, limits, INPUT);
+			TOYRunnerTest.Result imageResult = TOYRunnerTest.run(imageFile, Program.ENGINE_INTERPRETER, limits,
+					INPUT);
+			assertEquals(sourceResult.status, imageResult.status, name);
+			assertEquals(sourceResult.out, imageResult.out, name);
+			assertEquals(sourceResult.err, imageResult.err, name);
+		}
+	}
+
+	/**
+	 * Checks that an image without a source table reads back without one, and
+	 * gives lines with empty comments.
+	 *
+	 * @throws IOException if the image cannot be read
+	 */
+	@Test
+	void withoutSource() throws IOException {
+		TOYImage image = TOYImage.fromBytes(TOYImage.fromProgram(program(), null).toBytes());
+		assertNull(image.sourceName);
+		assertNull(image.comments);
+		Line[] lines = image.toLines();
+		assertEquals(2, lines.length);
+		assertEquals(0x10, lines[0].getLineNumber());
+		assertEquals("7101", lines[0].getInstruction());
+		assertEquals("", lines[0].comment);
+	}
+
+	/**
+	 * Checks that an image with a bad magic number, version, entry PC or string
+	 * length, or that ends early, is rejected with an {@code IOException}.
+	 */
+	@Test
+	void corrupt() {
+		byte[] bytes = TOYImage.fromProgram(program(), "program.toy").toBytes();
+		assertRejected("Not a TOY image", changed(bytes, 0, (short) 0x544E)); // "TN" rather than "TO"
+		assertRejected("Unsupported TOY image version: 2", changed(bytes, 4, (short) 2));
+		assertRejected("entry PC is outside memory: 256", changed(bytes, HEADER_BYTES, (short) 0x100));
+		assertRejected("truncated or corrupt", changed(bytes, SOURCE_TABLE, (short) 0x7FFF)); // source name length
+		for (int length = 0; length < bytes.length; length++) { // ends before each byte
+			assertRejected(length < 4 ? "truncated or corrupt" : null, Arrays.copyOf(bytes, length));
+		}
+	}
+
+	/**
+	 * Checks that bytes are rejected as an image.
+	 *
+	 * @param message part of the message expected, or {@code null} for any
+	 * @param bytes   bytes to read
+	 */
+	private static void assertRejected(String message, final byte[] bytes) {
+		IOException exception = assertThrows(IOException.class, new Executable() {
+			public void execute() throws IOException {
+				TOYImage.fromBytes(bytes);
+			}
+		}, bytes.length + " bytes");
+		if (message != null) {
+			assertTrue(exception.getMessage().contains(message), exception.getMessage());
+		}
+	}
+
+	/**
+	 * Copies bytes with a 2-byte value changed.
+	 *
+	 * @param bytes  bytes to copy
+	 * @param offset offset of the value
+	 * @param value  value to write
+	 * @return changed copy
+	 */
+	private static byte[] changed(byte[] bytes, int offset, short value) {
+		byte[] copy = bytes.clone();
+		ByteBuffer.wrap(copy).putShort(offset, value);
+		return copy;
+	}
+
+	/**
+	 * Creates a small program to make images of.
+	 *
+	 * @return program setting R[1] then halting
+	 */
+	private static Program program() {
+		return new Program(new Line[] { new Line(0x10, "7101", "R[1] <- 1"), new Line(0x11, "0000", "halt") });
+	}
+
+	/**
+	 * Finds the examples folder: the {@code toy.examples} system property, which
+	 * the build sets, or else {@code examples} in the working directory or its
+	 * parent.
+	 *
+	 * @return examples folder
+	 */
+	private static File examplesFolder() {
+		String property = System.getProperty(EXAMPLES_PROPERTY);
+		if (property != null) {
+			return new File(property);
+		}
+		File folder = new File("examples");
+		return folder.isDirectory() ? folder : new File("../examples");
+	}
+}
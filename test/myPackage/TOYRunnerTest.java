@@ -0,0 +1,220 @@
+package myPackage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks what the headless runner prints and the exit status it returns.
+ */
+class TOYRunnerTest {
+	private static final String LOOP = "10: C010   goto 10\n"; // runs forever
+
+	@TempDir
+	File folder; // where programs are written to be run
+
+	/**
+	 * Checks that running off the end of memory is reported as an error, on every
+	 * engine, rather than crashing.
+	 *
+	 * @throws IOException if the program cannot be written
+	 */
+	@Test
+	void programCounterPastEndOfMemory() throws IOException {
+		File file = write("10: C0FE   goto FE\nFE: 1000\nFF: 1000\n");
+		for (int engine = 0; engine < Program.ENGINE_NAMES.length; engine++) {
+			Result result = run(file, engine, ExecutionLimits.NONE, "");
+			assertEquals(TOYRunner.EXIT_ERROR, result.status, Program.ENGINE_NAMES[engine]);
+			assertTrue(result.err.contains(ProgramCounterOutOfBoundsException.defaultMessage), result.err);
+		}
+	}
+
+	/**
+	 * Checks that a program that halts or runs out of input exits with the status
+	 * for that.
+	 *
+	 * @throws IOException if the program cannot be written
+	 */
+	@Test
+	void haltedAndNeedsInput() throws IOException {
+		File file = write("10: 81FF   read R[1]\n11: 91FF   write R[1]\n12: 0000   halt\n");
+		for (int engine = 0; engine < Program.ENGINE_NAMES.length; engine++) {
+			Result result = run(file, engine, ExecutionLimits.NONE, "ABCD\n");
+			assertEquals(TOYRunner.EXIT_HALTED, result.status, Program.ENGINE_NAMES[engine]);
+			assertEquals("ABCD", result.out.trim());
+
+			result = run(file, engine, ExecutionLimits.NONE, "");
+			assertEquals(TOYRunner.EXIT_NEEDS_INPUT, result.status, Program.ENGINE_NAMES[engine]);
+		}
+	}
+
+	/**
+	 * Checks that a program stops with status {@value TOYRunner#EXIT_LIMIT} after
+	 * exactly as many steps as it is allowed.
+	 *
+	 * @throws IOException if the program cannot be written
+	 */
+	@Test
+	void stepLimit() throws IOException {
+		File file = write(LOOP);
+		for (int engine = 0; engine < Program.ENGINE_NAMES.length; engine++) {
+			Result result = run(file, engine, ExecutionLimits.NONE.withMaxSteps(1000), "");
+			assertEquals(TOYRunner.EXIT_LIMIT, result.status, Program.ENGINE_NAMES[engine]);
+			assertTrue(result.err.contains("maximum of 1000 steps (after 1000 steps)"), result.err);
+		}
+	}
+
+	/**
+	 * Checks that a program that runs forever stops with status
+	 * {@value TOYRunner#EXIT_LIMIT} once it has run for too long.
+	 *
+	 * @throws IOException if the program cannot be written
+	 */
+	@Test
+	void timeLimit() throws IOException {
+		File file = write(LOOP);
+		for (int engine = 0; engine < Program.ENGINE_NAMES.length; engine++) {
+			Result result = run(file, engine, ExecutionLimits.NONE.withMaxMillis(20), "");
+			assertEquals(TOYRunner.EXIT_LIMIT, result.status, Program.ENGINE_NAMES[engine]);
+			assertTrue(result.err.contains("maximum running time of 20 ms"), result.err);
+		}
+	}
+
+	/**
+	 * Checks that a program stops with status {@value TOYRunner#EXIT_LIMIT} when it
+	 * writes one word more than it is allowed, and that the words before it are
+	 * still printed.
+	 *
+	 * @throws IOException if the program cannot be written
+	 */
+	@Test
+	void outputLimit() throws IOException {
+		File file = write("10: 7101   R[1] <- 1\n11: 91FF   write R[1]\n12: C011   goto 11\n");
+		for (int engine = 0; engine < Program.ENGINE_NAMES.length; engine++) {
+			Result result = run(file, engine, ExecutionLimits.NONE.withMaxOutputWords(3), "");
+			assertEquals(TOYRunner.EXIT_LIMIT, result.status, Program.ENGINE_NAMES[engine]);
+			assertEquals("0001\n0001\n0001", result.out.trim().replace("\r", ""));
+			assertTrue(result.err.contains("maximum of 3 words written to stdout"), result.err);
+		}
+	}
+
+	/**
+	 * Checks that limits are read from their command line options, and that
+	 * negative limits are rejected.
+	 */
+	@Test
+	void limitOptions() {
+		ExecutionLimits limits = ExecutionLimits.NONE.withOption("--max-steps", "10").withOption("--max-millis", "20")
+				.withOption("--max-output", "30");
+		assertEquals(10, limits.maxSteps);
+		assertEquals(20, limits.maxMillis);
+		assertEquals(30, limits.maxOutputWords);
+		assertNull(limits.withOption("--max-words", "10"));
+		assertThrows(NumberFormatException.class, new Executable() {
+			public void execute() {
+				ExecutionLimits.NONE.withOption("--max-steps", "-1");
+			}
+		});
+	}
+
+	/**
+	 * Checks that what a program has written is printed before it waits for input
+	 * that is not yet available, rather than once enough has been written.
+	 *
+	 * @throws IOException if the program cannot be written
+	 */
+	@Test
+	void outputBeforeBlockingRead() throws IOException {
+		File file = write("10: 7101   R[1] <- 1\n11: 91FF   write R[1]\n12: 82FF   read R[2]\n13: 92FF   write R[2]\n"
+				+ "14: 0000   halt\n");
+		for (int engine = 0; engine < Program.ENGINE_NAMES.length; engine++) {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final StringBuilder printedBeforeRead = new StringBuilder();
+			InputStream in = new InputStream() { // like a terminal the user has not yet typed into
+				private final InputStream input = new ByteArrayInputStream("0002\n".getBytes(StandardCharsets.UTF_8));
+
+				public int available() {
+					return 0;
+				}
+
+				public int read() throws IOException {
+					if (printedBeforeRead.length() == 0) { // first read would block
+						printedBeforeRead.append(out.toString()).append('.'); // '.' marks it as recorded
+					}
+					return input.read();
+				}
+			};
+			int status = TOYRunner.run(file, false, null, null, false, engine, false, false, ExecutionLimits.NONE, in,
+					new PrintStream(out, true), new PrintStream(new ByteArrayOutputStream(), true));
+			assertEquals(TOYRunner.EXIT_HALTED, status, Program.ENGINE_NAMES[engine]);
+			assertEquals("0001" + System.lineSeparator() + ".", printedBeforeRead.toString(),
+					Program.ENGINE_NAMES[engine]);
+			assertEquals("0001" + System.lineSeparator() + "0002" + System.lineSeparator(), out.toString());
+		}
+	}
+
+	/**
+	 * Writes a program to a file.
+	 *
+	 * @param source text of the program
+	 * @return file written
+	 * @throws IOException if the file cannot be written
+	 */
+	File write(String source) throws IOException {
+		File file = new File(folder, "program.toy");
+		Files.write(file.toPath(), source.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+	/**
+	 * Runs a program with the headless runner.
+	 *
+	 * @param file   program to run
+	 * @param engine engine to run it with
+	 * @param limits limits on the run
+	 * @param input  stdin of the program
+	 * @return exit status and what was printed
+	 */
+	static Result run(File file, int engine, ExecutionLimits limits, String input) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(), err = new ByteArrayOutputStream();
+		int status = TOYRunner.run(file, false, null, null, false, engine, false, false, limits,
+				new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), new PrintStream(out, true),
+				new PrintStream(err, true));
+		return new Result(status, out.toString(), err.toString());
+	}
+
+	/**
+	 * What a run printed and returned.
+	 */
+	static final class Result {
+		final int status; // exit status
+		final String out, err; // stdout and stderr
+
+		/**
+		 * Constructs a new {@code Result}.
+		 *
+		 * @param status exit status
+		 * @param out    what was printed to stdout
+		 * @param err    what was printed to stderr
+		 */
+		Result(int status, String out, String err) {
+			this.status = status;
+			this.out = out;
+			this.err = err;
+		}
+	}
+}
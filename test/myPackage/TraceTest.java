@@ -0,0 +1,174 @@
+package myPackage;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks that a {@link TraceRecorder} records every step a program executes,
+ * that a {@link TraceReader} reads them back, and how
+ * {@link TOYRunner#diffTraces(File, File, PrintStream, PrintStream)} compares two
+ * traces.
+ */
+class TraceTest {
+	private static final String PROGRAM = "10: 81FF   read R[1]\n11: 7A30   R[A] <- 30\n12: 9120   M[20] <- R[1]\n"
+			+ "13: B10A   M[R[A]] <- R[1]\n14: 91FF   write R[1]\n15: 0000   halt\n";
+
+	@TempDir
+	File folder; // where programs and traces are written
+
+	/**
+	 * Checks that every step is read back with the registers and memory it wrote,
+	 * on every engine (as tracing makes the program fall back to the interpreter).
+	 *
+	 * @throws IOException if a file cannot be written or read
+	 */
+	@Test
+	void recordAndRead() throws IOException {
+		for (int engine = 0; engine < Program.ENGINE_NAMES.length; engine++) {
+			File trace = record(PROGRAM, engine, "0005\n", "trace.toyt");
+			assertArrayEquals(new String[] { "10: 81FF  R[1] <- 0005  M[FF] <- 0005", "11: 7A30  R[A] <- 0030",
+					"12: 9120  M[20] <- 0005", "13: B10A  M[30] <- 0005", "14: 91FF  M[FF] <- 0005", "15: 0000" },
+					read(trace), Program.ENGINE_NAMES[engine]);
+		}
+	}
+
+	/**
+	 * Checks that a trace longer than the buffers of the recorder and reader has
+	 * a record for every step.
+	 *
+	 * @throws IOException if a file cannot be written or read
+	 */
+	@Test
+	void longTrace() throws IOException {
+		File trace = record("10: 7101   R[1] <- 1\n11: 7200   R[2] <- 0\n12: 1221   R[2] <- R[2] + R[1]\n"
+				+ "13: C012   goto 12\n", Program.ENGINE_COMPILER, "", "trace.toyt"); // stopped by step limit
+		String[] steps = read(trace);
+		assertEquals(10_000, steps.length);
+		assertEquals("12: 1221  R[2] <- 1387", steps[steps.length - 2]); // 4999 additions
+	}
+
+	/**
+	 * Checks that two traces of the same run are reported as identical, and that
+	 * runs with different input are reported as diverging at the first step that
+	 * differs.
+	 *
+	 * @throws IOException if a file cannot be written or read
+	 */
+	@Test
+	void diff() throws IOException {
+		File first = record(PROGRAM, Program.ENGINE_INTERPRETER, "0005\n", "first.toyt");
+		File same = record(PROGRAM, Program.ENGINE_INTERPRETER, "0005\n", "same.toyt");
+		File different = record(PROGRAM, Program.ENGINE_INTERPRETER, "0006\n", "different.toyt");
+
+		assertDiff(TOYRunner.EXIT_HALTED, new String[] { "Traces are identical (6 steps)" }, first, same);
+		assertDiff(TOYRunner.EXIT_ERROR, new String[] { "Traces diverge at step 0:",
+				"  " + first + ": 10: 81FF  R[1] <- 0005  M[FF] <- 0005",
+				"  " + different + ": 10: 81FF  R[1] <- 0006  M[FF] <- 0006" }, first, different);
+	}
+
+	/**
+	 * Checks that a trace that ends first is reported, whichever trace it is.
+	 *
+	 * @throws IOException if a file cannot be written or read
+	 */
+	@Test
+	void diffEndsFirst() throws IOException {
+		File full = record(PROGRAM, Program.ENGINE_INTERPRETER, "0005\n", "full.toyt");
+		File empty = record(PROGRAM, Program.ENGINE_INTERPRETER, "", "empty.toyt"); // needs input at once
+		String[] expected = { empty + " ends after 0 steps, but " + full + " continues at step 0:",
+				"  " + full + ": 10: 81FF  R[1] <- 0005  M[FF] <- 0005" };
+		assertDiff(TOYRunner.EXIT_ERROR, expected, full, empty);
+		assertDiff(TOYRunner.EXIT_ERROR, expected, empty, full);
+	}
+
+	/**
+	 * Checks that a truncated trace, or a file that is not a trace, is reported
+	 * with the name of the file.
+	 *
+	 * @throws IOException if a file cannot be written or read
+	 */
+	@Test
+	void diffCorrupt() throws IOException {
+		File trace = record(PROGRAM, Program.ENGINE_INTERPRETER, "0005\n", "trace.toyt");
+		File truncated = new File(folder, "truncated.toyt"), notTrace = new File(folder, "program.toy");
+		byte[] bytes = Files.readAllBytes(trace.toPath());
+		Files.write(truncated.toPath(), Arrays.copyOf(bytes, TraceRecorder.HEADER_BYTES
+				+ TraceRecorder.RECORD_BYTES + TraceRecorder.RECORD_BYTES / 2)); // ends in the middle of step 1
+
+		ByteArrayOutputStream err = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(new ByteArrayOutputStream(), true);
+		assertEquals(TOYRunner.EXIT_USAGE, TOYRunner.diffTraces(trace, truncated, out, new PrintStream(err, true)));
+		assertEquals(truncated + ": TOY trace is truncated after 1 steps", err.toString().trim());
+
+		err.reset();
+		assertEquals(TOYRunner.EXIT_USAGE, TOYRunner.diffTraces(notTrace, trace, out, new PrintStream(err, true)));
+		assertEquals(notTrace + ": Not a TOY trace", err.toString().trim());
+	}
+
+	/**
+	 * Runs a program with the headless runner, recording a trace.
+	 *
+	 * @param source text of the program, written to {@code program.toy}
+	 * @param engine engine to run it with
+	 * @param input  stdin of the program
+	 * @param name   name of the trace file
+	 * @return trace file
+	 * @throws IOException if the program cannot be written
+	 */
+	private File record(String source, int engine, String input, String name) throws IOException {
+		File file = new File(folder, "program.toy"), trace = new File(folder, name);
+		Files.write(file.toPath(), source.getBytes(StandardCharsets.UTF_8));
+		ByteArrayInputStream in = new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8));
+		PrintStream discard = new PrintStream(new ByteArrayOutputStream(), true);
+		TOYRunner.run(file, false, null, trace, false, engine, false, false, ExecutionLimits.NONE.withMaxSteps(10_000),
+				in, discard, discard);
+		return trace;
+	}
+
+	/**
+	 * Reads every step of a trace.
+	 *
+	 * @param trace trace file
+	 * @return description of each step
+	 * @throws IOException if the trace cannot be read
+	 */
+	private static String[] read(File trace) throws IOException {
+		List<String> steps = new ArrayList<String>();
+		try (TraceReader reader = new TraceReader(trace)) {
+			while (reader.next()) {
+				assertEquals(steps.size(), reader.getStep());
+				steps.add(reader.describe());
+			}
+		}
+		return steps.toArray(new String[0]);
+	}
+
+	/**
+	 * Checks what comparing two traces prints and returns.
+	 *
+	 * @param status   exit status expected
+	 * @param expected lines expected to be printed
+	 * @param first    first trace
+	 * @param second   second trace
+	 */
+	private static void assertDiff(int status, String[] expected, File first, File second) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		PrintStream err = new PrintStream(new ByteArrayOutputStream(), true);
+		assertEquals(status, TOYRunner.diffTraces(first, second, new PrintStream(out, true), err));
+		assertArrayEquals(expected, out.toString().split("\\R"));
+	}
+}
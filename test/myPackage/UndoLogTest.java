@@ -0,0 +1,97 @@
+package myPackage;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that stepping back with an {@link UndoLog} goes back to exactly the
+ * state a program was in, including once the ring buffer has wrapped around.
+ */
+class UndoLogTest {
+	private static final int CAPACITY = 0x10; // steps kept by the log under test (16)
+
+	/**
+	 * Checks that a step that throws once the ring buffer is full does not log
+	 * over the oldest step, by stepping back one step at a time from the error to
+	 * the start and comparing each state against a fresh run of that many steps.
+	 */
+	@Test
+	void errorAfterWrapping() {
+		Line[] lines = program(CAPACITY); // step CAPACITY throws
+		Program program = new Program(lines);
+		program.loadToMemory();
+		program.setUndoLog(new UndoLog(CAPACITY));
+		program.run();
+		assertTrue(program.errorOccurred());
+		assertEquals(CAPACITY, program.getSteps());
+
+		for (int steps = CAPACITY - 1; steps >= 0; steps--) {
+			assertTrue(program.stepBack(), "step back to " + steps);
+			Program expected = new Program(lines);
+			expected.loadToMemory();
+			expected.run(steps);
+			assertSameState(expected, program);
+		}
+		assertFalse(program.canStepBack());
+	}
+
+	/**
+	 * Checks that a program can step back past the ring buffer to a checkpoint and
+	 * then forwards again, ending in the same state.
+	 */
+	@Test
+	void backPastRingBuffer() {
+		Line[] lines = program(3 * CAPACITY);
+		Program program = new Program(lines);
+		program.loadToMemory();
+		program.setUndoLog(new UndoLog(CAPACITY));
+		program.run();
+		Program ran = new Program(lines);
+		ran.loadToMemory();
+		ran.run();
+
+		while (program.stepBack()) { // as far back as the checkpoints reach
+		}
+		assertEquals(0, program.getSteps());
+		program.run();
+		assertSameState(ran, program);
+	}
+
+	/**
+	 * Creates a program of loads into R[2] to R[6] in turn, followed by an
+	 * instruction that reads the uninitialised R[7] and so throws.
+	 *
+	 * @param loads number of loads before the instruction that throws
+	 * @return lines of the program, from 10
+	 */
+	private static Line[] program(int loads) {
+		Line[] lines = new Line[loads + 1];
+		for (int i = 0; i < loads; i++) {
+			lines[i] = new Line(0x10 + i, String.format("7%X%02X", 2 + i % 5, i), "R[" + (2 + i % 5) + "] <- " + i);
+		}
+		lines[loads] = new Line(0x10 + loads, "6137", "R[1] <- R[3] >> R[7], which is uninitialised");
+		return lines;
+	}
+
+	/**
+	 * Checks that two programs are at the same step, with the same PC, registers
+	 * and memory.
+	 *
+	 * @param expected program in the expected state
+	 * @param actual   program to check
+	 */
+	private static void assertSameState(Program expected, Program actual) {
+		assertEquals(expected.getSteps(), actual.getSteps());
+		assertEquals(expected.programCounter, actual.programCounter, "PC at step " + expected.getSteps());
+		assertArrayEquals(expected.registers, actual.registers, "registers at step " + expected.getSteps());
+		assertArrayEquals(expected.registersInitialised, actual.registersInitialised,
+				"registers initialised at step " + expected.getSteps());
+		assertArrayEquals(expected.memory, actual.memory, "memory at step " + expected.getSteps());
+		assertArrayEquals(expected.memoryInitialised, actual.memoryInitialised,
+				"memory initialised at step " + expected.getSteps());
+	}
+}